@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A non-blocking view of a {@link Moji}. Each call returns immediately and completes its future on the executor that
+ * backs this view; failures complete the future exceptionally with the {@link java.io.IOException IOException} that the
+ * blocking call would have thrown.
+ * 
+ * @see Moji#async()
+ */
+public interface AsyncMoji {
+
+  /**
+   * @param key MogileFS file key.
+   * @return A non-blocking representation of the remote file.
+   */
+  AsyncMojiFile getFile(String key);
+
+  /**
+   * @param key MogileFS file key.
+   * @param storageClass The storage class to which a new file will be assigned.
+   * @return A non-blocking representation of the remote file.
+   */
+  AsyncMojiFile getFile(String key, String storageClass);
+
+  /**
+   * @see Moji#list(String)
+   */
+  CompletableFuture<List<MojiFile>> list(String keyPrefix);
+
+  /**
+   * @see Moji#list(String, int)
+   */
+  CompletableFuture<List<MojiFile>> list(String keyPrefix, int limit);
+
+  /**
+   * @see Moji#getDeviceStatuses()
+   */
+  CompletableFuture<List<MojiDeviceStatus>> getDeviceStatuses();
+
+  /**
+   * @return The blocking {@link Moji} behind this view.
+   */
+  Moji getMoji();
+
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji;
+
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A non-blocking view of a {@link MojiFile}. Whole-object reads and writes buffer the content in memory and so suit
+ * small files; use the streams of the blocking {@link #getFile() file} for large ones.
+ * 
+ * @see AsyncMoji
+ */
+public interface AsyncMojiFile {
+
+  /**
+   * @see MojiFile#exists()
+   */
+  CompletableFuture<Boolean> exists();
+
+  /**
+   * @see MojiFile#delete()
+   */
+  CompletableFuture<Void> delete();
+
+  /**
+   * @see MojiFile#rename(String)
+   */
+  CompletableFuture<Void> rename(String newKey);
+
+  /**
+   * @see MojiFile#length()
+   */
+  CompletableFuture<Long> length();
+
+  /**
+   * @see MojiFile#getPaths()
+   */
+  CompletableFuture<List<URL>> getPaths();
+
+  /**
+   * @see MojiFile#getAttributes()
+   */
+  CompletableFuture<MojiFileAttributes> getAttributes();
+
+  /**
+   * @see MojiFile#modifyStorageClass(String)
+   */
+  CompletableFuture<Void> modifyStorageClass(String storageClass);
+
+  /**
+   * Reads the whole content of the file.
+   */
+  CompletableFuture<byte[]> get();
+
+  /**
+   * Replaces the content of the file, creating it if needed.
+   */
+  CompletableFuture<Void> put(byte[] content);
+
+  String getKey();
+
+  String getDomain();
+
+  /**
+   * @return The blocking {@link MojiFile} behind this view.
+   */
+  MojiFile getFile();
+
+}
@@ -17,7 +17,11 @@ package fm.last.moji;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Executor;
+
+import fm.last.moji.tracker.KeyResult;
 
 /**
  * The Moji entry point. A representation of a MogileFS domain that allows interactions with remote files.
@@ -81,6 +85,29 @@ public interface Moji {
    */
   List<MojiFile> list(String keyPrefix, int limit) throws IOException;
 
+  /**
+   * Lazily iterates over every remote MogileFS file that matches the given key prefix, however many there are. Keys are
+   * fetched from the tracker a page at a time and the next page is requested in the background while the current one
+   * is consumed. Communication failures surface from the iterator as {@link java.io.UncheckedIOException
+   * UncheckedIOException}.
+   * 
+   * @param keyPrefix The Key prefix to match remote files on.
+   * @param pageSize The number of keys to request from the tracker at a time, at most 1000.
+   * @return An iterable whose iterators each walk the matching files in key order.
+   */
+  Iterable<MojiFile> iterate(String keyPrefix, int pageSize);
+
+  /**
+   * Visits every file in the scan's shards, listing the shards in parallel across the available trackers. Listing is
+   * throttled so that no more than a bounded number of pages wait for the visitor. Returns once all shards have been
+   * listed and visited, or the visitor stops the scan.
+   * 
+   * @param scan Describes the shards and the degree of parallelism.
+   * @param visitor Receives the files on the calling thread.
+   * @throws IOException If a shard could not be listed or the visitor failed; the remaining shards are abandoned.
+   */
+  void scan(MojiScan scan, MojiFileVisitor visitor) throws IOException;
+
   /**
    * Get a list of all remote MogileFS devices and their status
    * 
@@ -89,4 +116,50 @@ public interface Moji {
    */
   List<MojiDeviceStatus> getDeviceStatuses() throws IOException;
 
+  /**
+   * Checks whether each of the given keys exists. Keys are sent to the trackers in pipelined batches, several batches
+   * at a time.
+   * 
+   * @param keys MogileFS file keys.
+   * @return The result of each key in the iteration order of the keys. A key whose batch could not be completed holds
+   *         the exception instead; the other keys are unaffected.
+   */
+  List<KeyResult<Boolean>> existsAll(Collection<String> keys);
+
+  /**
+   * Deletes each of the given keys, in pipelined batches as for {@link #existsAll(Collection)}. As with
+   * {@link MojiFile#delete()} each key is locked against this client's other operations on it while its batch runs.
+   * 
+   * @param keys MogileFS file keys.
+   * @return The result of each key in the iteration order of the keys, holding the exception if the key could not be
+   *         deleted, for example an {@link fm.last.moji.tracker.UnknownKeyException UnknownKeyException}.
+   */
+  List<KeyResult<Void>> deleteAll(Collection<String> keys);
+
+  /**
+   * Gets the attributes of each of the given keys, in pipelined batches as for {@link #existsAll(Collection)}.
+   * 
+   * @param keys MogileFS file keys.
+   * @return The result of each key in the iteration order of the keys, holding the exception if the attributes could
+   *         not be fetched.
+   */
+  List<KeyResult<MojiFileAttributes>> getAttributesAll(Collection<String> keys);
+
+  /**
+   * A non-blocking view of this instance whose calls run on the executor configured for it, by default a shared pool of
+   * daemon threads.
+   * 
+   * @return The non-blocking view.
+   */
+  AsyncMoji async();
+
+  /**
+   * A non-blocking view of this instance whose calls run on the given executor, for example one that starts a virtual
+   * thread per task.
+   * 
+   * @param executor Runs the blocking calls.
+   * @return The non-blocking view.
+   */
+  AsyncMoji async(Executor executor);
+
 }
@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji;
+
+import java.io.IOException;
+
+/**
+ * Receives the files found by {@link Moji#scan(MojiScan, MojiFileVisitor)}. Calls are made on the thread that started
+ * the scan, one at a time, so implementations need not be thread safe. Files from different shards are interleaved in
+ * no particular order.
+ */
+public interface MojiFileVisitor {
+
+  /**
+   * @param file A file found by the scan.
+   * @return <code>true</code> to continue the scan, <code>false</code> to stop it.
+   * @throws IOException To abort the scan; the exception is rethrown from {@link Moji#scan(MojiScan, MojiFileVisitor)}.
+   */
+  boolean visit(MojiFile file) throws IOException;
+
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes a full or partial scan of a domain for {@link Moji#scan(MojiScan, MojiFileVisitor)}. The keyspace is split
+ * into shards which are listed in parallel, either key prefixes (paged with <code>list_keys</code>) or fid ranges
+ * (paged with <code>list_fids</code>). Prefix shards should not overlap, otherwise files are visited more than once.
+ * 
+ * <pre>
+ * MojiScan scan = new MojiScan.Builder().prefixes(&quot;0&quot;, &quot;1&quot;, &quot;2&quot;).parallelism(4).build();
+ * </pre>
+ */
+public class MojiScan {
+
+  public static final int DEFAULT_PARALLELISM = 4;
+  public static final int DEFAULT_PAGE_SIZE = 1000;
+  public static final int DEFAULT_QUEUE_CAPACITY = 16;
+  public static final long DEFAULT_FID_SHARD_SIZE = 100000;
+
+  private List<String> prefixes = Collections.emptyList();
+  private long fromFid;
+  private long toFid = -1;
+  private long fidShardSize = DEFAULT_FID_SHARD_SIZE;
+  private int parallelism = DEFAULT_PARALLELISM;
+  private int pageSize = DEFAULT_PAGE_SIZE;
+  private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+  private MojiScan() {
+  }
+
+  public static class Builder {
+
+    private final MojiScan building;
+
+    public Builder() {
+      building = new MojiScan();
+    }
+
+    /**
+     * Shards the scan by key prefix, one shard per prefix.
+     */
+    public Builder prefixes(String... prefixes) {
+      return prefixes(Arrays.asList(prefixes));
+    }
+
+    public Builder prefixes(List<String> prefixes) {
+      building.prefixes = Collections.unmodifiableList(new ArrayList<String>(prefixes));
+      return this;
+    }
+
+    /**
+     * Shards the scan by fid: the inclusive range is split into shards of the given width. Only files in this Moji's
+     * domain are visited.
+     */
+    public Builder fidRange(long fromFid, long toFid, long shardSize) {
+      if (fromFid < 0 || toFid < fromFid) {
+        throw new IllegalArgumentException("Invalid fid range: " + fromFid + "-" + toFid);
+      }
+      if (shardSize < 1) {
+        throw new IllegalArgumentException("shardSize must be positive: " + shardSize);
+      }
+      building.fromFid = fromFid;
+      building.toFid = toFid;
+      building.fidShardSize = shardSize;
+      return this;
+    }
+
+    /**
+     * The maximum number of shards listed at once, and so the number of tracker connections used.
+     */
+    public Builder parallelism(int parallelism) {
+      if (parallelism < 1) {
+        throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+      }
+      building.parallelism = parallelism;
+      return this;
+    }
+
+    /**
+     * Keys (or fids) requested from the tracker per call, at most 1000.
+     */
+    public Builder pageSize(int pageSize) {
+      if (pageSize < 1 || pageSize > 1000) {
+        throw new IllegalArgumentException("pageSize must be between 1 and 1000: " + pageSize);
+      }
+      building.pageSize = pageSize;
+      return this;
+    }
+
+    /**
+     * The number of pages that may be listed ahead of the visitor before the shards block.
+     */
+    public Builder queueCapacity(int queueCapacity) {
+      if (queueCapacity < 1) {
+        throw new IllegalArgumentException("queueCapacity must be positive: " + queueCapacity);
+      }
+      building.queueCapacity = queueCapacity;
+      return this;
+    }
+
+    public MojiScan build() {
+      boolean byPrefix = !building.prefixes.isEmpty();
+      boolean byFid = building.toFid >= 0;
+      if (byPrefix == byFid) {
+        throw new IllegalStateException("Exactly one of prefixes or fidRange must be set");
+      }
+      return building;
+    }
+  }
+
+  public boolean isByFid() {
+    return toFid >= 0;
+  }
+
+  public List<String> getPrefixes() {
+    return prefixes;
+  }
+
+  public long getFromFid() {
+    return fromFid;
+  }
+
+  public long getToFid() {
+    return toFid;
+  }
+
+  public long getFidShardSize() {
+    return fidShardSize;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("MojiScan [prefixes=");
+    builder.append(prefixes);
+    builder.append(", fromFid=");
+    builder.append(fromFid);
+    builder.append(", toFid=");
+    builder.append(toFid);
+    builder.append(", fidShardSize=");
+    builder.append(fidShardSize);
+    builder.append(", parallelism=");
+    builder.append(parallelism);
+    builder.append(", pageSize=");
+    builder.append(pageSize);
+    builder.append(", queueCapacity=");
+    builder.append(queueCapacity);
+    builder.append("]");
+    return builder.toString();
+  }
+
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fm.last.commons.lang.time.Clock;
+import fm.last.moji.MojiFileAttributes;
+
+/**
+ * Remembers the attributes of recently inspected files, and which keys were recently found not to exist, so that
+ * {@link fm.last.moji.MojiFile#getAttributes()} and {@link fm.last.moji.MojiFile#exists()} can skip the tracker.
+ * Bounded by entry count, least recently used first out. Attributes expire a fixed time after they were fetched,
+ * unknown keys after a separate, usually shorter, time. Entries are invalidated by the writes, deletes and renames of
+ * this client only; changes made by other clients are seen once an entry expires.
+ */
+public class AttributeCache {
+
+  /** Caches nothing. */
+  static final AttributeCache NONE = new AttributeCache(0, 0L, 0L, TimeUnit.MILLISECONDS, Clock.INSTANCE);
+
+  private final int maxEntries;
+  private final long ttlMillis;
+  private final long negativeTtlMillis;
+  private final Clock clock;
+  private final Map<CacheKey, Entry> entries;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong negativeHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  AttributeCache(int maxEntries, long ttl, long negativeTtl, TimeUnit unit) {
+    this(maxEntries, ttl, negativeTtl, unit, Clock.INSTANCE);
+  }
+
+  AttributeCache(final int maxEntries, long ttl, long negativeTtl, TimeUnit unit, Clock clock) {
+    if (maxEntries < 0) {
+      throw new IllegalArgumentException("maxEntries < 0");
+    }
+    if (ttl < 0 || negativeTtl < 0) {
+      throw new IllegalArgumentException("ttl < 0 || negativeTtl < 0");
+    }
+    this.maxEntries = maxEntries;
+    ttlMillis = unit.toMillis(ttl);
+    negativeTtlMillis = unit.toMillis(negativeTtl);
+    this.clock = clock;
+    entries = new LinkedHashMap<CacheKey, Entry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<CacheKey, Entry> eldest) {
+        if (size() > maxEntries) {
+          evictions.incrementAndGet();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * @return The cached entry of the key, or null if there is none or it has expired.
+   */
+  Entry get(String domain, String key) {
+    if (!isEnabled()) {
+      return null;
+    }
+    Entry entry;
+    synchronized (entries) {
+      CacheKey cacheKey = new CacheKey(domain, key);
+      entry = entries.get(cacheKey);
+      if (entry != null && clock.currentTimeMillis() >= entry.expires) {
+        entries.remove(cacheKey);
+        entry = null;
+      }
+    }
+    if (entry == null) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+      if (!entry.exists()) {
+        negativeHits.incrementAndGet();
+      }
+    }
+    return entry;
+  }
+
+  void putAttributes(String domain, String key, MojiFileAttributes attributes) {
+    if (attributes != null) {
+      put(domain, key, attributes, ttlMillis);
+    }
+  }
+
+  /**
+   * Records that the key does not exist, unless negative caching is disabled.
+   */
+  void putUnknown(String domain, String key) {
+    put(domain, key, null, negativeTtlMillis);
+  }
+
+  void invalidate(String domain, String key) {
+    if (!isEnabled()) {
+      return;
+    }
+    synchronized (entries) {
+      entries.remove(new CacheKey(domain, key));
+    }
+  }
+
+  boolean isEnabled() {
+    return maxEntries > 0 && (ttlMillis > 0 || negativeTtlMillis > 0);
+  }
+
+  /**
+   * @return The number of lookups answered from the cache, including those for unknown keys.
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return The number of lookups that found a key recorded as unknown.
+   */
+  public long getNegativeHits() {
+    return negativeHits.get();
+  }
+
+  /**
+   * @return The number of lookups that had to go to the tracker.
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return The number of entries dropped to keep the cache within its size.
+   */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("AttributeCache [maxEntries=");
+    builder.append(maxEntries);
+    builder.append(", ttlMillis=");
+    builder.append(ttlMillis);
+    builder.append(", negativeTtlMillis=");
+    builder.append(negativeTtlMillis);
+    builder.append(", hits=");
+    builder.append(hits);
+    builder.append(", misses=");
+    builder.append(misses);
+    builder.append("]");
+    return builder.toString();
+  }
+
+  private void put(String domain, String key, MojiFileAttributes attributes, long entryTtlMillis) {
+    if (maxEntries == 0 || entryTtlMillis == 0) {
+      return;
+    }
+    Entry entry = new Entry(attributes, clock.currentTimeMillis() + entryTtlMillis);
+    synchronized (entries) {
+      entries.put(new CacheKey(domain, key), entry);
+    }
+  }
+
+  static class Entry {
+    private final MojiFileAttributes attributes;
+    private final long expires;
+
+    private Entry(MojiFileAttributes attributes, long expires) {
+      this.attributes = attributes;
+      this.expires = expires;
+    }
+
+    /**
+     * @return false if the key was recorded as unknown.
+     */
+    boolean exists() {
+      return attributes != null;
+    }
+
+    MojiFileAttributes getAttributes() {
+      return attributes;
+    }
+  }
+
+  private static class CacheKey {
+    private final String domain;
+    private final String key;
+
+    private CacheKey(String domain, String key) {
+      this.domain = domain;
+      this.key = key;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * domain.hashCode() + key.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof CacheKey)) {
+        return false;
+      }
+      CacheKey other = (CacheKey) obj;
+      return domain.equals(other.domain) && key.equals(other.key);
+    }
+  }
+
+}
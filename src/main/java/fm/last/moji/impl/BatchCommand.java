@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import fm.last.moji.tracker.KeyResult;
+import fm.last.moji.tracker.PipelinedTracker;
+import fm.last.moji.tracker.Tracker;
+import fm.last.moji.tracker.TrackerException;
+import fm.last.moji.tracker.impl.CommunicationException;
+
+/**
+ * Runs one tracker command for each of a batch of keys, pipelining them when the tracker supports it. Failures specific
+ * to a key are kept in its result; a communication failure fails the whole batch so that {@link Executor} can retry
+ * it.
+ * 
+ * @param <R> The type of value returned by the tracker.
+ * @param <T> The type of value reported to the caller.
+ */
+abstract class BatchCommand<R, T> implements MojiCommand {
+
+  final List<String> keys;
+  final String domain;
+  private List<KeyResult<T>> results;
+
+  BatchCommand(List<String> keys, String domain) {
+    this.keys = keys;
+    this.domain = domain;
+  }
+
+  @Override
+  public void executeWithTracker(Tracker tracker) throws IOException {
+    List<KeyResult<R>> raw;
+    if (tracker instanceof PipelinedTracker) {
+      raw = executeAll((PipelinedTracker) tracker);
+    } else {
+      raw = new ArrayList<KeyResult<R>>(keys.size());
+      for (String key : keys) {
+        try {
+          raw.add(KeyResult.success(key, execute(tracker, key)));
+        } catch (CommunicationException e) {
+          throw e;
+        } catch (TrackerException e) {
+          raw.add(KeyResult.<R> failure(key, e));
+        }
+      }
+    }
+    List<KeyResult<T>> converted = new ArrayList<KeyResult<T>>(raw.size());
+    for (KeyResult<R> result : raw) {
+      converted.add(convert(result));
+    }
+    results = converted;
+  }
+
+  abstract List<KeyResult<R>> executeAll(PipelinedTracker tracker) throws TrackerException;
+
+  abstract R execute(Tracker tracker, String key) throws TrackerException;
+
+  abstract KeyResult<T> convert(KeyResult<R> result);
+
+  /**
+   * @return The result of each key in key order.
+   */
+  List<KeyResult<T>> getResults() {
+    return results;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append(getClass().getSimpleName());
+    builder.append(" [domain=");
+    builder.append(domain);
+    builder.append(", keys=");
+    builder.append(keys.size());
+    builder.append("]");
+    return builder.toString();
+  }
+
+}
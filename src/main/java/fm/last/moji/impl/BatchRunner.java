@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fm.last.moji.tracker.Deadline;
+import fm.last.moji.tracker.KeyResult;
+import fm.last.moji.tracker.TrackerException;
+import fm.last.moji.tracker.impl.CommunicationException;
+
+/**
+ * Runs a command over many keys by splitting them into batches, each of which is pipelined on one tracker connection
+ * through the command {@link Executor} and so retried as a unit. A bounded number of batches run at once: the calling
+ * thread works through them alongside helpers from a shared pool. A batch that still fails after its retries fails
+ * only its own keys.
+ */
+class BatchRunner {
+
+  private static final Logger log = LoggerFactory.getLogger(BatchRunner.class);
+
+  static final int DEFAULT_BATCH_SIZE = 100;
+  static final int DEFAULT_PARALLELISM = 4;
+
+  /* Helps callers through their batches; a helper it cannot start leaves the batches to the caller */
+  private static final ExecutorService BATCH_EXECUTOR = DaemonThreadFactory.newBoundedPool("moji-batch", 32);
+
+  private final Executor executor;
+  private final java.util.concurrent.Executor helpers;
+  private final int batchSize;
+  private final int parallelism;
+
+  BatchRunner(Executor executor) {
+    this(executor, BATCH_EXECUTOR, DEFAULT_BATCH_SIZE, DEFAULT_PARALLELISM);
+  }
+
+  BatchRunner(Executor executor, java.util.concurrent.Executor helpers, int batchSize, int parallelism) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batchSize < 1");
+    }
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism < 1");
+    }
+    this.executor = executor;
+    this.helpers = helpers;
+    this.batchSize = batchSize;
+    this.parallelism = parallelism;
+  }
+
+  interface CommandFactory<T> {
+    BatchCommand<?, T> newCommand(List<String> keys);
+  }
+
+  /**
+   * Told of the results of each batch while the batch still holds the write locks of its keys, so that state kept
+   * about those keys can be brought up to date before anyone else sees them.
+   */
+  interface BatchListener<T> {
+    void batchCompleted(List<KeyResult<T>> results);
+  }
+
+  /**
+   * @return The result of each key in the iteration order of the keys.
+   */
+  <T> List<KeyResult<T>> run(Collection<String> keys, CommandFactory<T> commands) {
+    return run(keys, commands, KeyLocks.NONE);
+  }
+
+  /**
+   * As {@link #run(Collection, CommandFactory)}, holding the write lock of each key of a batch while it runs. A batch
+   * takes its locks in key order and a thread holds those of one batch at a time, so batches cannot deadlock each
+   * other or a {@link MojiFileImpl#rename(String) rename}.
+   * 
+   * @return The result of each key in the iteration order of the keys.
+   */
+  <T> List<KeyResult<T>> run(Collection<String> keys, CommandFactory<T> commands, KeyLocks writeLocks) {
+    return run(keys, commands, writeLocks, null);
+  }
+
+  /**
+   * As {@link #run(Collection, CommandFactory, KeyLocks)}, passing the results of each batch to the listener before its
+   * locks are released.
+   * 
+   * @return The result of each key in the iteration order of the keys.
+   */
+  <T> List<KeyResult<T>> run(Collection<String> keys, final CommandFactory<T> commands, final KeyLocks writeLocks,
+      final BatchListener<T> listener) {
+    final List<String> keyList = new ArrayList<String>(keys);
+    final int batches = (keyList.size() + batchSize - 1) / batchSize;
+    final AtomicReferenceArray<List<KeyResult<T>>> batchResults = new AtomicReferenceArray<List<KeyResult<T>>>(batches);
+    final AtomicInteger nextBatch = new AtomicInteger();
+    final Deadline deadline = Deadline.current();
+    final Runnable worker = new Runnable() {
+      @Override
+      public void run() {
+        Deadline previous = Deadline.enter(deadline);
+        try {
+          int batch;
+          while ((batch = nextBatch.getAndIncrement()) < batches) {
+            int from = batch * batchSize;
+            List<String> batchKeys = new ArrayList<String>(keyList.subList(from,
+                Math.min(from + batchSize, keyList.size())));
+            batchResults.set(batch, runBatch(batchKeys, commands, writeLocks, listener));
+          }
+        } finally {
+          Deadline.restore(previous);
+        }
+      }
+    };
+
+    int helperCount = Math.min(parallelism, batches) - 1;
+    log.debug("Running {} keys in {} batches with {} helpers", new Object[] { keyList.size(), batches, helperCount });
+    final CountDownLatch helpersDone = new CountDownLatch(Math.max(helperCount, 0));
+    for (int i = 0; i < helperCount; i++) {
+      try {
+        helpers.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              worker.run();
+            } finally {
+              helpersDone.countDown();
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // the calling thread picks up the slack
+        helpersDone.countDown();
+      }
+    }
+    worker.run();
+    awaitUninterruptibly(helpersDone);
+
+    List<KeyResult<T>> results = new ArrayList<KeyResult<T>>(keyList.size());
+    for (int i = 0; i < batches; i++) {
+      results.addAll(batchResults.get(i));
+    }
+    return results;
+  }
+
+  private <T> List<KeyResult<T>> runBatch(List<String> keys, CommandFactory<T> commands, KeyLocks writeLocks,
+      BatchListener<T> listener) {
+    List<Lock> locks = lockAll(keys, writeLocks);
+    try {
+      List<KeyResult<T>> results = execute(keys, commands);
+      if (listener != null) {
+        listener.batchCompleted(results);
+      }
+      return results;
+    } finally {
+      for (int i = locks.size() - 1; i >= 0; i--) {
+        locks.get(i).unlock();
+      }
+    }
+  }
+
+  private <T> List<KeyResult<T>> execute(List<String> keys, CommandFactory<T> commands) {
+    BatchCommand<?, T> command = commands.newCommand(keys);
+    TrackerException failure;
+    try {
+      executor.executeCommand(command);
+      return command.getResults();
+    } catch (TrackerException e) {
+      failure = e;
+    } catch (IOException e) {
+      failure = new CommunicationException(e);
+    } catch (RuntimeException e) {
+      failure = new TrackerException(e);
+    }
+    log.debug("Batch of {} keys failed: {}", keys.size(), failure.getMessage());
+    List<KeyResult<T>> failures = new ArrayList<KeyResult<T>>(keys.size());
+    for (String key : keys) {
+      failures.add(KeyResult.<T> failure(key, failure));
+    }
+    return failures;
+  }
+
+  private static List<Lock> lockAll(List<String> keys, KeyLocks writeLocks) {
+    if (writeLocks == KeyLocks.NONE) {
+      return Collections.emptyList();
+    }
+    List<Lock> locks = new ArrayList<Lock>(keys.size());
+    for (String key : new TreeSet<String>(keys)) {
+      Lock lock = writeLocks.forKey(key).writeLock();
+      lock.lock();
+      locks.add(lock);
+    }
+    return locks;
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        latch.await();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
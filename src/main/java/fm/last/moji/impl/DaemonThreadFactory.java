@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the daemon threads of the client's internal pools, named after the pool and numbered, so that they never
+ * keep the JVM alive and are easy to tell apart in a thread dump.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+  private static final long KEEP_ALIVE_SECONDS = 60L;
+
+  private final String namePrefix;
+  private final AtomicInteger sequence = new AtomicInteger();
+
+  /**
+   * @param namePrefix Threads are named <code>namePrefix-1</code>, <code>namePrefix-2</code> and so on.
+   */
+  public DaemonThreadFactory(String namePrefix) {
+    this.namePrefix = namePrefix;
+  }
+
+  /**
+   * Creates a pool of at most <code>threads</code> threads, which exit once idle. Tasks submitted while all of them
+   * are busy wait in the queue.
+   */
+  public static ExecutorService newPool(String namePrefix, int threads) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory(namePrefix));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Creates a pool of at most <code>threads</code> threads, which exit once idle. Tasks are handed straight to a
+   * thread: when all threads are busy the calling thread gets a {@link RejectedExecutionException} and has to do
+   * without the extra thread, rather than queue behind work that may take a while.
+   */
+  public static ExecutorService newBoundedPool(String namePrefix, int threads) {
+    return new ThreadPoolExecutor(0, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new DaemonThreadFactory(namePrefix), new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  @Override
+  public Thread newThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, namePrefix + "-" + sequence.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  }
+
+}
@@ -16,6 +16,10 @@
 package fm.last.moji.impl;
 
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import fm.last.moji.Moji;
 import fm.last.moji.MojiFactory;
@@ -29,21 +33,131 @@ public class DefaultMojiFactory implements MojiFactory {
   private final String defaultDomain;
   private final TrackerFactory trackerFactory;
   private final HttpConnectionFactory httpFactory;
+  private Executor asyncExecutor = ExecutorAsyncMoji.defaultExecutor();
+  private boolean keyLocking = true;
+  private int pathCacheMaxEntries;
+  private long pathCacheTtlMillis;
+  private AttributeCache attributeCache = AttributeCache.NONE;
+  private SingleFlight singleFlight = new SingleFlight();
+  /* shared so that retries are limited across all the instances, as they call the same trackers */
+  private final RetryBudget retryBudget;
+  /*
+   * shared by the instances of a domain, as they share the attribute cache: a lookup in one must not cache attributes
+   * that a write in another has just invalidated
+   */
+  private final ConcurrentMap<String, KeyLocks> domainKeyLocks = new ConcurrentHashMap<String, KeyLocks>();
 
   public DefaultMojiFactory(TrackerFactory trackerFactory, String defaultDomain) {
     this.trackerFactory = trackerFactory;
     this.defaultDomain = defaultDomain;
     httpFactory = new HttpConnectionFactory(trackerFactory.getNetworkingConfiguration());
+    retryBudget = RetryBudget.from(trackerFactory.getNetworkingConfiguration());
   }
 
   @Override
   public Moji getInstance() {
-    return new MojiImpl(trackerFactory, httpFactory, defaultDomain);
+    return getInstanceForDomain(defaultDomain);
   }
 
   @Override
   public Moji getInstance(String domain) throws IOException {
-    return new MojiImpl(trackerFactory, httpFactory, domain);
+    return getInstanceForDomain(domain);
+  }
+
+  private Moji getInstanceForDomain(String domain) {
+    KeyLocks keyLocks = keyLocking ? keyLocksOf(domain) : KeyLocks.NONE;
+    PathCache pathCache = PathCache.NONE;
+    if (pathCacheMaxEntries > 0 && pathCacheTtlMillis > 0) {
+      pathCache = new PathCache(pathCacheMaxEntries, pathCacheTtlMillis, TimeUnit.MILLISECONDS);
+    }
+    return new MojiImpl(trackerFactory, httpFactory, domain, asyncExecutor, keyLocks, pathCache,
+        attributeCache, singleFlight, retryBudget);
+  }
+
+  private KeyLocks keyLocksOf(String domain) {
+    KeyLocks keyLocks = domainKeyLocks.get(domain);
+    if (keyLocks == null) {
+      KeyLocks created = new KeyLocks();
+      keyLocks = domainKeyLocks.putIfAbsent(domain, created);
+      if (keyLocks == null) {
+        keyLocks = created;
+      }
+    }
+    return keyLocks;
+  }
+
+  /**
+   * Sets the executor that runs the calls of {@link Moji#async()} views of instances created after this call.
+   * {@link ExecutorAsyncMoji#newVirtualThreadExecutor()} gives each call a virtual thread on Java 21 and later.
+   */
+  public void setAsyncExecutor(Executor asyncExecutor) {
+    if (asyncExecutor == null) {
+      throw new IllegalArgumentException("asyncExecutor == null");
+    }
+    this.asyncExecutor = asyncExecutor;
+  }
+
+  /**
+   * Whether the {@link fm.last.moji.MojiFile MojiFile} handles serialise their operations with a read write lock per
+   * key, shared by every handle of the same key in the instances of the same domain. Enabled by default; disable it
+   * when callers coordinate access to keys themselves. Applies to instances created after this call.
+   */
+  public void setKeyLocking(boolean keyLocking) {
+    this.keyLocking = keyLocking;
+  }
+
+  /**
+   * Caches the storage node paths of up to maxEntries keys for the given time, so that reads of recently read keys
+   * skip the tracker. Entries are dropped by the writes, deletes, renames and storage class changes made through the
+   * same instance, and when none of the cached paths can be read; changes made elsewhere are only seen once an entry
+   * expires. Disabled by default, and by a zero maxEntries or ttl. Applies to instances created after this call.
+   */
+  public void setPathCache(int maxEntries, long ttl, TimeUnit unit) {
+    if (maxEntries < 0) {
+      throw new IllegalArgumentException("maxEntries < 0");
+    }
+    if (ttl < 0) {
+      throw new IllegalArgumentException("ttl < 0");
+    }
+    pathCacheMaxEntries = maxEntries;
+    pathCacheTtlMillis = unit.toMillis(ttl);
+  }
+
+  /**
+   * Caches the attributes of up to maxEntries files, shared by all the instances created after this call. Attributes
+   * are kept for ttl, and keys found not to exist for negativeTtl, which is usually shorter so that new files are seen
+   * soon. Entries are dropped by the writes, deletes, renames and storage class changes made through the same
+   * instances; changes made elsewhere are only seen once an entry expires. Disabled by default, and by a zero
+   * maxEntries; a zero negativeTtl disables negative caching only.
+   */
+  public void setAttributeCache(int maxEntries, long ttl, long negativeTtl, TimeUnit unit) {
+    attributeCache = new AttributeCache(maxEntries, ttl, negativeTtl, unit);
+    if (!attributeCache.isEnabled()) {
+      attributeCache = AttributeCache.NONE;
+    }
+  }
+
+  /**
+   * Whether concurrent identical lookups of the existence, length, paths or attributes of a key share a single tracker
+   * call, across all the instances created after this call. Threads waiting for a shared call hold no tracker
+   * connection. Enabled by default.
+   */
+  public void setRequestCoalescing(boolean requestCoalescing) {
+    singleFlight = requestCoalescing ? new SingleFlight() : SingleFlight.NONE;
+  }
+
+  /**
+   * @return The counts of the HTTP connections to storage nodes used by all the instances of this factory.
+   */
+  public HttpConnectionStatistics getHttpConnectionStatistics() {
+    return httpFactory.getStatistics();
+  }
+
+  /**
+   * @return The attribute cache of the instances created from now on, for its hit and miss counts.
+   */
+  public AttributeCache getAttributeCache() {
+    return attributeCache;
   }
 
 }
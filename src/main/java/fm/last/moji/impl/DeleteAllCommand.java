@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import java.io.IOException;
+import java.util.List;
+
+import fm.last.moji.tracker.KeyResult;
+import fm.last.moji.tracker.PipelinedTracker;
+import fm.last.moji.tracker.Tracker;
+import fm.last.moji.tracker.TrackerException;
+import fm.last.moji.tracker.UnknownKeyException;
+
+/**
+ * Deletes a batch of keys. As {@link Executor} retries the whole batch after a communication failure, keys deleted by
+ * an earlier attempt are unknown to the next one; so on a retry an unknown key counts as deleted. A key that never
+ * existed is therefore only reported as unknown if the first attempt completes.
+ */
+class DeleteAllCommand extends BatchCommand<Void, Void> {
+
+  private int attempts;
+
+  DeleteAllCommand(List<String> keys, String domain) {
+    super(keys, domain);
+  }
+
+  @Override
+  public void executeWithTracker(Tracker tracker) throws IOException {
+    attempts++;
+    super.executeWithTracker(tracker);
+  }
+
+  @Override
+  List<KeyResult<Void>> executeAll(PipelinedTracker tracker) throws TrackerException {
+    return tracker.deleteAll(keys, domain);
+  }
+
+  @Override
+  Void execute(Tracker tracker, String key) throws TrackerException {
+    tracker.delete(key, domain);
+    return null;
+  }
+
+  @Override
+  KeyResult<Void> convert(KeyResult<Void> result) {
+    if (attempts > 1 && result.getException() instanceof UnknownKeyException) {
+      return KeyResult.success(result.getKey(), null);
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fm.last.moji.Moji;
+import fm.last.moji.MojiFile;
+import fm.last.moji.MojiFileVisitor;
+import fm.last.moji.MojiScan;
+
+/**
+ * Runs a {@link MojiScan}. A fixed number of worker threads take shards from a shared queue and list them page by page
+ * through the command {@link Executor}, so each page is served by whichever tracker the factory hands out. Pages are
+ * passed to the visitor on the calling thread through a bounded queue: when the visitor falls behind the workers block,
+ * which keeps memory use and tracker load in check.
+ */
+class DomainScanner {
+
+  private static final Logger log = LoggerFactory.getLogger(DomainScanner.class);
+
+  /* Marks the end of one worker's output */
+  private static final List<MojiFile> WORKER_DONE = new ArrayList<MojiFile>(0);
+  private static final AtomicInteger SCAN_SEQUENCE = new AtomicInteger();
+
+  private final Moji moji;
+  private final Executor executor;
+  private final String domain;
+  private final MojiScan scan;
+  private final Queue<Shard> shards;
+  private final BlockingQueue<List<MojiFile>> pages;
+  private final AtomicReference<IOException> failure;
+  private volatile boolean stopped;
+
+  DomainScanner(Moji moji, Executor executor, String domain, MojiScan scan) {
+    this.moji = moji;
+    this.executor = executor;
+    this.domain = domain;
+    this.scan = scan;
+    shards = new ConcurrentLinkedQueue<Shard>();
+    pages = new ArrayBlockingQueue<List<MojiFile>>(scan.getQueueCapacity());
+    failure = new AtomicReference<IOException>();
+    if (scan.isByFid()) {
+      for (long from = scan.getFromFid(); from <= scan.getToFid(); from += scan.getFidShardSize()) {
+        long to = Math.min(from + scan.getFidShardSize() - 1, scan.getToFid());
+        shards.add(new FidShard(from, to));
+        if (to == scan.getToFid()) {
+          break;
+        }
+      }
+    } else {
+      for (String prefix : scan.getPrefixes()) {
+        shards.add(new PrefixShard(prefix));
+      }
+    }
+  }
+
+  void run(MojiFileVisitor visitor) throws IOException {
+    int workers = Math.min(scan.getParallelism(), shards.size());
+    if (workers == 0) {
+      return;
+    }
+    log.debug("Scanning {} shards of {} with {} workers", new Object[] { shards.size(), domain, workers });
+    ExecutorService workerPool = Executors.newFixedThreadPool(workers,
+        new DaemonThreadFactory("moji-scan-" + SCAN_SEQUENCE.incrementAndGet()));
+    try {
+      for (int i = 0; i < workers; i++) {
+        workerPool.execute(new Worker());
+      }
+      int running = workers;
+      while (running > 0) {
+        List<MojiFile> page = take();
+        if (failure.get() != null) {
+          break;
+        }
+        if (page == WORKER_DONE) {
+          running--;
+          continue;
+        }
+        for (MojiFile file : page) {
+          if (!visitor.visit(file)) {
+            log.debug("Scan stopped by visitor");
+            return;
+          }
+        }
+      }
+    } finally {
+      stopped = true;
+      workerPool.shutdownNow();
+    }
+    IOException exception = failure.get();
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  private List<MojiFile> take() throws InterruptedIOException {
+    try {
+      return pages.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while scanning " + domain);
+    }
+  }
+
+  private void emit(List<MojiFile> page) throws InterruptedException {
+    if (!page.isEmpty()) {
+      pages.put(page);
+    }
+  }
+
+  private class Worker implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        Shard shard;
+        while (!stopped && (shard = shards.poll()) != null) {
+          log.debug("Listing {}", shard);
+          shard.list();
+        }
+        pages.put(WORKER_DONE);
+      } catch (InterruptedException e) {
+        // scan abandoned
+      } catch (IOException e) {
+        fail(e);
+      } catch (RuntimeException e) {
+        fail(new IOException(e));
+      }
+    }
+
+    private void fail(IOException e) {
+      failure.compareAndSet(null, e);
+      stopped = true;
+      /* Wake the consumer; if the queue is full it will see the failure on its next take anyway */
+      pages.offer(WORKER_DONE);
+    }
+  }
+
+  private interface Shard {
+    void list() throws IOException, InterruptedException;
+  }
+
+  private class PrefixShard implements Shard {
+
+    private final String prefix;
+
+    PrefixShard(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public void list() throws IOException, InterruptedException {
+      String after = null;
+      while (!stopped) {
+        ListFilesCommand command = new ListFilesCommand(moji, prefix, domain, after, scan.getPageSize());
+        executor.executeCommand(command);
+        List<MojiFile> page = command.getFileList();
+        emit(page);
+        if (page.size() < scan.getPageSize()) {
+          return;
+        }
+        after = page.get(page.size() - 1).getKey();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "prefix '" + prefix + "'";
+    }
+  }
+
+  private class FidShard implements Shard {
+
+    private final long fromFid;
+    private final long toFid;
+
+    FidShard(long fromFid, long toFid) {
+      this.fromFid = fromFid;
+      this.toFid = toFid;
+    }
+
+    @Override
+    public void list() throws IOException, InterruptedException {
+      long from = fromFid;
+      while (!stopped) {
+        long to = Math.min(from + scan.getPageSize() - 1, toFid);
+        ListFidsCommand command = new ListFidsCommand(moji, domain, from, to);
+        executor.executeCommand(command);
+        emit(command.getFileList());
+        /* the tracker caps the rows of a page, so carry on after the last fid it returned */
+        long last = command.getLastFid() < 0 ? to : command.getLastFid();
+        if (last >= toFid) {
+          return;
+        }
+        from = last + 1;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "fids " + fromFid + "-" + toFid;
+    }
+  }
+
+}
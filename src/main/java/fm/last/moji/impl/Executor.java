@@ -16,10 +16,16 @@
 package fm.last.moji.impl;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import fm.last.moji.tracker.Deadline;
 import fm.last.moji.tracker.Tracker;
 import fm.last.moji.tracker.TrackerFactory;
 import fm.last.moji.tracker.impl.CommunicationException;
@@ -28,27 +34,77 @@ class Executor {
 
   private static final Logger log = LoggerFactory.getLogger(Executor.class);
 
+  private static final int MAX_BACKOFF_DOUBLINGS = 20;
+
   private final TrackerFactory trackerFactory;
+  private final RetryBudget retryBudget;
   private int maxAttempts;
+  private int callTimeout;
+  private int retryBackoff;
+  private int maxRetryBackoff;
 
   Executor(TrackerFactory trackerFactory) {
+    this(trackerFactory, RetryBudget.from(trackerFactory.getNetworkingConfiguration()));
+  }
+
+  Executor(TrackerFactory trackerFactory, RetryBudget retryBudget) {
     this.trackerFactory = trackerFactory;
+    this.retryBudget = retryBudget;
     maxAttempts = trackerFactory.getAddresses().size();
+    NetworkingConfiguration netConfig = trackerFactory.getNetworkingConfiguration();
+    if (netConfig != null) {
+      callTimeout = netConfig.getCallTimeout();
+      retryBackoff = netConfig.getRetryBackoff();
+      maxRetryBackoff = netConfig.getMaxRetryBackoff();
+    }
   }
 
+  /**
+   * Runs the command, retrying on trackers not yet tried while the call's deadline and the retry budget allow. Each
+   * retry waits for a jittered backoff first. The deadline is the earlier of any the caller has already entered and the
+   * configured call timeout.
+   */
   public void executeCommand(MojiCommand command) throws IOException {
-    Tracker tracker = null;
+    Deadline deadline = Deadline.current();
+    if (callTimeout > 0) {
+      deadline = Deadline.after(callTimeout, TimeUnit.MILLISECONDS).earliest(deadline);
+    }
+    Deadline previous = Deadline.enter(deadline);
+    try {
+      execute(command, deadline);
+    } finally {
+      Deadline.restore(previous);
+    }
+  }
+
+  private void execute(MojiCommand command, Deadline deadline) throws IOException {
+    if (retryBudget != null) {
+      retryBudget.recordCall();
+    }
+    Set<InetSocketAddress> tried = new LinkedHashSet<InetSocketAddress>();
     CommunicationException lastException = null;
     for (int attempt = 0; attempt < maxAttempts; attempt++) {
+      if (attempt > 0 && !(mayRetry(deadline, lastException) && backOff(attempt, deadline))) {
+        break;
+      }
+      Tracker tracker = null;
       try {
-        tracker = trackerFactory.getTracker();
+        tracker = attempt == 0 ? trackerFactory.getTracker() : trackerFactory.getTracker(tried);
         log.debug("executing {}", command);
         if (maxAttempts > 1) {
-          log.debug("Attempt #{}", attempt);
+          log.debug("Attempt #{} on {}", attempt, tracker.getAddress());
         }
         command.executeWithTracker(tracker);
         return;
       } catch (CommunicationException e) {
+        InetSocketAddress address = tracker == null ? null : tracker.getAddress();
+        if (address != null) {
+          tried.add(address);
+        }
+        log.debug("Attempt #{} on {} failed: {}", new Object[] { attempt, address, e.getMessage() });
+        if (lastException != null && lastException != e) {
+          e.addSuppressed(lastException);
+        }
         lastException = e;
       } finally {
         if (tracker != null) {
@@ -57,11 +113,57 @@ class Executor {
       }
     }
     if (maxAttempts > 1) {
-      log.debug("All {} attempts failed", maxAttempts);
+      log.debug("All attempts failed, tried {}", tried);
     }
     throw lastException;
   }
 
+  /**
+   * Sleeps for a random time of up to the retry backoff, which doubles with each attempt, or until the deadline.
+   * 
+   * @return false if the call should not be retried after all.
+   */
+  private boolean backOff(int attempt, Deadline deadline) {
+    long delay = backoffMillis(attempt);
+    if (deadline != null) {
+      delay = Math.min(delay, TimeUnit.NANOSECONDS.toMillis(deadline.remainingNanos()));
+    }
+    if (delay > 0) {
+      log.debug("Backing off for {}ms before attempt #{}", delay, attempt);
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return deadline == null || !deadline.isExpired();
+  }
+
+  long backoffMillis(int attempt) {
+    if (retryBackoff <= 0 || attempt < 1) {
+      return 0L;
+    }
+    long ceiling = Math.min(maxRetryBackoff, (long) retryBackoff << Math.min(attempt - 1, MAX_BACKOFF_DOUBLINGS));
+    return ThreadLocalRandom.current().nextLong(ceiling + 1);
+  }
+
+  private boolean mayRetry(Deadline deadline, CommunicationException lastException) {
+    if (deadline != null && deadline.isExpired()) {
+      log.debug("Deadline expired, not retrying: {}", lastException.getMessage());
+      return false;
+    }
+    if (retryBudget != null && !retryBudget.tryAcquireRetry()) {
+      log.debug("Retry budget exhausted, not retrying: {}", lastException.getMessage());
+      return false;
+    }
+    return true;
+  }
+
+  RetryBudget getRetryBudget() {
+    return retryBudget;
+  }
+
   void setMaxAttempts(int maxAttempts) {
     this.maxAttempts = maxAttempts;
   }
@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import fm.last.moji.AsyncMoji;
+import fm.last.moji.AsyncMojiFile;
+import fm.last.moji.Moji;
+import fm.last.moji.MojiDeviceStatus;
+import fm.last.moji.MojiFile;
+import fm.last.moji.tracker.Deadline;
+
+/**
+ * An {@link AsyncMoji} that runs the blocking calls of any {@link Moji} on an {@link Executor}. The deadline of the
+ * submitting thread, if any, is carried over to the call.
+ */
+public class ExecutorAsyncMoji implements AsyncMoji {
+
+  /* Runs async calls when no executor is configured; calls beyond its threads wait in its queue */
+  private static final ExecutorService DEFAULT_EXECUTOR = DaemonThreadFactory.newPool("moji-async", 64);
+
+  private final Moji moji;
+  private final Executor executor;
+
+  public ExecutorAsyncMoji(Moji moji, Executor executor) {
+    if (executor == null) {
+      throw new IllegalArgumentException("executor == null");
+    }
+    this.moji = moji;
+    this.executor = executor;
+  }
+
+  /**
+   * @return The shared pool of daemon threads used when no executor is configured.
+   */
+  public static Executor defaultExecutor() {
+    return DEFAULT_EXECUTOR;
+  }
+
+  /**
+   * Creates an executor that starts a virtual thread for each call, so that outstanding calls do not each hold a
+   * platform thread.
+   * 
+   * @throws UnsupportedOperationException If the running JVM has no virtual threads (before Java 21).
+   */
+  public static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (NoSuchMethodException e) {
+      throw new UnsupportedOperationException("Virtual threads require Java 21 or later", e);
+    } catch (IllegalAccessException e) {
+      throw new UnsupportedOperationException(e);
+    } catch (InvocationTargetException e) {
+      throw new UnsupportedOperationException(e.getCause());
+    }
+  }
+
+  @Override
+  public AsyncMojiFile getFile(String key) {
+    return new ExecutorAsyncMojiFile(moji.getFile(key), this);
+  }
+
+  @Override
+  public AsyncMojiFile getFile(String key, String storageClass) {
+    return new ExecutorAsyncMojiFile(moji.getFile(key, storageClass), this);
+  }
+
+  @Override
+  public CompletableFuture<List<MojiFile>> list(final String keyPrefix) {
+    return submit(new Call<List<MojiFile>>() {
+      @Override
+      public List<MojiFile> call() throws IOException {
+        return moji.list(keyPrefix);
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<List<MojiFile>> list(final String keyPrefix, final int limit) {
+    return submit(new Call<List<MojiFile>>() {
+      @Override
+      public List<MojiFile> call() throws IOException {
+        return moji.list(keyPrefix, limit);
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<List<MojiDeviceStatus>> getDeviceStatuses() {
+    return submit(new Call<List<MojiDeviceStatus>>() {
+      @Override
+      public List<MojiDeviceStatus> call() throws IOException {
+        return moji.getDeviceStatuses();
+      }
+    });
+  }
+
+  @Override
+  public Moji getMoji() {
+    return moji;
+  }
+
+  <T> CompletableFuture<T> submit(final Call<T> call) {
+    final CompletableFuture<T> future = new CompletableFuture<T>();
+    final Deadline deadline = Deadline.current();
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (future.isDone()) {
+            // cancelled before it started
+            return;
+          }
+          Deadline previous = Deadline.enter(deadline);
+          try {
+            future.complete(call.call());
+          } catch (Throwable e) {
+            future.completeExceptionally(e);
+          } finally {
+            Deadline.restore(previous);
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("ExecutorAsyncMoji [moji=");
+    builder.append(moji);
+    builder.append(", executor=");
+    builder.append(executor);
+    builder.append("]");
+    return builder.toString();
+  }
+
+  interface Call<T> {
+    T call() throws IOException;
+  }
+
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.commons.io.IOUtils;
+
+import fm.last.moji.AsyncMojiFile;
+import fm.last.moji.MojiFile;
+import fm.last.moji.MojiFileAttributes;
+import fm.last.moji.impl.ExecutorAsyncMoji.Call;
+
+class ExecutorAsyncMojiFile implements AsyncMojiFile {
+
+  private final MojiFile file;
+  private final ExecutorAsyncMoji moji;
+
+  ExecutorAsyncMojiFile(MojiFile file, ExecutorAsyncMoji moji) {
+    this.file = file;
+    this.moji = moji;
+  }
+
+  @Override
+  public CompletableFuture<Boolean> exists() {
+    return moji.submit(new Call<Boolean>() {
+      @Override
+      public Boolean call() throws IOException {
+        return file.exists();
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> delete() {
+    return moji.submit(new Call<Void>() {
+      @Override
+      public Void call() throws IOException {
+        file.delete();
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> rename(final String newKey) {
+    return moji.submit(new Call<Void>() {
+      @Override
+      public Void call() throws IOException {
+        file.rename(newKey);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<Long> length() {
+    return moji.submit(new Call<Long>() {
+      @Override
+      public Long call() throws IOException {
+        return file.length();
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<List<URL>> getPaths() {
+    return moji.submit(new Call<List<URL>>() {
+      @Override
+      public List<URL> call() throws IOException {
+        return file.getPaths();
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<MojiFileAttributes> getAttributes() {
+    return moji.submit(new Call<MojiFileAttributes>() {
+      @Override
+      public MojiFileAttributes call() throws IOException {
+        return file.getAttributes();
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> modifyStorageClass(final String storageClass) {
+    return moji.submit(new Call<Void>() {
+      @Override
+      public Void call() throws IOException {
+        file.modifyStorageClass(storageClass);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<byte[]> get() {
+    return moji.submit(new Call<byte[]>() {
+      @Override
+      public byte[] call() throws IOException {
+        InputStream input = file.getInputStream();
+        try {
+          return IOUtils.toByteArray(input);
+        } finally {
+          IOUtils.closeQuietly(input);
+        }
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> put(final byte[] content) {
+    return moji.submit(new Call<Void>() {
+      @Override
+      public Void call() throws IOException {
+        OutputStream output = file.getOutputStream();
+        try {
+          output.write(content);
+          output.flush();
+        } catch (IOException e) {
+          IOUtils.closeQuietly(output);
+          throw e;
+        }
+        // closing completes the upload, so its failure is the call's failure
+        output.close();
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public String getKey() {
+    return file.getKey();
+  }
+
+  @Override
+  public String getDomain() {
+    return file.getDomain();
+  }
+
+  @Override
+  public MojiFile getFile() {
+    return file;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("ExecutorAsyncMojiFile [file=");
+    builder.append(file);
+    builder.append("]");
+    return builder.toString();
+  }
+
+}
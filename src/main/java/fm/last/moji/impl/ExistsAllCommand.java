@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import java.net.URL;
+import java.util.List;
+
+import fm.last.moji.tracker.KeyResult;
+import fm.last.moji.tracker.PipelinedTracker;
+import fm.last.moji.tracker.Tracker;
+import fm.last.moji.tracker.TrackerException;
+import fm.last.moji.tracker.UnknownKeyException;
+
+class ExistsAllCommand extends BatchCommand<List<URL>, Boolean> {
+
+  ExistsAllCommand(List<String> keys, String domain) {
+    super(keys, domain);
+  }
+
+  @Override
+  List<KeyResult<List<URL>>> executeAll(PipelinedTracker tracker) throws TrackerException {
+    return tracker.getPathsAll(keys, domain);
+  }
+
+  @Override
+  List<URL> execute(Tracker tracker, String key) throws TrackerException {
+    return tracker.getPaths(key, domain);
+  }
+
+  @Override
+  KeyResult<Boolean> convert(KeyResult<List<URL>> result) {
+    if (result.isSuccess()) {
+      return KeyResult.success(result.getKey(), !result.getValue().isEmpty());
+    }
+    if (result.getException() instanceof UnknownKeyException) {
+      return KeyResult.success(result.getKey(), false);
+    }
+    return KeyResult.failure(result.getKey(), result.getException());
+  }
+
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import fm.last.moji.tracker.TrackerFactory;
+
+/**
+ * The infrastructure shared by every {@link MojiFileImpl} handed out by one {@link MojiImpl}, so that a handle holds
+ * little more than its key.
+ */
+class FileContext {
+
+  final String domain;
+  final TrackerFactory trackerFactory;
+  final HttpConnectionFactory httpFactory;
+  final Executor executor;
+  final KeyLocks keyLocks;
+  final PathCache pathCache;
+  final AttributeCache attributeCache;
+  final SingleFlight singleFlight;
+
+  FileContext(String domain, TrackerFactory trackerFactory, HttpConnectionFactory httpFactory, Executor executor,
+      KeyLocks keyLocks, PathCache pathCache, AttributeCache attributeCache,
+      SingleFlight singleFlight) {
+    this.domain = domain;
+    this.trackerFactory = trackerFactory;
+    this.httpFactory = httpFactory;
+    this.executor = executor;
+    this.keyLocks = keyLocks;
+    this.pathCache = pathCache;
+    this.attributeCache = attributeCache;
+    this.singleFlight = singleFlight;
+  }
+
+  FileContext withExecutor(Executor executor) {
+    return new FileContext(domain, trackerFactory, httpFactory, executor, keyLocks, pathCache, attributeCache,
+        singleFlight);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("FileContext [domain=");
+    builder.append(domain);
+    builder.append(", trackerFactory=");
+    builder.append(trackerFactory);
+    builder.append("]");
+    return builder.toString();
+  }
+
+}
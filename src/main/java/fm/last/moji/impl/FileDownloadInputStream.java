@@ -29,9 +29,19 @@ class FileDownloadInputStream extends InputStream {
 
   private final CountingInputStream delegate;
   private final Lock readLock;
+  private final Runnable onClose;
+  private boolean closed;
 
   FileDownloadInputStream(InputStream delegate, Lock readLock) {
+    this(delegate, readLock, null);
+  }
+
+  /**
+   * @param onClose Run on close, after the delegate is closed and before the read lock is released. May be null.
+   */
+  FileDownloadInputStream(InputStream delegate, Lock readLock, Runnable onClose) {
     this.readLock = readLock;
+    this.onClose = onClose;
     this.delegate = new CountingInputStream(delegate);
   }
 
@@ -66,6 +76,10 @@ class FileDownloadInputStream extends InputStream {
     try {
       delegate.close();
     } finally {
+      if (onClose != null && !closed) {
+        onClose.run();
+      }
+      closed = true;
       unlockQuietly(readLock);
     }
   }
@@ -19,12 +19,17 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import fm.last.moji.tracker.Deadline;
 import fm.last.moji.tracker.Tracker;
+import fm.last.moji.tracker.TrackerException;
+import fm.last.moji.tracker.UnknownCommandException;
 
 class FileLengthCommand implements MojiCommand {
 
@@ -33,45 +38,117 @@ class FileLengthCommand implements MojiCommand {
   private final HttpConnectionFactory httpFactory;
   final String key;
   final String domain;
+  private final List<URL> cachedPaths;
   private long length = -1L;
+  private List<URL> paths = Collections.emptyList();
 
   FileLengthCommand(HttpConnectionFactory httpFactory, String key, String domain) {
+    this(httpFactory, key, domain, null);
+  }
+
+  /**
+   * @param cachedPaths Paths to try with HTTP HEAD before asking the tracker for fresh ones, should file_info not give
+   *          the length. May be null.
+   */
+  FileLengthCommand(HttpConnectionFactory httpFactory, String key, String domain, List<URL> cachedPaths) {
     this.httpFactory = httpFactory;
     this.key = key;
     this.domain = domain;
+    this.cachedPaths = cachedPaths;
   }
 
   @Override
   public void executeWithTracker(Tracker tracker) throws IOException {
-    List<URL> paths = tracker.getPaths(key, domain);
+    if (lengthFromFileInfo(tracker) || headCachedPaths()) {
+      return;
+    }
+    paths = tracker.getPaths(key, domain);
     if (!paths.isEmpty()) {
-      HttpURLConnection httpConnection = null;
-      IOException lastException = null;
-      for (URL path : paths) {
-        try {
-          log.debug("HTTP HEAD -> {}", path);
-          httpConnection = httpFactory.newConnection(path);
-          httpConnection.setRequestMethod("HEAD");
-          length = getContentLength(httpConnection);
-          log.debug("Content-Length: {}", length);
-          return;
-        } catch (IOException e) {
-          log.debug("Failed to open input -> {}", path);
-          log.debug("Exception was: ", e);
-          lastException = e;
-        } finally {
-          if (httpConnection != null) {
-            httpConnection.disconnect();
-          }
-        }
-      }
-      throw lastException;
+      headFirst(paths);
     } else {
       log.debug("No paths found for domain={},key={} - throwing", domain, key);
       throw new FileNotFoundException("domain=" + domain + ",key=" + key);
     }
   }
 
+  /**
+   * The tracker records the length of each file, so a single file_info call saves both the get_paths call and a
+   * connection to a storage node.
+   *
+   * @return false if the tracker does not support file_info or did not report a length.
+   */
+  private boolean lengthFromFileInfo(Tracker tracker) throws TrackerException {
+    Map<String, String> valueMap;
+    try {
+      valueMap = tracker.fileInfo(key, domain);
+    } catch (UnknownCommandException e) {
+      log.debug("Tracker does not support file_info, falling back to HTTP HEAD");
+      return false;
+    }
+    String rawLength = valueMap.get("length");
+    if (rawLength == null) {
+      return false;
+    }
+    try {
+      length = Long.parseLong(rawLength);
+    } catch (NumberFormatException e) {
+      log.debug("Failed to parse file_info length: {}", rawLength);
+      return false;
+    }
+    log.debug("file_info length: {}", length);
+    return true;
+  }
+
+  private boolean headCachedPaths() {
+    if (cachedPaths == null) {
+      return false;
+    }
+    try {
+      headFirst(cachedPaths);
+      return true;
+    } catch (IOException e) {
+      log.debug("No cached path of domain={},key={} answered, asking the tracker", domain, key);
+      return false;
+    }
+  }
+
+  /**
+   * Takes the length from the first of the paths that answers a HEAD request.
+   *
+   * @throws IOException The failure of the last path if none answered.
+   */
+  void headFirst(List<URL> paths) throws IOException {
+    IOException lastException = null;
+    for (URL path : paths) {
+      HttpURLConnection httpConnection = null;
+      try {
+        log.debug("HTTP HEAD -> {}", path);
+        httpConnection = httpFactory.newConnection(path);
+        // the whole response is read within the call
+        httpConnection.setReadTimeout(Deadline.clampToCurrent(httpConnection.getReadTimeout()));
+        httpConnection.setRequestMethod("HEAD");
+        length = getContentLength(httpConnection);
+        log.debug("Content-Length: {}", length);
+        // a HEAD response has no body, so the connection can serve the next request to the node
+        httpFactory.release(httpConnection, true);
+        return;
+      } catch (IOException e) {
+        log.debug("Failed to open input -> {}", path);
+        log.debug("Exception was: ", e);
+        lastException = e;
+        httpFactory.release(httpConnection, false);
+      }
+    }
+    throw lastException;
+  }
+
+  /**
+   * @return The paths returned by the tracker, empty if the length was found without asking it for paths.
+   */
+  List<URL> getPaths() {
+    return paths;
+  }
+
   long getLength() {
     return length;
   }
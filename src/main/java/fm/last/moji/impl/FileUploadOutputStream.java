@@ -39,12 +39,24 @@ class FileUploadOutputStream extends OutputStream {
   private final String key;
   private final String domain;
   private final Lock writeLock;
+  private final Runnable onClose;
+  private final HttpConnectionFactory httpFactory;
   private final HttpURLConnection httpConnection;
   private final CountingOutputStream delegate;
   private long size = -1L;
 
   FileUploadOutputStream(TrackerFactory trackerFactory, HttpConnectionFactory httpFactory, String key, String domain,
       Destination destination, Lock writeLock) throws IOException {
+    this(trackerFactory, httpFactory, key, domain, destination, writeLock, null);
+  }
+
+  /**
+   * @param onClose Run on close, whether or not the upload succeeded, before the write lock is released. May be null.
+   */
+  FileUploadOutputStream(TrackerFactory trackerFactory, HttpConnectionFactory httpFactory, String key, String domain,
+      Destination destination, Lock writeLock, Runnable onClose) throws IOException {
+    this.onClose = onClose;
+    this.httpFactory = httpFactory;
     this.destination = destination;
     this.trackerFactory = trackerFactory;
     this.domain = domain;
@@ -53,10 +65,15 @@ class FileUploadOutputStream extends OutputStream {
 
     log.debug("HTTP PUT -> opening chunked stream -> {}", destination.getPath());
     httpConnection = httpFactory.newConnection(destination.getPath());
-    httpConnection.setRequestMethod("PUT");
-    httpConnection.setChunkedStreamingMode(CHUNK_LENGTH);
-    httpConnection.setDoOutput(true);
-    delegate = new CountingOutputStream(httpConnection.getOutputStream());
+    try {
+      httpConnection.setRequestMethod("PUT");
+      httpConnection.setChunkedStreamingMode(CHUNK_LENGTH);
+      httpConnection.setDoOutput(true);
+      delegate = new CountingOutputStream(httpConnection.getOutputStream());
+    } catch (IOException e) {
+      httpFactory.release(httpConnection, false);
+      throw e;
+    }
   }
 
   @Override
@@ -86,6 +103,9 @@ class FileUploadOutputStream extends OutputStream {
       flushAndClose();
       trackerCreateClose();
     } finally {
+      if (onClose != null) {
+        onClose.run();
+      }
       unlockQuietly(writeLock);
     }
   }
@@ -128,6 +148,7 @@ class FileUploadOutputStream extends OutputStream {
   }
 
   private void flushAndClose() throws IOException {
+    boolean complete = false;
     try {
       delegate.flush();
       size = delegate.getByteCount();
@@ -138,6 +159,9 @@ class FileUploadOutputStream extends OutputStream {
         throw new IOException(
             "HTTP Error during flush: " + code + ", " + message + ", peer: '{" + httpConnection + "}'");
       }
+      // consuming the response lets the connection be kept alive for the next request to the node
+      httpConnection.getInputStream().close();
+      complete = true;
     } finally {
       try {
         delegate.close();
@@ -145,9 +169,9 @@ class FileUploadOutputStream extends OutputStream {
         log.warn("Error closing stream", e);
       }
       try {
-        httpConnection.disconnect();
+        httpFactory.release(httpConnection, complete);
       } catch (Exception e) {
-        log.warn("Error closing connection", e);
+        log.warn("Error releasing connection", e);
       }
     }
   }
@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import java.util.List;
+import java.util.Map;
+
+import fm.last.moji.MojiFileAttributes;
+import fm.last.moji.tracker.KeyResult;
+import fm.last.moji.tracker.PipelinedTracker;
+import fm.last.moji.tracker.Tracker;
+import fm.last.moji.tracker.TrackerException;
+
+class GetAttributesAllCommand extends BatchCommand<Map<String, String>, MojiFileAttributes> {
+
+  GetAttributesAllCommand(List<String> keys, String domain) {
+    super(keys, domain);
+  }
+
+  @Override
+  List<KeyResult<Map<String, String>>> executeAll(PipelinedTracker tracker) throws TrackerException {
+    return tracker.fileInfoAll(keys, domain);
+  }
+
+  @Override
+  Map<String, String> execute(Tracker tracker, String key) throws TrackerException {
+    return tracker.fileInfo(key, domain);
+  }
+
+  @Override
+  KeyResult<MojiFileAttributes> convert(KeyResult<Map<String, String>> result) {
+    if (!result.isSuccess()) {
+      return KeyResult.failure(result.getKey(), result.getException());
+    }
+    Map<String, String> valueMap = result.getValue();
+    MojiFileAttributes attributes = valueMap.isEmpty() ? null : new MojiFileAttributesImpl(valueMap);
+    return KeyResult.success(result.getKey(), attributes);
+  }
+
+}
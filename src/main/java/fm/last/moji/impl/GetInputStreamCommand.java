@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
 
@@ -38,6 +39,7 @@ class GetInputStreamCommand implements MojiCommand {
   private final HttpConnectionFactory httpFactory;
   private final Lock readLock;
   private InputStream stream;
+  private List<URL> paths = Collections.emptyList();
 
   GetInputStreamCommand(String key, String domain, HttpConnectionFactory httpFactory, Lock readLock) {
     this.key = key;
@@ -48,27 +50,66 @@ class GetInputStreamCommand implements MojiCommand {
 
   @Override
   public void executeWithTracker(Tracker tracker) throws IOException {
-    List<URL> paths = tracker.getPaths(key, domain);
+    open(tracker.getPaths(key, domain));
+  }
+
+  /**
+   * Opens the first readable of the paths given by the tracker.
+   *
+   * @throws FileNotFoundException If the tracker gave no paths.
+   */
+  void open(List<URL> paths) throws IOException {
+    this.paths = paths;
     if (paths.isEmpty()) {
       throw new FileNotFoundException("key=" + key + ", domain=" + domain);
     }
+    openFirst(paths);
+  }
+
+  /**
+   * Opens the first of the paths that can be read.
+   *
+   * @throws IOException The failure of the last path if none could be read.
+   */
+  void openFirst(List<URL> paths) throws IOException {
     IOException lastException = null;
     for (URL path : paths) {
+      HttpURLConnection urlConnection = null;
       try {
         log.debug("Opened: {}", path);
-        HttpURLConnection urlConnection = httpFactory.newConnection(path);
-        stream = new FileDownloadInputStream(urlConnection.getInputStream(), readLock);
+        urlConnection = httpFactory.newConnection(path);
+        stream = new FileDownloadInputStream(urlConnection.getInputStream(), readLock, releaseOnClose(urlConnection));
         return;
       } catch (IOException e) {
         log.debug("Failed to open input -> {}", path);
         log.debug("Exception was: ", e);
         lastException = e;
+        httpFactory.release(urlConnection, false);
         IOUtils.closeQuietly(stream);
       }
     }
     throw lastException;
   }
 
+  /**
+   * Closing the stream of a response hands its connection back to the keep-alive cache of the JDK.
+   */
+  private Runnable releaseOnClose(final HttpURLConnection urlConnection) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        httpFactory.release(urlConnection, true);
+      }
+    };
+  }
+
+  /**
+   * @return The paths returned by the tracker, empty if the command was not executed with a tracker.
+   */
+  List<URL> getPaths() {
+    return paths;
+  }
+
   InputStream getInputStream() {
     return stream;
   }
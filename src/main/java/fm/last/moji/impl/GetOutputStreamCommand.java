@@ -40,9 +40,16 @@ class GetOutputStreamCommand implements MojiCommand {
   private final HttpConnectionFactory httpFactory;
   private OutputStream stream;
   private final Lock writeLock;
+  private final Runnable onClose;
 
   GetOutputStreamCommand(TrackerFactory trackerFactory, HttpConnectionFactory httpFactory, String key, String domain,
       String storageClass, Lock writeLock) {
+    this(trackerFactory, httpFactory, key, domain, storageClass, writeLock, null);
+  }
+
+  GetOutputStreamCommand(TrackerFactory trackerFactory, HttpConnectionFactory httpFactory, String key, String domain,
+      String storageClass, Lock writeLock, Runnable onClose) {
+    this.onClose = onClose;
     this.trackerFactory = trackerFactory;
     this.httpFactory = httpFactory;
     this.key = key;
@@ -62,7 +69,8 @@ class GetOutputStreamCommand implements MojiCommand {
     for (Destination destination : destinations) {
       log.debug("Creating output stream to: {}", destination);
       try {
-        stream = new FileUploadOutputStream(trackerFactory, httpFactory, key, domain, destination, writeLock);
+        stream = new FileUploadOutputStream(trackerFactory, httpFactory, key, domain, destination, writeLock,
+            onClose);
         return;
       } catch (IOException e) {
         log.debug("Failed to open output -> {}", destination);
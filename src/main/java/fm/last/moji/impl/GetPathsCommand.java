@@ -24,8 +24,8 @@ import fm.last.moji.tracker.Tracker;
 
 class GetPathsCommand implements MojiCommand {
 
-  private final String key;
-  private final String domain;
+  final String key;
+  final String domain;
   private List<URL> paths;
 
   GetPathsCommand(String key, String domain) {
@@ -19,10 +19,40 @@ import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.Proxy;
 import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fm.last.moji.tracker.Deadline;
+
+/**
+ * Opens HTTP connections to storage nodes. {@link HttpURLConnection} keeps a persistent connection pool per node and
+ * evicts connections that stay idle beyond the node's keep-alive timeout, so a connection is reused as long as its
+ * response is read to the end and it is not disconnected. Callers therefore hand each connection back with
+ * {@link #release(HttpURLConnection, boolean)}, which closes only connections whose exchange failed. The number of
+ * connections in use per node can be limited with {@link NetworkingConfiguration#setMaxConnectionsPerNode(int)}; the
+ * number of idle connections the JDK keeps per node is set by the <code>http.maxConnections</code> system property.
+ * <p>
+ * Connections are only tracked while a limit is set. A limited connection holds a permit of its node until released,
+ * so streams handed to callers must be closed. Permits are taken inside tracker commands, as the paths to open only
+ * become known there, so the wait for one is always bounded: by the connect timeout, or
+ * {@link #DEFAULT_PERMIT_WAIT_MILLIS} when that is infinite, and by the caller's deadline.
+ */
 class HttpConnectionFactory {
 
+  static final int DEFAULT_PERMIT_WAIT_MILLIS = 1000;
+
+  private static final Logger log = LoggerFactory.getLogger(HttpConnectionFactory.class);
+
   private final NetworkingConfiguration netConfig;
+  private final HttpConnectionStatistics statistics = new HttpConnectionStatistics();
+  private final ConcurrentMap<String, Semaphore> nodePermits = new ConcurrentHashMap<String, Semaphore>();
+  /* the node each limited connection counts against, as redirects may change its URL */
+  private final ConcurrentMap<HttpURLConnection, URL> inUse = new ConcurrentHashMap<HttpURLConnection, URL>();
 
   @Deprecated
   HttpConnectionFactory(Proxy proxy) {
@@ -33,11 +63,121 @@ class HttpConnectionFactory {
     this.netConfig = netConfig;
   }
 
+  /**
+   * Opens a connection whose connect timeout is shortened to fit the deadline of the current call. The read timeout is
+   * the configured one, as the connection's streams may be read after the call returns; callers that read the whole
+   * response within the call may shorten it themselves.
+   *
+   * @throws IOException If the node is at its connection limit until the connect timeout or deadline.
+   */
   HttpURLConnection newConnection(URL url) throws IOException {
-    HttpURLConnection connection = (HttpURLConnection) url.openConnection(netConfig.getProxy());
-    connection.setConnectTimeout(netConfig.getHttpConnectTimeout());
+    boolean limited = isLimited();
+    if (limited) {
+      acquirePermit(url);
+    }
+    HttpURLConnection connection;
+    try {
+      connection = (HttpURLConnection) url.openConnection(netConfig.getProxy());
+    } catch (IOException e) {
+      if (limited) {
+        releasePermit(url);
+      }
+      throw e;
+    } catch (RuntimeException e) {
+      if (limited) {
+        releasePermit(url);
+      }
+      throw e;
+    }
+    connection.setConnectTimeout(Deadline.clampToCurrent(netConfig.getHttpConnectTimeout()));
+    // streams outlive the call that opens them, so reads keep the configured timeout
     connection.setReadTimeout(netConfig.getHttpReadTimeout());
+    if (limited) {
+      inUse.put(connection, url);
+    }
+    statistics.opened();
     return connection;
   }
 
+  /**
+   * Hands back a connection from {@link #newConnection(URL)}. While a limit is set, releasing a connection more than
+   * once has no effect; otherwise callers must release each connection once.
+   *
+   * @param reusable true if the response was read to the end, or its stream closed, so that the JDK may keep the
+   *          connection alive; false to close it.
+   */
+  void release(HttpURLConnection connection, boolean reusable) {
+    if (connection == null) {
+      return;
+    }
+    URL url = null;
+    if (isLimited()) {
+      url = inUse.remove(connection);
+      if (url == null) {
+        return;
+      }
+    }
+    if (!reusable) {
+      try {
+        connection.disconnect();
+      } catch (Exception e) {
+        log.warn("Error closing connection", e);
+      }
+    }
+    if (url != null) {
+      releasePermit(url);
+    }
+    statistics.released(reusable);
+  }
+
+  HttpConnectionStatistics getStatistics() {
+    return statistics;
+  }
+
+  private boolean isLimited() {
+    return netConfig.getMaxConnectionsPerNode() > 0;
+  }
+
+  private void acquirePermit(URL url) throws IOException {
+    Semaphore permits = permitsOf(url);
+    int wait = netConfig.getHttpConnectTimeout();
+    if (wait <= 0) {
+      wait = DEFAULT_PERMIT_WAIT_MILLIS;
+    }
+    wait = Deadline.clampToCurrent(wait);
+    try {
+      if (!permits.tryAcquire(wait, TimeUnit.MILLISECONDS)) {
+        statistics.limitTimedOut();
+        throw new IOException("Reached the limit of " + netConfig.getMaxConnectionsPerNode() + " connections to "
+            + nodeOf(url));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a connection to " + nodeOf(url), e);
+    }
+  }
+
+  private void releasePermit(URL url) {
+    permitsOf(url).release();
+  }
+
+  private Semaphore permitsOf(URL url) {
+    int maxConnections = netConfig.getMaxConnectionsPerNode();
+    String node = nodeOf(url);
+    Semaphore permits = nodePermits.get(node);
+    if (permits == null) {
+      Semaphore created = new Semaphore(maxConnections);
+      permits = nodePermits.putIfAbsent(node, created);
+      if (permits == null) {
+        permits = created;
+      }
+    }
+    return permits;
+  }
+
+  private static String nodeOf(URL url) {
+    int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+    return url.getHost() + ":" + port;
+  }
+
 }
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the HTTP connections to storage nodes handed out by a {@link DefaultMojiFactory} and how they were handed
+ * back. Connections returned after a complete exchange are left to the keep-alive cache of the JDK for reuse by the
+ * next request to the same node; the others are closed.
+ */
+public class HttpConnectionStatistics {
+
+  private final AtomicLong opened = new AtomicLong();
+  private final AtomicLong keptAlive = new AtomicLong();
+  private final AtomicLong closed = new AtomicLong();
+  private final AtomicLong limitTimeouts = new AtomicLong();
+  private final AtomicInteger inUse = new AtomicInteger();
+
+  HttpConnectionStatistics() {
+  }
+
+  void opened() {
+    opened.incrementAndGet();
+    inUse.incrementAndGet();
+  }
+
+  void released(boolean reusable) {
+    inUse.decrementAndGet();
+    if (reusable) {
+      keptAlive.incrementAndGet();
+    } else {
+      closed.incrementAndGet();
+    }
+  }
+
+  void limitTimedOut() {
+    limitTimeouts.incrementAndGet();
+  }
+
+  /**
+   * @return The number of connections handed out.
+   */
+  public long getOpened() {
+    return opened.get();
+  }
+
+  /**
+   * @return The number of connections returned after a complete exchange, and so kept alive for reuse.
+   */
+  public long getKeptAlive() {
+    return keptAlive.get();
+  }
+
+  /**
+   * @return The number of connections closed after a failed exchange.
+   */
+  public long getClosed() {
+    return closed.get();
+  }
+
+  /**
+   * @return The number of requests that gave up waiting for a node that was at its connection limit.
+   */
+  public long getLimitTimeouts() {
+    return limitTimeouts.get();
+  }
+
+  /**
+   * @return The number of connections currently handed out and not yet returned.
+   */
+  public int getInUse() {
+    return inUse.get();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("HttpConnectionStatistics [opened=");
+    builder.append(opened);
+    builder.append(", keptAlive=");
+    builder.append(keptAlive);
+    builder.append(", closed=");
+    builder.append(closed);
+    builder.append(", limitTimeouts=");
+    builder.append(limitTimeouts);
+    builder.append(", inUse=");
+    builder.append(inUse);
+    builder.append("]");
+    return builder.toString();
+  }
+
+}
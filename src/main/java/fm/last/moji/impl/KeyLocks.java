@@ -0,0 +1,333 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * Read/write locks per key, shared by all the {@link MojiFileImpl} handles of a {@link MojiImpl}. Keys hash onto a
+ * fixed number of stripes, each a monitor guarding the state of its keys that are currently locked, so memory is fixed
+ * apart from the keys in use. Keys that share a stripe never block each other, so a thread may read one key while it
+ * writes another.
+ * <p>
+ * As with {@link java.util.concurrent.locks.ReentrantReadWriteLock ReentrantReadWriteLock} both locks are reentrant,
+ * the writer may also take the read lock, a reader may not upgrade, and locks must be released by the thread that took
+ * them. A thread that does not already hold a read lock on a key queues behind writers waiting for that key, so a
+ * steadily read key cannot starve its writers.
+ */
+class KeyLocks {
+
+  static final int DEFAULT_STRIPES = 64;
+
+  /** Hands out locks that do nothing, for callers that coordinate access to keys themselves. */
+  static final KeyLocks NONE = new KeyLocks(1) {
+    @Override
+    ReadWriteLock forKey(String key) {
+      return NO_LOCK;
+    }
+  };
+
+  private static final ReadWriteLock NO_LOCK = new ReadWriteLock() {
+    private final Lock lock = new NoLock();
+
+    @Override
+    public Lock readLock() {
+      return lock;
+    }
+
+    @Override
+    public Lock writeLock() {
+      return lock;
+    }
+  };
+
+  private final Stripe[] stripes;
+
+  KeyLocks() {
+    this(DEFAULT_STRIPES);
+  }
+
+  KeyLocks(int stripeCount) {
+    if (stripeCount < 1) {
+      throw new IllegalArgumentException("stripeCount < 1");
+    }
+    stripes = new Stripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  ReadWriteLock forKey(String key) {
+    return new KeyLock(key, stripes[stripeIndex(key)]);
+  }
+
+  private int stripeIndex(String key) {
+    int hash = key.hashCode();
+    hash ^= hash >>> 16;
+    return (hash & Integer.MAX_VALUE) % stripes.length;
+  }
+
+  /* The state of a locked key, discarded once it is free */
+  private static class State {
+    private Thread writer;
+    private int writeHolds;
+    /* Read holds of each reading thread */
+    private final Map<Thread, Integer> readers = new HashMap<Thread, Integer>(4);
+    private int waitingWriters;
+
+    boolean isFree() {
+      return writer == null && readers.isEmpty() && waitingWriters == 0;
+    }
+  }
+
+  private static class Stripe {
+    private final Map<String, State> locked = new HashMap<String, State>();
+
+    synchronized boolean tryAcquire(String key, boolean write) {
+      Thread current = Thread.currentThread();
+      State state = locked.get(key);
+      if (state == null) {
+        state = new State();
+        locked.put(key, state);
+      } else if (!canAcquire(state, current, write)) {
+        return false;
+      }
+      if (write) {
+        state.writer = current;
+        state.writeHolds++;
+      } else {
+        Integer holds = state.readers.get(current);
+        state.readers.put(current, holds == null ? 1 : holds + 1);
+      }
+      return true;
+    }
+
+    private static boolean canAcquire(State state, Thread current, boolean write) {
+      if (state.writer != null) {
+        return state.writer == current;
+      }
+      if (write) {
+        // readers, possibly including this thread, that a writer must wait for
+        return state.readers.isEmpty();
+      }
+      // reentrant reads go ahead, as waiting writers may be waiting for this thread
+      return state.waitingWriters == 0 || state.readers.containsKey(current);
+    }
+
+    synchronized void acquire(String key, boolean write, boolean interruptibly) throws InterruptedException {
+      if (tryAcquire(key, write)) {
+        return;
+      }
+      State waiting = write ? startWaiting(key) : null;
+      boolean interrupted = false;
+      try {
+        while (!tryAcquire(key, write)) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            if (interruptibly) {
+              throw e;
+            }
+            interrupted = true;
+          }
+        }
+      } finally {
+        stopWaiting(key, waiting);
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    synchronized boolean acquire(String key, boolean write, long timeoutNanos) throws InterruptedException {
+      if (tryAcquire(key, write)) {
+        return true;
+      }
+      long deadline = System.nanoTime() + timeoutNanos;
+      State waiting = write ? startWaiting(key) : null;
+      try {
+        while (!tryAcquire(key, write)) {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0L) {
+            return false;
+          }
+          TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+      } finally {
+        stopWaiting(key, waiting);
+      }
+    }
+
+    /* Holds back new readers of the key until the writer has had its turn */
+    private State startWaiting(String key) {
+      State state = locked.get(key);
+      if (state == null) {
+        state = new State();
+        locked.put(key, state);
+      }
+      state.waitingWriters++;
+      return state;
+    }
+
+    private void stopWaiting(String key, State state) {
+      if (state == null) {
+        return;
+      }
+      state.waitingWriters--;
+      if (state.isFree()) {
+        locked.remove(key);
+      }
+      // readers held back by a writer that gave up may go ahead
+      notifyAll();
+    }
+
+    synchronized void release(String key, boolean write) {
+      State state = locked.get(key);
+      if (write) {
+        if (state == null || state.writer != Thread.currentThread()) {
+          throw new IllegalMonitorStateException("Write lock on " + key + " not held by current thread");
+        }
+        if (--state.writeHolds == 0) {
+          state.writer = null;
+        }
+      } else {
+        Thread current = Thread.currentThread();
+        Integer holds = state == null ? null : state.readers.get(current);
+        if (holds == null) {
+          throw new IllegalMonitorStateException("Read lock on " + key + " not held by current thread");
+        }
+        if (holds == 1) {
+          state.readers.remove(current);
+        } else {
+          state.readers.put(current, holds - 1);
+        }
+      }
+      if (state.isFree()) {
+        locked.remove(key);
+      }
+      notifyAll();
+    }
+  }
+
+  private static class KeyLock implements ReadWriteLock {
+    private final Lock readLock;
+    private final Lock writeLock;
+
+    KeyLock(String key, Stripe stripe) {
+      readLock = new StripeLock(key, stripe, false);
+      writeLock = new StripeLock(key, stripe, true);
+    }
+
+    @Override
+    public Lock readLock() {
+      return readLock;
+    }
+
+    @Override
+    public Lock writeLock() {
+      return writeLock;
+    }
+  }
+
+  private static class StripeLock implements Lock {
+    private final String key;
+    private final Stripe stripe;
+    private final boolean write;
+
+    StripeLock(String key, Stripe stripe, boolean write) {
+      this.key = key;
+      this.stripe = stripe;
+      this.write = write;
+    }
+
+    @Override
+    public void lock() {
+      try {
+        stripe.acquire(key, write, false);
+      } catch (InterruptedException e) {
+        // not thrown when uninterruptible
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      stripe.acquire(key, write, true);
+    }
+
+    @Override
+    public boolean tryLock() {
+      return stripe.tryAcquire(key, write);
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      return stripe.acquire(key, write, unit.toNanos(time));
+    }
+
+    @Override
+    public void unlock() {
+      stripe.release(key, write);
+    }
+
+    @Override
+    public Condition newCondition() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static class NoLock implements Lock {
+    @Override
+    public void lock() {
+    }
+
+    @Override
+    public void lockInterruptibly() {
+    }
+
+    @Override
+    public boolean tryLock() {
+      return true;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) {
+      return true;
+    }
+
+    @Override
+    public void unlock() {
+    }
+
+    @Override
+    public Condition newCondition() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+}
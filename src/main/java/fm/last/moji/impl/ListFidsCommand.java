@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import fm.last.moji.Moji;
+import fm.last.moji.MojiFile;
+import fm.last.moji.tracker.Tracker;
+
+/**
+ * Lists the files in a fid range that belong to a given domain. The tracker may return fewer rows than the range holds,
+ * so callers page on from {@link #getLastFid()}.
+ */
+class ListFidsCommand implements MojiCommand {
+
+  final String domain;
+  final long fromFid;
+  final long toFid;
+  private final Moji moji;
+  private List<MojiFile> files;
+  private long lastFid = -1L;
+
+  ListFidsCommand(Moji moji, String domain, long fromFid, long toFid) {
+    this.moji = moji;
+    this.domain = domain;
+    this.fromFid = fromFid;
+    this.toFid = toFid;
+    files = Collections.emptyList();
+  }
+
+  @Override
+  public void executeWithTracker(Tracker tracker) throws IOException {
+    List<Map<String, String>> fids = tracker.listFids(fromFid, toFid);
+    if (!fids.isEmpty()) {
+      files = new ArrayList<MojiFile>(fids.size());
+      for (Map<String, String> fid : fids) {
+        long id = parseFid(fid.get("fid"));
+        if (id < fromFid || id > toFid) {
+          continue;
+        }
+        lastFid = Math.max(lastFid, id);
+        if (domain.equals(fid.get("domain"))) {
+          files.add(moji.getFile(fid.get("key")));
+        }
+      }
+    }
+  }
+
+  List<MojiFile> getFileList() {
+    return files;
+  }
+
+  /**
+   * @return The highest fid in the range that the tracker returned, whatever its domain, or -1 if it returned none.
+   */
+  long getLastFid() {
+    return lastFid;
+  }
+
+  private static long parseFid(String fid) {
+    try {
+      return fid == null ? -1L : Long.parseLong(fid);
+    } catch (NumberFormatException e) {
+      return -1L;
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("ListFidsCommand [domain=");
+    builder.append(domain);
+    builder.append(", fromFid=");
+    builder.append(fromFid);
+    builder.append(", toFid=");
+    builder.append(toFid);
+    builder.append("]");
+    return builder.toString();
+  }
+
+}
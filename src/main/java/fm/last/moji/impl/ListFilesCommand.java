@@ -29,28 +29,42 @@ class ListFilesCommand implements MojiCommand {
   final String keyPrefix;
   final String domain;
   final Integer limit;
+  final String after;
   private List<MojiFile> files;
   private final Moji moji;
 
   ListFilesCommand(Moji moji, String keyPrefix, String domain, int limit) {
-    this(moji, keyPrefix, domain, Integer.valueOf(limit));
+    this(moji, keyPrefix, domain, null, Integer.valueOf(limit));
   }
 
   ListFilesCommand(Moji moji, String keyPrefix, String domain) {
-    this(moji, keyPrefix, domain, null);
+    this(moji, keyPrefix, domain, null, null);
   }
 
-  private ListFilesCommand(Moji moji, String keyPrefix, String domain, Integer limit) {
+  /**
+   * Lists one page of files whose keys sort after the given key.
+   */
+  ListFilesCommand(Moji moji, String keyPrefix, String domain, String after, int limit) {
+    this(moji, keyPrefix, domain, after, Integer.valueOf(limit));
+  }
+
+  private ListFilesCommand(Moji moji, String keyPrefix, String domain, String after, Integer limit) {
     this.moji = moji;
     this.keyPrefix = keyPrefix;
     this.domain = domain;
+    this.after = after;
     this.limit = limit;
     files = Collections.emptyList();
   }
 
   @Override
   public void executeWithTracker(Tracker tracker) throws IOException {
-    List<String> keys = tracker.list(domain, keyPrefix, limit);
+    List<String> keys;
+    if (after == null) {
+      keys = tracker.list(domain, keyPrefix, limit);
+    } else {
+      keys = tracker.list(domain, keyPrefix, after, limit);
+    }
     if (!keys.isEmpty()) {
       files = new ArrayList<MojiFile>(keys.size());
       for (String key : keys) {
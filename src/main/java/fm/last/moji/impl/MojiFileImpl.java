@@ -20,11 +20,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -34,42 +34,60 @@ import org.slf4j.LoggerFactory;
 import fm.last.moji.MojiFile;
 import fm.last.moji.MojiFileAttributes;
 import fm.last.moji.tracker.TrackerFactory;
+import fm.last.moji.tracker.UnknownKeyException;
 
 class MojiFileImpl implements MojiFile {
 
   private static final Logger log = LoggerFactory.getLogger(MojiFileImpl.class);
 
-  private final String domain;
-  private final TrackerFactory trackerFactory;
-  private final HttpConnectionFactory httpFactory;
-  private final ReadWriteLock lock;
-  private Executor executor;
+  private FileContext context;
   private String storageClass;
   private String key;
 
   MojiFileImpl(String key, String domain, String storageClass, TrackerFactory trackerFactory,
       HttpConnectionFactory httpFactory) {
+    this(key, storageClass, new FileContext(domain, trackerFactory, httpFactory, new Executor(trackerFactory),
+        new KeyLocks(), PathCache.NONE, AttributeCache.NONE,
+        SingleFlight.NONE));
+  }
+
+  MojiFileImpl(String key, String storageClass, FileContext context) {
     this.key = key;
-    this.domain = domain;
     this.storageClass = storageClass;
-    this.trackerFactory = trackerFactory;
-    this.httpFactory = httpFactory;
-    executor = new Executor(trackerFactory);
-    lock = new ReentrantReadWriteLock();
+    this.context = context;
   }
 
   @Override
   public boolean exists() throws IOException {
     log.debug("exists() : {}", this);
     boolean exists = false;
+    Lock readLock = lock().readLock();
     try {
-      lock.readLock().lock();
-      ExistsCommand command = new ExistsCommand(key, domain);
-      executor.executeCommand(command);
-      exists = command.getExists();
+      readLock.lock();
+      AttributeCache.Entry cached = context.attributeCache.get(context.domain, key);
+      if (cached != null) {
+        exists = cached.exists();
+      } else {
+        exists = context.singleFlight.execute("exists", context.domain, key, new SingleFlight.Lookup<Boolean>() {
+          @Override
+          Boolean call() throws IOException {
+            ExistsCommand command = new ExistsCommand(key, context.domain);
+            context.executor.executeCommand(command);
+            return command.getExists();
+          }
+
+          @Override
+          Boolean copy(Boolean exists) {
+            return exists;
+          }
+        });
+        if (!exists) {
+          context.attributeCache.putUnknown(context.domain, key);
+        }
+      }
       log.debug("exists() -> {}", exists);
     } finally {
-      lock.readLock().unlock();
+      readLock.unlock();
     }
     return exists;
   }
@@ -77,12 +95,14 @@ class MojiFileImpl implements MojiFile {
   @Override
   public void delete() throws IOException {
     log.debug("delete() : {}", this);
+    Lock writeLock = lock().writeLock();
     try {
-      lock.writeLock().lock();
-      DeleteCommand command = new DeleteCommand(key, domain);
-      executor.executeCommand(command);
+      writeLock.lock();
+      DeleteCommand command = new DeleteCommand(key, context.domain);
+      context.executor.executeCommand(command);
     } finally {
-      lock.writeLock().unlock();
+      invalidateCaches(key);
+      writeLock.unlock();
     }
   }
 
@@ -90,14 +110,38 @@ class MojiFileImpl implements MojiFile {
   public long length() throws IOException {
     log.debug("length() : {}", this);
     long length = -1L;
+    Lock readLock = lock().readLock();
     try {
-      lock.readLock().lock();
-      FileLengthCommand command = new FileLengthCommand(httpFactory, key, domain);
-      executor.executeCommand(command);
-      length = command.getLength();
+      readLock.lock();
+      AttributeCache.Entry cached = context.attributeCache.get(context.domain, key);
+      if (cached != null) {
+        if (!cached.exists()) {
+          throw new UnknownKeyException(context.domain, key);
+        }
+        length = cached.getAttributes().getLength();
+      } else {
+        // cached paths are only used should file_info not give the length
+        final FileLengthCommand command = new FileLengthCommand(context.httpFactory, key, context.domain,
+            context.pathCache.get(key));
+        length = context.singleFlight.execute("length", context.domain, key, new SingleFlight.Lookup<Long>() {
+          @Override
+          Long call() throws IOException {
+            context.executor.executeCommand(command);
+            if (!command.getPaths().isEmpty()) {
+              context.pathCache.put(key, command.getPaths());
+            }
+            return command.getLength();
+          }
+
+          @Override
+          Long copy(Long length) {
+            return length;
+          }
+        });
+      }
       log.debug("length() -> {}", length);
     } finally {
-      lock.readLock().unlock();
+      readLock.unlock();
     }
     return length;
   }
@@ -106,15 +150,20 @@ class MojiFileImpl implements MojiFile {
   public InputStream getInputStream() throws IOException {
     log.debug("getInputStream() : {}", this);
     InputStream inputStream = null;
+    Lock readLock = lock().readLock();
     try {
-      Lock readLock = lock.readLock();
       readLock.lock();
-      GetInputStreamCommand command = new GetInputStreamCommand(key, domain, httpFactory, readLock);
-      executor.executeCommand(command);
+      GetInputStreamCommand command = new GetInputStreamCommand(key, context.domain, context.httpFactory, readLock);
+      if (!openCachedPaths(command)) {
+        // storage nodes are read once the tracker connection is handed back
+        List<URL> paths = context.singleFlight.getPaths(context.executor, key, context.domain);
+        context.pathCache.put(key, paths);
+        command.open(paths);
+      }
       inputStream = command.getInputStream();
       log.debug("getInputStream() -> {}", inputStream);
     } catch (Throwable e) {
-      unlockQuietly(lock.readLock());
+      unlockQuietly(readLock);
       IOUtils.closeQuietly(inputStream);
       if (e instanceof IOException) {
         throw (IOException) e;
@@ -130,16 +179,23 @@ class MojiFileImpl implements MojiFile {
   public OutputStream getOutputStream() throws IOException {
     log.debug("getOutputStream() : {}", this);
     OutputStream outputStream = null;
+    final String writtenKey = key;
+    Lock writeLock = lock().writeLock();
     try {
-      Lock writeLock = lock.writeLock();
       writeLock.lock();
-      GetOutputStreamCommand command = new GetOutputStreamCommand(trackerFactory, httpFactory, key, domain,
-          storageClass, writeLock);
-      executor.executeCommand(command);
+      GetOutputStreamCommand command = new GetOutputStreamCommand(context.trackerFactory, context.httpFactory, key,
+          context.domain, storageClass, writeLock, new Runnable() {
+            @Override
+            public void run() {
+              // the key now has new contents, or none if the upload failed
+              invalidateCaches(writtenKey);
+            }
+          });
+      context.executor.executeCommand(command);
       outputStream = command.getOutputStream();
       log.debug("getOutputStream() -> {}", outputStream);
     } catch (Throwable e) {
-      unlockQuietly(lock.writeLock());
+      unlockQuietly(writeLock);
       IOUtils.closeQuietly(outputStream);
       if (e instanceof IOException) {
         throw (IOException) e;
@@ -154,13 +210,29 @@ class MojiFileImpl implements MojiFile {
   @Override
   public void rename(String newKey) throws IOException {
     log.debug("rename() : {}", this);
+    String oldKey = key;
+    // both keys are locked, in key order so that concurrent renames cannot deadlock
+    Lock writeLock = lock().writeLock();
+    Lock newKeyWriteLock = newKey.equals(key) ? null : context.keyLocks.forKey(newKey).writeLock();
+    boolean newKeyFirst = newKeyWriteLock != null && newKey.compareTo(key) < 0;
     try {
-      lock.writeLock().lock();
-      RenameCommand command = new RenameCommand(key, domain, newKey);
-      executor.executeCommand(command);
+      if (newKeyFirst) {
+        newKeyWriteLock.lock();
+      }
+      writeLock.lock();
+      if (newKeyWriteLock != null && !newKeyFirst) {
+        newKeyWriteLock.lock();
+      }
+      RenameCommand command = new RenameCommand(key, context.domain, newKey);
+      context.executor.executeCommand(command);
       key = newKey;
     } finally {
-      lock.writeLock().unlock();
+      invalidateCaches(oldKey);
+      invalidateCaches(newKey);
+      unlockQuietly(writeLock);
+      if (newKeyWriteLock != null) {
+        unlockQuietly(newKeyWriteLock);
+      }
     }
   }
 
@@ -170,13 +242,16 @@ class MojiFileImpl implements MojiFile {
     if (storageClass == null) {
       throw new IllegalArgumentException("storageClass == null");
     }
+    Lock writeLock = lock().writeLock();
     try {
-      lock.writeLock().lock();
-      UpdateStorageClassCommand command = new UpdateStorageClassCommand(key, domain, newStorageClass);
-      executor.executeCommand(command);
+      writeLock.lock();
+      UpdateStorageClassCommand command = new UpdateStorageClassCommand(key, context.domain, newStorageClass);
+      context.executor.executeCommand(command);
       storageClass = newStorageClass;
     } finally {
-      lock.writeLock().unlock();
+      // replicas may move to devices of the new class
+      invalidateCaches(key);
+      writeLock.unlock();
     }
   }
 
@@ -184,14 +259,19 @@ class MojiFileImpl implements MojiFile {
   public List<URL> getPaths() throws IOException {
     log.debug("getPaths() : {}", this);
     List<URL> paths = Collections.emptyList();
+    Lock readLock = lock().readLock();
     try {
-      lock.readLock().lock();
-      GetPathsCommand command = new GetPathsCommand(key, domain);
-      executor.executeCommand(command);
-      paths = command.getPaths();
+      readLock.lock();
+      List<URL> cachedPaths = context.pathCache.get(key);
+      if (cachedPaths != null) {
+        paths = new ArrayList<URL>(cachedPaths);
+      } else {
+        paths = context.singleFlight.getPaths(context.executor, key, context.domain);
+        context.pathCache.put(key, paths);
+      }
       log.debug("getPaths() -> {}", paths);
     } finally {
-      lock.readLock().unlock();
+      readLock.unlock();
     }
     return paths;
   }
@@ -200,14 +280,21 @@ class MojiFileImpl implements MojiFile {
   public MojiFileAttributes getAttributes() throws IOException {
     log.debug("getAttributes() : {}", this);
     MojiFileAttributes attributes = null;
+    Lock readLock = lock().readLock();
     try {
-      lock.readLock().lock();
-      GetAttributesCommand command = new GetAttributesCommand(key, domain);
-      executor.executeCommand(command);
-      attributes = command.getAttributes();
+      readLock.lock();
+      AttributeCache.Entry cached = context.attributeCache.get(context.domain, key);
+      if (cached != null) {
+        if (!cached.exists()) {
+          throw new UnknownKeyException(context.domain, key);
+        }
+        attributes = cached.getAttributes();
+      } else {
+        attributes = fetchAttributes();
+      }
       log.debug("getAttributes() -> {}", attributes);
     } finally {
-      lock.readLock().unlock();
+      readLock.unlock();
     }
     return attributes;
   }
@@ -219,14 +306,14 @@ class MojiFileImpl implements MojiFile {
 
   @Override
   public String getDomain() {
-    return domain;
+    return context.domain;
   }
 
   @Override
   public String toString() {
     StringBuilder builder = new StringBuilder();
     builder.append("MogileFileImpl [domain=");
-    builder.append(domain);
+    builder.append(context.domain);
     builder.append(", key=");
     builder.append(key);
     builder.append("]");
@@ -242,7 +329,62 @@ class MojiFileImpl implements MojiFile {
   }
 
   void setExecutor(Executor executor) {
-    this.executor = executor;
+    context = context.withExecutor(executor);
+  }
+
+  /**
+   * @return The lock of the current key, shared with every other handle of the same {@link MojiImpl}.
+   */
+  private ReadWriteLock lock() {
+    return context.keyLocks.forKey(key);
+  }
+
+  /**
+   * @return true if a cached path was opened, false if the tracker must be asked for fresh paths.
+   */
+  private boolean openCachedPaths(GetInputStreamCommand command) {
+    List<URL> cachedPaths = context.pathCache.get(key);
+    if (cachedPaths == null) {
+      return false;
+    }
+    try {
+      command.openFirst(cachedPaths);
+      return true;
+    } catch (IOException e) {
+      log.debug("No cached path of {} could be opened, asking the tracker", this, e);
+      context.pathCache.invalidate(key);
+      return false;
+    }
+  }
+
+  private MojiFileAttributes fetchAttributes() throws IOException {
+    MojiFileAttributes attributes;
+    try {
+      attributes = context.singleFlight.execute("file_info", context.domain, key,
+          new SingleFlight.Lookup<MojiFileAttributes>() {
+            @Override
+            MojiFileAttributes call() throws IOException {
+              GetAttributesCommand command = new GetAttributesCommand(key, context.domain);
+              context.executor.executeCommand(command);
+              return command.getAttributes();
+            }
+
+            @Override
+            MojiFileAttributes copy(MojiFileAttributes attributes) {
+              return attributes; // immutable
+            }
+          });
+    } catch (UnknownKeyException e) {
+      context.attributeCache.putUnknown(context.domain, key);
+      throw e;
+    }
+    context.attributeCache.putAttributes(context.domain, key, attributes);
+    return attributes;
+  }
+
+  private void invalidateCaches(String key) {
+    context.pathCache.invalidate(key);
+    context.attributeCache.invalidate(context.domain, key);
   }
 
   private void unlockQuietly(Lock lock) {
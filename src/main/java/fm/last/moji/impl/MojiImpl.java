@@ -20,37 +20,67 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import fm.last.moji.AsyncMoji;
 import fm.last.moji.Moji;
 import fm.last.moji.MojiDeviceStatus;
 import fm.last.moji.MojiFile;
+import fm.last.moji.MojiFileAttributes;
+import fm.last.moji.MojiFileVisitor;
+import fm.last.moji.MojiScan;
+import fm.last.moji.tracker.KeyResult;
 import fm.last.moji.tracker.TrackerFactory;
 
 class MojiImpl implements Moji {
 
   private static final Logger log = LoggerFactory.getLogger(MojiImpl.class);
 
+  /* Fetches the next page of keys for iterate() */
+  private static final ExecutorService PREFETCH_EXECUTOR = DaemonThreadFactory.newPool("moji-list-prefetch", 16);
+
   private final TrackerFactory trackerFactory;
   private final HttpConnectionFactory httpFactory;
   private final String domain;
   private final Executor executor;
+  private final java.util.concurrent.Executor asyncExecutor;
+  private final BatchRunner batchRunner;
+  private final FileContext fileContext;
 
   MojiImpl(TrackerFactory trackerFactory, HttpConnectionFactory httpFactory, String domain) {
+    this(trackerFactory, httpFactory, domain, ExecutorAsyncMoji.defaultExecutor());
+  }
+
+  MojiImpl(TrackerFactory trackerFactory, HttpConnectionFactory httpFactory, String domain,
+      java.util.concurrent.Executor asyncExecutor) {
+    this(trackerFactory, httpFactory, domain, asyncExecutor, new KeyLocks(), PathCache.NONE,
+        AttributeCache.NONE, new SingleFlight(), RetryBudget.from(trackerFactory.getNetworkingConfiguration()));
+  }
+
+  MojiImpl(TrackerFactory trackerFactory, HttpConnectionFactory httpFactory, String domain,
+      java.util.concurrent.Executor asyncExecutor, KeyLocks keyLocks, PathCache pathCache,
+      AttributeCache attributeCache, SingleFlight singleFlight, RetryBudget retryBudget) {
     this.domain = domain;
     this.httpFactory = httpFactory;
     this.trackerFactory = trackerFactory;
-    executor = new Executor(trackerFactory);
+    this.asyncExecutor = asyncExecutor;
+    executor = new Executor(trackerFactory, retryBudget);
+    batchRunner = new BatchRunner(executor);
+    fileContext = new FileContext(domain, trackerFactory, httpFactory, executor, keyLocks, pathCache,
+        attributeCache, singleFlight);
   }
 
   @Override
   public MojiFile getFile(String key) {
     log.debug("new {}()", MojiFileImpl.class.getSimpleName());
-    return new MojiFileImpl(key, domain, "", trackerFactory, httpFactory);
+    return new MojiFileImpl(key, "", fileContext);
   }
 
   @Override
@@ -59,7 +89,7 @@ class MojiImpl implements Moji {
       throw new IllegalArgumentException("storageClass == null");
     }
     log.debug("new {}() with storage class", MojiFileImpl.class.getSimpleName());
-    return new MojiFileImpl(key, domain, storageClass, trackerFactory, httpFactory);
+    return new MojiFileImpl(key, storageClass, fileContext);
   }
 
   @Override
@@ -98,6 +128,27 @@ class MojiImpl implements Moji {
     return list;
   }
 
+  @Override
+  public Iterable<MojiFile> iterate(final String keyPrefix, final int pageSize) {
+    log.debug("iterate() : {}, {}", keyPrefix, pageSize);
+    if (pageSize < 1 || pageSize > PagedFileIterator.MAX_PAGE_SIZE) {
+      throw new IllegalArgumentException("pageSize must be between 1 and " + PagedFileIterator.MAX_PAGE_SIZE + ": "
+          + pageSize);
+    }
+    return new Iterable<MojiFile>() {
+      @Override
+      public Iterator<MojiFile> iterator() {
+        return new PagedFileIterator(MojiImpl.this, executor, PREFETCH_EXECUTOR, domain, keyPrefix, pageSize);
+      }
+    };
+  }
+
+  @Override
+  public void scan(MojiScan scan, MojiFileVisitor visitor) throws IOException {
+    log.debug("scan() : {}", scan);
+    new DomainScanner(this, executor, domain, scan).run(visitor);
+  }
+
   @Override
   public List<MojiDeviceStatus> getDeviceStatuses() throws IOException {
     log.debug("getDevicesStatus : {}", this);
@@ -108,6 +159,68 @@ class MojiImpl implements Moji {
     return statuses;
   }
 
+  @Override
+  public List<KeyResult<Boolean>> existsAll(Collection<String> keys) {
+    log.debug("existsAll() : {} keys", keys.size());
+    return batchRunner.run(keys, new BatchRunner.CommandFactory<Boolean>() {
+      @Override
+      public BatchCommand<?, Boolean> newCommand(List<String> batch) {
+        return new ExistsAllCommand(batch, domain);
+      }
+    });
+  }
+
+  @Override
+  public List<KeyResult<Void>> deleteAll(Collection<String> keys) {
+    log.debug("deleteAll() : {} keys", keys.size());
+    return batchRunner.run(keys, new BatchRunner.CommandFactory<Void>() {
+      @Override
+      public BatchCommand<?, Void> newCommand(List<String> batch) {
+        return new DeleteAllCommand(batch, domain);
+      }
+    }, fileContext.keyLocks, new BatchRunner.BatchListener<Void>() {
+      @Override
+      public void batchCompleted(List<KeyResult<Void>> results) {
+        // under the batch's write locks, so no reader can cache a deleted key again in between
+        for (KeyResult<Void> result : results) {
+          if (result.isSuccess()) {
+            fileContext.pathCache.invalidate(result.getKey());
+            fileContext.attributeCache.invalidate(domain, result.getKey());
+          }
+        }
+      }
+    });
+  }
+
+  @Override
+  public List<KeyResult<MojiFileAttributes>> getAttributesAll(Collection<String> keys) {
+    log.debug("getAttributesAll() : {} keys", keys.size());
+    return batchRunner.run(keys, new BatchRunner.CommandFactory<MojiFileAttributes>() {
+      @Override
+      public BatchCommand<?, MojiFileAttributes> newCommand(List<String> batch) {
+        return new GetAttributesAllCommand(batch, domain);
+      }
+    });
+  }
+
+  @Override
+  public AsyncMoji async() {
+    return new ExecutorAsyncMoji(this, asyncExecutor);
+  }
+
+  @Override
+  public AsyncMoji async(java.util.concurrent.Executor executor) {
+    return new ExecutorAsyncMoji(this, executor);
+  }
+
+  Executor getExecutor() {
+    return executor;
+  }
+
+  KeyLocks getKeyLocks() {
+    return fileContext.keyLocks;
+  }
+
   @Override
   public String toString() {
     StringBuilder builder = new StringBuilder();
@@ -20,12 +20,23 @@ import java.net.Proxy;
 public class NetworkingConfiguration {
 
   public static final int INFINITE_TIMEOUT = 0;
+  public static final double DEFAULT_RETRY_BUDGET_RATIO = 0.1d;
+  public static final int DEFAULT_MIN_RETRIES_PER_SECOND = 10;
+  public static final int DEFAULT_RETRY_BACKOFF = 10;
+  public static final int DEFAULT_MAX_RETRY_BACKOFF = 1000;
+  public static final int UNLIMITED_CONNECTIONS = 0;
 
   private Proxy proxy = Proxy.NO_PROXY;
   private int trackerConnectTimeout = INFINITE_TIMEOUT;
   private int trackerReadTimeout = INFINITE_TIMEOUT;
   private int httpConnectTimeout = INFINITE_TIMEOUT;
   private int httpReadTimeout = INFINITE_TIMEOUT;
+  private int callTimeout = INFINITE_TIMEOUT;
+  private double retryBudgetRatio = DEFAULT_RETRY_BUDGET_RATIO;
+  private int minRetriesPerSecond = DEFAULT_MIN_RETRIES_PER_SECOND;
+  private int retryBackoff = DEFAULT_RETRY_BACKOFF;
+  private int maxRetryBackoff = DEFAULT_MAX_RETRY_BACKOFF;
+  private int maxConnectionsPerNode = UNLIMITED_CONNECTIONS;
 
   public static class Builder {
 
@@ -60,6 +71,28 @@ public class NetworkingConfiguration {
       return this;
     }
 
+    public Builder callTimeout(int timeout) {
+      building.setCallTimeout(timeout);
+      return this;
+    }
+
+    public Builder retryBudget(double ratio, int minRetriesPerSecond) {
+      building.setRetryBudgetRatio(ratio);
+      building.setMinRetriesPerSecond(minRetriesPerSecond);
+      return this;
+    }
+
+    public Builder retryBackoff(int backoff, int maxBackoff) {
+      building.setRetryBackoff(backoff);
+      building.setMaxRetryBackoff(maxBackoff);
+      return this;
+    }
+
+    public Builder maxConnectionsPerNode(int maxConnections) {
+      building.setMaxConnectionsPerNode(maxConnections);
+      return this;
+    }
+
     public NetworkingConfiguration build() {
       return building;
     }
@@ -106,6 +139,73 @@ public class NetworkingConfiguration {
     this.httpReadTimeout = httpReadTimeout;
   }
 
+  public int getCallTimeout() {
+    return callTimeout;
+  }
+
+  /**
+   * Bounds the total time of each client call in milliseconds, across all tracker attempts and HTTP requests made on
+   * its behalf. Socket timeouts are shortened to fit the time remaining.
+   */
+  public void setCallTimeout(int callTimeout) {
+    this.callTimeout = callTimeout;
+  }
+
+  public double getRetryBudgetRatio() {
+    return retryBudgetRatio;
+  }
+
+  /**
+   * Limits tracker retries to this fraction of calls, on top of {@link #setMinRetriesPerSecond(int)
+   * minRetriesPerSecond}, so that a degraded cluster does not receive a multiple of its normal load. A negative ratio
+   * disables the budget.
+   */
+  public void setRetryBudgetRatio(double retryBudgetRatio) {
+    this.retryBudgetRatio = retryBudgetRatio;
+  }
+
+  public int getMinRetriesPerSecond() {
+    return minRetriesPerSecond;
+  }
+
+  public void setMinRetriesPerSecond(int minRetriesPerSecond) {
+    this.minRetriesPerSecond = minRetriesPerSecond;
+  }
+
+  public int getRetryBackoff() {
+    return retryBackoff;
+  }
+
+  /**
+   * The base delay in milliseconds before retrying a call on another tracker. It doubles with each further attempt up
+   * to {@link #setMaxRetryBackoff(int) maxRetryBackoff}, and the actual delay is chosen at random below it so that
+   * clients that failed together do not retry together. 0 retries immediately.
+   */
+  public void setRetryBackoff(int retryBackoff) {
+    this.retryBackoff = retryBackoff;
+  }
+
+  public int getMaxRetryBackoff() {
+    return maxRetryBackoff;
+  }
+
+  public void setMaxRetryBackoff(int maxRetryBackoff) {
+    this.maxRetryBackoff = maxRetryBackoff;
+  }
+
+  public int getMaxConnectionsPerNode() {
+    return maxConnectionsPerNode;
+  }
+
+  /**
+   * Limits the HTTP connections in use to each storage node. Requests beyond the limit wait for a connection to be
+   * returned, up to the HTTP connect timeout or one second if that is infinite, and then try the next path of the file.
+   * Streams must be closed to return their connections. 0 (the default) sets no limit.
+   */
+  public void setMaxConnectionsPerNode(int maxConnectionsPerNode) {
+    this.maxConnectionsPerNode = maxConnectionsPerNode;
+  }
+
   @Override
   public String toString() {
     StringBuilder builder = new StringBuilder();
@@ -119,6 +219,18 @@ public class NetworkingConfiguration {
     builder.append(httpConnectTimeout);
     builder.append(", httpReadTimeout=");
     builder.append(httpReadTimeout);
+    builder.append(", callTimeout=");
+    builder.append(callTimeout);
+    builder.append(", retryBudgetRatio=");
+    builder.append(retryBudgetRatio);
+    builder.append(", minRetriesPerSecond=");
+    builder.append(minRetriesPerSecond);
+    builder.append(", retryBackoff=");
+    builder.append(retryBackoff);
+    builder.append(", maxRetryBackoff=");
+    builder.append(maxRetryBackoff);
+    builder.append(", maxConnectionsPerNode=");
+    builder.append(maxConnectionsPerNode);
     builder.append("]");
     return builder.toString();
   }
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fm.last.moji.Moji;
+import fm.last.moji.MojiFile;
+
+/**
+ * Walks all files matching a key prefix by paging through <code>list_keys</code> with the tracker's
+ * <code>after</code> cursor. As soon as a page arrives the next one is requested on a background thread so that the
+ * tracker round trip overlaps with the caller's processing. A page shorter than the page size marks the end.
+ */
+class PagedFileIterator implements Iterator<MojiFile> {
+
+  private static final Logger log = LoggerFactory.getLogger(PagedFileIterator.class);
+
+  /* The tracker caps list_keys at this many keys */
+  static final int MAX_PAGE_SIZE = 1000;
+
+  private final Moji moji;
+  private final Executor executor;
+  private final ExecutorService prefetchExecutor;
+  private final String domain;
+  private final String keyPrefix;
+  private final int pageSize;
+  private Iterator<MojiFile> current;
+  private Future<List<MojiFile>> nextPage;
+
+  PagedFileIterator(Moji moji, Executor executor, ExecutorService prefetchExecutor, String domain, String keyPrefix,
+      int pageSize) {
+    if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+      throw new IllegalArgumentException("pageSize must be between 1 and " + MAX_PAGE_SIZE + ": " + pageSize);
+    }
+    this.moji = moji;
+    this.executor = executor;
+    this.prefetchExecutor = prefetchExecutor;
+    this.domain = domain;
+    this.keyPrefix = keyPrefix;
+    this.pageSize = pageSize;
+    current = Collections.<MojiFile> emptyList().iterator();
+    nextPage = requestPage(null);
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (!current.hasNext()) {
+      if (nextPage == null) {
+        return false;
+      }
+      List<MojiFile> page = await(nextPage);
+      if (page.size() < pageSize) {
+        nextPage = null;
+      } else {
+        nextPage = requestPage(page.get(page.size() - 1).getKey());
+      }
+      current = page.iterator();
+    }
+    return true;
+  }
+
+  @Override
+  public MojiFile next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return current.next();
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  private Future<List<MojiFile>> requestPage(final String after) {
+    log.debug("Requesting page of {} after {}", pageSize, after);
+    return prefetchExecutor.submit(new Callable<List<MojiFile>>() {
+      @Override
+      public List<MojiFile> call() throws IOException {
+        ListFilesCommand command = new ListFilesCommand(moji, keyPrefix, domain, after, pageSize);
+        executor.executeCommand(command);
+        return command.getFileList();
+      }
+    });
+  }
+
+  private static List<MojiFile> await(Future<List<MojiFile>> page) {
+    try {
+      return page.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new UncheckedIOException(new InterruptedIOException("Interrupted while listing keys"));
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw new UncheckedIOException((IOException) cause);
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import fm.last.commons.lang.time.Clock;
+
+/**
+ * Remembers the storage node paths of recently read keys so that reads of mostly immutable files can skip the tracker
+ * round trip. Bounded by entry count, least recently used first out, and each entry expires a fixed time after it was
+ * fetched. Entries are invalidated by the writes, deletes and renames of this client only; changes made by other
+ * clients are seen once an entry expires, or when none of its paths can be read.
+ */
+class PathCache {
+
+  /** Caches nothing. */
+  static final PathCache NONE = new PathCache(0, 0L, TimeUnit.MILLISECONDS, Clock.INSTANCE);
+
+  private final int maxEntries;
+  private final long ttlMillis;
+  private final Clock clock;
+  private final Map<String, Entry> entries;
+
+  PathCache(int maxEntries, long ttl, TimeUnit unit) {
+    this(maxEntries, ttl, unit, Clock.INSTANCE);
+  }
+
+  PathCache(final int maxEntries, long ttl, TimeUnit unit, Clock clock) {
+    if (maxEntries < 0) {
+      throw new IllegalArgumentException("maxEntries < 0");
+    }
+    if (ttl < 0) {
+      throw new IllegalArgumentException("ttl < 0");
+    }
+    this.maxEntries = maxEntries;
+    ttlMillis = unit.toMillis(ttl);
+    this.clock = clock;
+    entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * @return The cached paths of the key, or null if there are none or they have expired.
+   */
+  List<URL> get(String key) {
+    if (!isEnabled()) {
+      return null;
+    }
+    synchronized (entries) {
+      Entry entry = entries.get(key);
+      if (entry == null) {
+        return null;
+      }
+      if (clock.currentTimeMillis() >= entry.expires) {
+        entries.remove(key);
+        return null;
+      }
+      return entry.paths;
+    }
+  }
+
+  /**
+   * Caches the paths of a key. Empty path lists are not cached, so missing keys are always looked up afresh.
+   */
+  void put(String key, List<URL> paths) {
+    if (!isEnabled() || paths == null || paths.isEmpty()) {
+      return;
+    }
+    Entry entry = new Entry(Collections.unmodifiableList(new ArrayList<URL>(paths)), clock.currentTimeMillis() + ttlMillis);
+    synchronized (entries) {
+      entries.put(key, entry);
+    }
+  }
+
+  void invalidate(String key) {
+    if (!isEnabled()) {
+      return;
+    }
+    synchronized (entries) {
+      entries.remove(key);
+    }
+  }
+
+  int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  boolean isEnabled() {
+    return maxEntries > 0 && ttlMillis > 0;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("PathCache [maxEntries=");
+    builder.append(maxEntries);
+    builder.append(", ttlMillis=");
+    builder.append(ttlMillis);
+    builder.append("]");
+    return builder.toString();
+  }
+
+  private static class Entry {
+    private final List<URL> paths;
+    private final long expires;
+
+    private Entry(List<URL> paths, long expires) {
+      this.paths = paths;
+      this.expires = expires;
+    }
+  }
+
+}
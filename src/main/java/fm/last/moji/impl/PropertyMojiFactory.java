@@ -41,6 +41,7 @@ import fm.last.moji.tracker.pool.MultiHostTrackerPool;
  * <li><code>moji.tracker.so.timeout</code> (optional)</li>
  * <li><code>moji.http.connect.timeout</code> (optional)</li>
  * <li><code>moji.http.read.timeout</code> (optional)</li>
+ * <li><code>moji.call.timeout</code> (optional)</li>
  * </ul>
  * <p>
  * The properties are loaded from a <code>/moji.properties</code> classpath resource by default. The resource path can
@@ -57,6 +58,7 @@ public class PropertyMojiFactory implements MojiFactory {
   private static final String TRACKER_READ_T_O_PROPERTY = "moji.tracker.so.timeout";
   private static final String HTTP_CONNECT_T_O_PROPERTY = "moji.http.connect.timeout";
   private static final String HTTP_READ_T_O_PROPERTY = "moji.http.read.timeout";
+  private static final String CALL_T_O_PROPERTY = "moji.call.timeout";
 
   private final NetworkingConfiguration netConfig;
   private volatile boolean initialised;
@@ -106,6 +108,7 @@ public class PropertyMojiFactory implements MojiFactory {
         netConfig.setHttpReadTimeout(getTimeout(HTTP_READ_T_O_PROPERTY, properties));
         netConfig.setTrackerConnectTimeout(getTimeout(TRACKER_CONNECT_T_O_PROPERTY, properties));
         netConfig.setTrackerReadTimeout(getTimeout(TRACKER_READ_T_O_PROPERTY, properties));
+        netConfig.setCallTimeout(getTimeout(CALL_T_O_PROPERTY, properties));
 
         trackerFactory = new MultiHostTrackerPool(addresses, netConfig);
         httpFactory = new HttpConnectionFactory(trackerFactory.getNetworkingConfiguration());
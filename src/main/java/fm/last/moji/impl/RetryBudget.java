@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import fm.last.commons.lang.time.Clock;
+
+/**
+ * A token bucket of retries. Each call deposits a fraction of a retry and the bucket also refills at a fixed minimum
+ * rate, so that retries stay a bounded proportion of the load however many trackers are failing.
+ */
+class RetryBudget {
+
+  private static final long SCALE = 1000L;
+  private static final long RESERVE_SECONDS = 10L;
+
+  private final long depositPerCall;
+  private final long minRetriesPerSecond;
+  private final long capacity;
+  private final Clock clock;
+  private long tokens;
+  private long lastRefill;
+
+  RetryBudget(double ratio, int minRetriesPerSecond) {
+    this(ratio, minRetriesPerSecond, Clock.INSTANCE);
+  }
+
+  RetryBudget(double ratio, int minRetriesPerSecond, Clock clock) {
+    if (ratio < 0) {
+      throw new IllegalArgumentException("ratio < 0");
+    }
+    if (minRetriesPerSecond < 0) {
+      throw new IllegalArgumentException("minRetriesPerSecond < 0");
+    }
+    this.clock = clock;
+    this.minRetriesPerSecond = minRetriesPerSecond;
+    depositPerCall = (long) (ratio * SCALE);
+    capacity = Math.max(1L, minRetriesPerSecond * RESERVE_SECONDS) * SCALE;
+    tokens = capacity;
+    lastRefill = clock.currentTimeMillis();
+  }
+
+  /**
+   * @return A budget built from the configuration, or null if the configuration disables it.
+   */
+  static RetryBudget from(NetworkingConfiguration netConfig) {
+    if (netConfig == null) {
+      return new RetryBudget(NetworkingConfiguration.DEFAULT_RETRY_BUDGET_RATIO,
+          NetworkingConfiguration.DEFAULT_MIN_RETRIES_PER_SECOND);
+    }
+    if (netConfig.getRetryBudgetRatio() < 0) {
+      return null;
+    }
+    return new RetryBudget(netConfig.getRetryBudgetRatio(), netConfig.getMinRetriesPerSecond());
+  }
+
+  synchronized void recordCall() {
+    refill();
+    tokens = Math.min(capacity, tokens + depositPerCall);
+  }
+
+  synchronized boolean tryAcquireRetry() {
+    refill();
+    if (tokens < SCALE) {
+      return false;
+    }
+    tokens -= SCALE;
+    return true;
+  }
+
+  synchronized double getAvailableRetries() {
+    refill();
+    return tokens / (double) SCALE;
+  }
+
+  private void refill() {
+    long now = clock.currentTimeMillis();
+    long elapsed = now - lastRefill;
+    if (elapsed <= 0) {
+      return;
+    }
+    long earned = elapsed * minRetriesPerSecond * SCALE / 1000L;
+    if (earned > 0 || tokens >= capacity) {
+      lastRefill = now;
+      tokens = Math.min(capacity, tokens + earned);
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("RetryBudget [tokens=");
+    builder.append(tokens / (double) SCALE);
+    builder.append(", capacity=");
+    builder.append(capacity / SCALE);
+    builder.append("]");
+    return builder.toString();
+  }
+
+}
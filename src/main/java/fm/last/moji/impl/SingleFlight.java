@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fm.last.moji.tracker.Deadline;
+import fm.last.moji.tracker.UnknownKeyException;
+import fm.last.moji.tracker.impl.CommunicationException;
+import fm.last.moji.tracker.impl.DeadlineExceededException;
+
+/**
+ * Coalesces concurrent identical tracker lookups: while a lookup for a domain and key is in flight, other threads
+ * asking for the same wait for its answer instead of sending their own. Lookups run their commands through the
+ * {@link Executor}, so a waiting thread holds no tracker connection. Only lookups are coalesced, as they are
+ * idempotent. Each waiting thread receives its own copy of the answer, or its own {@link UnknownKeyException}; if the
+ * lookup fails for any other reason the waiting threads make their own calls, so that the failure of one tracker
+ * connection is not passed on to callers that never used it.
+ */
+class SingleFlight {
+
+  private static final Logger log = LoggerFactory.getLogger(SingleFlight.class);
+
+  /** Runs every lookup itself, coalescing nothing. */
+  static final SingleFlight NONE = new SingleFlight() {
+    @Override
+    <T> T execute(String operation, String domain, String key, Lookup<T> lookup) throws IOException {
+      return lookup.call();
+    }
+  };
+
+  private final ConcurrentMap<FlightKey, Flight<?>> flights = new ConcurrentHashMap<FlightKey, Flight<?>>();
+
+  List<URL> getPaths(final Executor executor, final String key, final String domain) throws IOException {
+    return execute("get_paths", domain, key, new Lookup<List<URL>>() {
+      @Override
+      List<URL> call() throws IOException {
+        GetPathsCommand command = new GetPathsCommand(key, domain);
+        executor.executeCommand(command);
+        return command.getPaths();
+      }
+
+      @Override
+      List<URL> copy(List<URL> paths) {
+        return new ArrayList<URL>(paths);
+      }
+    });
+  }
+
+  /**
+   * @return The number of lookups currently in flight.
+   */
+  int size() {
+    return flights.size();
+  }
+
+  <T> T execute(String operation, String domain, String key, Lookup<T> lookup) throws IOException {
+    FlightKey flightKey = new FlightKey(operation, domain, key);
+    Flight<T> flight = new Flight<T>();
+    @SuppressWarnings("unchecked")
+    Flight<T> leader = (Flight<T>) flights.putIfAbsent(flightKey, flight);
+    if (leader == null) {
+      try {
+        flight.result = lookup.call();
+        return flight.result;
+      } catch (IOException e) {
+        flight.exception = e;
+        throw e;
+      } finally {
+        flights.remove(flightKey, flight);
+        flight.done.countDown();
+      }
+    }
+    log.debug("Joining {} in flight", flightKey);
+    await(leader, flightKey);
+    if (leader.exception == null && leader.result != null) {
+      return lookup.copy(leader.result);
+    }
+    if (leader.exception instanceof UnknownKeyException) {
+      throw new UnknownKeyException(domain, key);
+    }
+    return lookup.call();
+  }
+
+  private void await(Flight<?> flight, FlightKey flightKey) throws CommunicationException {
+    Deadline deadline = Deadline.current();
+    try {
+      if (deadline == null) {
+        flight.done.await();
+      } else if (!flight.done.await(deadline.remainingNanos(), TimeUnit.NANOSECONDS)) {
+        throw new DeadlineExceededException("Deadline expired waiting for " + flightKey);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CommunicationException("Interrupted while waiting for " + flightKey, e);
+    }
+  }
+
+  abstract static class Lookup<T> {
+    abstract T call() throws IOException;
+
+    /**
+     * @return A copy of the answer for a waiting thread, so that callers cannot see each other's changes.
+     */
+    abstract T copy(T result);
+  }
+
+  private static class Flight<T> {
+    private final CountDownLatch done = new CountDownLatch(1);
+    /* written before done is counted down, so visible to the threads it releases */
+    private T result;
+    private IOException exception;
+  }
+
+  private static class FlightKey {
+    private final String operation;
+    private final String domain;
+    private final String key;
+
+    private FlightKey(String operation, String domain, String key) {
+      this.operation = operation;
+      this.domain = domain;
+      this.key = key;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * operation.hashCode() + domain.hashCode()) + key.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof FlightKey)) {
+        return false;
+      }
+      FlightKey other = (FlightKey) obj;
+      return operation.equals(other.operation) && domain.equals(other.domain) && key.equals(other.key);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder();
+      builder.append(operation);
+      builder.append(" [domain=");
+      builder.append(domain);
+      builder.append(", key=");
+      builder.append(key);
+      builder.append("]");
+      return builder.toString();
+    }
+  }
+
+}
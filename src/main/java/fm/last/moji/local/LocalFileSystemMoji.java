@@ -18,14 +18,24 @@ package fm.last.moji.local;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import org.apache.commons.io.FileUtils;
 
+import fm.last.moji.AsyncMoji;
 import fm.last.moji.Moji;
 import fm.last.moji.MojiDeviceStatus;
 import fm.last.moji.MojiFile;
+import fm.last.moji.MojiFileAttributes;
+import fm.last.moji.MojiFileVisitor;
+import fm.last.moji.MojiScan;
+import fm.last.moji.impl.ExecutorAsyncMoji;
+import fm.last.moji.tracker.KeyResult;
+import fm.last.moji.tracker.TrackerException;
+import fm.last.moji.tracker.UnknownKeyException;
 
 /**
  * A simple {@link fm.last.moji.Moji Moji} implementation that uses the local filesystem for storage. This is intended
@@ -99,6 +109,29 @@ public class LocalFileSystemMoji implements Moji {
     return mojiFiles;
   }
 
+  /**
+   * Lists the matching files eagerly; there is no paging on the local filesystem.
+   */
+  @Override
+  public Iterable<MojiFile> iterate(String keyPrefix, int pageSize) {
+    return list(keyPrefix);
+  }
+
+  /**
+   * Visits the files of each prefix in turn. Local files have no fids, so a fid range scan visits every file.
+   */
+  @Override
+  public void scan(MojiScan scan, MojiFileVisitor visitor) throws IOException {
+    List<String> prefixes = scan.isByFid() ? Collections.singletonList("") : scan.getPrefixes();
+    for (String prefix : prefixes) {
+      for (MojiFile file : list(prefix)) {
+        if (!visitor.visit(file)) {
+          return;
+        }
+      }
+    }
+  }
+
   /**
    * Always returns an empty list.
    */
@@ -107,6 +140,67 @@ public class LocalFileSystemMoji implements Moji {
     return Collections.emptyList();
   }
 
+  @Override
+  public List<KeyResult<Boolean>> existsAll(Collection<String> keys) {
+    List<KeyResult<Boolean>> results = new ArrayList<KeyResult<Boolean>>(keys.size());
+    for (String key : keys) {
+      try {
+        results.add(KeyResult.success(key, getFile(key).exists()));
+      } catch (IOException e) {
+        results.add(KeyResult.<Boolean> failure(key, asTrackerException(e)));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Reports keys without a file as {@link UnknownKeyException UnknownKeyExceptions}, as a tracker would.
+   */
+  @Override
+  public List<KeyResult<Void>> deleteAll(Collection<String> keys) {
+    List<KeyResult<Void>> results = new ArrayList<KeyResult<Void>>(keys.size());
+    for (String key : keys) {
+      try {
+        MojiFile file = getFile(key);
+        if (!file.exists()) {
+          throw new UnknownKeyException(domain, key);
+        }
+        file.delete();
+        results.add(KeyResult.<Void> success(key, null));
+      } catch (IOException e) {
+        results.add(KeyResult.<Void> failure(key, asTrackerException(e)));
+      }
+    }
+    return results;
+  }
+
+  @Override
+  public List<KeyResult<MojiFileAttributes>> getAttributesAll(Collection<String> keys) {
+    List<KeyResult<MojiFileAttributes>> results = new ArrayList<KeyResult<MojiFileAttributes>>(keys.size());
+    for (String key : keys) {
+      try {
+        results.add(KeyResult.success(key, getFile(key).getAttributes()));
+      } catch (IOException e) {
+        results.add(KeyResult.<MojiFileAttributes> failure(key, asTrackerException(e)));
+      }
+    }
+    return results;
+  }
+
+  @Override
+  public AsyncMoji async() {
+    return new ExecutorAsyncMoji(this, ExecutorAsyncMoji.defaultExecutor());
+  }
+
+  @Override
+  public AsyncMoji async(Executor executor) {
+    return new ExecutorAsyncMoji(this, executor);
+  }
+
+  private static TrackerException asTrackerException(IOException e) {
+    return e instanceof TrackerException ? (TrackerException) e : new TrackerException(e);
+  }
+
   @Override
   public String toString() {
     StringBuilder builder = new StringBuilder();
@@ -22,20 +22,33 @@ import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
 import org.apache.commons.lang.StringUtils;
 
+import fm.last.moji.AsyncMoji;
 import fm.last.moji.Moji;
 import fm.last.moji.MojiDeviceStatus;
 import fm.last.moji.MojiFile;
+import fm.last.moji.MojiFileAttributes;
+import fm.last.moji.MojiFileVisitor;
+import fm.last.moji.MojiScan;
+import fm.last.moji.impl.AttributeCache;
 import fm.last.moji.impl.DefaultMojiFactory;
+import fm.last.moji.impl.ExecutorAsyncMoji;
+import fm.last.moji.impl.HttpConnectionStatistics;
 import fm.last.moji.impl.NetworkingConfiguration;
+import fm.last.moji.tracker.KeyResult;
 import fm.last.moji.tracker.impl.InetSocketAddressFactory;
+import fm.last.moji.tracker.pool.HostSelectionStrategy;
 import fm.last.moji.tracker.pool.MultiHostTrackerPool;
 
 /**
@@ -43,6 +56,8 @@ import fm.last.moji.tracker.pool.MultiHostTrackerPool;
  */
 public class SpringMojiBean implements Moji {
 
+  private static final long DEFAULT_HEDGE_MINIMUM_DELAY = 10L;
+
   private String addressesCsv;
   private String domain;
 
@@ -53,11 +68,35 @@ public class SpringMojiBean implements Moji {
   private int httpReadTimeout = INFINITE_TIMEOUT;
   private int trackerReadTimeout = INFINITE_TIMEOUT;
   private int trackerConnectTimeout = INFINITE_TIMEOUT;
+  private int callTimeout = INFINITE_TIMEOUT;
+  private double retryBudgetRatio = NetworkingConfiguration.DEFAULT_RETRY_BUDGET_RATIO;
+  private int minRetriesPerSecond = NetworkingConfiguration.DEFAULT_MIN_RETRIES_PER_SECOND;
+  private int retryBackoff = NetworkingConfiguration.DEFAULT_RETRY_BACKOFF;
+  private int maxRetryBackoff = NetworkingConfiguration.DEFAULT_MAX_RETRY_BACKOFF;
   private Boolean testOnReturn;
   private Boolean testOnBorrow;
   private Integer maxIdle;
+  private Integer minIdle;
+  private Long healthCheckInterval;
+  private Double hedgePercentile;
+  private long hedgeMinimumDelay = DEFAULT_HEDGE_MINIMUM_DELAY;
   private Long maxWait;
   private Integer maxActive;
+  private Integer sharedConnectionsPerHost;
+  private HostSelectionStrategy hostSelectionStrategy;
+  private Executor asyncExecutor;
+  private boolean asyncVirtualThreads;
+  private boolean keyLocking = true;
+  private int pathCacheMaxEntries;
+  private long pathCacheTtlMillis;
+  private int attributeCacheMaxEntries;
+  private long attributeCacheTtlMillis;
+  private long attributeCacheNegativeTtlMillis;
+  private AttributeCache attributeCache;
+  private boolean requestCoalescing = true;
+  private int maxConnectionsPerNode = NetworkingConfiguration.UNLIMITED_CONNECTIONS;
+  private HttpConnectionStatistics httpConnectionStatistics;
+  private ExecutorService ownedAsyncExecutor;
 
   public SpringMojiBean() {
   }
@@ -91,6 +130,19 @@ public class SpringMojiBean implements Moji {
     Set<InetSocketAddress> addresses = InetSocketAddressFactory.newAddresses(addressesCsv);
     createTrackerPool(netConfig, addresses);
     DefaultMojiFactory factory = new DefaultMojiFactory(poolingTrackerFactory, domain);
+    if (asyncVirtualThreads) {
+      ownedAsyncExecutor = ExecutorAsyncMoji.newVirtualThreadExecutor();
+      factory.setAsyncExecutor(ownedAsyncExecutor);
+    } else if (asyncExecutor != null) {
+      factory.setAsyncExecutor(asyncExecutor);
+    }
+    factory.setKeyLocking(keyLocking);
+    factory.setPathCache(pathCacheMaxEntries, pathCacheTtlMillis, TimeUnit.MILLISECONDS);
+    factory.setAttributeCache(attributeCacheMaxEntries, attributeCacheTtlMillis, attributeCacheNegativeTtlMillis,
+        TimeUnit.MILLISECONDS);
+    attributeCache = factory.getAttributeCache();
+    factory.setRequestCoalescing(requestCoalescing);
+    httpConnectionStatistics = factory.getHttpConnectionStatistics();
     moji = factory.getInstance();
   }
 
@@ -119,6 +171,16 @@ public class SpringMojiBean implements Moji {
     return moji.list(keyPrefix, limit);
   }
 
+  @Override
+  public void scan(MojiScan scan, MojiFileVisitor visitor) throws IOException {
+    moji.scan(scan, visitor);
+  }
+
+  @Override
+  public Iterable<MojiFile> iterate(String keyPrefix, int pageSize) {
+    return moji.iterate(keyPrefix, pageSize);
+  }
+
   @Override
   public List<MojiDeviceStatus> getDeviceStatuses() throws IOException {
     return moji.getDeviceStatuses();
@@ -139,22 +201,50 @@ public class SpringMojiBean implements Moji {
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#close()}.
+   * See: {@link MultiHostTrackerPool#close()}.
    */
+  @Override
+  public List<KeyResult<Boolean>> existsAll(Collection<String> keys) {
+    return moji.existsAll(keys);
+  }
+
+  @Override
+  public List<KeyResult<Void>> deleteAll(Collection<String> keys) {
+    return moji.deleteAll(keys);
+  }
+
+  @Override
+  public List<KeyResult<MojiFileAttributes>> getAttributesAll(Collection<String> keys) {
+    return moji.getAttributesAll(keys);
+  }
+
+  @Override
+  public AsyncMoji async() {
+    return moji.async();
+  }
+
+  @Override
+  public AsyncMoji async(Executor executor) {
+    return moji.async(executor);
+  }
+
   @PreDestroy
   public void close() throws Exception {
+    if (ownedAsyncExecutor != null) {
+      ownedAsyncExecutor.shutdown();
+    }
     poolingTrackerFactory.close();
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#getMaxActive()}.
+   * See: {@link MultiHostTrackerPool#getMaxActive()}.
    */
   public int getMaxActive() {
     return maxActive;
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#setMaxActive(int)}. Setting this value after
+   * See: {@link MultiHostTrackerPool#setMaxActive(int)}. Setting this value after
    * {@link #initialise()} has been called will have no effect.
    */
   public void setMaxActive(int maxActive) {
@@ -162,14 +252,14 @@ public class SpringMojiBean implements Moji {
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#getMaxWait()}.
+   * See: {@link MultiHostTrackerPool#getMaxWait()}.
    */
   public long getMaxWait() {
     return maxWait;
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#setMaxWait(long)}. Setting this value after
+   * See: {@link MultiHostTrackerPool#setMaxWait(long)}. Setting this value after
    * {@link #initialise()} has been called will have no effect.
    */
   public void setMaxWait(long maxWait) {
@@ -177,14 +267,14 @@ public class SpringMojiBean implements Moji {
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#getMaxIdle()}.
+   * See: {@link MultiHostTrackerPool#getMaxIdle()}.
    */
   public int getMaxIdle() {
     return maxIdle;
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#setMaxIdle(int)}. Setting this value after
+   * See: {@link MultiHostTrackerPool#setMaxIdle(int)}. Setting this value after
    * {@link #initialise()} has been called will have no effect.
    */
   public void setMaxIdle(int maxIdle) {
@@ -192,14 +282,71 @@ public class SpringMojiBean implements Moji {
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#getTestOnBorrow()}.
+   * See: {@link MultiHostTrackerPool#getMinIdle()}.
+   */
+  public int getMinIdle() {
+    return minIdle;
+  }
+
+  /**
+   * See: {@link MultiHostTrackerPool#setMinIdle(int)}. Setting this value after {@link #initialise()} has been called
+   * will have no effect.
+   */
+  public void setMinIdle(int minIdle) {
+    this.minIdle = minIdle;
+  }
+
+  /**
+   * See: {@link MultiHostTrackerPool#getHealthCheckIntervalMillis()}.
+   */
+  public long getHealthCheckInterval() {
+    return healthCheckInterval;
+  }
+
+  /**
+   * See: {@link MultiHostTrackerPool#setHealthCheckInterval(long, TimeUnit)}, in milliseconds. Setting this value after
+   * {@link #initialise()} has been called will have no effect.
+   */
+  public void setHealthCheckInterval(long healthCheckInterval) {
+    this.healthCheckInterval = healthCheckInterval;
+  }
+
+  /**
+   * See: {@link MultiHostTrackerPool#getHedgePercentile()}.
+   */
+  public double getHedgePercentile() {
+    return hedgePercentile;
+  }
+
+  /**
+   * See: {@link MultiHostTrackerPool#setHedging(double, long, TimeUnit)}. Setting this value after {@link #initialise()}
+   * has been called will have no effect.
+   */
+  public void setHedgePercentile(double hedgePercentile) {
+    this.hedgePercentile = hedgePercentile;
+  }
+
+  public long getHedgeMinimumDelay() {
+    return hedgeMinimumDelay;
+  }
+
+  /**
+   * See: {@link MultiHostTrackerPool#setHedging(double, long, TimeUnit)}, in milliseconds. Only used if a hedge
+   * percentile is set. Setting this value after {@link #initialise()} has been called will have no effect.
+   */
+  public void setHedgeMinimumDelay(long hedgeMinimumDelay) {
+    this.hedgeMinimumDelay = hedgeMinimumDelay;
+  }
+
+  /**
+   * See: {@link MultiHostTrackerPool#getTestOnBorrow()}.
    */
   public boolean getTestOnBorrow() {
     return testOnBorrow;
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#setTestOnBorrow(boolean)}. Setting this value after
+   * See: {@link MultiHostTrackerPool#setTestOnBorrow(boolean)}. Setting this value after
    * {@link #initialise()} has been called will have no effect.
    */
   public void setTestOnBorrow(boolean testOnBorrow) {
@@ -207,14 +354,14 @@ public class SpringMojiBean implements Moji {
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#getTestOnReturn()}.
+   * See: {@link MultiHostTrackerPool#getTestOnReturn()}.
    */
   public boolean getTestOnReturn() {
     return testOnReturn;
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#setTestOnReturn(boolean)}. Setting this value after
+   * See: {@link MultiHostTrackerPool#setTestOnReturn(boolean)}. Setting this value after
    * {@link #initialise()} has been called will have no effect.
    */
   public void setTestOnReturn(boolean testOnReturn) {
@@ -222,14 +369,163 @@ public class SpringMojiBean implements Moji {
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#getNumActive()}.
+   * See: {@link MultiHostTrackerPool#getSharedConnectionsPerHost()}.
+   */
+  public int getSharedConnectionsPerHost() {
+    return sharedConnectionsPerHost;
+  }
+
+  /**
+   * See: {@link MultiHostTrackerPool#setSharedConnectionsPerHost(int)}. Setting this value after {@link #initialise()}
+   * has been called will have no effect.
+   */
+  public void setSharedConnectionsPerHost(int sharedConnectionsPerHost) {
+    this.sharedConnectionsPerHost = sharedConnectionsPerHost;
+  }
+
+  /**
+   * See: {@link MultiHostTrackerPool#getHostSelectionStrategy()}.
+   */
+  public HostSelectionStrategy getHostSelectionStrategy() {
+    return hostSelectionStrategy;
+  }
+
+  /**
+   * See: {@link MultiHostTrackerPool#setHostSelectionStrategy(HostSelectionStrategy)}. Setting this value after
+   * {@link #initialise()} has been called will have no effect.
+   */
+  public void setHostSelectionStrategy(HostSelectionStrategy hostSelectionStrategy) {
+    this.hostSelectionStrategy = hostSelectionStrategy;
+  }
+
+  public Executor getAsyncExecutor() {
+    return asyncExecutor;
+  }
+
+  /**
+   * The executor that runs the calls of {@link #async()}, by default a shared pool of daemon threads. Setting this
+   * value after {@link #initialise()} has been called will have no effect.
+   */
+  public void setAsyncExecutor(Executor asyncExecutor) {
+    this.asyncExecutor = asyncExecutor;
+  }
+
+  public boolean isAsyncVirtualThreads() {
+    return asyncVirtualThreads;
+  }
+
+  /**
+   * Runs each call of {@link #async()} on its own virtual thread, which requires Java 21 or later. Takes precedence
+   * over {@link #setAsyncExecutor(Executor) asyncExecutor}. Setting this value after {@link #initialise()} has been
+   * called will have no effect.
+   */
+  public void setAsyncVirtualThreads(boolean asyncVirtualThreads) {
+    this.asyncVirtualThreads = asyncVirtualThreads;
+  }
+
+  public boolean isKeyLocking() {
+    return keyLocking;
+  }
+
+  /**
+   * See: {@link DefaultMojiFactory#setKeyLocking(boolean)}. Setting this value after {@link #initialise()} has been
+   * called will have no effect.
+   */
+  public void setKeyLocking(boolean keyLocking) {
+    this.keyLocking = keyLocking;
+  }
+
+  public int getPathCacheMaxEntries() {
+    return pathCacheMaxEntries;
+  }
+
+  /**
+   * The number of keys whose paths are cached, zero (the default) to disable the cache. See:
+   * {@link DefaultMojiFactory#setPathCache(int, long, TimeUnit)}. Setting this value after {@link #initialise()} has
+   * been called will have no effect.
+   */
+  public void setPathCacheMaxEntries(int pathCacheMaxEntries) {
+    this.pathCacheMaxEntries = pathCacheMaxEntries;
+  }
+
+  public long getPathCacheTtlMillis() {
+    return pathCacheTtlMillis;
+  }
+
+  /**
+   * How long cached paths are used, zero (the default) to disable the cache. See:
+   * {@link DefaultMojiFactory#setPathCache(int, long, TimeUnit)}. Setting this value after {@link #initialise()} has
+   * been called will have no effect.
+   */
+  public void setPathCacheTtlMillis(long pathCacheTtlMillis) {
+    this.pathCacheTtlMillis = pathCacheTtlMillis;
+  }
+
+  public int getAttributeCacheMaxEntries() {
+    return attributeCacheMaxEntries;
+  }
+
+  /**
+   * The number of files whose attributes are cached, zero (the default) to disable the cache. See:
+   * {@link DefaultMojiFactory#setAttributeCache(int, long, long, TimeUnit)}. Setting this value after
+   * {@link #initialise()} has been called will have no effect.
+   */
+  public void setAttributeCacheMaxEntries(int attributeCacheMaxEntries) {
+    this.attributeCacheMaxEntries = attributeCacheMaxEntries;
+  }
+
+  public long getAttributeCacheTtlMillis() {
+    return attributeCacheTtlMillis;
+  }
+
+  /**
+   * How long cached attributes are used. Setting this value after {@link #initialise()} has been called will have no
+   * effect.
+   */
+  public void setAttributeCacheTtlMillis(long attributeCacheTtlMillis) {
+    this.attributeCacheTtlMillis = attributeCacheTtlMillis;
+  }
+
+  public long getAttributeCacheNegativeTtlMillis() {
+    return attributeCacheNegativeTtlMillis;
+  }
+
+  /**
+   * How long keys found not to exist are remembered, zero (the default) to always ask the tracker. Setting this value
+   * after {@link #initialise()} has been called will have no effect.
+   */
+  public void setAttributeCacheNegativeTtlMillis(long attributeCacheNegativeTtlMillis) {
+    this.attributeCacheNegativeTtlMillis = attributeCacheNegativeTtlMillis;
+  }
+
+  public boolean isRequestCoalescing() {
+    return requestCoalescing;
+  }
+
+  /**
+   * See: {@link DefaultMojiFactory#setRequestCoalescing(boolean)}. Setting this value after {@link #initialise()} has
+   * been called will have no effect.
+   */
+  public void setRequestCoalescing(boolean requestCoalescing) {
+    this.requestCoalescing = requestCoalescing;
+  }
+
+  /**
+   * @return The attribute cache, for its hit and miss counts.
+   */
+  public AttributeCache getAttributeCache() {
+    return attributeCache;
+  }
+
+  /**
+   * See: {@link MultiHostTrackerPool#getNumActive()}.
    */
   public int getNumActive() {
     return poolingTrackerFactory.getNumActive();
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#getNumIdle()}
+   * See: {@link MultiHostTrackerPool#getNumIdle()}
    */
   public int getNumIdle() {
     return poolingTrackerFactory.getNumIdle();
@@ -309,6 +605,83 @@ public class SpringMojiBean implements Moji {
     this.httpReadTimeout = httpReadTimeout;
   }
 
+  public int getCallTimeout() {
+    return callTimeout;
+  }
+
+  /**
+   * Bounds each call in milliseconds across all of its retries. Setting this value after {@link #initialise()} has
+   * been called will have no effect.
+   */
+  public void setCallTimeout(int callTimeout) {
+    this.callTimeout = callTimeout;
+  }
+
+  public double getRetryBudgetRatio() {
+    return retryBudgetRatio;
+  }
+
+  /**
+   * The fraction of calls that may be retried, negative for no limit. Setting this value after {@link #initialise()}
+   * has been called will have no effect.
+   */
+  public void setRetryBudgetRatio(double retryBudgetRatio) {
+    this.retryBudgetRatio = retryBudgetRatio;
+  }
+
+  public int getMinRetriesPerSecond() {
+    return minRetriesPerSecond;
+  }
+
+  /**
+   * Setting this value after {@link #initialise()} has been called will have no effect.
+   */
+  public void setMinRetriesPerSecond(int minRetriesPerSecond) {
+    this.minRetriesPerSecond = minRetriesPerSecond;
+  }
+
+  public int getRetryBackoff() {
+    return retryBackoff;
+  }
+
+  /**
+   * The base delay in milliseconds before retrying on another tracker. Setting this value after {@link #initialise()}
+   * has been called will have no effect.
+   */
+  public void setRetryBackoff(int retryBackoff) {
+    this.retryBackoff = retryBackoff;
+  }
+
+  public int getMaxRetryBackoff() {
+    return maxRetryBackoff;
+  }
+
+  /**
+   * Setting this value after {@link #initialise()} has been called will have no effect.
+   */
+  public void setMaxRetryBackoff(int maxRetryBackoff) {
+    this.maxRetryBackoff = maxRetryBackoff;
+  }
+
+  public int getMaxConnectionsPerNode() {
+    return maxConnectionsPerNode;
+  }
+
+  /**
+   * See: {@link NetworkingConfiguration#setMaxConnectionsPerNode(int)}. Setting this value after {@link #initialise()}
+   * has been called will have no effect.
+   */
+  public void setMaxConnectionsPerNode(int maxConnectionsPerNode) {
+    this.maxConnectionsPerNode = maxConnectionsPerNode;
+  }
+
+  /**
+   * @return The counts of the HTTP connections to storage nodes, for their reuse.
+   */
+  public HttpConnectionStatistics getHttpConnectionStatistics() {
+    return httpConnectionStatistics;
+  }
+
   /**
    * Setting this value after {@link #initialise()} has been called will have no effect.
    */
@@ -319,7 +692,9 @@ public class SpringMojiBean implements Moji {
   private NetworkingConfiguration createNetworkConfiguration() {
     return new NetworkingConfiguration.Builder().proxy(proxy).httpConnectTimeout(httpConnectTimeout)
         .httpReadTimeout(httpReadTimeout).trackerConnectTimeout(trackerConnectTimeout)
-        .trackerReadTimeout(trackerReadTimeout).build();
+        .trackerReadTimeout(trackerReadTimeout).callTimeout(callTimeout)
+        .retryBudget(retryBudgetRatio, minRetriesPerSecond).retryBackoff(retryBackoff, maxRetryBackoff)
+        .maxConnectionsPerNode(maxConnectionsPerNode).build();
   }
 
   private void createTrackerPool(NetworkingConfiguration netConfig, Set<InetSocketAddress> addresses) {
@@ -339,6 +714,22 @@ public class SpringMojiBean implements Moji {
     if (maxWait != null) {
       poolingTrackerFactory.setMaxWait(maxWait);
     }
+    if (sharedConnectionsPerHost != null) {
+      poolingTrackerFactory.setSharedConnectionsPerHost(sharedConnectionsPerHost);
+    }
+    if (hostSelectionStrategy != null) {
+      poolingTrackerFactory.setHostSelectionStrategy(hostSelectionStrategy);
+    }
+    if (hedgePercentile != null) {
+      poolingTrackerFactory.setHedging(hedgePercentile, hedgeMinimumDelay, TimeUnit.MILLISECONDS);
+    }
+    if (healthCheckInterval != null) {
+      poolingTrackerFactory.setHealthCheckInterval(healthCheckInterval, TimeUnit.MILLISECONDS);
+    }
+    if (minIdle != null) {
+      // last, so that connections are opened with the final pool settings
+      poolingTrackerFactory.setMinIdle(minIdle);
+    }
   }
 
 }
@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker;
+
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking counterpart of {@link Tracker}. Each call returns immediately; the returned future completes with the
+ * tracker's answer, or exceptionally with the {@link TrackerException} that the equivalent {@link Tracker} method would
+ * have thrown. Implementations are thread safe and are shared rather than borrowed.
+ */
+public interface AsyncTracker {
+
+  CompletableFuture<List<URL>> getPaths(String key, String domain);
+
+  CompletableFuture<Map<String, String>> fileInfo(String key, String domain);
+
+  CompletableFuture<List<Destination>> createOpen(String key, String domain, String storageClass);
+
+  CompletableFuture<Void> createClose(String key, String domain, Destination destination, long size);
+
+  CompletableFuture<Void> delete(String key, String domain);
+
+  CompletableFuture<Void> rename(String oldKey, String domain, String newKey);
+
+  CompletableFuture<Void> updateStorageClass(String key, String domain, String newStorageClass);
+
+  CompletableFuture<List<String>> list(String domain, String keyPrefix, Integer limit);
+
+  CompletableFuture<List<String>> list(String domain, String keyPrefix, String after, Integer limit);
+
+  CompletableFuture<List<Map<String, String>>> listFids(long fromFid, long toFid);
+
+  CompletableFuture<Map<String, Map<String, String>>> getDeviceStatuses(String domain);
+
+  CompletableFuture<Void> noop();
+
+  /**
+   * Closes all connections and stops any threads used by this tracker. Outstanding requests fail.
+   */
+  void close();
+
+}
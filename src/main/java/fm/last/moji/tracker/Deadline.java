@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which a whole client call must finish, across all of its tracker attempts and HTTP requests. The
+ * deadline of the call running on a thread is held in a thread local so that the networking layers can shorten their
+ * timeouts to fit without it being passed through every method.
+ */
+public final class Deadline {
+
+  private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<Deadline>();
+
+  private final long expiresAtNanos;
+
+  private Deadline(long expiresAtNanos) {
+    this.expiresAtNanos = expiresAtNanos;
+  }
+
+  public static Deadline after(long timeout, TimeUnit unit) {
+    return new Deadline(System.nanoTime() + unit.toNanos(timeout));
+  }
+
+  /**
+   * @return The deadline of the call running on this thread, or null if it has none.
+   */
+  public static Deadline current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Makes the given deadline current on this thread.
+   * 
+   * @return The previously current deadline, to be passed to {@link #restore(Deadline)} when the call completes.
+   */
+  public static Deadline enter(Deadline deadline) {
+    Deadline previous = CURRENT.get();
+    CURRENT.set(deadline);
+    return previous;
+  }
+
+  public static void restore(Deadline previous) {
+    if (previous == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(previous);
+    }
+  }
+
+  /**
+   * @return Whichever of this and the other deadline expires first; the other may be null.
+   */
+  public Deadline earliest(Deadline other) {
+    if (other == null || expiresAtNanos - other.expiresAtNanos <= 0) {
+      return this;
+    }
+    return other;
+  }
+
+  public long remainingNanos() {
+    return expiresAtNanos - System.nanoTime();
+  }
+
+  public boolean isExpired() {
+    return remainingNanos() <= 0;
+  }
+
+  /**
+   * Shortens a socket timeout so that it does not outlast this deadline.
+   * 
+   * @param timeoutMillis The configured timeout, where 0 means infinite.
+   * @return The shorter of the configured timeout and the time remaining, but at least 1 as 0 would mean infinite.
+   */
+  public int clampTimeoutMillis(int timeoutMillis) {
+    long remaining = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(remainingNanos()));
+    if (timeoutMillis > 0 && timeoutMillis <= remaining) {
+      return timeoutMillis;
+    }
+    return (int) Math.min(remaining, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Shortens the configured timeout of the call running on this thread, if it has a deadline.
+   */
+  public static int clampToCurrent(int timeoutMillis) {
+    Deadline deadline = CURRENT.get();
+    return deadline == null ? timeoutMillis : deadline.clampTimeoutMillis(timeoutMillis);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("Deadline [remainingMillis=");
+    builder.append(TimeUnit.NANOSECONDS.toMillis(remainingNanos()));
+    builder.append("]");
+    return builder.toString();
+  }
+
+}
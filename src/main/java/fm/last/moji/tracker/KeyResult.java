@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker;
+
+/**
+ * The outcome of a single key's command within a batch of tracker requests. Holds either a value or the exception
+ * that the equivalent single key call would have thrown.
+ * 
+ * @param <T> The type of the value returned by a successful command.
+ */
+public class KeyResult<T> {
+
+  private final String key;
+  private final T value;
+  private final TrackerException exception;
+
+  private KeyResult(String key, T value, TrackerException exception) {
+    this.key = key;
+    this.value = value;
+    this.exception = exception;
+  }
+
+  public static <T> KeyResult<T> success(String key, T value) {
+    return new KeyResult<T>(key, value, null);
+  }
+
+  public static <T> KeyResult<T> failure(String key, TrackerException exception) {
+    return new KeyResult<T>(key, null, exception);
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public boolean isSuccess() {
+    return exception == null;
+  }
+
+  /**
+   * @return The value, or <code>null</code> if the command failed.
+   */
+  public T getValue() {
+    return value;
+  }
+
+  /**
+   * @return The failure cause, or <code>null</code> if the command succeeded.
+   */
+  public TrackerException getException() {
+    return exception;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("KeyResult [key=");
+    builder.append(key);
+    builder.append(", value=");
+    builder.append(value);
+    builder.append(", exception=");
+    builder.append(exception);
+    builder.append("]");
+    return builder.toString();
+  }
+
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker;
+
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link Tracker} that can put many requests on the wire before reading the responses. The tracker protocol answers
+ * requests in order on a connection, so a batch costs roughly one round trip rather than one per key.
+ * <p>
+ * Results are returned in the order of the supplied keys. Failures specific to a key (such as an unknown key) are
+ * reported in its {@link KeyResult}; a {@link TrackerException} is only thrown if the connection itself failed, in
+ * which case the state of the whole batch is unknown.
+ */
+public interface PipelinedTracker extends Tracker {
+
+  List<KeyResult<List<URL>>> getPathsAll(List<String> keys, String domain) throws TrackerException;
+
+  List<KeyResult<Map<String, String>>> fileInfoAll(List<String> keys, String domain) throws TrackerException;
+
+  List<KeyResult<Void>> deleteAll(List<String> keys, String domain) throws TrackerException;
+
+}
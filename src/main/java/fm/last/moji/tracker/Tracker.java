@@ -15,6 +15,7 @@
  */
 package fm.last.moji.tracker;
 
+import java.net.InetSocketAddress;
 import java.net.URL;
 import java.util.List;
 import java.util.Map;
@@ -65,6 +66,21 @@ public interface Tracker {
 
   void noop() throws TrackerException;
 
+  /**
+   * Cheaply checks, without a round trip to the tracker, whether the underlying connection still looks usable.
+   * Implementations that cannot tell return true.
+   */
+  default boolean isConnected() {
+    return true;
+  }
+
+  /**
+   * @return The address of the tracker host this instance talks to, or null if it is not known.
+   */
+  default InetSocketAddress getAddress() {
+    return null;
+  }
+
   /**
    * Closes the resources used by this tracker. Pooled implementations may just return the tracker to the pool.
    */
@@ -81,6 +97,31 @@ public interface Tracker {
    */
   List<String> list(String domain, String keyPrefix, Integer limit) throws TrackerException;
 
+  /**
+   * Get a page of keys matching a given prefix in the target domain, starting after the given key. Keys are returned in
+   * order so the last key of one page can be passed as <code>after</code> to fetch the next.
+   * 
+   * @param domain The domain in which to perform the key search.
+   * @param keyPrefix The key prefix to match against.
+   * @param after Only keys that sort after this key are returned, <code>null</code> to start from the beginning.
+   * @param limit The maximim number of matches to return.
+   * @return A list of matched keys, or an empty list if there were no more matches.
+   * @throws TrackerException If there was a problem matching.
+   */
+  List<String> list(String domain, String keyPrefix, String after, Integer limit) throws TrackerException;
+
+  /**
+   * Get the files whose fids fall in the given inclusive range, across all domains. The tracker limits the width of
+   * the range, typically to 1000 fids.
+   * 
+   * @param fromFid The lowest fid to return.
+   * @param toFid The highest fid to return.
+   * @return The attributes of each file in fid order: <code>fid</code>, <code>domain</code>, <code>key</code>,
+   *         <code>class</code>, <code>devcount</code> and <code>length</code>.
+   * @throws TrackerException If there was a problem listing the fids.
+   */
+  List<Map<String, String>> listFids(long fromFid, long toFid) throws TrackerException;
+
   /**
    * Get a list of parameters in key value format that describe each device
    * 
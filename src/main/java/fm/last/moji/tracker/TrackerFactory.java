@@ -34,6 +34,19 @@ public interface TrackerFactory {
    */
   Tracker getTracker() throws TrackerException;
 
+  /**
+   * Gets a new usable {@link Tracker}, preferring hosts other than those given so that a retry does not return to a
+   * host that has just failed. Factories that cannot choose between hosts ignore the exclusions, as do all factories
+   * once every host has been excluded.
+   * 
+   * @param excluded Addresses of hosts already tried.
+   * @return A valid tracker.
+   * @throws TrackerException If there was a problem obtaining a tracker.
+   */
+  default Tracker getTracker(Set<InetSocketAddress> excluded) throws TrackerException {
+    return getTracker();
+  }
+
   /**
    * The host addresses of {@link Tracker Trackers} that this factory may return.
    * 
@@ -15,12 +15,9 @@
  */
 package fm.last.moji.tracker.impl;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.Socket;
@@ -30,6 +27,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import fm.last.moji.impl.NetworkingConfiguration;
+import fm.last.moji.tracker.Deadline;
 import fm.last.moji.tracker.Tracker;
 import fm.last.moji.tracker.TrackerException;
 
@@ -55,21 +53,22 @@ public class AbstractTrackerFactory {
   public Tracker newTracker(InetSocketAddress newAddress) throws TrackerException {
     log.debug("new {}()", TrackerImpl.class.getSimpleName());
     Tracker tracker = null;
-    BufferedReader reader = null;
-    Writer writer = null;
+    InputStream input = null;
+    OutputStream output = null;
     Socket socket = null;
     try {
       socket = new Socket(netConfig.getProxy());
       socket.setSoTimeout(netConfig.getTrackerReadTimeout());
       log.debug("Connecting to: {}:", newAddress, socket.getPort());
-      socket.connect(newAddress, netConfig.getTrackerConnectTimeout());
-      reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-      writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-      RequestHandler requestHandler = new RequestHandler(writer, reader);
+      socket.connect(newAddress, Deadline.clampToCurrent(netConfig.getTrackerConnectTimeout()));
+      // TrackerCodec buffers internally so the raw socket streams are used
+      input = socket.getInputStream();
+      output = socket.getOutputStream();
+      RequestHandler requestHandler = new RequestHandler(socket, netConfig.getTrackerReadTimeout(), output, input);
       tracker = new TrackerImpl(socket, requestHandler);
     } catch (IOException e) {
-      IOUtils.closeQuietly(reader);
-      IOUtils.closeQuietly(writer);
+      IOUtils.closeQuietly(input);
+      IOUtils.closeQuietly(output);
       IOUtils.closeQuietly(socket);
       throw new TrackerException(e);
     }
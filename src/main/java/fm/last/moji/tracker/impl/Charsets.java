@@ -15,11 +15,19 @@
  */
 package fm.last.moji.tracker.impl;
 
+import java.nio.charset.Charset;
+
 enum Charsets {
   UTF_8;
 
+  private final Charset charset = Charset.forName(value());
+
   public String value() {
     return "UTF-8";
   }
 
+  public Charset charset() {
+    return charset;
+  }
+
 }
@@ -51,6 +51,10 @@ class CreateOpenOperation {
   public void execute() throws TrackerException {
     Request request = buildRequest();
     Response response = requestHandler.performRequest(request);
+    handleResponse(response);
+  }
+
+  void handleResponse(Response response) throws TrackerException {
     if (response.getStatus() != OK) {
       if (UNKNOWN_CLASS.isContainedInLine(response.getMessage())) {
         throw new UnknownStorageClassException(storageClass);
@@ -67,7 +71,7 @@ class CreateOpenOperation {
     return destinations;
   }
 
-  private Request buildRequest() {
+  Request buildRequest() {
     Request.Builder builder = new Request.Builder(4).command("create_open").arg("domain", domain).arg("key", key)
         .arg("multi_dest", multipleDestinations);
     if (storageClass != null && !storageClass.isEmpty()) {
@@ -78,16 +82,16 @@ class CreateOpenOperation {
   }
 
   private void extractReturnValues(Response response) throws TrackerException {
-    long fid = Long.parseLong(response.getValue("fid"));
-    int pathCount = Integer.parseInt(response.getValue("dev_count"));
+    long fid = response.getLong("fid");
+    int pathCount = response.getInt("dev_count");
     destinations = new ArrayList<Destination>(pathCount);
 
     for (int i = 1; i <= pathCount; i++) {
       URL url;
       Integer devId;
       try {
-        url = new URL(response.getValue("path_" + i));
-        devId = Integer.valueOf(response.getValue("devid_" + i));
+        url = new URL(response.getIndexed("path_", i));
+        devId = Integer.valueOf(response.getIndexed("devid_", i));
         destinations.add(new Destination(url, devId, fid));
       } catch (MalformedURLException e) {
         throw new TrackerException(e);
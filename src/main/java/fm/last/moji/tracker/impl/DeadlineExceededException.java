@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.impl;
+
+/**
+ * The deadline of the call expired before the tracker answered. The tracker was not at fault, so this does not count as
+ * a failure of its host; the connection is still discarded as a late answer would arrive out of step.
+ */
+public class DeadlineExceededException extends CommunicationException {
+
+  private static final long serialVersionUID = 1L;
+
+  public DeadlineExceededException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+  public DeadlineExceededException(String message) {
+    super(message);
+  }
+
+}
@@ -39,8 +39,15 @@ class GetDeviceStatusesOperation {
   }
 
   public void execute() throws TrackerException {
-    Request request = new Request.Builder(2).command("get_devices").arg("domain", domain).build();
-    Response response = requestHandler.performRequest(request);
+    Response response = requestHandler.performRequest(buildRequest());
+    handleResponse(response);
+  }
+
+  Request buildRequest() {
+    return new Request.Builder(1).command("get_devices").arg("domain", domain).build();
+  }
+
+  void handleResponse(Response response) throws TrackerException {
     if (response.getStatus() != ResponseStatus.OK) {
       String message = response.getMessage();
       throw new TrackerException(message);
@@ -53,11 +60,11 @@ class GetDeviceStatusesOperation {
   }
 
   private void extractDeviceParameters(Response response) {
-    Map<String, String> valueMap = response.getValueMap();
-    if (!valueMap.isEmpty()) {
+    int valueCount = response.getValueCount();
+    if (valueCount > 0) {
       parametersByDevice = new HashMap<String, Map<String, String>>();
-      for (Map.Entry<String, String> entry : valueMap.entrySet()) {
-        String parameterName = entry.getKey().toLowerCase();
+      for (int i = 0; i < valueCount; i++) {
+        String parameterName = response.getKey(i).toLowerCase();
         boolean parameterAdded = false;
         // ignoring the parameter of number of devices
         if (!"devices".equalsIgnoreCase(parameterName)) {
@@ -70,7 +77,7 @@ class GetDeviceStatusesOperation {
               parameters = new HashMap<String, String>();
               parametersByDevice.put(deviceName, parameters);
             }
-            parameters.put(parameterName, entry.getValue());
+            parameters.put(parameterName, response.getValue(i));
             parameterAdded = true;
           }
         }
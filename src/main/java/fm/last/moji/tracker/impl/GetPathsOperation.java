@@ -44,9 +44,16 @@ class GetPathsOperation {
   }
 
   public void execute() throws TrackerException {
-    Request request = new Request.Builder(3).command("get_paths").arg("domain", domain).arg("key", key)
-        .arg("noverify", !verify).build();
-    Response response = requestHandler.performRequest(request);
+    Response response = requestHandler.performRequest(buildRequest());
+    handleResponse(response);
+  }
+
+  Request buildRequest() {
+    return new Request.Builder(3).command("get_paths").arg("domain", domain).arg("key", key).arg("noverify", !verify)
+        .build();
+  }
+
+  void handleResponse(Response response) throws TrackerException {
     if (response.getStatus() != OK) {
       if (UNKNOWN_KEY.isContainedInLine(response.getMessage())) {
         throw new UnknownKeyException(domain, key);
@@ -62,12 +69,12 @@ class GetPathsOperation {
   }
 
   private List<URL> extractReturnValue(Response response) throws TrackerException {
-    int pathCount = Integer.parseInt(response.getValue("paths"));
+    int pathCount = response.getInt("paths");
     List<URL> urls = new ArrayList<URL>(pathCount);
     for (int i = 1; i <= pathCount; i++) {
       URL url;
       try {
-        url = new URL(response.getValue("path" + i));
+        url = new URL(response.getIndexed("path", i));
         urls.add(url);
       } catch (MalformedURLException e) {
         throw new TrackerException(e);
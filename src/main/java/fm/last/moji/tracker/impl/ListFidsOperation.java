@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.impl;
+
+import static fm.last.moji.tracker.impl.ErrorCode.UNKNOWN_COMMAND;
+import static fm.last.moji.tracker.impl.ResponseStatus.OK;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fm.last.moji.tracker.TrackerException;
+import fm.last.moji.tracker.UnknownCommandException;
+
+class ListFidsOperation {
+
+  static final String COMMAND = "list_fids";
+  private static final String[] FIELDS = { "fid", "domain", "key", "class", "devcount", "length" };
+  private static final String[] FIELD_SUFFIXES = { "_fid", "_domain", "_key", "_class", "_devcount", "_length" };
+
+  private final RequestHandler requestHandler;
+  private final long fromFid;
+  private final long toFid;
+  private List<Map<String, String>> files;
+
+  ListFidsOperation(RequestHandler requestHandler, long fromFid, long toFid) {
+    this.requestHandler = requestHandler;
+    this.fromFid = fromFid;
+    this.toFid = toFid;
+    files = Collections.emptyList();
+  }
+
+  void execute() throws TrackerException {
+    Response response = requestHandler.performRequest(buildRequest());
+    handleResponse(response);
+  }
+
+  Request buildRequest() {
+    return new Request.Builder(2).command(COMMAND).arg("from", fromFid).arg("to", toFid).build();
+  }
+
+  void handleResponse(Response response) throws TrackerException {
+    if (response.getStatus() != OK) {
+      String message = response.getMessage();
+      if (UNKNOWN_COMMAND.isContainedInLine(message)) {
+        throw new UnknownCommandException(COMMAND);
+      }
+      throw new TrackerException(message);
+    }
+    int fidCount = response.getInt("fid_count");
+    files = new ArrayList<Map<String, String>>(fidCount);
+    for (int i = 1; i <= fidCount; i++) {
+      Map<String, String> file = new HashMap<String, String>(FIELDS.length * 2);
+      for (int field = 0; field < FIELDS.length; field++) {
+        String value = response.getIndexed("fid_", i, FIELD_SUFFIXES[field]);
+        if (value != null) {
+          file.put(FIELDS[field], value);
+        }
+      }
+      files.add(file);
+    }
+  }
+
+  List<Map<String, String>> getFiles() {
+    return files;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("ListFidsOperation [fromFid=");
+    builder.append(fromFid);
+    builder.append(", toFid=");
+    builder.append(toFid);
+    builder.append("]");
+    return builder.toString();
+  }
+
+}
@@ -29,13 +29,19 @@ class ListKeysOperation {
   private final RequestHandler requestHandler;
   private final String domain;
   private final String keyPrefix;
+  private final String after;
   private final Integer limit;
   private List<String> keys;
 
   ListKeysOperation(RequestHandler requestHandler, String domain, String keyPrefix, Integer limit) {
+    this(requestHandler, domain, keyPrefix, null, limit);
+  }
+
+  ListKeysOperation(RequestHandler requestHandler, String domain, String keyPrefix, String after, Integer limit) {
     this.requestHandler = requestHandler;
     this.domain = domain;
     this.keyPrefix = keyPrefix;
+    this.after = after;
     this.limit = limit;
     keys = Collections.emptyList();
   }
@@ -43,6 +49,10 @@ class ListKeysOperation {
   void execute() throws TrackerException {
     Request request = buildRequest();
     Response response = requestHandler.performRequest(request);
+    handleResponse(response);
+  }
+
+  void handleResponse(Response response) throws TrackerException {
     if (response.getStatus() != OK) {
       if (!NONE_MATCH.isContainedInLine(response.getMessage())) {
         throw new TrackerException(response.getMessage());
@@ -56,9 +66,12 @@ class ListKeysOperation {
     return keys;
   }
 
-  private Request buildRequest() {
-    Request.Builder builder = new Request.Builder(3).command("list_keys").arg("domain", domain)
+  Request buildRequest() {
+    Request.Builder builder = new Request.Builder(4).command("list_keys").arg("domain", domain)
         .arg("prefix", keyPrefix);
+    if (after != null) {
+      builder.arg("after", after);
+    }
     if (limit != null) {
       builder.arg("limit", limit);
     }
@@ -67,10 +80,10 @@ class ListKeysOperation {
   }
 
   private List<String> extractReturnValue(Response response) {
-    int keyCount = Integer.parseInt(response.getValue("key_count"));
-    List<String> keys = new ArrayList<String>();
+    int keyCount = response.getInt("key_count");
+    List<String> keys = new ArrayList<String>(keyCount);
     for (int i = 1; i <= keyCount; i++) {
-      keys.add(response.getValue("key_" + i));
+      keys.add(response.getIndexed("key_", i));
     }
     return keys;
   }
@@ -82,6 +95,8 @@ class ListKeysOperation {
     builder.append(domain);
     builder.append(", keyPrefix=");
     builder.append(keyPrefix);
+    builder.append(", after=");
+    builder.append(after);
     builder.append(", limit=");
     builder.append(limit);
     builder.append("]");
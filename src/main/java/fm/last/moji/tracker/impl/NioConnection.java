@@ -0,0 +1,248 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fm.last.moji.tracker.TrackerException;
+
+/**
+ * A single non-blocking tracker connection. Requests are pipelined: each is written as soon as it is submitted and
+ * responses are matched to requests in the order in which they were sent. Any I/O failure or timeout closes the channel
+ * and fails every request that is still in flight; the next request opens a new connection.
+ */
+class NioConnection {
+
+  private static final Logger log = LoggerFactory.getLogger(NioConnection.class);
+
+  private final InetSocketAddress address;
+  private final NioEventLoop eventLoop;
+  private final int connectTimeout;
+  private final int readTimeout;
+  private final AtomicLong hostLastFailed;
+  private final Deque<Exchange<?>> inFlight;
+
+  /* Only accessed on the event loop thread */
+  private SocketChannel channel;
+  private SelectionKey key;
+  private TrackerCodec codec;
+  private long connectStarted;
+  private long lastProgress;
+
+  NioConnection(InetSocketAddress address, NioEventLoop eventLoop, int connectTimeout, int readTimeout,
+      AtomicLong hostLastFailed) {
+    this.address = address;
+    this.eventLoop = eventLoop;
+    this.connectTimeout = connectTimeout;
+    this.readTimeout = readTimeout;
+    this.hostLastFailed = hostLastFailed;
+    inFlight = new ArrayDeque<Exchange<?>>();
+  }
+
+  InetSocketAddress getAddress() {
+    return address;
+  }
+
+  /**
+   * @return The time at which a connection to this connection's host last failed, or 0 if it has not failed since it
+   *         last succeeded.
+   */
+  long getHostLastFailed() {
+    return hostLastFailed.get();
+  }
+
+  /* Shared by all connections to the same host */
+  AtomicLong hostFailure() {
+    return hostLastFailed;
+  }
+
+  <T> CompletableFuture<T> submit(Request request, ResponseParser<T> parser) {
+    final Exchange<T> exchange = new Exchange<T>(request, parser);
+    try {
+      eventLoop.execute(new Runnable() {
+        @Override
+        public void run() {
+          send(exchange);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      exchange.future.completeExceptionally(new CommunicationException("Tracker client closed", e));
+    }
+    return exchange.future;
+  }
+
+  void handle(SelectionKey key) {
+    try {
+      if (key.isConnectable()) {
+        channel.finishConnect();
+        log.debug("Connected to {}", address);
+        lastProgress = System.currentTimeMillis();
+        flush();
+      }
+      if (key.isValid() && key.isWritable()) {
+        flush();
+      }
+      if (key.isValid() && key.isReadable()) {
+        read();
+      }
+    } catch (CommunicationException e) {
+      fail(e);
+    } catch (IOException e) {
+      fail(new CommunicationException(e));
+    }
+  }
+
+  void checkTimeouts(long now) {
+    if (channel == null) {
+      return;
+    }
+    if (channel.isConnectionPending()) {
+      if (connectTimeout > 0 && now - connectStarted > connectTimeout) {
+        fail(new CommunicationException(new SocketTimeoutException("connect timed out: " + address)));
+      }
+    } else if (!inFlight.isEmpty() && readTimeout > 0 && now - lastProgress > readTimeout) {
+      fail(new CommunicationException(new SocketTimeoutException("Read timed out: " + address)));
+    }
+  }
+
+  void fail(CommunicationException cause) {
+    if (channel != null) {
+      log.debug("Closing connection to {}: {}", address, cause.getMessage());
+      if (key != null) {
+        key.cancel();
+      }
+      IOUtils.closeQuietly(channel);
+      channel = null;
+      key = null;
+      codec = null;
+    }
+    if (!inFlight.isEmpty()) {
+      hostLastFailed.set(System.currentTimeMillis());
+    }
+    Exchange<?> exchange;
+    while ((exchange = inFlight.poll()) != null) {
+      exchange.future.completeExceptionally(cause);
+    }
+  }
+
+  private void send(Exchange<?> exchange) {
+    inFlight.add(exchange);
+    try {
+      if (channel == null) {
+        connect();
+      }
+      if (inFlight.size() == 1) {
+        lastProgress = System.currentTimeMillis();
+      }
+      codec.queue(exchange.request);
+      if (channel.isConnected()) {
+        flush();
+      }
+    } catch (IOException e) {
+      fail(new CommunicationException(e));
+    } catch (RuntimeException e) {
+      // SocketChannel.connect throws unchecked exceptions for unresolved or unsupported addresses
+      fail(new CommunicationException(e));
+    }
+  }
+
+  private void connect() throws IOException {
+    eventLoop.monitor(this);
+    codec = new TrackerCodec();
+    channel = SocketChannel.open();
+    connectStarted = System.currentTimeMillis();
+    channel.configureBlocking(false);
+    if (channel.connect(address)) {
+      key = channel.register(eventLoop.getSelector(), SelectionKey.OP_READ, this);
+    } else {
+      key = channel.register(eventLoop.getSelector(), SelectionKey.OP_CONNECT, this);
+    }
+  }
+
+  private void flush() throws IOException {
+    if (codec.write(channel)) {
+      key.interestOps(SelectionKey.OP_READ);
+    } else {
+      key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+  }
+
+  private void read() throws IOException {
+    int read = codec.read(channel);
+    if (read < 0) {
+      throw new EOFException("Connection closed by tracker " + address);
+    }
+    if (read > 0) {
+      lastProgress = System.currentTimeMillis();
+    }
+    Response response;
+    while ((response = codec.decodeBuffered()) != null) {
+      Exchange<?> exchange = inFlight.poll();
+      if (exchange == null) {
+        throw new CommunicationException("Unsolicited response from tracker " + address);
+      }
+      hostLastFailed.set(0L);
+      exchange.complete(response);
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("NioConnection [address=");
+    builder.append(address);
+    builder.append("]");
+    return builder.toString();
+  }
+
+  private static class Exchange<T> {
+
+    private final Request request;
+    private final ResponseParser<T> parser;
+    private final CompletableFuture<T> future;
+
+    Exchange(Request request, ResponseParser<T> parser) {
+      this.request = request;
+      this.parser = parser;
+      future = new CompletableFuture<T>();
+    }
+
+    void complete(Response response) {
+      try {
+        future.complete(parser.parse(response));
+      } catch (TrackerException e) {
+        future.completeExceptionally(e);
+      } catch (RuntimeException e) {
+        future.completeExceptionally(e);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.impl;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single selector thread that drives the I/O of a set of {@link NioConnection NioConnections}. All connection state
+ * is only touched on this thread; other threads hand work over with {@link #execute(Runnable)}.
+ */
+class NioEventLoop implements Runnable {
+
+  private static final Logger log = LoggerFactory.getLogger(NioEventLoop.class);
+
+  /* Upper bound on how late a connect or read timeout can be detected */
+  private static final long SELECT_TIMEOUT_MILLIS = 100;
+
+  private final Selector selector;
+  private final Queue<Runnable> tasks;
+  private final List<NioConnection> connections;
+  private final Thread thread;
+  private volatile boolean running;
+
+  NioEventLoop(String name) throws IOException {
+    selector = Selector.open();
+    tasks = new ConcurrentLinkedQueue<Runnable>();
+    connections = new ArrayList<NioConnection>();
+    running = true;
+    thread = new Thread(this, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * @throws RejectedExecutionException If the loop has been shut down and will not run the task.
+   */
+  void execute(Runnable task) {
+    tasks.add(task);
+    /* once stopped the loop drains the queue one last time; a task it may have missed is taken back */
+    if (!running && tasks.remove(task)) {
+      throw new RejectedExecutionException("Event loop " + thread.getName() + " is shut down");
+    }
+    selector.wakeup();
+  }
+
+  Selector getSelector() {
+    return selector;
+  }
+
+  /**
+   * Adds a connection to the set whose timeouts are checked by this loop. Must be called on the loop thread.
+   */
+  void monitor(NioConnection connection) {
+    if (!connections.contains(connection)) {
+      connections.add(connection);
+    }
+  }
+
+  void shutdown() {
+    running = false;
+    selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    log.debug("Started {}", thread.getName());
+    while (running) {
+      try {
+        selector.select(SELECT_TIMEOUT_MILLIS);
+        runTasks();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          ((NioConnection) key.attachment()).handle(key);
+        }
+        long now = System.currentTimeMillis();
+        for (NioConnection connection : connections) {
+          connection.checkTimeouts(now);
+        }
+      } catch (IOException e) {
+        log.warn("Selector failure", e);
+      } catch (RuntimeException e) {
+        log.error("Unexpected error in event loop", e);
+      }
+    }
+    runTasks();
+    for (NioConnection connection : connections) {
+      connection.fail(new CommunicationException("Tracker client closed"));
+    }
+    IOUtils.closeQuietly(selector);
+    log.debug("Stopped {}", thread.getName());
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        log.error("Task failed", e);
+      }
+    }
+  }
+
+}
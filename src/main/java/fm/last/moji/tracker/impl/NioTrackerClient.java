@@ -0,0 +1,254 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.impl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fm.last.moji.impl.NetworkingConfiguration;
+import fm.last.moji.tracker.AsyncTracker;
+import fm.last.moji.tracker.Destination;
+
+/**
+ * {@link AsyncTracker} that multiplexes requests over a small, fixed set of non-blocking connections driven by one or
+ * more selector threads, so that the number of outstanding tracker requests is not bounded by the number of calling
+ * threads. Requests are distributed round robin over the connections; connections to hosts that have recently failed
+ * are skipped until the host retry interval has elapsed, unless every host has failed.
+ * <p>
+ * Futures are completed on a selector thread; dependent stages that block should be registered with one of the
+ * <code>*Async</code> methods and an executor.
+ */
+public class NioTrackerClient implements AsyncTracker {
+
+  private static final Logger log = LoggerFactory.getLogger(NioTrackerClient.class);
+
+  public static final int DEFAULT_EVENT_LOOP_THREADS = 1;
+  public static final int DEFAULT_CONNECTIONS_PER_HOST = 2;
+
+  private static final AtomicInteger CLIENT_SEQUENCE = new AtomicInteger();
+
+  private final NioEventLoop[] eventLoops;
+  private final List<NioConnection> connections;
+  private final AtomicInteger nextConnection;
+  private volatile long hostRetryIntervalMillis;
+  private volatile boolean closed;
+
+  public NioTrackerClient(Set<InetSocketAddress> addresses, NetworkingConfiguration netConfig) throws IOException {
+    this(addresses, netConfig, DEFAULT_EVENT_LOOP_THREADS, DEFAULT_CONNECTIONS_PER_HOST);
+  }
+
+  public NioTrackerClient(Set<InetSocketAddress> addresses, NetworkingConfiguration netConfig, int eventLoopThreads,
+      int connectionsPerHost) throws IOException {
+    if (addresses.isEmpty()) {
+      throw new IllegalArgumentException("No tracker addresses");
+    }
+    if (eventLoopThreads < 1 || connectionsPerHost < 1) {
+      throw new IllegalArgumentException("eventLoopThreads and connectionsPerHost must be positive");
+    }
+    Proxy proxy = netConfig.getProxy();
+    if (proxy != null && proxy.type() != Proxy.Type.DIRECT) {
+      throw new IllegalArgumentException("Proxies are not supported by the non-blocking tracker client: " + proxy);
+    }
+    hostRetryIntervalMillis = TimeUnit.MINUTES.toMillis(1);
+    nextConnection = new AtomicInteger();
+    int clientId = CLIENT_SEQUENCE.incrementAndGet();
+    eventLoops = new NioEventLoop[eventLoopThreads];
+    for (int i = 0; i < eventLoopThreads; i++) {
+      eventLoops[i] = new NioEventLoop("moji-nio-tracker-" + clientId + "-" + i);
+    }
+    connections = new ArrayList<NioConnection>(addresses.size() * connectionsPerHost);
+    int index = 0;
+    for (int i = 0; i < connectionsPerHost; i++) {
+      for (InetSocketAddress address : addresses) {
+        connections.add(new NioConnection(address, eventLoops[index++ % eventLoopThreads],
+            netConfig.getTrackerConnectTimeout(), netConfig.getTrackerReadTimeout(), hostFailure(address)));
+      }
+    }
+    log.debug("Created {} tracker connections on {} event loops", connections.size(), eventLoopThreads);
+  }
+
+  public void setHostRetryInterval(long interval, TimeUnit unit) {
+    hostRetryIntervalMillis = unit.toMillis(interval);
+  }
+
+  @Override
+  public CompletableFuture<List<URL>> getPaths(String key, String domain) {
+    GetPathsOperation operation = new GetPathsOperation(null, domain, key, false);
+    return submit(operation.buildRequest(), response -> {
+      operation.handleResponse(response);
+      return operation.getPaths();
+    });
+  }
+
+  @Override
+  public CompletableFuture<Map<String, String>> fileInfo(String key, String domain) {
+    return submit(TrackerImpl.newFileInfoRequest(key, domain),
+        response -> TrackerImpl.handleFileInfoResponse(key, domain, response));
+  }
+
+  @Override
+  public CompletableFuture<List<Destination>> createOpen(String key, String domain, String storageClass) {
+    CreateOpenOperation operation = new CreateOpenOperation(null, domain, key, storageClass, true);
+    return submit(operation.buildRequest(), response -> {
+      operation.handleResponse(response);
+      return operation.getDestinations();
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> createClose(String key, String domain, Destination destination, long size) {
+    return submit(TrackerImpl.newCreateCloseRequest(key, domain, destination, size), response -> {
+      TrackerImpl.handleGeneralResponseError(response);
+      return null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> delete(String key, String domain) {
+    return submit(TrackerImpl.newDeleteRequest(key, domain), response -> {
+      TrackerImpl.handleDeleteResponse(key, domain, response);
+      return null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> rename(String oldKey, String domain, String newKey) {
+    return submit(TrackerImpl.newRenameRequest(oldKey, domain, newKey), response -> {
+      TrackerImpl.handleRenameResponse(oldKey, domain, newKey, response);
+      return null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> updateStorageClass(String key, String domain, String newStorageClass) {
+    return submit(TrackerImpl.newUpdateStorageClassRequest(key, domain, newStorageClass), response -> {
+      TrackerImpl.handleUpdateStorageClassResponse(key, domain, newStorageClass, response);
+      return null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<List<String>> list(String domain, String keyPrefix, Integer limit) {
+    return list(domain, keyPrefix, null, limit);
+  }
+
+  @Override
+  public CompletableFuture<List<String>> list(String domain, String keyPrefix, String after, Integer limit) {
+    ListKeysOperation operation = new ListKeysOperation(null, domain, keyPrefix, after, limit);
+    return submit(operation.buildRequest(), response -> {
+      operation.handleResponse(response);
+      return operation.getKeys();
+    });
+  }
+
+  @Override
+  public CompletableFuture<List<Map<String, String>>> listFids(long fromFid, long toFid) {
+    ListFidsOperation operation = new ListFidsOperation(null, fromFid, toFid);
+    return submit(operation.buildRequest(), response -> {
+      operation.handleResponse(response);
+      return operation.getFiles();
+    });
+  }
+
+  @Override
+  public CompletableFuture<Map<String, Map<String, String>>> getDeviceStatuses(String domain) {
+    GetDeviceStatusesOperation operation = new GetDeviceStatusesOperation(null, domain);
+    return submit(operation.buildRequest(), response -> {
+      operation.handleResponse(response);
+      return operation.getParametersByDevice();
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> noop() {
+    return submit(TrackerImpl.newNoopRequest(), response -> {
+      TrackerImpl.handleGeneralResponseError(response);
+      return null;
+    });
+  }
+
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (NioEventLoop eventLoop : eventLoops) {
+      eventLoop.shutdown();
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("NioTrackerClient [connections=");
+    builder.append(connections);
+    builder.append(", closed=");
+    builder.append(closed);
+    builder.append("]");
+    return builder.toString();
+  }
+
+  private <T> CompletableFuture<T> submit(Request request, ResponseParser<T> parser) {
+    if (closed) {
+      CompletableFuture<T> future = new CompletableFuture<T>();
+      future.completeExceptionally(new CommunicationException("Tracker client closed"));
+      return future;
+    }
+    return selectConnection().submit(request, parser);
+  }
+
+  NioConnection selectConnection() {
+    int size = connections.size();
+    int start = (nextConnection.getAndIncrement() & Integer.MAX_VALUE) % size;
+    long now = System.currentTimeMillis();
+    NioConnection leastRecentlyFailed = null;
+    for (int i = 0; i < size; i++) {
+      NioConnection connection = connections.get((start + i) % size);
+      long lastFailed = connection.getHostLastFailed();
+      if (lastFailed == 0L || now - lastFailed >= hostRetryIntervalMillis) {
+        return connection;
+      }
+      if (leastRecentlyFailed == null || lastFailed < leastRecentlyFailed.getHostLastFailed()) {
+        leastRecentlyFailed = connection;
+      }
+    }
+    return leastRecentlyFailed;
+  }
+
+  private AtomicLong hostFailure(InetSocketAddress address) {
+    for (NioConnection connection : connections) {
+      if (connection.getAddress().equals(address)) {
+        return connection.hostFailure();
+      }
+    }
+    return new AtomicLong();
+  }
+
+}
@@ -15,63 +15,52 @@
  */
 package fm.last.moji.tracker.impl;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.io.Writer;
 import java.net.URL;
-import java.net.URLEncoder;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Map.Entry;
-
-import static fm.last.moji.tracker.impl.Charsets.UTF_8;
 
+/**
+ * A tracker command and its arguments. Arguments are held as a flat array of alternating names and values in the order
+ * in which they were added; encoding to the wire format is performed by {@link TrackerCodec}.
+ */
 class Request {
 
-  private static final Logger log = LoggerFactory.getLogger(Request.class);
-
   private final String command;
-  private final Map<String, String> arguments;
+  private final String[] arguments;
+  private final int argumentCount;
 
   private Request(Builder builder) {
     command = builder.command;
     arguments = builder.arguments;
+    argumentCount = builder.argumentCount;
   }
 
   String getCommand() {
     return command;
   }
 
-  Map<String, String> getArguments() {
-    return arguments;
+  int getArgumentCount() {
+    return argumentCount;
   }
 
-  void writeTo(Writer writer) throws IOException {
-    StringBuilder wire = new StringBuilder();
-    wire.append(command);
-    wire.append(' ');
-    boolean first = true;
-    for (Entry<String, String> entry : arguments.entrySet()) {
-      if (first) {
-        first = false;
-      } else {
-        wire.append('&');
-      }
-      try {
-        wire.append(URLEncoder.encode(entry.getKey(), UTF_8.value()));
-        wire.append('=');
-        wire.append(URLEncoder.encode(entry.getValue(), UTF_8.value()));
-      } catch (UnsupportedEncodingException ignored) {
-      }
+  String getArgumentName(int index) {
+    return arguments[index * 2];
+  }
+
+  String getArgumentValue(int index) {
+    return arguments[index * 2 + 1];
+  }
+
+  /**
+   * Creates a map view of the arguments - intended for diagnostics only as it allocates.
+   */
+  Map<String, String> getArguments() {
+    Map<String, String> map = new LinkedHashMap<String, String>(argumentCount);
+    for (int i = 0; i < argumentCount; i++) {
+      map.put(getArgumentName(i), getArgumentValue(i));
     }
-    wire.append('\r');
-    wire.append('\n');
-    log.debug("Sent: {}", wire);
-    writer.write(wire.toString());
-    writer.flush();
+    return map;
   }
 
   @Override
@@ -80,18 +69,19 @@ class Request {
     builder.append("Request [command=");
     builder.append(command);
     builder.append(", arguments=");
-    builder.append(arguments);
+    builder.append(getArguments());
     builder.append("]");
     return builder.toString();
   }
 
   static class Builder {
 
-    private final Map<String, String> arguments;
+    private String[] arguments;
+    private int argumentCount;
     private String command;
 
     Builder(int expectedSize) {
-      arguments = new LinkedHashMap<String, String>(expectedSize);
+      arguments = new String[Math.max(expectedSize, 1) * 2];
     }
 
     Builder command(String command) {
@@ -100,28 +90,35 @@ class Request {
     }
 
     Builder arg(String key, String value) {
-      arguments.put(key, value);
+      for (int i = 0; i < argumentCount; i++) {
+        if (arguments[i * 2].equals(key)) {
+          arguments[i * 2 + 1] = value;
+          return this;
+        }
+      }
+      if (argumentCount * 2 == arguments.length) {
+        arguments = Arrays.copyOf(arguments, arguments.length * 2);
+      }
+      arguments[argumentCount * 2] = key;
+      arguments[argumentCount * 2 + 1] = value;
+      argumentCount++;
       return this;
     }
 
     Builder arg(String key, int value) {
-      arguments.put(key, Integer.toString(value));
-      return this;
+      return arg(key, Integer.toString(value));
     }
 
     Builder arg(String key, long value) {
-      arguments.put(key, Long.toString(value));
-      return this;
+      return arg(key, Long.toString(value));
     }
 
     Builder arg(String key, boolean value) {
-      arguments.put(key, value ? "1" : "0");
-      return this;
+      return arg(key, value ? "1" : "0");
     }
 
     Builder arg(String key, URL value) {
-      arguments.put(key, value.toString());
-      return this;
+      return arg(key, value.toString());
     }
 
     Request build() {
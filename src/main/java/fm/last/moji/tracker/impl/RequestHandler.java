@@ -15,65 +15,169 @@
  */
 package fm.last.moji.tracker.impl;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.Writer;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import fm.last.moji.tracker.TrackerException;
+import fm.last.moji.impl.NetworkingConfiguration;
+import fm.last.moji.tracker.Deadline;
 
 class RequestHandler {
 
   private static final Logger log = LoggerFactory.getLogger(RequestHandler.class);
 
-  private final Writer writer;
-  private final BufferedReader reader;
+  static final int DEFAULT_MAX_PIPELINE_DEPTH = 100;
 
-  RequestHandler(Writer writer, BufferedReader reader) {
-    this.writer = writer;
-    this.reader = reader;
+  private final Socket socket;
+  private final int readTimeout;
+  private final OutputStream output;
+  private final InputStream input;
+  private final TrackerCodec codec;
+  private int maxPipelineDepth;
+
+  RequestHandler(OutputStream output, InputStream input) {
+    this(null, NetworkingConfiguration.INFINITE_TIMEOUT, output, input);
+  }
+
+  /**
+   * @param socket The socket the streams belong to, whose read timeout is shortened to fit the deadline of the current
+   *          call.
+   * @param readTimeout The configured read timeout of the socket.
+   */
+  RequestHandler(Socket socket, int readTimeout, OutputStream output, InputStream input) {
+    this.socket = socket;
+    this.readTimeout = readTimeout;
+    this.output = output;
+    this.input = input;
+    codec = new TrackerCodec();
+    maxPipelineDepth = DEFAULT_MAX_PIPELINE_DEPTH;
   }
 
   Response performRequest(Request request) throws CommunicationException {
     Response response = null;
-    String line = null;
-
+    boolean clamped = applyDeadline();
     try {
       log.debug("{}", request);
-      request.writeTo(writer);
-      line = reader.readLine();
-      log.debug("Read: {}", line);
-      response = createResponseFromLine(line);
+      codec.encode(request, output);
+      response = codec.decode(input);
       log.debug("{}", response);
+    } catch (SocketTimeoutException e) {
+      throw timedOut(clamped, e);
     } catch (IOException e) {
       throw new CommunicationException(e);
+    } finally {
+      restoreTimeout(clamped);
     }
     return response;
   }
 
-  void close() {
-    IOUtils.closeQuietly(reader);
-    IOUtils.closeQuietly(writer);
+  /**
+   * Pipelines the requests on this connection, returning the responses in request order. Requests are sent in windows
+   * of at most {@link #setMaxPipelineDepth(int) maxPipelineDepth} so that neither side's socket buffers fill up while
+   * the other is still writing. If this throws, the connection is out of step with the tracker and must be discarded.
+   */
+  List<Response> performRequests(List<Request> requests) throws CommunicationException {
+    List<Response> responses = new ArrayList<Response>(requests.size());
+    boolean clamped = applyDeadline();
+    try {
+      for (int from = 0; from < requests.size(); from += maxPipelineDepth) {
+        int to = Math.min(from + maxPipelineDepth, requests.size());
+        log.debug("Pipelining {} requests", to - from);
+        codec.encode(requests, from, to, output);
+        for (int i = from; i < to; i++) {
+          responses.add(codec.decode(input));
+        }
+      }
+    } catch (SocketTimeoutException e) {
+      throw timedOut(clamped, e);
+    } catch (IOException e) {
+      throw new CommunicationException(e);
+    } finally {
+      restoreTimeout(clamped);
+    }
+    return responses;
   }
 
-  private Response createResponseFromLine(String line) throws TrackerException {
-    if (line == null) {
-      throw new TrackerException("Empty response from tracker");
+  /**
+   * Shortens the socket's read timeout so that the request does not outlast the deadline of the current call.
+   * 
+   * @return true if the timeout was changed and must be restored.
+   */
+  private boolean applyDeadline() throws CommunicationException {
+    Deadline deadline = Deadline.current();
+    if (deadline == null) {
+      return false;
     }
-    int firstSpace = line.indexOf(' ');
-    if (firstSpace < 0) {
-      throw new TrackerException("Invalid response from tracker: '" + line + "'");
+    if (deadline.isExpired()) {
+      throw new DeadlineExceededException("Deadline expired before request was sent");
     }
-    ResponseStatus status = ResponseStatus.valueOfCode(line.substring(0, firstSpace));
-    if (status == null) {
-      throw new TrackerException("Invalid response from tracker: '" + line + "'");
+    int timeout = deadline.clampTimeoutMillis(readTimeout);
+    if (socket == null || timeout == readTimeout) {
+      return false;
     }
-    String payload = line.substring(firstSpace + 1);
-    Response response = new Response(status, payload);
-    return response;
+    try {
+      socket.setSoTimeout(timeout);
+    } catch (IOException e) {
+      throw new CommunicationException(e);
+    }
+    return true;
+  }
+
+  /**
+   * A timeout that was shortened to fit the deadline expired with the deadline, not because the tracker is slow.
+   */
+  private static CommunicationException timedOut(boolean clamped, SocketTimeoutException e) {
+    if (clamped) {
+      return new DeadlineExceededException("Deadline expired waiting for the tracker", e);
+    }
+    return new CommunicationException(e);
+  }
+
+  private void restoreTimeout(boolean clamped) {
+    if (clamped) {
+      try {
+        socket.setSoTimeout(readTimeout);
+      } catch (IOException e) {
+        log.debug("Could not restore read timeout", e);
+      }
+    }
+  }
+
+  void setMaxPipelineDepth(int maxPipelineDepth) {
+    if (maxPipelineDepth < 1) {
+      throw new IllegalArgumentException("maxPipelineDepth < 1");
+    }
+    this.maxPipelineDepth = maxPipelineDepth;
+  }
+
+  /**
+   * Checks, without blocking, for bytes the tracker sent that no request asked for.
+   * 
+   * @return true if there are such bytes or the stream can no longer be read, either way the connection must not be
+   *         used for another exchange.
+   */
+  boolean hasUnreadInput() {
+    if (codec.hasBufferedInput()) {
+      return true;
+    }
+    try {
+      return input.available() > 0;
+    } catch (IOException e) {
+      return true;
+    }
+  }
+
+  void close() {
+    IOUtils.closeQuietly(input);
+    IOUtils.closeQuietly(output);
   }
 
 }
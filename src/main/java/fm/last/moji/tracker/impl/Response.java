@@ -17,8 +17,7 @@ package fm.last.moji.tracker.impl;
 
 import static fm.last.moji.tracker.impl.Charsets.UTF_8;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -26,61 +25,168 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * A tracker reply. The payload of an OK reply is kept as its raw URL encoded bytes: keys are indexed on the first
+ * lookup and values are only decoded when asked for, so reading a handful of fields from a large reply does not pay for
+ * the rest. Not thread safe.
+ */
 class Response {
 
   private static final Logger log = LoggerFactory.getLogger(Response.class);
 
-  private final Map<String, String> values;
+  private static final byte[] EMPTY = new byte[0];
+  private static final int[] POWERS_OF_TEN = { 1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000,
+    1000000000 };
+
   private final ResponseStatus status;
   private final String message;
+  private final byte[] payload;
+
+  /* Per well formed pair: key start, '=' position and pair end; built on first lookup */
+  private int[] pairs;
+  private int pairCount;
+  /* Open addressing hash table of pair index + 1 keyed on the key bytes, 0 marks an empty slot */
+  private int[] table;
+  private Map<String, String> valueMap;
 
   Response(ResponseStatus status, String payload) {
     this.status = status;
     if (status == ResponseStatus.OK) {
-      values = decodePayload(payload);
+      this.payload = payload == null ? EMPTY : payload.getBytes(UTF_8.charset());
       message = null;
     } else {
+      this.payload = EMPTY;
       message = payload;
-      values = Collections.emptyMap();
     }
   }
 
+  private Response(ResponseStatus status, byte[] payload, String message) {
+    this.status = status;
+    this.payload = payload;
+    this.message = message;
+  }
+
+  /**
+   * Creates an OK response holding a copy of the given region of a read buffer.
+   */
+  static Response ok(byte[] buffer, int from, int to) {
+    return new Response(ResponseStatus.OK, from < to ? Arrays.copyOfRange(buffer, from, to) : EMPTY, null);
+  }
+
+  static Response error(String message) {
+    return new Response(ResponseStatus.ERROR, EMPTY, message);
+  }
+
   ResponseStatus getStatus() {
     return status;
   }
 
-  Map<String, String> getValueMap() {
-    return values;
+  String getMessage() {
+    return message;
   }
 
+  /**
+   * @return The decoded value of the given key, or <code>null</code> if the response does not contain it.
+   */
   String getValue(String key) {
-    return values.get(key);
+    return valueOf(find(key, -1, ""));
   }
 
-  String getMessage() {
-    return message;
+  /**
+   * Looks up one of a numbered series of keys such as <code>path1</code>, <code>path2</code>... without building the
+   * key.
+   * 
+   * @return The decoded value of the key <code>prefix + index</code>, or <code>null</code> if the response does not
+   *         contain it.
+   */
+  String getIndexed(String prefix, int index) {
+    return getIndexed(prefix, index, "");
+  }
+
+  /**
+   * As {@link #getIndexed(String, int)} for keys with the number in the middle, such as <code>fid_1_key</code>.
+   */
+  String getIndexed(String prefix, int index, String suffix) {
+    if (index < 0) {
+      throw new IllegalArgumentException("index must not be negative: " + index);
+    }
+    return valueOf(find(prefix, index, suffix));
+  }
+
+  /**
+   * @throws NumberFormatException If the key is missing or its value is not an integer.
+   */
+  int getInt(String key) {
+    long value = getLong(key);
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+      throw new NumberFormatException("Value of " + key + " out of int range: " + value);
+    }
+    return (int) value;
   }
 
-  private Map<String, String> decodePayload(String encoded) {
-    HashMap<String, String> map = new HashMap<String, String>();
-    try {
-      if (encoded == null || encoded.length() == 0) {
-        return map;
+  /**
+   * @throws NumberFormatException If the key is missing or its value is not an integer.
+   */
+  long getLong(String key) {
+    int pair = find(key, -1, "");
+    if (pair < 0) {
+      throw new NumberFormatException("No value for " + key);
+    }
+    int from = pairs[pair * 3 + 1] + 1;
+    int to = pairs[pair * 3 + 2];
+    boolean negative = payload[from] == '-';
+    int i = negative ? from + 1 : from;
+    if (i == to || to - i > 18) {
+      return Long.parseLong(valueOf(pair));
+    }
+    long value = 0;
+    for (; i < to; i++) {
+      int digit = payload[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return Long.parseLong(valueOf(pair));
       }
-      String[] parts = encoded.split("&");
-      for (String part : parts) {
-        String[] pair = part.split("=");
-        if (pair.length != 2) {
-          log.error("Poorly encoded string: {} ", encoded);
-          continue;
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * @return The number of well formed key/value pairs in the response, for use with {@link #getKey(int)} and
+   *         {@link #getValue(int)}.
+   */
+  int getValueCount() {
+    index();
+    return pairCount;
+  }
+
+  String getKey(int pair) {
+    index();
+    int start = pairs[pair * 3];
+    return new String(payload, start, pairs[pair * 3 + 1] - start, TrackerCodec.ASCII);
+  }
+
+  String getValue(int pair) {
+    index();
+    return valueOf(pair);
+  }
+
+  /**
+   * Decodes every pair into an unmodifiable map. Prefer the keyed accessors when only some values are needed.
+   */
+  Map<String, String> getValueMap() {
+    if (valueMap == null) {
+      index();
+      if (pairCount == 0) {
+        valueMap = Collections.emptyMap();
+      } else {
+        Map<String, String> values = new HashMap<String, String>(pairCount * 4 / 3 + 1);
+        for (int i = 0; i < pairCount; i++) {
+          values.put(getKey(i), valueOf(i));
         }
-        map.put(pair[0], URLDecoder.decode(pair[1], UTF_8.value()));
+        valueMap = Collections.unmodifiableMap(values);
       }
-      return Collections.unmodifiableMap(map);
-    } catch (UnsupportedEncodingException e) {
-      log.error("Problem decoding response", e);
-      return null;
     }
+    return valueMap;
   }
 
   @Override
@@ -88,12 +194,157 @@ class Response {
     StringBuilder builder = new StringBuilder();
     builder.append("Response [status=");
     builder.append(status);
-    builder.append(", values=");
-    builder.append(values);
+    builder.append(", payload=");
+    builder.append(new String(payload, UTF_8.charset()));
     builder.append(", message=");
     builder.append(message);
     builder.append("]");
     return builder.toString();
   }
 
+  private String valueOf(int pair) {
+    if (pair < 0) {
+      return null;
+    }
+    return TrackerCodec.urlDecode(payload, pairs[pair * 3 + 1] + 1, pairs[pair * 3 + 2]);
+  }
+
+  /**
+   * @param index Numeric suffix of the key, or -1 for none.
+   * @return The pair index, or -1 if not present.
+   */
+  private int find(String prefix, int index, String suffix) {
+    index();
+    if (pairCount == 0) {
+      return -1;
+    }
+    int digits = index < 0 ? 0 : digitCount(index);
+    int hash = hashAscii(0, prefix);
+    for (int i = digits - 1; i >= 0; i--) {
+      hash = 31 * hash + '0' + index / POWERS_OF_TEN[i] % 10;
+    }
+    hash = hashAscii(hash, suffix);
+    int mask = table.length - 1;
+    for (int slot = spread(hash) & mask; table[slot] != 0; slot = slot + 1 & mask) {
+      int pair = table[slot] - 1;
+      if (keyEquals(pair, prefix, index, digits, suffix)) {
+        return pair;
+      }
+    }
+    return -1;
+  }
+
+  private boolean keyEquals(int pair, String prefix, int index, int digits, String suffix) {
+    int start = pairs[pair * 3];
+    if (pairs[pair * 3 + 1] - start != prefix.length() + digits + suffix.length()) {
+      return false;
+    }
+    int position = regionMatches(start, prefix);
+    if (position < 0) {
+      return false;
+    }
+    for (int i = digits - 1; i >= 0; i--) {
+      if (payload[position++] != '0' + index / POWERS_OF_TEN[i] % 10) {
+        return false;
+      }
+    }
+    return regionMatches(position, suffix) >= 0;
+  }
+
+  /**
+   * @return The position following the match, or -1 if the payload does not hold the given string at the position.
+   */
+  private int regionMatches(int position, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (payload[position++] != value.charAt(i)) {
+        return -1;
+      }
+    }
+    return position;
+  }
+
+  /* Non-ASCII chars never match as keys are compared byte for byte; they just produce a hash with no match */
+  private static int hashAscii(int hash, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      hash = 31 * hash + value.charAt(i);
+    }
+    return hash;
+  }
+
+  private void index() {
+    if (pairs != null) {
+      return;
+    }
+    int to = payload.length;
+    int expected = to == 0 ? 0 : 1;
+    for (int i = 0; i < to; i++) {
+      if (payload[i] == '&') {
+        expected++;
+      }
+    }
+    pairs = new int[expected * 3];
+    int capacity = Integer.highestOneBit(Math.max(expected, 1) * 2 - 1) << 1;
+    table = new int[capacity];
+    int pairStart = 0;
+    while (pairStart < to) {
+      int pairEnd = TrackerCodec.indexOf(payload, pairStart, to, (byte) '&');
+      if (pairEnd < 0) {
+        pairEnd = to;
+      }
+      int equals = TrackerCodec.indexOf(payload, pairStart, pairEnd, (byte) '=');
+      if (equals < 0 || equals == pairEnd - 1 || TrackerCodec.indexOf(payload, equals + 1, pairEnd, (byte) '=') >= 0) {
+        log.error("Poorly encoded string: {} ", new String(payload, UTF_8.charset()));
+      } else {
+        insert(pairStart, equals, pairEnd);
+      }
+      pairStart = pairEnd + 1;
+    }
+  }
+
+  private void insert(int keyStart, int equals, int pairEnd) {
+    int hash = 0;
+    for (int i = keyStart; i < equals; i++) {
+      hash = 31 * hash + payload[i];
+    }
+    int mask = table.length - 1;
+    int slot = spread(hash) & mask;
+    for (; table[slot] != 0; slot = slot + 1 & mask) {
+      int existing = table[slot] - 1;
+      int existingStart = pairs[existing * 3];
+      int existingLength = pairs[existing * 3 + 1] - existingStart;
+      if (existingLength == equals - keyStart && regionEquals(existingStart, keyStart, existingLength)) {
+        /* Later duplicates win, as they would when put into a map */
+        pairs[existing * 3 + 2] = pairEnd;
+        pairs[existing * 3 + 1] = equals;
+        pairs[existing * 3] = keyStart;
+        return;
+      }
+    }
+    pairs[pairCount * 3] = keyStart;
+    pairs[pairCount * 3 + 1] = equals;
+    pairs[pairCount * 3 + 2] = pairEnd;
+    table[slot] = ++pairCount;
+  }
+
+  private boolean regionEquals(int a, int b, int length) {
+    for (int i = 0; i < length; i++) {
+      if (payload[a + i] != payload[b + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int spread(int hash) {
+    return hash ^ hash >>> 16;
+  }
+
+  private static int digitCount(int value) {
+    int digits = 1;
+    while (digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]) {
+      digits++;
+    }
+    return digits;
+  }
+
 }
@@ -22,6 +22,7 @@ enum ResponseStatus {
   OK("OK"), ERROR("ERR");
 
   private static Map<String, ResponseStatus> wireCodeToVal = new HashMap<String, ResponseStatus>();
+  private static final ResponseStatus[] STATUSES = values();
 
   static {
     for (ResponseStatus status : ResponseStatus.values()) {
@@ -43,4 +44,26 @@ enum ResponseStatus {
     return wireCodeToVal.get(code);
   }
 
+  /**
+   * Matches a status code held in a byte buffer without creating an intermediate String.
+   */
+  static ResponseStatus valueOfCode(byte[] buffer, int offset, int length) {
+    for (ResponseStatus status : STATUSES) {
+      String code = status.code;
+      if (code.length() == length && matches(code, buffer, offset)) {
+        return status;
+      }
+    }
+    return null;
+  }
+
+  private static boolean matches(String code, byte[] buffer, int offset) {
+    for (int i = 0; i < code.length(); i++) {
+      if (code.charAt(i) != buffer[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
 }
@@ -0,0 +1,354 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.impl;
+
+import static fm.last.moji.tracker.impl.Charsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fm.last.moji.tracker.TrackerException;
+
+/**
+ * Byte level encoder/decoder for the line based tracker protocol. Requests are URL encoded straight into a reusable
+ * buffer and written with a single call, responses are scanned for in a reusable read buffer and decoded without
+ * splitting the line into intermediate Strings. Instances hold per-connection state and are not thread safe.
+ */
+class TrackerCodec {
+
+  private static final Logger log = LoggerFactory.getLogger(TrackerCodec.class);
+
+  static final Charset ASCII = Charset.forName("US-ASCII");
+  private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+  private static final int INITIAL_CAPACITY = 1024;
+  /* Worst case expansion of a single UTF-16 char: three UTF-8 bytes, each written as %XX */
+  private static final int MAX_ENCODED_CHAR_LENGTH = 9;
+
+  /*
+   * flip(), clear(), position(int) and limit(int) are called through Buffer: from Java 9 ByteBuffer overrides them, and
+   * classes compiled against those overrides fail on Java 8
+   */
+  private ByteBuffer out;
+  private ByteBuffer in;
+  /* Number of bytes at the head of the read buffer already known not to contain a line end */
+  private int scanned;
+
+  TrackerCodec() {
+    out = ByteBuffer.allocate(INITIAL_CAPACITY);
+    in = ByteBuffer.allocate(INITIAL_CAPACITY);
+    ((Buffer) in).flip();
+  }
+
+  /**
+   * Encodes the request into the write buffer and sends it to the stream with a single write.
+   */
+  void encode(Request request, OutputStream stream) throws IOException {
+    ((Buffer) out).clear();
+    append(request);
+    send(stream);
+  }
+
+  /**
+   * Encodes a run of requests back to back into the write buffer and sends them to the stream with a single write.
+   * The responses can then be read in order with {@link #decode(InputStream)}.
+   */
+  void encode(List<Request> requests, int from, int to, OutputStream stream) throws IOException {
+    ((Buffer) out).clear();
+    for (int i = from; i < to; i++) {
+      append(requests.get(i));
+    }
+    send(stream);
+  }
+
+  /**
+   * Reads the next response line from the stream. Bytes beyond the end of the line remain buffered for the next call.
+   */
+  Response decode(InputStream stream) throws IOException, TrackerException {
+    Response response = decodeBuffered();
+    while (response == null) {
+      ByteBuffer buffer = prepareRead();
+      int read = stream.read(buffer.array(), buffer.position(), buffer.remaining());
+      if (read > 0) {
+        ((Buffer) buffer).position(buffer.position() + read);
+      }
+      ((Buffer) buffer).flip();
+      if (read < 0) {
+        return decodeRemainder();
+      }
+      response = decodeBuffered();
+    }
+    return response;
+  }
+
+  /**
+   * @return true if bytes beyond the last decoded response are held in the read buffer.
+   */
+  boolean hasBufferedInput() {
+    return in.hasRemaining();
+  }
+
+  /**
+   * Appends a request to the pending output without sending it, for use with non-blocking channels.
+   */
+  void queue(Request request) {
+    append(request);
+  }
+
+  boolean hasQueuedOutput() {
+    return out.position() > 0;
+  }
+
+  /**
+   * Writes as much queued output as the channel will accept.
+   * 
+   * @return <code>true</code> if all queued output was written.
+   */
+  boolean write(WritableByteChannel channel) throws IOException {
+    ((Buffer) out).flip();
+    try {
+      channel.write(out);
+    } finally {
+      out.compact();
+    }
+    return out.position() == 0;
+  }
+
+  /**
+   * Reads whatever the channel has available into the read buffer.
+   * 
+   * @return The number of bytes read, or -1 at end of stream.
+   */
+  int read(ReadableByteChannel channel) throws IOException {
+    ByteBuffer buffer = prepareRead();
+    int read;
+    try {
+      read = channel.read(buffer);
+    } finally {
+      ((Buffer) buffer).flip();
+    }
+    return read;
+  }
+
+  /**
+   * Decodes the next complete response line held in the read buffer.
+   * 
+   * @return The response, or <code>null</code> if more input is needed.
+   */
+  Response decodeBuffered() throws TrackerException {
+    byte[] buffer = in.array();
+    int start = in.position();
+    int newLine = indexOf(buffer, start + scanned, in.limit(), (byte) '\n');
+    if (newLine < 0) {
+      scanned = in.remaining();
+      return null;
+    }
+    scanned = 0;
+    ((Buffer) in).position(newLine + 1);
+    return decodeLine(buffer, start, newLine);
+  }
+
+  private Response decodeRemainder() throws TrackerException {
+    if (!in.hasRemaining()) {
+      throw new TrackerException("Empty response from tracker");
+    }
+    int start = in.position();
+    ((Buffer) in).position(in.limit());
+    scanned = 0;
+    return decodeLine(in.array(), start, in.limit());
+  }
+
+  private Response decodeLine(byte[] buffer, int start, int end) throws TrackerException {
+    if (end > start && buffer[end - 1] == '\r') {
+      end--;
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Read: {}", new String(buffer, start, end - start, UTF_8.charset()));
+    }
+
+    int firstSpace = indexOf(buffer, start, end, (byte) ' ');
+    if (firstSpace < 0) {
+      throw invalidResponse(buffer, start, end);
+    }
+    ResponseStatus status = ResponseStatus.valueOfCode(buffer, start, firstSpace - start);
+    if (status == null) {
+      throw invalidResponse(buffer, start, end);
+    }
+    if (status == ResponseStatus.OK) {
+      return Response.ok(buffer, firstSpace + 1, end);
+    }
+    return Response.error(new String(buffer, firstSpace + 1, end - firstSpace - 1, UTF_8.charset()));
+  }
+
+  static String urlDecode(byte[] buffer, int from, int to) {
+    boolean plain = true;
+    for (int i = from; i < to; i++) {
+      byte b = buffer[i];
+      if (b == '%' || b == '+' || b < 0) {
+        plain = false;
+        break;
+      }
+    }
+    if (plain) {
+      return new String(buffer, from, to - from, ASCII);
+    }
+    byte[] decoded = new byte[to - from];
+    int length = 0;
+    for (int i = from; i < to; i++) {
+      byte b = buffer[i];
+      if (b == '+') {
+        decoded[length++] = ' ';
+      } else if (b == '%' && i + 2 < to && hexValue(buffer[i + 1]) >= 0 && hexValue(buffer[i + 2]) >= 0) {
+        decoded[length++] = (byte) (hexValue(buffer[i + 1]) << 4 | hexValue(buffer[i + 2]));
+        i += 2;
+      } else {
+        decoded[length++] = b;
+      }
+    }
+    return new String(decoded, 0, length, UTF_8.charset());
+  }
+
+  /**
+   * Compacts the read buffer, growing it if it is full of an incomplete line, and leaves it ready to be filled. The
+   * caller must flip it after filling.
+   */
+  private ByteBuffer prepareRead() {
+    in.compact();
+    if (!in.hasRemaining()) {
+      ByteBuffer larger = ByteBuffer.allocate(in.capacity() * 2);
+      ((Buffer) in).flip();
+      larger.put(in);
+      in = larger;
+    }
+    return in;
+  }
+
+  private void append(Request request) {
+    putAscii(request.getCommand());
+    put((byte) ' ');
+    for (int i = 0; i < request.getArgumentCount(); i++) {
+      if (i > 0) {
+        put((byte) '&');
+      }
+      putEncoded(request.getArgumentName(i));
+      put((byte) '=');
+      putEncoded(request.getArgumentValue(i));
+    }
+    put((byte) '\r');
+    put((byte) '\n');
+  }
+
+  private void send(OutputStream stream) throws IOException {
+    if (log.isDebugEnabled()) {
+      log.debug("Sent: {}", new String(out.array(), 0, out.position(), ASCII));
+    }
+    stream.write(out.array(), 0, out.position());
+    stream.flush();
+  }
+
+  private void putEncoded(String value) {
+    ensureCapacity(value.length() * MAX_ENCODED_CHAR_LENGTH);
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '.' || c == '-' || c == '*'
+          || c == '_') {
+        out.put((byte) c);
+      } else if (c == ' ') {
+        out.put((byte) '+');
+      } else if (c < 0x80) {
+        putEscaped(c);
+      } else if (c < 0x800) {
+        putEscaped(0xC0 | c >> 6);
+        putEscaped(0x80 | c & 0x3F);
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        putEscaped(0xF0 | codePoint >> 18);
+        putEscaped(0x80 | codePoint >> 12 & 0x3F);
+        putEscaped(0x80 | codePoint >> 6 & 0x3F);
+        putEscaped(0x80 | codePoint & 0x3F);
+      } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+        putEscaped('?');
+      } else {
+        putEscaped(0xE0 | c >> 12);
+        putEscaped(0x80 | c >> 6 & 0x3F);
+        putEscaped(0x80 | c & 0x3F);
+      }
+    }
+  }
+
+  private void putEscaped(int b) {
+    out.put((byte) '%');
+    out.put(HEX[b >> 4 & 0xF]);
+    out.put(HEX[b & 0xF]);
+  }
+
+  private void putAscii(String value) {
+    ensureCapacity(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      out.put((byte) value.charAt(i));
+    }
+  }
+
+  private void put(byte b) {
+    ensureCapacity(1);
+    out.put(b);
+  }
+
+  private void ensureCapacity(int required) {
+    if (out.remaining() < required) {
+      ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + required));
+      ((Buffer) out).flip();
+      larger.put(out);
+      out = larger;
+    }
+  }
+
+  private static TrackerException invalidResponse(byte[] buffer, int start, int end) {
+    return new TrackerException("Invalid response from tracker: '" + new String(buffer, start, end - start,
+        UTF_8.charset()) + "'");
+  }
+
+  static int indexOf(byte[] buffer, int from, int to, byte value) {
+    for (int i = from; i < to; i++) {
+      if (buffer[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int hexValue(byte b) {
+    if (b >= '0' && b <= '9') {
+      return b - '0';
+    } else if (b >= 'a' && b <= 'f') {
+      return b - 'a' + 10;
+    } else if (b >= 'A' && b <= 'F') {
+      return b - 'A' + 10;
+    }
+    return -1;
+  }
+
+}
@@ -21,8 +21,11 @@ import static fm.last.moji.tracker.impl.ErrorCode.UNKNOWN_COMMAND;
 import static fm.last.moji.tracker.impl.ErrorCode.UNKNOWN_KEY;
 import static fm.last.moji.tracker.impl.ResponseStatus.OK;
 
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketAddress;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -32,17 +35,20 @@ import org.slf4j.LoggerFactory;
 
 import fm.last.moji.tracker.Destination;
 import fm.last.moji.tracker.KeyExistsAlreadyException;
-import fm.last.moji.tracker.Tracker;
+import fm.last.moji.tracker.KeyResult;
+import fm.last.moji.tracker.PipelinedTracker;
 import fm.last.moji.tracker.TrackerException;
 import fm.last.moji.tracker.UnknownCommandException;
 import fm.last.moji.tracker.UnknownKeyException;
 import fm.last.moji.tracker.UnknownStorageClassException;
 import fm.last.moji.tracker.impl.Request.Builder;
 
-class TrackerImpl implements Tracker {
+class TrackerImpl implements PipelinedTracker {
 
   private static final Logger log = LoggerFactory.getLogger(TrackerImpl.class);
 
+  private static final String FILE_INFO = "file_info";
+
   private final Socket socket;
   private final RequestHandler requestHandler;
 
@@ -60,16 +66,8 @@ class TrackerImpl implements Tracker {
 
   @Override
   public Map<String, String> fileInfo(String key, String domain) throws TrackerException {
-    String command = "file_info";
-    Request request = new Request.Builder(10).command(command).arg("domain", domain).arg("key", key).build();
-    Response response = requestHandler.performRequest(request);
-    if (response.getStatus() != OK) {
-      String message = response.getMessage();
-      handleUnknownKeyException(key, domain, message);
-      handleUnknownCommandException(command, message);
-      throw new TrackerException(message);
-    }
-    return response.getValueMap();
+    Response response = requestHandler.performRequest(newFileInfoRequest(key, domain));
+    return handleFileInfoResponse(key, domain, response);
   }
 
   @Override
@@ -81,55 +79,45 @@ class TrackerImpl implements Tracker {
 
   @Override
   public List<String> list(String domain, String keyPrefix, Integer limit) throws TrackerException {
-    ListKeysOperation operation = new ListKeysOperation(requestHandler, domain, keyPrefix, limit);
+    return list(domain, keyPrefix, null, limit);
+  }
+
+  @Override
+  public List<String> list(String domain, String keyPrefix, String after, Integer limit) throws TrackerException {
+    ListKeysOperation operation = new ListKeysOperation(requestHandler, domain, keyPrefix, after, limit);
     operation.execute();
     return operation.getKeys();
   }
 
+  @Override
+  public List<Map<String, String>> listFids(long fromFid, long toFid) throws TrackerException {
+    ListFidsOperation operation = new ListFidsOperation(requestHandler, fromFid, toFid);
+    operation.execute();
+    return operation.getFiles();
+  }
+
   @Override
   public void createClose(String key, String domain, Destination destination, long size) throws TrackerException {
-    Request request = new Builder(6).command("create_close").arg("domain", domain).arg("key", key)
-        .arg("devid", destination.getDevId()).arg("path", destination.getPath()).arg("fid", destination.getFid())
-        .arg("size", size).build();
-    Response response = requestHandler.performRequest(request);
+    Response response = requestHandler.performRequest(newCreateCloseRequest(key, domain, destination, size));
     handleGeneralResponseError(response);
   }
 
   @Override
   public void delete(String key, String domain) throws TrackerException {
-    Request request = new Request.Builder(2).command("delete").arg("domain", domain).arg("key", key).build();
-    Response response = requestHandler.performRequest(request);
-    if (response.getStatus() != OK) {
-      String message = response.getMessage();
-      handleUnknownKeyException(key, domain, message);
-      throw new TrackerException(message);
-    }
+    Response response = requestHandler.performRequest(newDeleteRequest(key, domain));
+    handleDeleteResponse(key, domain, response);
   }
 
   @Override
   public void rename(String fromKey, String domain, String toKey) throws TrackerException {
-    Request request = new Request.Builder(3).command("rename").arg("domain", domain).arg("from_key", fromKey)
-        .arg("to_key", toKey).build();
-    Response response = requestHandler.performRequest(request);
-    if (response.getStatus() != OK) {
-      String message = response.getMessage();
-      handleUnknownKeyException(fromKey, domain, message);
-      handleKeyAlreadyExists(domain, toKey, message);
-      throw new TrackerException(message);
-    }
+    Response response = requestHandler.performRequest(newRenameRequest(fromKey, domain, toKey));
+    handleRenameResponse(fromKey, domain, toKey, response);
   }
 
   @Override
   public void updateStorageClass(String key, String domain, String newStorageClass) throws TrackerException {
-    Request request = new Request.Builder(3).command("updateclass").arg("domain", domain).arg("key", key)
-        .arg("class", newStorageClass).build();
-    Response response = requestHandler.performRequest(request);
-    if (response.getStatus() != OK) {
-      String message = response.getMessage();
-      handleUnknownKeyException(key, domain, message);
-      handleUnknownStorageClass(newStorageClass, message);
-      throw new TrackerException(message);
-    }
+    Response response = requestHandler.performRequest(newUpdateStorageClassRequest(key, domain, newStorageClass));
+    handleUpdateStorageClassResponse(key, domain, newStorageClass, response);
   }
 
   @Override
@@ -139,13 +127,92 @@ class TrackerImpl implements Tracker {
     return operation.getParametersByDevice();
   }
 
+  @Override
+  public List<KeyResult<List<URL>>> getPathsAll(List<String> keys, String domain) throws TrackerException {
+    List<GetPathsOperation> operations = new ArrayList<GetPathsOperation>(keys.size());
+    List<Request> requests = new ArrayList<Request>(keys.size());
+    for (String key : keys) {
+      GetPathsOperation operation = new GetPathsOperation(requestHandler, domain, key, false);
+      operations.add(operation);
+      requests.add(operation.buildRequest());
+    }
+    List<Response> responses = requestHandler.performRequests(requests);
+    List<KeyResult<List<URL>>> results = new ArrayList<KeyResult<List<URL>>>(keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      try {
+        GetPathsOperation operation = operations.get(i);
+        operation.handleResponse(responses.get(i));
+        results.add(KeyResult.success(keys.get(i), operation.getPaths()));
+      } catch (TrackerException e) {
+        results.add(KeyResult.<List<URL>> failure(keys.get(i), e));
+      }
+    }
+    return results;
+  }
+
+  @Override
+  public List<KeyResult<Map<String, String>>> fileInfoAll(List<String> keys, String domain) throws TrackerException {
+    List<Request> requests = new ArrayList<Request>(keys.size());
+    for (String key : keys) {
+      requests.add(newFileInfoRequest(key, domain));
+    }
+    List<Response> responses = requestHandler.performRequests(requests);
+    List<KeyResult<Map<String, String>>> results = new ArrayList<KeyResult<Map<String, String>>>(keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      String key = keys.get(i);
+      try {
+        results.add(KeyResult.success(key, handleFileInfoResponse(key, domain, responses.get(i))));
+      } catch (TrackerException e) {
+        results.add(KeyResult.<Map<String, String>> failure(key, e));
+      }
+    }
+    return results;
+  }
+
+  @Override
+  public List<KeyResult<Void>> deleteAll(List<String> keys, String domain) throws TrackerException {
+    List<Request> requests = new ArrayList<Request>(keys.size());
+    for (String key : keys) {
+      requests.add(newDeleteRequest(key, domain));
+    }
+    List<Response> responses = requestHandler.performRequests(requests);
+    List<KeyResult<Void>> results = new ArrayList<KeyResult<Void>>(keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      String key = keys.get(i);
+      try {
+        handleDeleteResponse(key, domain, responses.get(i));
+        results.add(KeyResult.<Void> success(key, null));
+      } catch (TrackerException e) {
+        results.add(KeyResult.<Void> failure(key, e));
+      }
+    }
+    return results;
+  }
+
   @Override
   public void noop() throws TrackerException {
-    Request request = new Request.Builder(0).command("noop").build();
-    Response response = requestHandler.performRequest(request);
+    Response response = requestHandler.performRequest(newNoopRequest());
     handleGeneralResponseError(response);
   }
 
+  /**
+   * Checks the socket's state and whether the tracker has sent bytes nobody asked for, without blocking. A connection
+   * the tracker has closed while idle can't be told apart without a read, so that is left to the pool's validation.
+   */
+  @Override
+  public boolean isConnected() {
+    if (socket.isClosed() || !socket.isConnected() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+      return false;
+    }
+    return !requestHandler.hasUnreadInput();
+  }
+
+  @Override
+  public InetSocketAddress getAddress() {
+    SocketAddress address = socket.getRemoteSocketAddress();
+    return address instanceof InetSocketAddress ? (InetSocketAddress) address : null;
+  }
+
   @Override
   public void close() {
     if (requestHandler != null) {
@@ -166,34 +233,109 @@ class TrackerImpl implements Tracker {
     return builder.toString();
   }
 
-  private void handleUnknownStorageClass(String storageClass, String message) throws UnknownStorageClassException {
+  /*
+   * Request builders and response handlers are shared with the non-blocking NioTrackerClient.
+   */
+
+  static Request newNoopRequest() {
+    return new Request.Builder(0).command("noop").build();
+  }
+
+  static Request newFileInfoRequest(String key, String domain) {
+    return new Request.Builder(2).command(FILE_INFO).arg("domain", domain).arg("key", key).build();
+  }
+
+  static Map<String, String> handleFileInfoResponse(String key, String domain, Response response)
+      throws TrackerException {
+    if (response.getStatus() != OK) {
+      String message = response.getMessage();
+      handleUnknownKeyException(key, domain, message);
+      handleUnknownCommandException(FILE_INFO, message);
+      throw new TrackerException(message);
+    }
+    return response.getValueMap();
+  }
+
+  static Request newCreateCloseRequest(String key, String domain, Destination destination, long size) {
+    return new Builder(6).command("create_close").arg("domain", domain).arg("key", key)
+        .arg("devid", destination.getDevId()).arg("path", destination.getPath()).arg("fid", destination.getFid())
+        .arg("size", size).build();
+  }
+
+  static Request newDeleteRequest(String key, String domain) {
+    return new Request.Builder(2).command("delete").arg("domain", domain).arg("key", key).build();
+  }
+
+  static void handleDeleteResponse(String key, String domain, Response response) throws TrackerException {
+    if (response.getStatus() != OK) {
+      String message = response.getMessage();
+      handleUnknownKeyException(key, domain, message);
+      throw new TrackerException(message);
+    }
+  }
+
+  static Request newRenameRequest(String fromKey, String domain, String toKey) {
+    return new Request.Builder(3).command("rename").arg("domain", domain).arg("from_key", fromKey)
+        .arg("to_key", toKey).build();
+  }
+
+  static void handleRenameResponse(String fromKey, String domain, String toKey, Response response)
+      throws TrackerException {
+    if (response.getStatus() != OK) {
+      String message = response.getMessage();
+      handleUnknownKeyException(fromKey, domain, message);
+      handleKeyAlreadyExists(domain, toKey, message);
+      throw new TrackerException(message);
+    }
+  }
+
+  static Request newUpdateStorageClassRequest(String key, String domain, String newStorageClass) {
+    return new Request.Builder(3).command("updateclass").arg("domain", domain).arg("key", key)
+        .arg("class", newStorageClass).build();
+  }
+
+  static void handleUpdateStorageClassResponse(String key, String domain, String newStorageClass, Response response)
+      throws TrackerException {
+    if (response.getStatus() != OK) {
+      String message = response.getMessage();
+      handleUnknownKeyException(key, domain, message);
+      handleUnknownStorageClass(newStorageClass, message);
+      throw new TrackerException(message);
+    }
+  }
+
+  static void handleGeneralResponseError(Response response) throws TrackerException {
+    if (response.getStatus() != OK) {
+      throw new TrackerException(response.getMessage());
+    }
+  }
+
+  private static void handleUnknownStorageClass(String storageClass, String message)
+      throws UnknownStorageClassException {
     if (UNKNOWN_CLASS.isContainedInLine(message)) {
       throw new UnknownStorageClassException(storageClass);
     }
   }
 
-  private void handleKeyAlreadyExists(String domain, String key, String message) throws KeyExistsAlreadyException {
+  private static void handleKeyAlreadyExists(String domain, String key, String message)
+      throws KeyExistsAlreadyException {
     if (KEY_EXISTS.isContainedInLine(message)) {
       throw new KeyExistsAlreadyException(domain, key);
     }
   }
 
-  private void handleUnknownKeyException(String key, String domain, String message) throws UnknownKeyException {
+  private static void handleUnknownKeyException(String key, String domain, String message)
+      throws UnknownKeyException {
     if (UNKNOWN_KEY.isContainedInLine(message)) {
       throw new UnknownKeyException(domain, key);
     }
   }
 
-  private void handleUnknownCommandException(String command, String message) throws UnknownCommandException {
+  private static void handleUnknownCommandException(String command, String message)
+      throws UnknownCommandException {
     if (UNKNOWN_COMMAND.isContainedInLine(message)) {
       throw new UnknownCommandException(command);
     }
   }
 
-  private void handleGeneralResponseError(Response response) throws TrackerException {
-    if (response.getStatus() != OK) {
-      throw new TrackerException(response.getMessage());
-    }
-  }
-
 }
@@ -0,0 +1,29 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.pool;
+
+/**
+ * A connection on which a request still in progress can be given up from another thread, as {@link HedgingTracker}
+ * does with the loser of a race. Giving up is not counted as a failure of the host.
+ */
+interface Abortable {
+
+  /**
+   * Makes the request in progress, and any later one, fail promptly. The connection must not be reused afterwards.
+   */
+  void abort();
+
+}
@@ -15,7 +15,9 @@
  */
 package fm.last.moji.tracker.pool;
 
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -24,11 +26,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import fm.last.moji.tracker.Destination;
+import fm.last.moji.tracker.KeyResult;
+import fm.last.moji.tracker.PipelinedTracker;
 import fm.last.moji.tracker.Tracker;
 import fm.last.moji.tracker.TrackerException;
 import fm.last.moji.tracker.impl.CommunicationException;
 
-class BorrowedTracker implements Tracker {
+class BorrowedTracker implements PipelinedTracker, Abortable {
 
   private static final Logger log = LoggerFactory.getLogger(BorrowedTracker.class);
 
@@ -36,6 +40,7 @@ class BorrowedTracker implements Tracker {
   private final MultiHostTrackerPool pool;
   private final ManagedTrackerHost host;
   private CommunicationException lastException;
+  private volatile boolean aborted;
 
   BorrowedTracker(ManagedTrackerHost host, Tracker delegate, MultiHostTrackerPool pool) {
     this.delegate = delegate;
@@ -46,9 +51,11 @@ class BorrowedTracker implements Tracker {
   @Override
   public List<URL> getPaths(String key, String domain) throws TrackerException {
     List<URL> paths = Collections.emptyList();
+    long start = System.nanoTime();
     try {
       paths = delegate.getPaths(key, domain);
       host.markSuccess();
+      host.recordLatency(System.nanoTime() - start);
     } catch (CommunicationException e) {
       lastException = e;
       throw e;
@@ -59,9 +66,11 @@ class BorrowedTracker implements Tracker {
   @Override
   public Map<String, String> fileInfo(String key, String domain) throws TrackerException {
     Map<String, String> attributes = Collections.emptyMap();
+    long start = System.nanoTime();
     try {
       attributes = delegate.fileInfo(key, domain);
       host.markSuccess();
+      host.recordLatency(System.nanoTime() - start);
     } catch (CommunicationException e) {
       lastException = e;
       throw e;
@@ -72,9 +81,11 @@ class BorrowedTracker implements Tracker {
   @Override
   public List<Destination> createOpen(String key, String domain, String storageClass) throws TrackerException {
     List<Destination> destinations = Collections.emptyList();
+    long start = System.nanoTime();
     try {
       destinations = delegate.createOpen(key, domain, storageClass);
       host.markSuccess();
+      host.recordLatency(System.nanoTime() - start);
     } catch (CommunicationException e) {
       lastException = e;
       throw e;
@@ -84,9 +95,11 @@ class BorrowedTracker implements Tracker {
 
   @Override
   public void createClose(String key, String domain, Destination destination, long size) throws TrackerException {
+    long start = System.nanoTime();
     try {
       delegate.createClose(key, domain, destination, size);
       host.markSuccess();
+      host.recordLatency(System.nanoTime() - start);
     } catch (CommunicationException e) {
       lastException = e;
       throw e;
@@ -95,9 +108,11 @@ class BorrowedTracker implements Tracker {
 
   @Override
   public void delete(String key, String domain) throws TrackerException {
+    long start = System.nanoTime();
     try {
       delegate.delete(key, domain);
       host.markSuccess();
+      host.recordLatency(System.nanoTime() - start);
     } catch (CommunicationException e) {
       lastException = e;
       throw e;
@@ -106,9 +121,11 @@ class BorrowedTracker implements Tracker {
 
   @Override
   public void rename(String key, String domain, String newKey) throws TrackerException {
+    long start = System.nanoTime();
     try {
       delegate.rename(key, domain, newKey);
       host.markSuccess();
+      host.recordLatency(System.nanoTime() - start);
     } catch (CommunicationException e) {
       lastException = e;
       throw e;
@@ -117,9 +134,11 @@ class BorrowedTracker implements Tracker {
 
   @Override
   public void updateStorageClass(String key, String domain, String newStorageClass) throws TrackerException {
+    long start = System.nanoTime();
     try {
       delegate.updateStorageClass(key, domain, newStorageClass);
       host.markSuccess();
+      host.recordLatency(System.nanoTime() - start);
     } catch (CommunicationException e) {
       lastException = e;
       throw e;
@@ -128,21 +147,50 @@ class BorrowedTracker implements Tracker {
 
   @Override
   public void noop() throws TrackerException {
+    long start = System.nanoTime();
     try {
       delegate.noop();
       host.markSuccess();
+      host.recordLatency(System.nanoTime() - start);
     } catch (CommunicationException e) {
       lastException = e;
       throw e;
     }
   }
 
+  @Override
+  public boolean isConnected() {
+    return delegate.isConnected();
+  }
+
+  @Override
+  public InetSocketAddress getAddress() {
+    return host.getAddress();
+  }
+
   @Override
   public List<String> list(String domain, String keyPrefix, Integer limit) throws TrackerException {
     List<String> keys = Collections.emptyList();
+    long start = System.nanoTime();
     try {
       keys = delegate.list(domain, keyPrefix, limit);
       host.markSuccess();
+      host.recordLatency(System.nanoTime() - start);
+    } catch (CommunicationException e) {
+      lastException = e;
+      throw e;
+    }
+    return keys;
+  }
+
+  @Override
+  public List<String> list(String domain, String keyPrefix, String after, Integer limit) throws TrackerException {
+    List<String> keys = Collections.emptyList();
+    long start = System.nanoTime();
+    try {
+      keys = delegate.list(domain, keyPrefix, after, limit);
+      host.markSuccess();
+      host.recordLatency(System.nanoTime() - start);
     } catch (CommunicationException e) {
       lastException = e;
       throw e;
@@ -150,12 +198,29 @@ class BorrowedTracker implements Tracker {
     return keys;
   }
 
+  @Override
+  public List<Map<String, String>> listFids(long fromFid, long toFid) throws TrackerException {
+    List<Map<String, String>> files = Collections.emptyList();
+    long start = System.nanoTime();
+    try {
+      files = delegate.listFids(fromFid, toFid);
+      host.markSuccess();
+      host.recordLatency(System.nanoTime() - start);
+    } catch (CommunicationException e) {
+      lastException = e;
+      throw e;
+    }
+    return files;
+  }
+
   @Override
   public Map<String, Map<String, String>> getDeviceStatuses(String domain) throws TrackerException {
     Map<String, Map<String, String>> parametersByDevice = Collections.emptyMap();
+    long start = System.nanoTime();
     try {
       parametersByDevice = delegate.getDeviceStatuses(domain);
       host.markSuccess();
+      host.recordLatency(System.nanoTime() - start);
     } catch (CommunicationException e) {
       lastException = e;
       throw e;
@@ -163,10 +228,90 @@ class BorrowedTracker implements Tracker {
     return parametersByDevice;
   }
 
+  @Override
+  public List<KeyResult<List<URL>>> getPathsAll(List<String> keys, String domain) throws TrackerException {
+    List<KeyResult<List<URL>>> results;
+    try {
+      if (delegate instanceof PipelinedTracker) {
+        results = ((PipelinedTracker) delegate).getPathsAll(keys, domain);
+      } else {
+        results = new ArrayList<KeyResult<List<URL>>>(keys.size());
+        for (String key : keys) {
+          try {
+            results.add(KeyResult.success(key, delegate.getPaths(key, domain)));
+          } catch (CommunicationException e) {
+            throw e;
+          } catch (TrackerException e) {
+            results.add(KeyResult.<List<URL>> failure(key, e));
+          }
+        }
+      }
+      // a batch says nothing about the latency of a single request
+      host.markSuccess();
+    } catch (CommunicationException e) {
+      lastException = e;
+      throw e;
+    }
+    return results;
+  }
+
+  @Override
+  public List<KeyResult<Map<String, String>>> fileInfoAll(List<String> keys, String domain) throws TrackerException {
+    List<KeyResult<Map<String, String>>> results;
+    try {
+      if (delegate instanceof PipelinedTracker) {
+        results = ((PipelinedTracker) delegate).fileInfoAll(keys, domain);
+      } else {
+        results = new ArrayList<KeyResult<Map<String, String>>>(keys.size());
+        for (String key : keys) {
+          try {
+            results.add(KeyResult.success(key, delegate.fileInfo(key, domain)));
+          } catch (CommunicationException e) {
+            throw e;
+          } catch (TrackerException e) {
+            results.add(KeyResult.<Map<String, String>> failure(key, e));
+          }
+        }
+      }
+      host.markSuccess();
+    } catch (CommunicationException e) {
+      lastException = e;
+      throw e;
+    }
+    return results;
+  }
+
+  @Override
+  public List<KeyResult<Void>> deleteAll(List<String> keys, String domain) throws TrackerException {
+    List<KeyResult<Void>> results;
+    try {
+      if (delegate instanceof PipelinedTracker) {
+        results = ((PipelinedTracker) delegate).deleteAll(keys, domain);
+      } else {
+        results = new ArrayList<KeyResult<Void>>(keys.size());
+        for (String key : keys) {
+          try {
+            delegate.delete(key, domain);
+            results.add(KeyResult.<Void> success(key, null));
+          } catch (CommunicationException e) {
+            throw e;
+          } catch (TrackerException e) {
+            results.add(KeyResult.<Void> failure(key, e));
+          }
+        }
+      }
+      host.markSuccess();
+    } catch (CommunicationException e) {
+      lastException = e;
+      throw e;
+    }
+    return results;
+  }
+
   @Override
   public void close() {
     try {
-      if (lastException != null) {
+      if (lastException != null || aborted) {
         log.debug("Invalidating: {}", lastException);
         try {
           pool.invalidateTracker(this);
@@ -182,6 +327,29 @@ class BorrowedTracker implements Tracker {
     }
   }
 
+  /**
+   * Checks the connection for the pool. Unlike {@link #noop()} this records nothing on the host, so health checks
+   * neither dilute its latency average nor count as probes of its circuit.
+   */
+  void validate() throws TrackerException {
+    delegate.noop();
+  }
+
+  /**
+   * Closes the socket under the request in progress. The connection is then invalidated when returned, without marking
+   * the host as failed.
+   */
+  @Override
+  public void abort() {
+    log.debug("Aborting");
+    aborted = true;
+    delegate.close();
+  }
+
+  boolean isAborted() {
+    return aborted;
+  }
+
   void reallyClose() {
     log.debug("Really closing");
     delegate.close();
@@ -15,15 +15,19 @@
  */
 package fm.last.moji.tracker.pool;
 
-import org.apache.commons.pool.BaseKeyedPoolableObjectFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import fm.last.moji.tracker.Tracker;
 import fm.last.moji.tracker.TrackerException;
 import fm.last.moji.tracker.impl.AbstractTrackerFactory;
+import fm.last.moji.tracker.impl.CommunicationException;
+import fm.last.moji.tracker.impl.DeadlineExceededException;
 
-class BorrowedTrackerObjectPoolFactory extends BaseKeyedPoolableObjectFactory<ManagedTrackerHost, BorrowedTracker> {
+/**
+ * Creates, validates and destroys the connections held by {@link TrackerConnectionPool}.
+ */
+class BorrowedTrackerObjectPoolFactory {
 
   private static final Logger log = LoggerFactory.getLogger(BorrowedTrackerObjectPoolFactory.class);
 
@@ -35,8 +39,7 @@ class BorrowedTrackerObjectPoolFactory extends BaseKeyedPoolableObjectFactory<Ma
     this.trackerPool = trackerPool;
   }
 
-  @Override
-  public BorrowedTracker makeObject(ManagedTrackerHost key) throws Exception {
+  BorrowedTracker makeObject(ManagedTrackerHost key) throws Exception {
     ManagedTrackerHost host = key;
     Tracker delegateTracker = trackerFactory.newTracker(host.getAddress());
     BorrowedTracker borrowedTracker = new BorrowedTracker(host, delegateTracker, trackerPool);
@@ -44,26 +47,26 @@ class BorrowedTrackerObjectPoolFactory extends BaseKeyedPoolableObjectFactory<Ma
     return borrowedTracker;
   }
 
-  @Override
-  public void destroyObject(ManagedTrackerHost key, BorrowedTracker value) throws Exception {
+  void destroyObject(ManagedTrackerHost key, BorrowedTracker value) throws Exception {
     BorrowedTracker borrowed = value;
-    if (borrowed.getLastException() != null) {
-      log.debug("Error occurred on tracker: {}", borrowed.getLastException().getMessage());
-      borrowed.getHost().markAsFailed();
+    CommunicationException lastException = borrowed.getLastException();
+    if (lastException != null) {
+      log.debug("Error occurred on tracker: {}", lastException.getMessage());
+      if (!(lastException instanceof DeadlineExceededException) && !borrowed.isAborted()) {
+        borrowed.getHost().markAsFailed();
+      }
     }
     log.debug("Destroying {}", borrowed);
     borrowed.reallyClose();
   }
 
-  @Override
-  public boolean validateObject(ManagedTrackerHost key, BorrowedTracker value) {
+  boolean validateObject(ManagedTrackerHost key, BorrowedTracker value) {
     BorrowedTracker borrowed = value;
     log.debug("Validating {}", borrowed);
     try {
-      borrowed.noop();
+      borrowed.validate();
     } catch (TrackerException e) {
       // returning false will result in a destroyObject invocation
-      // The address will then be marked out of service
       return false;
     }
     return true;
@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.pool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import fm.last.commons.lang.time.Clock;
+
+/**
+ * Closed/open/half-open circuit breaker for a single tracker host. While closed, outcomes are counted in a fixed time
+ * window and the circuit opens once both the number and the rate of failures in the window reach their thresholds. The
+ * owner moves an open circuit to half-open after its retry interval; a limited number of probe requests are then let
+ * through and the circuit closes once they have all succeeded, or opens again on the first failure.
+ */
+class CircuitBreaker {
+
+  enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  static final int DEFAULT_FAILURE_THRESHOLD = 3;
+  static final int DEFAULT_FAILURE_RATE_PERCENT = 50;
+  static final int DEFAULT_HALF_OPEN_PROBES = 3;
+  static final long DEFAULT_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  private final AtomicReference<State> state;
+  private final AtomicLong windowStart;
+  private final AtomicInteger windowRequests;
+  private final AtomicInteger windowFailures;
+  private final AtomicInteger probesIssued;
+  private final AtomicInteger probesSucceeded;
+  private final Clock clock;
+  private volatile int failureThreshold;
+  private volatile int failureRatePercent;
+  private volatile int halfOpenProbes;
+  private volatile long windowMillis;
+
+  CircuitBreaker(Clock clock) {
+    this.clock = clock;
+    state = new AtomicReference<State>(State.CLOSED);
+    windowStart = new AtomicLong();
+    windowRequests = new AtomicInteger();
+    windowFailures = new AtomicInteger();
+    probesIssued = new AtomicInteger();
+    probesSucceeded = new AtomicInteger();
+    failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    failureRatePercent = DEFAULT_FAILURE_RATE_PERCENT;
+    halfOpenProbes = DEFAULT_HALF_OPEN_PROBES;
+    windowMillis = DEFAULT_WINDOW_MILLIS;
+  }
+
+  void setFailureThreshold(int failures, int ratePercent) {
+    if (failures < 1) {
+      throw new IllegalArgumentException("failures must be at least 1");
+    }
+    if (ratePercent < 0 || ratePercent > 100) {
+      throw new IllegalArgumentException("ratePercent must be between 0 and 100");
+    }
+    failureThreshold = failures;
+    failureRatePercent = ratePercent;
+  }
+
+  void setHalfOpenProbes(int probes) {
+    if (probes < 1) {
+      throw new IllegalArgumentException("probes must be at least 1");
+    }
+    halfOpenProbes = probes;
+  }
+
+  void setWindow(long window, TimeUnit unit) {
+    windowMillis = unit.toMillis(window);
+  }
+
+  State getState() {
+    return state.get();
+  }
+
+  /**
+   * @return true if {@link #allowRequest()} would currently refuse a request. Uses up no probes.
+   */
+  boolean wouldRejectRequest() {
+    switch (state.get()) {
+      case CLOSED:
+        return false;
+      case HALF_OPEN:
+        return probesIssued.get() >= halfOpenProbes;
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * @return true if a request may be sent now. In the half-open state each call that returns true uses up one probe.
+   */
+  boolean allowRequest() {
+    switch (state.get()) {
+      case CLOSED:
+        return true;
+      case HALF_OPEN:
+        return probesIssued.incrementAndGet() <= halfOpenProbes;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * @return true if this success closed the circuit.
+   */
+  boolean onSuccess() {
+    switch (state.get()) {
+      case CLOSED:
+        record(false);
+        return false;
+      case HALF_OPEN:
+        if (probesSucceeded.incrementAndGet() >= halfOpenProbes && state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+          resetWindow(clock.currentTimeMillis());
+          return true;
+        }
+        return false;
+      default:
+        // a request issued before the circuit opened; not evidence of recovery
+        return false;
+    }
+  }
+
+  /**
+   * @return true if this failure opened the circuit, in which case the caller must arrange a later call to
+   *         {@link #halfOpen()}.
+   */
+  boolean onFailure() {
+    switch (state.get()) {
+      case CLOSED:
+        return record(true) && state.compareAndSet(State.CLOSED, State.OPEN);
+      case HALF_OPEN:
+        return state.compareAndSet(State.HALF_OPEN, State.OPEN);
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Lets probe traffic through an open circuit. Calling this again while half-open starts a new round of probes, which
+   * recovers from probes that were granted but never reported an outcome.
+   */
+  void halfOpen() {
+    probesIssued.set(0);
+    probesSucceeded.set(0);
+    state.compareAndSet(State.OPEN, State.HALF_OPEN);
+  }
+
+  private boolean record(boolean failed) {
+    long now = clock.currentTimeMillis();
+    long start = windowStart.get();
+    if (now - start >= windowMillis && windowStart.compareAndSet(start, now)) {
+      windowRequests.set(0);
+      windowFailures.set(0);
+    }
+    int requests = windowRequests.incrementAndGet();
+    if (!failed) {
+      return false;
+    }
+    int failures = windowFailures.incrementAndGet();
+    return failures >= failureThreshold && failures * 100L >= requests * (long) failureRatePercent;
+  }
+
+  private void resetWindow(long now) {
+    windowStart.set(now);
+    windowRequests.set(0);
+    windowFailures.set(0);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("CircuitBreaker [state=");
+    builder.append(state.get());
+    builder.append(", windowRequests=");
+    builder.append(windowRequests.get());
+    builder.append(", windowFailures=");
+    builder.append(windowFailures.get());
+    builder.append("]");
+    return builder.toString();
+  }
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.pool;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * How long a hedged request waits for its first reply before sending a duplicate: the configured percentile of
+ * recently observed tracker latencies, but never less than a minimum. Samples go into a fixed ring without locking and
+ * the percentile is recalculated every {@value #RECALCULATE_EVERY} samples, so reading the delay costs a volatile read.
+ */
+class HedgeDelay {
+
+  static final int SAMPLES = 1024;
+  static final int RECALCULATE_EVERY = 128;
+
+  private final AtomicLongArray samples;
+  private final AtomicLong count;
+  private final double percentile;
+  private final long minimumNanos;
+  private volatile long delayNanos;
+
+  HedgeDelay(double percentile, long minimumNanos) {
+    if (percentile <= 0 || percentile >= 100) {
+      throw new IllegalArgumentException("percentile must be between 0 and 100 exclusive");
+    }
+    this.percentile = percentile;
+    this.minimumNanos = minimumNanos;
+    samples = new AtomicLongArray(SAMPLES);
+    count = new AtomicLong();
+    delayNanos = minimumNanos;
+  }
+
+  void record(long nanos) {
+    long sample = count.getAndIncrement();
+    samples.set((int) (sample % SAMPLES), nanos);
+    if ((sample + 1) % RECALCULATE_EVERY == 0) {
+      recalculate((int) Math.min(sample + 1, SAMPLES));
+    }
+  }
+
+  long getDelayNanos() {
+    return delayNanos;
+  }
+
+  double getPercentile() {
+    return percentile;
+  }
+
+  long getMinimumNanos() {
+    return minimumNanos;
+  }
+
+  private void recalculate(int size) {
+    long[] sorted = new long[size];
+    for (int i = 0; i < size; i++) {
+      sorted[i] = samples.get(i);
+    }
+    Arrays.sort(sorted);
+    int index = Math.min(size - 1, Math.max(0, (int) Math.ceil(percentile / 100d * size) - 1));
+    delayNanos = Math.max(minimumNanos, sorted[index]);
+  }
+
+}
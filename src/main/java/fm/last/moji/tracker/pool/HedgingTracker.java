@@ -0,0 +1,393 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.pool;
+
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fm.last.moji.impl.DaemonThreadFactory;
+import fm.last.moji.tracker.Deadline;
+import fm.last.moji.tracker.Destination;
+import fm.last.moji.tracker.KeyResult;
+import fm.last.moji.tracker.PipelinedTracker;
+import fm.last.moji.tracker.Tracker;
+import fm.last.moji.tracker.TrackerException;
+import fm.last.moji.tracker.impl.CommunicationException;
+
+/**
+ * A {@link Tracker} handed out by {@link MultiHostTrackerPool} when hedging is enabled. Idempotent lookups run on the
+ * calling thread; if no reply has arrived within the {@link HedgeDelay}, a duplicate is sent to a different host from
+ * a background thread and the first reply wins. When the duplicate wins, the request still blocking the caller is
+ * aborted and the duplicate's connection is used for the rest of the command. When no background thread is free the
+ * request is simply not hedged. Other requests go straight to the current connection on the calling thread.
+ */
+class HedgingTracker implements PipelinedTracker {
+
+  private static final Logger log = LoggerFactory.getLogger(HedgingTracker.class);
+
+  private static final ExecutorService HEDGE_EXECUTOR = DaemonThreadFactory.newBoundedPool("moji-tracker-hedge", 32);
+
+  interface Call<T> {
+    T call(Tracker tracker) throws TrackerException;
+  }
+
+  private final MultiHostTrackerPool pool;
+  private final HedgeDelay delay;
+  private final Executor executor;
+  private final ScheduledExecutorService scheduler;
+  private Lease current;
+
+  HedgingTracker(MultiHostTrackerPool pool, ManagedTrackerHost host, Tracker tracker, HedgeDelay delay) {
+    this(pool, host, tracker, delay, HEDGE_EXECUTOR);
+  }
+
+  HedgingTracker(MultiHostTrackerPool pool, ManagedTrackerHost host, Tracker tracker, HedgeDelay delay,
+      Executor executor) {
+    this.pool = pool;
+    this.delay = delay;
+    this.executor = executor;
+    scheduler = SharedScheduler.get();
+    current = new Lease(host, tracker);
+  }
+
+  @Override
+  public List<URL> getPaths(String key, String domain) throws TrackerException {
+    return hedge(tracker -> tracker.getPaths(key, domain));
+  }
+
+  @Override
+  public Map<String, String> fileInfo(String key, String domain) throws TrackerException {
+    return hedge(tracker -> tracker.fileInfo(key, domain));
+  }
+
+  @Override
+  public List<Destination> createOpen(String key, String domain, String storageClass) throws TrackerException {
+    return current.tracker.createOpen(key, domain, storageClass);
+  }
+
+  @Override
+  public void createClose(String key, String domain, Destination destination, long size) throws TrackerException {
+    current.tracker.createClose(key, domain, destination, size);
+  }
+
+  @Override
+  public void delete(String key, String domain) throws TrackerException {
+    current.tracker.delete(key, domain);
+  }
+
+  @Override
+  public void rename(String oldKey, String domain, String newKey) throws TrackerException {
+    current.tracker.rename(oldKey, domain, newKey);
+  }
+
+  @Override
+  public void updateStorageClass(String key, String domain, String newStorageClass) throws TrackerException {
+    current.tracker.updateStorageClass(key, domain, newStorageClass);
+  }
+
+  @Override
+  public void noop() throws TrackerException {
+    current.tracker.noop();
+  }
+
+  @Override
+  public boolean isConnected() {
+    return current.tracker.isConnected();
+  }
+
+  @Override
+  public InetSocketAddress getAddress() {
+    return current.host.getAddress();
+  }
+
+  @Override
+  public List<String> list(String domain, String keyPrefix, Integer limit) throws TrackerException {
+    return hedge(tracker -> tracker.list(domain, keyPrefix, limit));
+  }
+
+  @Override
+  public List<String> list(String domain, String keyPrefix, String after, Integer limit) throws TrackerException {
+    return hedge(tracker -> tracker.list(domain, keyPrefix, after, limit));
+  }
+
+  @Override
+  public List<Map<String, String>> listFids(long fromFid, long toFid) throws TrackerException {
+    return hedge(tracker -> tracker.listFids(fromFid, toFid));
+  }
+
+  @Override
+  public Map<String, Map<String, String>> getDeviceStatuses(String domain) throws TrackerException {
+    return hedge(tracker -> tracker.getDeviceStatuses(domain));
+  }
+
+  @Override
+  public List<KeyResult<List<URL>>> getPathsAll(List<String> keys, String domain) throws TrackerException {
+    return hedge(tracker -> ((PipelinedTracker) tracker).getPathsAll(keys, domain));
+  }
+
+  @Override
+  public List<KeyResult<Map<String, String>>> fileInfoAll(List<String> keys, String domain) throws TrackerException {
+    return hedge(tracker -> ((PipelinedTracker) tracker).fileInfoAll(keys, domain));
+  }
+
+  @Override
+  public List<KeyResult<Void>> deleteAll(List<String> keys, String domain) throws TrackerException {
+    return ((PipelinedTracker) current.tracker).deleteAll(keys, domain);
+  }
+
+  @Override
+  public void close() {
+    current.release();
+  }
+
+  ManagedTrackerHost getHost() {
+    return current.host;
+  }
+
+  private <T> T hedge(final Call<T> call) throws TrackerException {
+    final Lease primary = current;
+    final Race<T> race = new Race<T>();
+    final Deadline deadline = Deadline.current();
+    race.enter();
+    ScheduledFuture<?> timer = scheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        startHedge(primary, call, race, deadline);
+      }
+    }, delay.getDelayNanos(), TimeUnit.NANOSECONDS);
+    primary.run(call, race);
+    timer.cancel(false);
+    race.await(0L);
+    Lease winner = race.getWinner();
+    if (winner != null && winner != primary) {
+      log.debug("Hedged request to {} beat {}", winner.host.getAddress(), primary.host.getAddress());
+      current = winner;
+      primary.release();
+    }
+    return race.getResult();
+  }
+
+  /* Runs on the scheduler thread, so only hands the duplicate over to the hedge executor */
+  private <T> void startHedge(final Lease primary, final Call<T> call, final Race<T> race, final Deadline deadline) {
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          Deadline previous = Deadline.enter(deadline);
+          try {
+            sendHedge(primary, call, race);
+          } finally {
+            Deadline.restore(previous);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      log.debug("No thread free to send hedged request");
+    }
+  }
+
+  private <T> void sendHedge(Lease primary, Call<T> call, Race<T> race) {
+    ManagedTrackerHost host = pool.nextHostExcluding(primary.host);
+    if (host == null) {
+      return;
+    }
+    // never wait for a connection, nor count a busy host as failed: the primary may still answer
+    Tracker tracker = pool.connectIfIdle(host);
+    if (tracker == null) {
+      log.debug("No idle connection to {} for hedged request", host.getAddress());
+      return;
+    }
+    if (!race.tryEnter()) {
+      tracker.close();
+      return;
+    }
+    Lease secondary = new Lease(host, tracker);
+    if (secondary.run(call, race)) {
+      // the caller is still blocked on the primary; free it to take this answer
+      primary.abort();
+    } else {
+      secondary.release();
+    }
+  }
+
+  /**
+   * A connection racing a request; the request can be aborted from another thread while it runs.
+   */
+  private class Lease {
+
+    private final ManagedTrackerHost host;
+    private final Tracker tracker;
+    private boolean running;
+
+    Lease(ManagedTrackerHost host, Tracker tracker) {
+      this.host = host;
+      this.tracker = tracker;
+    }
+
+    /**
+     * Runs the call on the current thread and reports its outcome to the race.
+     * 
+     * @return true if this lease won the race.
+     */
+    <T> boolean run(Call<T> call, Race<T> race) {
+      setRunning(true);
+      T result = null;
+      TrackerException answer = null;
+      TrackerException failure = null;
+      try {
+        long start = System.nanoTime();
+        result = call.call(tracker);
+        delay.record(System.nanoTime() - start);
+      } catch (CommunicationException e) {
+        failure = e;
+      } catch (TrackerException e) {
+        // a definite answer from the tracker, such as an unknown key
+        answer = e;
+      } catch (RuntimeException e) {
+        failure = new TrackerException(e);
+      } finally {
+        setRunning(false);
+      }
+      if (failure != null) {
+        race.failed(failure);
+        return false;
+      }
+      return race.answered(this, result, answer);
+    }
+
+    private synchronized void setRunning(boolean running) {
+      this.running = running;
+    }
+
+    synchronized void abort() {
+      if (running && tracker instanceof Abortable) {
+        ((Abortable) tracker).abort();
+      }
+    }
+
+    void release() {
+      tracker.close();
+    }
+  }
+
+  /**
+   * Collects the first answer from the leases racing one request. Communication failures only end the race once every
+   * entrant has failed.
+   */
+  static class Race<T> {
+
+    private int entrants;
+    private int failures;
+    private boolean done;
+    private Lease winner;
+    private T result;
+    private TrackerException exception;
+    private TrackerException firstFailure;
+
+    synchronized void enter() {
+      entrants++;
+    }
+
+    /**
+     * @return false if the race is already over.
+     */
+    synchronized boolean tryEnter() {
+      if (done) {
+        return false;
+      }
+      entrants++;
+      return true;
+    }
+
+    /**
+     * @return true if this answer won the race.
+     */
+    synchronized boolean answered(Lease lease, T value, TrackerException answer) {
+      if (done) {
+        return false;
+      }
+      done = true;
+      winner = lease;
+      result = value;
+      exception = answer;
+      notifyAll();
+      return true;
+    }
+
+    synchronized void failed(TrackerException failure) {
+      if (done) {
+        // a loser failing after the race was won must not replace the answer
+        return;
+      }
+      if (firstFailure == null) {
+        firstFailure = failure;
+      }
+      if (++failures == entrants) {
+        done = true;
+        exception = firstFailure;
+        notifyAll();
+      }
+    }
+
+    /**
+     * @param timeoutNanos How long to wait, or 0 to wait until the race is over.
+     * @return true if the race is over.
+     */
+    synchronized boolean await(long timeoutNanos) throws TrackerException {
+      long deadline = System.nanoTime() + timeoutNanos;
+      try {
+        while (!done) {
+          if (timeoutNanos <= 0L) {
+            wait();
+          } else {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0L) {
+              return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CommunicationException("Interrupted waiting for tracker", e);
+      }
+      return true;
+    }
+
+    synchronized Lease getWinner() {
+      return winner;
+    }
+
+    synchronized T getResult() throws TrackerException {
+      if (exception != null) {
+        throw exception;
+      }
+      return result;
+    }
+  }
+
+}
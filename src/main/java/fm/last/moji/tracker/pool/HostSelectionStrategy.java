@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.pool;
+
+import java.util.List;
+
+/**
+ * Chooses the tracker host that {@link MultiHostTrackerPool} uses for the next request. Implementations are called
+ * concurrently and must be thread safe.
+ */
+public interface HostSelectionStrategy {
+
+  /**
+   * @param hosts All hosts managed by the pool; never empty and must not be modified.
+   * @return The host to use.
+   */
+  ManagedTrackerHost select(List<ManagedTrackerHost> hosts);
+
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.pool;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Power of two choices over latency moving averages: two distinct hosts are picked at random and the better one is
+ * used. A host that is not marked as failed beats one that is, then the lower average latency wins. Averages decay
+ * while a host is not used (see {@link ManagedTrackerHost#getDecayedLatencyAverage()}), so a slower host is eventually
+ * chosen again and its average refreshed. This sends most traffic to the fastest hosts while still sampling slower
+ * ones, and takes constant time however many hosts there are.
+ */
+public class LatencyAwareHostSelection implements HostSelectionStrategy {
+
+  @Override
+  public ManagedTrackerHost select(List<ManagedTrackerHost> hosts) {
+    int size = hosts.size();
+    if (size == 1) {
+      return hosts.get(0);
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(size);
+    int second = random.nextInt(size - 1);
+    if (second >= first) {
+      second++;
+    }
+    return better(hosts.get(first), hosts.get(second));
+  }
+
+  static ManagedTrackerHost better(ManagedTrackerHost a, ManagedTrackerHost b) {
+    long aFailed = a.getLastFailed();
+    long bFailed = b.getLastFailed();
+    if (aFailed != bFailed) {
+      if (aFailed == 0L) {
+        return a;
+      }
+      if (bFailed == 0L) {
+        return b;
+      }
+      // both failed: prefer the one that has had longer to recover
+      return aFailed < bFailed ? a : b;
+    }
+    return a.getDecayedLatencyAverage() <= b.getDecayedLatencyAverage() ? a : b;
+  }
+
+}
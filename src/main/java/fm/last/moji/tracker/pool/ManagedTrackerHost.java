@@ -17,58 +17,95 @@ package fm.last.moji.tracker.pool;
 
 import static java.util.concurrent.TimeUnit.MINUTES;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.Collections;
 import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import fm.last.commons.lang.time.Clock;
+import fm.last.moji.impl.NetworkingConfiguration;
+import fm.last.moji.tracker.AsyncTracker;
+import fm.last.moji.tracker.impl.CommunicationException;
+import fm.last.moji.tracker.impl.NioTrackerClient;
 
 /**
  * Manages the status of a given tracker host. Knows when it last failed, when the last successful request occurred.
+ * Failures feed a {@link CircuitBreaker}: the host is only treated as failed once its circuit opens, and after the
+ * retry interval it is given limited probe traffic before being fully trusted again.
  */
 public class ManagedTrackerHost {
 
   private static final Logger log = LoggerFactory.getLogger(ManagedTrackerHost.class);
 
+  /* Weight of each new sample in the latency moving average */
+  static final double LATENCY_SMOOTHING = 0.2;
+  /* Time without samples after which a host's latency average counts for half as much when hosts are compared */
+  static final long LATENCY_HALF_LIFE_MILLIS = 10000L;
+
   private final AtomicLong lastUsed;
   private final AtomicLong lastFailed;
+  /* Bits of a double holding the moving average in nanoseconds, 0 until the first sample */
+  private final AtomicLong latencyAverage;
+  private final AtomicLong latencySampled;
   private final InetSocketAddress address;
-  private int hostRetryInterval;
-  private TimeUnit hostRetryIntervalTimeUnit;
-  private final Timer resetTimer;
+  private volatile int hostRetryInterval;
+  private volatile TimeUnit hostRetryIntervalTimeUnit;
+  private final ScheduledExecutorService scheduler;
+  private final AtomicReference<ScheduledFuture<?>> pendingReset;
   private final Clock clock;
-  private ResetTask resetTask;
+  private final CircuitBreaker circuitBreaker;
+  private volatile AsyncTracker sharedConnections;
   ResetTaskFactory resetTaskFactory;
 
-  ManagedTrackerHost(InetSocketAddress address, Timer resetTimer, Clock clock) {
+  ManagedTrackerHost(InetSocketAddress address, ScheduledExecutorService scheduler, Clock clock) {
     lastUsed = new AtomicLong();
     lastFailed = new AtomicLong();
+    latencyAverage = new AtomicLong();
+    latencySampled = new AtomicLong();
     hostRetryInterval = 1;
     hostRetryIntervalTimeUnit = MINUTES;
-    this.resetTimer = resetTimer;
+    this.scheduler = scheduler;
+    pendingReset = new AtomicReference<ScheduledFuture<?>>();
     resetTaskFactory = new ResetTaskFactory();
     this.clock = clock;
     this.address = address;
+    circuitBreaker = new CircuitBreaker(clock);
   }
 
   ManagedTrackerHost(InetSocketAddress address) {
-    this(address, new Timer(true), Clock.INSTANCE);
+    this(address, SharedScheduler.get(), Clock.INSTANCE);
   }
 
   /**
-   * Set delay until a failed tracker is once more marked as ready.
+   * Set delay until a failed tracker is once more sent probe requests.
    */
   void setHostRetryInterval(int interval, TimeUnit timeUnit) {
     hostRetryInterval = interval;
     hostRetryIntervalTimeUnit = timeUnit;
   }
 
+  /**
+   * Sets how many failures, and what percentage of all requests in the current window, open the circuit.
+   */
+  void setFailureThreshold(int failures, int ratePercent) {
+    circuitBreaker.setFailureThreshold(failures, ratePercent);
+  }
+
+  /**
+   * Sets how many probe requests must succeed before a half-open circuit closes.
+   */
+  void setHalfOpenProbes(int probes) {
+    circuitBreaker.setHalfOpenProbes(probes);
+  }
+
   /**
    * The address of the host that this object manages.
    * 
@@ -88,7 +125,7 @@ public class ManagedTrackerHost {
   }
 
   /**
-   * The time when an operation on this host last failed.
+   * The time when the circuit to this host last opened, while it remains open.
    * 
    * @return Date/Time formatted string
    */
@@ -96,30 +133,151 @@ public class ManagedTrackerHost {
     return formatTime(getLastFailed());
   }
 
-  long getLastUsed() {
+  /**
+   * The exponentially weighted moving average of the time taken by successful requests to this host.
+   * 
+   * @return Average latency in milliseconds, or 0 if no request has completed yet.
+   */
+  public double getAverageLatencyMillis() {
+    return getLatencyAverage() / 1000000d;
+  }
+
+  /**
+   * The state of this host's circuit breaker.
+   * 
+   * @return One of CLOSED, OPEN or HALF_OPEN
+   */
+  public String getCircuitState() {
+    return circuitBreaker.getState().name();
+  }
+
+  /**
+   * @return Time of the last successful request in milliseconds since the epoch, 0 if never.
+   */
+  public long getLastUsed() {
     return lastUsed.get();
   }
 
-  long getLastFailed() {
+  /**
+   * @return Time the circuit opened in milliseconds since the epoch, 0 if the host is not currently considered failed.
+   */
+  public long getLastFailed() {
     return lastFailed.get();
   }
 
+  /**
+   * @return The latency moving average in nanoseconds, 0 if there are no samples yet.
+   */
+  public double getLatencyAverage() {
+    return Double.longBitsToDouble(latencyAverage.get());
+  }
+
+  /**
+   * @return The latency moving average in nanoseconds, halved for every {@link #LATENCY_HALF_LIFE_MILLIS} since the
+   *         last sample. A host that has been passed over looks faster the longer it stays idle, until it is chosen
+   *         again and its average refreshed. 0 if there are no samples yet.
+   */
+  public double getDecayedLatencyAverage() {
+    double average = getLatencyAverage();
+    long idle = clock.currentTimeMillis() - latencySampled.get();
+    if (average == 0d || idle <= 0L) {
+      return average;
+    }
+    return average * Math.pow(0.5d, (double) idle / LATENCY_HALF_LIFE_MILLIS);
+  }
+
+  void recordLatency(long nanos) {
+    latencySampled.set(clock.currentTimeMillis());
+    long currentBits;
+    long nextBits;
+    do {
+      currentBits = latencyAverage.get();
+      double current = Double.longBitsToDouble(currentBits);
+      double next = current == 0d ? nanos : current + LATENCY_SMOOTHING * (nanos - current);
+      nextBits = Double.doubleToRawLongBits(next);
+    } while (!latencyAverage.compareAndSet(currentBits, nextBits));
+  }
+
+  /**
+   * Asks the circuit breaker whether a request may be sent to this host. Uses up a probe if the circuit is half-open.
+   * 
+   * @return true if the request must not be sent.
+   */
+  boolean rejectRequest() {
+    return !circuitBreaker.allowRequest();
+  }
+
+  /**
+   * Like {@link #rejectRequest()} but uses up no probe, for looking over hosts that may not be chosen.
+   * 
+   * @return true if a request would currently be refused.
+   */
+  boolean wouldRejectRequest() {
+    return circuitBreaker.wouldRejectRequest();
+  }
+
   void markAsFailed() {
-    lastFailed.set(clock.currentTimeMillis());
-    synchronized (resetTimer) {
-      if (resetTask != null) {
-        resetTask.cancel();
-      }
-      log.debug("Scheduling reset of {} in {} {}", new Object[] { address, hostRetryInterval,
-        hostRetryIntervalTimeUnit.name().toLowerCase() });
-      resetTask = resetTaskFactory.newInstance();
-      resetTimer.schedule(resetTask, hostRetryIntervalTimeUnit.toMillis(hostRetryInterval));
+    if (circuitBreaker.onFailure()) {
+      lastFailed.set(clock.currentTimeMillis());
+      log.debug("Opened circuit to {}", address);
+      scheduleReset();
     }
   }
 
   void markSuccess() {
     lastUsed.set(clock.currentTimeMillis());
-    lastFailed.set(0);
+    if (circuitBreaker.onSuccess()) {
+      log.debug("Closed circuit to {}", address);
+    }
+  }
+
+  private void scheduleReset() {
+    log.debug("Scheduling reset of {} in {} {}", new Object[] { address, hostRetryInterval,
+      hostRetryIntervalTimeUnit.name().toLowerCase() });
+    ScheduledFuture<?> reset = scheduler.schedule(resetTaskFactory.newInstance(), hostRetryInterval,
+        hostRetryIntervalTimeUnit);
+    ScheduledFuture<?> previous = pendingReset.getAndSet(reset);
+    if (previous != null) {
+      previous.cancel(false);
+    }
+  }
+
+  /**
+   * The connections to this host that are shared by all callers when the pool is in shared connection mode. Created on
+   * first use.
+   */
+  AsyncTracker getSharedConnections(NetworkingConfiguration netConfig, int connectionsPerHost)
+      throws CommunicationException {
+    AsyncTracker connections = sharedConnections;
+    if (connections == null) {
+      synchronized (this) {
+        connections = sharedConnections;
+        if (connections == null) {
+          try {
+            connections = new NioTrackerClient(Collections.singleton(address), netConfig, 1, connectionsPerHost);
+          } catch (IOException e) {
+            throw new CommunicationException("Unable to create shared connections to " + address, e);
+          }
+          log.debug("Created {} shared connections to {}", connectionsPerHost, address);
+          sharedConnections = connections;
+        }
+      }
+    }
+    return connections;
+  }
+
+  /**
+   * @return The shared connections to this host, or <code>null</code> if they have not been created yet.
+   */
+  AsyncTracker getOpenSharedConnections() {
+    return sharedConnections;
+  }
+
+  synchronized void closeSharedConnections() {
+    if (sharedConnections != null) {
+      sharedConnections.close();
+      sharedConnections = null;
+    }
   }
 
   @Override
@@ -161,6 +319,10 @@ public class ManagedTrackerHost {
     builder.append(formatTime(lastUsed.get()));
     builder.append(", lastFailed=");
     builder.append(formatTime(lastFailed.get()));
+    builder.append(", circuitState=");
+    builder.append(circuitBreaker.getState());
+    builder.append(", averageLatencyMillis=");
+    builder.append(getAverageLatencyMillis());
     builder.append("]");
     return builder.toString();
   }
@@ -172,15 +334,20 @@ public class ManagedTrackerHost {
     return new Date(time).toString();
   }
 
-  class ResetTask extends TimerTask {
+  class ResetTask implements Runnable {
 
     ResetTask() {
     }
 
     @Override
     public void run() {
+      circuitBreaker.halfOpen();
       lastFailed.set(0);
       log.debug("Reset failure monitor for {}", address);
+      if (circuitBreaker.getState() == CircuitBreaker.State.HALF_OPEN) {
+        // start a fresh round of probes later if this one never completes
+        scheduleReset();
+      }
     }
   }
 
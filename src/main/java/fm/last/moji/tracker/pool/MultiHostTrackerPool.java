@@ -22,18 +22,19 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.pool.KeyedPoolableObjectFactory;
-import org.apache.commons.pool.impl.GenericKeyedObjectPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import fm.last.moji.impl.NetworkingConfiguration;
+import fm.last.moji.tracker.AsyncTracker;
 import fm.last.moji.tracker.Tracker;
 import fm.last.moji.tracker.TrackerException;
 import fm.last.moji.tracker.TrackerFactory;
 import fm.last.moji.tracker.impl.AbstractTrackerFactory;
 import fm.last.moji.tracker.impl.CommunicationException;
+import fm.last.moji.tracker.impl.DeadlineExceededException;
 
 /**
  * {@link fm.last.moji.tracker.TrackerFactory TrackerFactory} implementation that provides a
@@ -44,8 +45,12 @@ public class MultiHostTrackerPool implements TrackerFactory {
   private static final Logger log = LoggerFactory.getLogger(MultiHostTrackerPool.class);
 
   private final NetworkingConfiguration netConfig;
-  private final GenericKeyedObjectPool<ManagedTrackerHost, BorrowedTracker> pool;
+  private final TrackerConnectionPool pool;
   private final List<ManagedTrackerHost> managedHosts;
+  private final Set<InetSocketAddress> addresses;
+  private volatile int sharedConnectionsPerHost;
+  private volatile HostSelectionStrategy hostSelection = new PriorityOrderHostSelection();
+  private volatile HedgeDelay hedgeDelay;
 
   /**
    * Creates a tracker pool for the given host addresses and use the supplied network proxy.
@@ -70,10 +75,9 @@ public class MultiHostTrackerPool implements TrackerFactory {
     for (InetSocketAddress address : addresses) {
       managedHosts.add(new ManagedTrackerHost(address));
     }
+    this.addresses = addressesOf(managedHosts);
     AbstractTrackerFactory delegateTrackerFactory = new AbstractTrackerFactory(netConfig);
-    KeyedPoolableObjectFactory<ManagedTrackerHost, BorrowedTracker> objectFactory = new BorrowedTrackerObjectPoolFactory(
-        delegateTrackerFactory, this);
-    pool = new GenericKeyedObjectPool<ManagedTrackerHost, BorrowedTracker>(objectFactory);
+    pool = new TrackerConnectionPool(new BorrowedTrackerObjectPoolFactory(delegateTrackerFactory, this));
     log.debug("Pool created");
   }
 
@@ -81,18 +85,44 @@ public class MultiHostTrackerPool implements TrackerFactory {
    * For tests only
    */
   MultiHostTrackerPool(List<ManagedTrackerHost> managedHosts, NetworkingConfiguration netConfig,
-      GenericKeyedObjectPool<ManagedTrackerHost, BorrowedTracker> pool) {
+      TrackerConnectionPool pool) {
     this.managedHosts = managedHosts;
     this.netConfig = netConfig;
     this.pool = pool;
+    addresses = addressesOf(managedHosts);
   }
 
   @Override
   public Tracker getTracker() throws TrackerException {
-    ManagedTrackerHost managedHost = nextHost();
+    return getTracker(Collections.<InetSocketAddress> emptySet());
+  }
+
+  @Override
+  public Tracker getTracker(Set<InetSocketAddress> excluded) throws TrackerException {
+    ManagedTrackerHost managedHost = nextHost(excluded);
+    Tracker tracker = connect(managedHost);
+    HedgeDelay delay = hedgeDelay;
+    if (delay != null) {
+      return new HedgingTracker(this, managedHost, tracker, delay);
+    }
+    return tracker;
+  }
+
+  Tracker connect(ManagedTrackerHost managedHost) throws TrackerException {
+    if (sharedConnectionsPerHost > 0) {
+      try {
+        return new SharedTracker(managedHost, managedHost.getSharedConnections(netConfig, sharedConnectionsPerHost));
+      } catch (CommunicationException e) {
+        managedHost.markAsFailed();
+        throw e;
+      }
+    }
     Tracker tracker = null;
     try {
       tracker = pool.borrowObject(managedHost);
+    } catch (DeadlineExceededException e) {
+      // the caller ran out of time, the host is not at fault
+      throw e;
     } catch (Exception e) {
       managedHost.markAsFailed();
       throw new CommunicationException(String.format("Unable connect to tracker %s", managedHost), e);
@@ -100,13 +130,22 @@ public class MultiHostTrackerPool implements TrackerFactory {
     return tracker;
   }
 
+  /**
+   * Like {@link #connect(ManagedTrackerHost)}, but never waits for a connection: returns <code>null</code> when the
+   * host has no idle connection or no free permit, or its shared connections have not been created yet. That is not
+   * counted as a failure of the host.
+   */
+  Tracker connectIfIdle(ManagedTrackerHost managedHost) {
+    if (sharedConnectionsPerHost > 0) {
+      AsyncTracker connections = managedHost.getOpenSharedConnections();
+      return connections == null ? null : new SharedTracker(managedHost, connections);
+    }
+    return pool.borrowIdleObject(managedHost);
+  }
+
   @Override
   public Set<InetSocketAddress> getAddresses() {
-    Set<InetSocketAddress> addresses = new HashSet<InetSocketAddress>();
-    for (ManagedTrackerHost host : managedHosts) {
-      addresses.add(host.getAddress());
-    }
-    return Collections.unmodifiableSet(new HashSet<InetSocketAddress>(addresses));
+    return addresses;
   }
 
   @Override
@@ -130,94 +169,230 @@ public class MultiHostTrackerPool implements TrackerFactory {
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#setMaxActive(int)}
+   * Switches the pool to shared connection mode: instead of lending each caller an exclusive connection, requests from
+   * all callers are pipelined over a small fixed number of non-blocking connections per host and each caller waits only
+   * for its own response. The pooling properties below do not apply in this mode. Zero (the default) disables it.
+   * Shared connections do not support proxies.
+   * 
+   * @param connectionsPerHost Number of connections to open to each tracker host.
+   */
+  public void setSharedConnectionsPerHost(int connectionsPerHost) {
+    if (connectionsPerHost < 0) {
+      throw new IllegalArgumentException("connectionsPerHost must not be negative");
+    }
+    if (connectionsPerHost > 0) {
+      Proxy proxy = netConfig.getProxy();
+      if (proxy != null && proxy.type() != Proxy.Type.DIRECT) {
+        throw new IllegalArgumentException("Shared connections do not support proxies: " + proxy);
+      }
+    }
+    sharedConnectionsPerHost = connectionsPerHost;
+  }
+
+  public int getSharedConnectionsPerHost() {
+    return sharedConnectionsPerHost;
+  }
+
+  /**
+   * Sets how the host for each request is chosen. Defaults to {@link PriorityOrderHostSelection}; use
+   * {@link LatencyAwareHostSelection} to favour the fastest trackers.
+   */
+  public void setHostSelectionStrategy(HostSelectionStrategy hostSelection) {
+    if (hostSelection == null) {
+      throw new IllegalArgumentException("hostSelection == null");
+    }
+    this.hostSelection = hostSelection;
+  }
+
+  public HostSelectionStrategy getHostSelectionStrategy() {
+    return hostSelection;
+  }
+
+  /**
+   * Enables hedging of idempotent lookups (get_paths, file_info, list_keys, list_fids and get_devices). When a reply
+   * has not arrived within the given percentile of recently observed tracker latencies, or the minimum delay if that is
+   * longer, the same request is also sent to another host and whichever replies first is used. This bounds the tail
+   * latency caused by a stalled tracker at the cost of a few percent more requests. Requires at least two hosts to have
+   * any effect. Disabled by default.
+   * 
+   * @param percentile Latency percentile after which to hedge, for example 95; zero disables hedging.
+   * @param minimumDelay Lower bound on the delay, also used until enough latencies have been observed.
+   * @param timeUnit Unit of minimumDelay.
+   */
+  public void setHedging(double percentile, long minimumDelay, TimeUnit timeUnit) {
+    hedgeDelay = percentile == 0 ? null : new HedgeDelay(percentile, timeUnit.toNanos(minimumDelay));
+  }
+
+  /**
+   * Returns the latency percentile after which idempotent lookups are hedged, or zero if hedging is disabled.
+   */
+  public double getHedgePercentile() {
+    HedgeDelay delay = hedgeDelay;
+    return delay == null ? 0 : delay.getPercentile();
+  }
+
+  /**
+   * Sets how long the circuit to a failed host stays open before probe requests are sent to it. Defaults to one minute.
+   */
+  public void setHostRetryInterval(int interval, TimeUnit timeUnit) {
+    for (ManagedTrackerHost host : managedHosts) {
+      host.setHostRetryInterval(interval, timeUnit);
+    }
+  }
+
+  /**
+   * Sets when the circuit to a host opens: once at least <code>failures</code> requests have failed within the current
+   * ten second window, and they make up at least <code>ratePercent</code> of the requests in that window. Defaults to
+   * 3 failures and 50%.
+   */
+  public void setFailureThreshold(int failures, int ratePercent) {
+    for (ManagedTrackerHost host : managedHosts) {
+      host.setFailureThreshold(failures, ratePercent);
+    }
+  }
+
+  /**
+   * Sets how many probe requests are sent to a recovering host, all of which must succeed before it receives full
+   * traffic again. Defaults to 3.
+   */
+  public void setHalfOpenProbes(int probes) {
+    for (ManagedTrackerHost host : managedHosts) {
+      host.setHalfOpenProbes(probes);
+    }
+  }
+
+  /**
+   * Sets the maximum number of connections to each host that may be checked out at once; negative for no limit.
+   * Defaults to 8.
    */
   public void setMaxActive(int maxActive) {
     pool.setMaxActive(maxActive);
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#getMaxWait()}
+   * Sets the number of idle connections kept open to each host. Connections are opened in parallel in the background,
+   * starting as soon as this is called, and replaced as they are borrowed or discarded so that requests rarely wait for
+   * a connect. Capped in practice by maxIdle. Defaults to 0.
+   */
+  public void setMinIdle(int minIdle) {
+    pool.setMinIdle(minIdle);
+    if (minIdle > 0 && sharedConnectionsPerHost == 0) {
+      pool.prewarm(managedHosts);
+    }
+  }
+
+  /**
+   * Returns the number of idle connections kept open to each host.
+   */
+  public int getMinIdle() {
+    return pool.getMinIdle();
+  }
+
+  /**
+   * Sets how often idle connections are validated with a noop in the background, evicting any that have died. Combined
+   * with the cheap liveness check every connection gets when borrowed, this lets testOnBorrow be turned off without
+   * handing out stale connections. Zero, the default, disables background checks.
+   */
+  public void setHealthCheckInterval(long interval, TimeUnit timeUnit) {
+    pool.setHealthCheckInterval(interval, timeUnit);
+  }
+
+  /**
+   * Returns the interval between background health checks of idle connections, in milliseconds.
+   */
+  public long getHealthCheckIntervalMillis() {
+    return pool.getHealthCheckIntervalMillis();
+  }
+
+  /**
+   * Returns how long, in milliseconds, a request waits for a connection when maxActive is reached.
    */
   public long getMaxWait() {
     return pool.getMaxWait();
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#setMaxWait(long)}
+   * Sets how long, in milliseconds, a request waits for a connection when maxActive is reached; zero or negative to
+   * wait indefinitely. Defaults to -1.
    */
   public void setMaxWait(long maxWait) {
     pool.setMaxWait(maxWait);
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#getMaxIdle()}
+   * Sets the maximum number of unused connections kept open to each host; negative for no limit. Defaults to 8.
    */
   public void setMaxIdle(int maxIdle) {
     pool.setMaxIdle(maxIdle);
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#getTestOnBorrow()}
+   * Returns whether connections are validated with a noop before being lent out.
    */
   public boolean getTestOnBorrow() {
     return pool.getTestOnBorrow();
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#setTestOnBorrow(boolean)}
+   * Sets whether connections are validated with a noop before being lent out. Defaults to false.
    */
   public void setTestOnBorrow(boolean testOnBorrow) {
     pool.setTestOnBorrow(testOnBorrow);
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#getTestOnReturn()}
+   * Returns whether connections are validated with a noop when returned.
    */
   public boolean getTestOnReturn() {
     return pool.getTestOnReturn();
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#setTestOnReturn(boolean)}
+   * Sets whether connections are validated with a noop when returned. Defaults to false.
    */
   public void setTestOnReturn(boolean testOnReturn) {
     pool.setTestOnReturn(testOnReturn);
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#getNumActive()}
+   * Returns the number of connections currently checked out, across all hosts.
    */
   public int getNumActive() {
     return pool.getNumActive();
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#getNumIdle()}
+   * Returns the number of unused connections currently open, across all hosts.
    */
   public int getNumIdle() {
     return pool.getNumIdle();
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#getMaxActive()}
+   * Returns the maximum number of connections to each host that may be checked out at once.
    */
   public int getMaxActive() {
     return pool.getMaxActive();
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#getMaxIdle()}
+   * Returns the maximum number of unused connections kept open to each host.
    */
   public int getMaxIdle() {
     return pool.getMaxIdle();
   }
 
   /**
-   * See: {@link org.apache.commons.pool.impl.GenericKeyedObjectPool#close()}
+   * Closes all unused connections and the shared connections. Checked out connections are closed when returned.
    */
   public void close() throws Exception {
-    pool.close();
+    try {
+      pool.close();
+    } finally {
+      for (ManagedTrackerHost host : managedHosts) {
+        host.closeSharedConnections();
+      }
+    }
   }
 
   void invalidateTracker(BorrowedTracker borrowedTracker) throws Exception {
@@ -228,8 +403,81 @@ public class MultiHostTrackerPool implements TrackerFactory {
     pool.returnObject(borrowedTracker.getHost(), borrowedTracker);
   }
 
-  private ManagedTrackerHost nextHost() throws TrackerException {
-    return Collections.max(managedHosts, HostPriorityOrder.INSTANCE);
+  /**
+   * Chooses a host other than the given one for a hedged request.
+   * 
+   * @return The host, or null if there is none available.
+   */
+  ManagedTrackerHost nextHostExcluding(ManagedTrackerHost excluded) {
+    List<ManagedTrackerHost> others = new ArrayList<ManagedTrackerHost>(managedHosts.size());
+    for (ManagedTrackerHost host : managedHosts) {
+      if (!host.equals(excluded)) {
+        others.add(host);
+      }
+    }
+    if (others.isEmpty()) {
+      return null;
+    }
+    ManagedTrackerHost selected = hostSelection.select(others);
+    return selected.rejectRequest() ? null : selected;
+  }
+
+  private ManagedTrackerHost nextHost(Set<InetSocketAddress> excluded) {
+    List<ManagedTrackerHost> candidates = managedHosts;
+    if (!excluded.isEmpty()) {
+      candidates = new ArrayList<ManagedTrackerHost>(managedHosts.size());
+      for (ManagedTrackerHost host : managedHosts) {
+        if (!excluded.contains(host.getAddress())) {
+          candidates.add(host);
+        }
+      }
+      if (candidates.isEmpty()) {
+        // every host has been tried, start again from the preferred one
+        candidates = managedHosts;
+      }
+    }
+    ManagedTrackerHost selected = hostSelection.select(candidates);
+    if (!selected.rejectRequest()) {
+      return selected;
+    }
+    // the preferred host's circuit is open or its probes are taken: fall back to any host that will accept a request
+    ManagedTrackerHost fallback = firstAccepting(candidates, selected);
+    if (fallback == null) {
+      fallback = firstAccepting(managedHosts, selected);
+    }
+    if (fallback != null) {
+      return fallback;
+    }
+    // circuits to all trackers are open; refusing every call would only prolong the outage, so try the host that
+    // failed longest ago
+    ManagedTrackerHost leastRecentlyFailed = managedHosts.get(0);
+    for (ManagedTrackerHost host : managedHosts) {
+      if (host.getLastFailed() < leastRecentlyFailed.getLastFailed()) {
+        leastRecentlyFailed = host;
+      }
+    }
+    log.debug("Circuits to all trackers are open, trying {}", leastRecentlyFailed);
+    return leastRecentlyFailed;
+  }
+
+  /**
+   * Only the host returned has a probe used up; the others are checked without consuming theirs.
+   */
+  private static ManagedTrackerHost firstAccepting(List<ManagedTrackerHost> hosts, ManagedTrackerHost selected) {
+    for (ManagedTrackerHost host : hosts) {
+      if (host != selected && !host.wouldRejectRequest() && !host.rejectRequest()) {
+        return host;
+      }
+    }
+    return null;
+  }
+
+  private static Set<InetSocketAddress> addressesOf(List<ManagedTrackerHost> managedHosts) {
+    Set<InetSocketAddress> addresses = new HashSet<InetSocketAddress>();
+    for (ManagedTrackerHost host : managedHosts) {
+      addresses.add(host.getAddress());
+    }
+    return Collections.unmodifiableSet(addresses);
   }
 
 }
@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.pool;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The default strategy: scans all hosts and picks the one that failed least recently, then the least recently used.
+ * Spreads requests evenly but takes no account of how quickly each host responds.
+ */
+public class PriorityOrderHostSelection implements HostSelectionStrategy {
+
+  @Override
+  public ManagedTrackerHost select(List<ManagedTrackerHost> hosts) {
+    return Collections.max(hosts, HostPriorityOrder.INSTANCE);
+  }
+
+}
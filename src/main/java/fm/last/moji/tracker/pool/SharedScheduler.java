@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.pool;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import fm.last.moji.impl.DaemonThreadFactory;
+
+/**
+ * The single daemon thread on which all tracker pools in the JVM run their housekeeping, so that the number of
+ * threads does not grow with the number of pools or tracker hosts. Tasks must be short and must not block.
+ */
+final class SharedScheduler {
+
+  private SharedScheduler() {
+  }
+
+  static ScheduledExecutorService get() {
+    return Holder.INSTANCE;
+  }
+
+  private static class Holder {
+    static final ScheduledExecutorService INSTANCE = newScheduler();
+
+    private static ScheduledExecutorService newScheduler() {
+      ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+          new DaemonThreadFactory("moji-tracker-scheduler"));
+      // hosts reschedule their reset on every circuit opening; don't let cancelled tasks pile up in the queue
+      scheduler.setRemoveOnCancelPolicy(true);
+      return scheduler;
+    }
+  }
+
+}
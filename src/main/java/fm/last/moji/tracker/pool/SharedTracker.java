@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.pool;
+
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import fm.last.moji.tracker.AsyncTracker;
+import fm.last.moji.tracker.Deadline;
+import fm.last.moji.tracker.Destination;
+import fm.last.moji.tracker.KeyResult;
+import fm.last.moji.tracker.PipelinedTracker;
+import fm.last.moji.tracker.TrackerException;
+import fm.last.moji.tracker.impl.CommunicationException;
+import fm.last.moji.tracker.impl.DeadlineExceededException;
+
+/**
+ * A {@link fm.last.moji.tracker.Tracker Tracker} handed out by {@link MultiHostTrackerPool} in shared connection mode.
+ * It owns no socket: each request is submitted to the host's shared connections and the caller waits for its own
+ * response. Closing it is free.
+ */
+class SharedTracker implements PipelinedTracker, Abortable {
+
+  private final ManagedTrackerHost host;
+  private final AsyncTracker connections;
+  private volatile boolean aborted;
+  private volatile Future<?> awaiting;
+
+  SharedTracker(ManagedTrackerHost host, AsyncTracker connections) {
+    this.host = host;
+    this.connections = connections;
+  }
+
+  @Override
+  public List<URL> getPaths(String key, String domain) throws TrackerException {
+    return await(connections.getPaths(key, domain));
+  }
+
+  @Override
+  public Map<String, String> fileInfo(String key, String domain) throws TrackerException {
+    return await(connections.fileInfo(key, domain));
+  }
+
+  @Override
+  public List<Destination> createOpen(String key, String domain, String storageClass) throws TrackerException {
+    return await(connections.createOpen(key, domain, storageClass));
+  }
+
+  @Override
+  public void createClose(String key, String domain, Destination destination, long size) throws TrackerException {
+    await(connections.createClose(key, domain, destination, size));
+  }
+
+  @Override
+  public void delete(String key, String domain) throws TrackerException {
+    await(connections.delete(key, domain));
+  }
+
+  @Override
+  public void rename(String key, String domain, String newKey) throws TrackerException {
+    await(connections.rename(key, domain, newKey));
+  }
+
+  @Override
+  public void updateStorageClass(String key, String domain, String newStorageClass) throws TrackerException {
+    await(connections.updateStorageClass(key, domain, newStorageClass));
+  }
+
+  @Override
+  public void noop() throws TrackerException {
+    await(connections.noop());
+  }
+
+  @Override
+  public List<String> list(String domain, String keyPrefix, Integer limit) throws TrackerException {
+    return await(connections.list(domain, keyPrefix, limit));
+  }
+
+  @Override
+  public List<String> list(String domain, String keyPrefix, String after, Integer limit) throws TrackerException {
+    return await(connections.list(domain, keyPrefix, after, limit));
+  }
+
+  @Override
+  public List<Map<String, String>> listFids(long fromFid, long toFid) throws TrackerException {
+    return await(connections.listFids(fromFid, toFid));
+  }
+
+  @Override
+  public Map<String, Map<String, String>> getDeviceStatuses(String domain) throws TrackerException {
+    return await(connections.getDeviceStatuses(domain));
+  }
+
+  @Override
+  public List<KeyResult<List<URL>>> getPathsAll(List<String> keys, String domain) throws TrackerException {
+    List<CompletableFuture<List<URL>>> futures = new ArrayList<CompletableFuture<List<URL>>>(keys.size());
+    for (String key : keys) {
+      futures.add(connections.getPaths(key, domain));
+    }
+    return awaitAll(keys, futures);
+  }
+
+  @Override
+  public List<KeyResult<Map<String, String>>> fileInfoAll(List<String> keys, String domain) throws TrackerException {
+    List<CompletableFuture<Map<String, String>>> futures = new ArrayList<CompletableFuture<Map<String, String>>>(
+        keys.size());
+    for (String key : keys) {
+      futures.add(connections.fileInfo(key, domain));
+    }
+    return awaitAll(keys, futures);
+  }
+
+  @Override
+  public List<KeyResult<Void>> deleteAll(List<String> keys, String domain) throws TrackerException {
+    List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>(keys.size());
+    for (String key : keys) {
+      futures.add(connections.delete(key, domain));
+    }
+    return awaitAll(keys, futures);
+  }
+
+  @Override
+  public InetSocketAddress getAddress() {
+    return host.getAddress();
+  }
+
+  @Override
+  public void close() {
+  }
+
+  ManagedTrackerHost getHost() {
+    return host;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("SharedTracker [host=");
+    builder.append(host);
+    builder.append("]");
+    return builder.toString();
+  }
+
+  /**
+   * Stops waiting for the response in progress. The shared connections still read it, so they are unaffected.
+   */
+  @Override
+  public void abort() {
+    aborted = true;
+    Future<?> future = awaiting;
+    if (future != null) {
+      future.cancel(false);
+    }
+  }
+
+  private <T> T await(CompletableFuture<T> future) throws TrackerException {
+    long start = System.nanoTime();
+    T result = getResult(future);
+    host.markSuccess();
+    host.recordLatency(System.nanoTime() - start);
+    return result;
+  }
+
+  private <T> List<KeyResult<T>> awaitAll(List<String> keys, List<CompletableFuture<T>> futures)
+      throws TrackerException {
+    List<KeyResult<T>> results = new ArrayList<KeyResult<T>>(keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      try {
+        results.add(KeyResult.success(keys.get(i), getResult(futures.get(i))));
+      } catch (CommunicationException e) {
+        throw e;
+      } catch (TrackerException e) {
+        results.add(KeyResult.<T> failure(keys.get(i), e));
+      }
+    }
+    host.markSuccess();
+    return results;
+  }
+
+  private <T> T getResult(CompletableFuture<T> future) throws TrackerException {
+    Deadline deadline = Deadline.current();
+    awaiting = future;
+    try {
+      if (aborted) {
+        future.cancel(false);
+      }
+      if (deadline == null) {
+        return future.get();
+      }
+      return future.get(Math.max(0L, deadline.remainingNanos()), TimeUnit.NANOSECONDS);
+    } catch (CancellationException e) {
+      throw new CommunicationException("Abandoned the request to tracker " + host.getAddress(), e);
+    } catch (TimeoutException e) {
+      throw new DeadlineExceededException("Deadline expired waiting for tracker " + host.getAddress(), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CommunicationException("Interrupted while waiting for tracker " + host.getAddress(), e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof CommunicationException) {
+        host.markAsFailed();
+        throw new CommunicationException(cause.getMessage(), cause);
+      }
+      if (cause instanceof TrackerException) {
+        throw (TrackerException) cause;
+      }
+      throw new TrackerException(cause);
+    } finally {
+      awaiting = null;
+    }
+  }
+
+}
@@ -0,0 +1,554 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.pool;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.Collection;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fm.last.moji.impl.DaemonThreadFactory;
+import fm.last.moji.tracker.Deadline;
+import fm.last.moji.tracker.impl.DeadlineExceededException;
+
+/**
+ * Pools {@link BorrowedTracker} connections separately for each {@link ManagedTrackerHost}. Borrowing and returning
+ * only touch an atomic counter and a lock-free stack of idle connections, so threads never contend on a monitor while
+ * connections are available. A thread only blocks when every permitted connection to the host is checked out, in which
+ * case it waits up to {@link #getMaxWait() maxWait} for one to be returned.
+ * <p>
+ * The settings mirror those of commons-pool's GenericKeyedObjectPool, and share its defaults, but apply per host:
+ * <ul>
+ * <li>maxActive: connections that may be checked out at once, negative for no limit (default 8)</li>
+ * <li>maxIdle: connections kept open while not in use, negative for no limit (default 8)</li>
+ * <li>maxWait: milliseconds to wait when maxActive is reached, zero or negative to wait indefinitely (default -1)</li>
+ * <li>testOnBorrow / testOnReturn: validate connections with a noop as they leave / enter the pool (default false)</li>
+ * <li>minIdle: connections opened in the background, and reopened as they are used or discarded, so that requests
+ * rarely pay for a connect (default 0)</li>
+ * <li>healthCheckInterval: how often idle connections are validated with a noop in the background and evicted if dead,
+ * zero to disable (default 0)</li>
+ * </ul>
+ * Every connection also gets a cheap local liveness check when borrowed, so with health checks enabled testOnBorrow can
+ * usually be left off.
+ */
+class TrackerConnectionPool {
+
+  static final int DEFAULT_MAX_ACTIVE = 8;
+  static final int DEFAULT_MAX_IDLE = 8;
+  static final long DEFAULT_MAX_WAIT = -1L;
+
+  private static final Logger log = LoggerFactory.getLogger(TrackerConnectionPool.class);
+
+  /* Opens and health checks connections; this blocks on the network, so can't share the scheduler thread */
+  private static final ExecutorService BACKGROUND_EXECUTOR = DaemonThreadFactory.newPool("moji-tracker-background", 8);
+
+  private final BorrowedTrackerObjectPoolFactory factory;
+  private final ConcurrentMap<ManagedTrackerHost, HostPool> hostPools;
+  private final Executor backgroundExecutor;
+  private final ScheduledExecutorService scheduler;
+  private final AtomicReference<ScheduledFuture<?>> healthCheck;
+  private final AtomicBoolean healthCheckRunning;
+  private volatile int maxActive;
+  private volatile int maxIdle;
+  private volatile long maxWait;
+  private volatile int minIdle;
+  private volatile long healthCheckIntervalMillis;
+  private volatile boolean testOnBorrow;
+  private volatile boolean testOnReturn;
+  private volatile boolean closed;
+
+  TrackerConnectionPool(BorrowedTrackerObjectPoolFactory factory) {
+    this(factory, BACKGROUND_EXECUTOR, SharedScheduler.get());
+  }
+
+  TrackerConnectionPool(BorrowedTrackerObjectPoolFactory factory, Executor backgroundExecutor,
+      ScheduledExecutorService scheduler) {
+    this.factory = factory;
+    this.backgroundExecutor = backgroundExecutor;
+    this.scheduler = scheduler;
+    healthCheck = new AtomicReference<ScheduledFuture<?>>();
+    healthCheckRunning = new AtomicBoolean();
+    hostPools = new ConcurrentHashMap<ManagedTrackerHost, HostPool>();
+    maxActive = DEFAULT_MAX_ACTIVE;
+    maxIdle = DEFAULT_MAX_IDLE;
+    maxWait = DEFAULT_MAX_WAIT;
+  }
+
+  BorrowedTracker borrowObject(ManagedTrackerHost host) throws Exception {
+    if (closed) {
+      throw new IllegalStateException("Pool closed");
+    }
+    return hostPool(host).borrow();
+  }
+
+  /**
+   * Borrows an idle connection without waiting for a permit or opening a new connection.
+   * 
+   * @return <code>null</code> if the host has no idle connection or no free permit.
+   */
+  BorrowedTracker borrowIdleObject(ManagedTrackerHost host) {
+    if (closed) {
+      return null;
+    }
+    return hostPool(host).borrowIdle();
+  }
+
+  void returnObject(ManagedTrackerHost host, BorrowedTracker tracker) {
+    hostPool(host).giveBack(tracker);
+  }
+
+  void invalidateObject(ManagedTrackerHost host, BorrowedTracker tracker) {
+    hostPool(host).invalidate(tracker);
+  }
+
+  /**
+   * Closes all idle connections. Connections that are checked out are closed when they are returned.
+   */
+  void close() {
+    closed = true;
+    cancelHealthCheck();
+    for (HostPool hostPool : hostPools.values()) {
+      hostPool.clear();
+      hostPool.wakeWaiters();
+    }
+  }
+
+  int getNumActive() {
+    int total = 0;
+    for (HostPool hostPool : hostPools.values()) {
+      total += hostPool.active.get();
+    }
+    return total;
+  }
+
+  int getNumIdle() {
+    int total = 0;
+    for (HostPool hostPool : hostPools.values()) {
+      total += hostPool.idleCount.get();
+    }
+    return total;
+  }
+
+  int getMaxActive() {
+    return maxActive;
+  }
+
+  void setMaxActive(int maxActive) {
+    this.maxActive = maxActive;
+    for (HostPool hostPool : hostPools.values()) {
+      hostPool.wakeWaiters();
+    }
+  }
+
+  int getMaxIdle() {
+    return maxIdle;
+  }
+
+  void setMaxIdle(int maxIdle) {
+    this.maxIdle = maxIdle;
+  }
+
+  long getMaxWait() {
+    return maxWait;
+  }
+
+  void setMaxWait(long maxWait) {
+    this.maxWait = maxWait;
+  }
+
+  int getMinIdle() {
+    return minIdle;
+  }
+
+  void setMinIdle(int minIdle) {
+    this.minIdle = minIdle;
+  }
+
+  /**
+   * Starts opening connections, in parallel and in the background, until each of the given hosts has minIdle idle
+   * connections.
+   */
+  void prewarm(Collection<ManagedTrackerHost> hosts) {
+    for (ManagedTrackerHost host : hosts) {
+      hostPool(host).topUp();
+    }
+  }
+
+  long getHealthCheckIntervalMillis() {
+    return healthCheckIntervalMillis;
+  }
+
+  void setHealthCheckInterval(long interval, TimeUnit unit) {
+    healthCheckIntervalMillis = unit.toMillis(interval);
+    cancelHealthCheck();
+    if (interval <= 0 || closed) {
+      return;
+    }
+    ScheduledFuture<?> check = scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        // the scheduler thread is shared, so hand the network I/O off and skip a beat if the last run is still going
+        if (!closed && healthCheckRunning.compareAndSet(false, true)) {
+          backgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                checkIdleConnections();
+              } finally {
+                healthCheckRunning.set(false);
+              }
+            }
+          });
+        }
+      }
+    }, interval, interval, unit);
+    ScheduledFuture<?> previous = healthCheck.getAndSet(check);
+    if (previous != null) {
+      previous.cancel(false);
+    }
+  }
+
+  /**
+   * Validates each host's idle connections with a noop, least recently used first, evicting those that fail.
+   */
+  void checkIdleConnections() {
+    for (HostPool hostPool : hostPools.values()) {
+      hostPool.checkIdle();
+    }
+  }
+
+  private void cancelHealthCheck() {
+    ScheduledFuture<?> previous = healthCheck.getAndSet(null);
+    if (previous != null) {
+      previous.cancel(false);
+    }
+  }
+
+  boolean getTestOnBorrow() {
+    return testOnBorrow;
+  }
+
+  void setTestOnBorrow(boolean testOnBorrow) {
+    this.testOnBorrow = testOnBorrow;
+  }
+
+  boolean getTestOnReturn() {
+    return testOnReturn;
+  }
+
+  void setTestOnReturn(boolean testOnReturn) {
+    this.testOnReturn = testOnReturn;
+  }
+
+  private HostPool hostPool(ManagedTrackerHost host) {
+    HostPool hostPool = hostPools.get(host);
+    if (hostPool == null) {
+      HostPool created = new HostPool(host);
+      hostPool = hostPools.putIfAbsent(host, created);
+      if (hostPool == null) {
+        hostPool = created;
+      }
+    }
+    return hostPool;
+  }
+
+  private void destroy(ManagedTrackerHost host, BorrowedTracker tracker) {
+    try {
+      factory.destroyObject(host, tracker);
+    } catch (Exception e) {
+      log.debug("Error destroying {}", tracker, e);
+    }
+  }
+
+  private class HostPool {
+
+    private final ManagedTrackerHost host;
+    /* Idle connections, most recently returned first */
+    private final ConcurrentLinkedDeque<BorrowedTracker> idle;
+    private final AtomicInteger idleCount;
+    private final AtomicInteger active;
+    private final AtomicInteger waiters;
+    private final AtomicInteger connecting;
+    private final Object exhaustedMonitor;
+
+    HostPool(ManagedTrackerHost host) {
+      this.host = host;
+      idle = new ConcurrentLinkedDeque<BorrowedTracker>();
+      idleCount = new AtomicInteger();
+      active = new AtomicInteger();
+      waiters = new AtomicInteger();
+      connecting = new AtomicInteger();
+      exhaustedMonitor = new Object();
+    }
+
+    BorrowedTracker borrow() throws Exception {
+      if (!acquirePermit()) {
+        throw new NoSuchElementException("Timeout waiting for a connection to " + host.getAddress());
+      }
+      try {
+        BorrowedTracker tracker = pollIdle();
+        topUpIfBelowMinimum();
+        if (tracker != null) {
+          return tracker;
+        }
+        tracker = factory.makeObject(host);
+        if (testOnBorrow && !factory.validateObject(host, tracker)) {
+          destroy(host, tracker);
+          throw new NoSuchElementException("Could not create a validated connection to " + host.getAddress());
+        }
+        return tracker;
+      } catch (Exception e) {
+        releasePermit();
+        throw e;
+      }
+    }
+
+    BorrowedTracker borrowIdle() {
+      if (!tryAcquirePermit()) {
+        return null;
+      }
+      BorrowedTracker tracker;
+      try {
+        tracker = pollIdle();
+      } catch (RuntimeException e) {
+        releasePermit();
+        throw e;
+      }
+      if (tracker == null) {
+        releasePermit();
+      }
+      topUpIfBelowMinimum();
+      return tracker;
+    }
+
+    /* Takes the most recently returned idle connection that is still usable, discarding stale ones */
+    private BorrowedTracker pollIdle() {
+      BorrowedTracker tracker;
+      while ((tracker = idle.pollFirst()) != null) {
+        idleCount.decrementAndGet();
+        if (tracker.isConnected() && (!testOnBorrow || factory.validateObject(host, tracker))) {
+          return tracker;
+        }
+        log.debug("Discarding stale connection to {}", host.getAddress());
+        destroy(host, tracker);
+      }
+      return null;
+    }
+
+    void giveBack(BorrowedTracker tracker) {
+      try {
+        if (testOnReturn && !factory.validateObject(host, tracker)) {
+          destroy(host, tracker);
+          topUpIfBelowMinimum();
+          return;
+        }
+        addIdle(tracker);
+      } finally {
+        releasePermit();
+      }
+    }
+
+    void invalidate(BorrowedTracker tracker) {
+      try {
+        destroy(host, tracker);
+      } finally {
+        releasePermit();
+      }
+      topUpIfBelowMinimum();
+    }
+
+    private void topUpIfBelowMinimum() {
+      // don't keep dialling a host whose circuit is open
+      if (idleCount.get() + connecting.get() < minIdle && host.getLastFailed() == 0L) {
+        topUp();
+      }
+    }
+
+    /**
+     * Submits one background connect for each connection the host is short of its idle floor, counting those already
+     * being opened.
+     */
+    void topUp() {
+      while (!closed) {
+        int pending = connecting.get();
+        if (idleCount.get() + pending >= minIdle) {
+          return;
+        }
+        if (connecting.compareAndSet(pending, pending + 1)) {
+          try {
+            backgroundExecutor.execute(new Runnable() {
+              @Override
+              public void run() {
+                openIdleConnection();
+              }
+            });
+          } catch (RuntimeException e) {
+            connecting.decrementAndGet();
+            throw e;
+          }
+        }
+      }
+    }
+
+    private void openIdleConnection() {
+      BorrowedTracker tracker = null;
+      try {
+        tracker = factory.makeObject(host);
+      } catch (Exception e) {
+        // leave the floor short; the next borrow or discard on this host will try again
+        log.debug("Unable to open idle connection to {}", host.getAddress(), e);
+        connecting.decrementAndGet();
+        return;
+      }
+      try {
+        addIdle(tracker);
+      } finally {
+        connecting.decrementAndGet();
+      }
+    }
+
+    private void addIdle(BorrowedTracker tracker) {
+      if (closed || !reserveIdleSlot()) {
+        destroy(host, tracker);
+        return;
+      }
+      idle.offerFirst(tracker);
+      if (closed && idle.remove(tracker)) {
+        // raced with close(), which may already have drained the stack
+        idleCount.decrementAndGet();
+        destroy(host, tracker);
+      }
+    }
+
+    void checkIdle() {
+      int count = idleCount.get();
+      for (int i = 0; i < count && !closed; i++) {
+        BorrowedTracker tracker = idle.pollLast();
+        if (tracker == null) {
+          break;
+        }
+        idleCount.decrementAndGet();
+        if (tracker.isConnected() && factory.validateObject(host, tracker)) {
+          addIdle(tracker);
+        } else {
+          log.debug("Evicting dead connection to {}", host.getAddress());
+          destroy(host, tracker);
+        }
+      }
+      topUpIfBelowMinimum();
+    }
+
+    void clear() {
+      BorrowedTracker tracker;
+      while ((tracker = idle.pollFirst()) != null) {
+        idleCount.decrementAndGet();
+        destroy(host, tracker);
+      }
+    }
+
+    private boolean reserveIdleSlot() {
+      while (true) {
+        int current = idleCount.get();
+        int limit = maxIdle;
+        if (limit >= 0 && current >= limit) {
+          return false;
+        }
+        if (idleCount.compareAndSet(current, current + 1)) {
+          return true;
+        }
+      }
+    }
+
+    private boolean tryAcquirePermit() {
+      while (true) {
+        int current = active.get();
+        int limit = maxActive;
+        if (limit >= 0 && current >= limit) {
+          return false;
+        }
+        if (active.compareAndSet(current, current + 1)) {
+          return true;
+        }
+      }
+    }
+
+    private boolean acquirePermit() throws InterruptedException, DeadlineExceededException {
+      if (tryAcquirePermit()) {
+        return true;
+      }
+      int configured = (int) Math.min(maxWait, Integer.MAX_VALUE);
+      long wait = Deadline.clampToCurrent(configured);
+      // the call's deadline, not maxWait, will end the wait
+      boolean clamped = wait != configured;
+      long deadline = System.nanoTime() + MILLISECONDS.toNanos(wait);
+      waiters.incrementAndGet();
+      try {
+        synchronized (exhaustedMonitor) {
+          while (!tryAcquirePermit()) {
+            if (closed) {
+              throw new IllegalStateException("Pool closed");
+            }
+            if (wait > 0) {
+              long remaining = deadline - System.nanoTime();
+              if (remaining <= 0) {
+                if (clamped) {
+                  throw new DeadlineExceededException("Deadline expired waiting for a connection to "
+                      + host.getAddress());
+                }
+                return false;
+              }
+              NANOSECONDS.timedWait(exhaustedMonitor, remaining);
+            } else {
+              exhaustedMonitor.wait();
+            }
+          }
+          return true;
+        }
+      } finally {
+        waiters.decrementAndGet();
+      }
+    }
+
+    private void releasePermit() {
+      active.decrementAndGet();
+      if (waiters.get() > 0) {
+        wakeWaiters();
+      }
+    }
+
+    void wakeWaiters() {
+      synchronized (exhaustedMonitor) {
+        exhaustedMonitor.notifyAll();
+      }
+    }
+  }
+
+}
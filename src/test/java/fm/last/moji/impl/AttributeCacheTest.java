@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import fm.last.commons.lang.time.Clock;
+import fm.last.moji.MojiFileAttributes;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AttributeCacheTest {
+
+  @Mock
+  private Clock mockClock;
+  @Mock
+  private MojiFileAttributes mockAttributes;
+
+  private AttributeCache cache;
+
+  @Before
+  public void init() {
+    when(mockClock.currentTimeMillis()).thenReturn(0L);
+    cache = new AttributeCache(2, 1000, 100, TimeUnit.MILLISECONDS, mockClock);
+  }
+
+  @Test
+  public void getCached() {
+    cache.putAttributes("domain", "key", mockAttributes);
+    AttributeCache.Entry entry = cache.get("domain", "key");
+    assertThat(entry.exists(), is(true));
+    assertThat(entry.getAttributes(), is(mockAttributes));
+    assertThat(cache.get("otherDomain", "key"), is(nullValue()));
+    assertThat(cache.getHits(), is(1L));
+    assertThat(cache.getMisses(), is(1L));
+  }
+
+  @Test
+  public void expires() {
+    cache.putAttributes("domain", "key", mockAttributes);
+    when(mockClock.currentTimeMillis()).thenReturn(999L);
+    assertThat(cache.get("domain", "key").exists(), is(true));
+    when(mockClock.currentTimeMillis()).thenReturn(1000L);
+    assertThat(cache.get("domain", "key"), is(nullValue()));
+    assertThat(cache.size(), is(0));
+  }
+
+  @Test
+  public void unknownKeysExpireSooner() {
+    cache.putUnknown("domain", "key");
+    when(mockClock.currentTimeMillis()).thenReturn(99L);
+    assertThat(cache.get("domain", "key").exists(), is(false));
+    assertThat(cache.getNegativeHits(), is(1L));
+    when(mockClock.currentTimeMillis()).thenReturn(100L);
+    assertThat(cache.get("domain", "key"), is(nullValue()));
+  }
+
+  @Test
+  public void negativeCachingDisabled() {
+    cache = new AttributeCache(2, 1000, 0, TimeUnit.MILLISECONDS, mockClock);
+    cache.putUnknown("domain", "key");
+    assertThat(cache.get("domain", "key"), is(nullValue()));
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    cache.putAttributes("domain", "a", mockAttributes);
+    cache.putAttributes("domain", "b", mockAttributes);
+    cache.get("domain", "a");
+    cache.putUnknown("domain", "c");
+    assertThat(cache.size(), is(2));
+    assertThat(cache.getEvictions(), is(1L));
+    assertThat(cache.get("domain", "b"), is(nullValue()));
+  }
+
+  @Test
+  public void invalidate() {
+    cache.putAttributes("domain", "key", mockAttributes);
+    cache.invalidate("domain", "key");
+    assertThat(cache.get("domain", "key"), is(nullValue()));
+  }
+
+  @Test
+  public void noneCachesNothing() {
+    AttributeCache.NONE.putAttributes("domain", "key", mockAttributes);
+    assertThat(AttributeCache.NONE.get("domain", "key"), is(nullValue()));
+    assertThat(AttributeCache.NONE.getMisses(), is(0L));
+  }
+
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import fm.last.moji.tracker.KeyResult;
+import fm.last.moji.tracker.Tracker;
+import fm.last.moji.tracker.impl.CommunicationException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BatchRunnerTest {
+
+  @Mock
+  private Executor mockExecutor;
+  @Mock
+  private Tracker mockTracker;
+
+  private ExecutorService helpers;
+  private BatchRunner runner;
+  private BatchRunner.CommandFactory<Boolean> commands;
+
+  @Before
+  public void init() throws Exception {
+    helpers = Executors.newCachedThreadPool();
+    runner = new BatchRunner(mockExecutor, helpers, 2, 3);
+    commands = new BatchRunner.CommandFactory<Boolean>() {
+      @Override
+      public BatchCommand<?, Boolean> newCommand(List<String> keys) {
+        return new ExistsAllCommand(keys, "domain");
+      }
+    };
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        ExistsAllCommand command = (ExistsAllCommand) invocation.getArguments()[0];
+        if (command.keys.contains("bad")) {
+          throw new CommunicationException("batch failed");
+        }
+        command.executeWithTracker(mockTracker);
+        return null;
+      }
+    }).when(mockExecutor).executeCommand(any(MojiCommand.class));
+  }
+
+  @After
+  public void teardown() {
+    helpers.shutdownNow();
+  }
+
+  @Test
+  public void resultsInKeyOrder() throws Exception {
+    List<String> keys = Arrays.asList("a", "b", "c", "d", "e");
+
+    List<KeyResult<Boolean>> results = runner.run(keys, commands);
+
+    assertThat(keys(results), is(keys));
+    verify(mockExecutor, times(3)).executeCommand(any(MojiCommand.class));
+  }
+
+  @Test
+  public void failedBatchOnlyFailsItsKeys() throws Exception {
+    List<String> keys = Arrays.asList("a", "b", "bad", "c", "d");
+
+    List<KeyResult<Boolean>> results = runner.run(keys, commands);
+
+    assertThat(keys(results), is(keys));
+    assertThat(results.get(0).isSuccess(), is(true));
+    assertThat(results.get(1).isSuccess(), is(true));
+    assertThat(results.get(2).isSuccess(), is(false));
+    assertThat(results.get(3).isSuccess(), is(false));
+    assertThat(results.get(3).getException().getMessage(), is("batch failed"));
+    assertThat(results.get(4).isSuccess(), is(true));
+  }
+
+  @Test
+  public void writeLocksHeldWhileBatchRuns() throws Exception {
+    final KeyLocks keyLocks = new KeyLocks();
+    final List<Boolean> lockedElsewhere = new ArrayList<Boolean>();
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        ExistsAllCommand command = (ExistsAllCommand) invocation.getArguments()[0];
+        for (final String key : command.keys) {
+          Future<Boolean> free = helpers.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+              return keyLocks.forKey(key).readLock().tryLock();
+            }
+          });
+          synchronized (lockedElsewhere) {
+            lockedElsewhere.add(!free.get());
+          }
+        }
+        command.executeWithTracker(mockTracker);
+        return null;
+      }
+    }).when(mockExecutor).executeCommand(any(MojiCommand.class));
+
+    runner.run(Arrays.asList("b", "a", "c"), commands, keyLocks);
+
+    assertThat(lockedElsewhere, is(Arrays.asList(true, true, true)));
+    assertThat(keyLocks.forKey("a").writeLock().tryLock(), is(true));
+  }
+
+  @Test
+  public void listenerToldOfEachBatchWhileLocksHeld() throws Exception {
+    final KeyLocks keyLocks = new KeyLocks();
+    final List<String> seen = new ArrayList<String>();
+    final List<Boolean> lockedElsewhere = new ArrayList<Boolean>();
+    BatchRunner.BatchListener<Boolean> listener = new BatchRunner.BatchListener<Boolean>() {
+      @Override
+      public void batchCompleted(List<KeyResult<Boolean>> results) {
+        for (final KeyResult<Boolean> result : results) {
+          Future<Boolean> free = helpers.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+              return keyLocks.forKey(result.getKey()).readLock().tryLock();
+            }
+          });
+          synchronized (seen) {
+            seen.add(result.getKey());
+            try {
+              lockedElsewhere.add(!free.get());
+            } catch (Exception e) {
+              throw new IllegalStateException(e);
+            }
+          }
+        }
+      }
+    };
+
+    runner.run(Arrays.asList("a", "b", "c"), commands, keyLocks, listener);
+
+    Collections.sort(seen);
+    assertThat(seen, is(Arrays.asList("a", "b", "c")));
+    assertThat(lockedElsewhere, is(Arrays.asList(true, true, true)));
+  }
+
+  @Test
+  public void noKeys() throws Exception {
+    assertThat(runner.run(new ArrayList<String>(), commands).isEmpty(), is(true));
+  }
+
+  private static List<String> keys(List<KeyResult<Boolean>> results) {
+    List<String> keys = new ArrayList<String>();
+    for (KeyResult<Boolean> result : results) {
+      keys.add(result.getKey());
+    }
+    return keys;
+  }
+
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+public class DaemonThreadFactoryTest {
+
+  @Test
+  public void threadsAreNamedDaemons() {
+    DaemonThreadFactory factory = new DaemonThreadFactory("moji-test");
+    Thread first = factory.newThread(null);
+    Thread second = factory.newThread(null);
+
+    assertThat(first.isDaemon(), is(true));
+    assertThat(first.getName(), is("moji-test-1"));
+    assertThat(second.getName(), is("moji-test-2"));
+  }
+
+  @Test
+  public void poolRunsTasksOnItsOwnThreads() throws Exception {
+    ExecutorService pool = DaemonThreadFactory.newPool("moji-test", 1);
+    try {
+      String name = pool.submit(new Callable<String>() {
+        @Override
+        public String call() {
+          return Thread.currentThread().getName();
+        }
+      }).get();
+
+      assertThat(name, is("moji-test-1"));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void boundedPoolRejectsWhenAllThreadsBusy() throws Exception {
+    ExecutorService pool = DaemonThreadFactory.newBoundedPool("moji-test", 1);
+    final CountDownLatch release = new CountDownLatch(1);
+    try {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+        }
+      });
+    } finally {
+      release.countDown();
+      pool.shutdown();
+    }
+  }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import fm.last.moji.tracker.TrackerFactory;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DefaultMojiFactoryTest {
+
+  @Mock
+  private TrackerFactory mockTrackerFactory;
+
+  private DefaultMojiFactory factory;
+
+  @Before
+  public void setUp() {
+    factory = new DefaultMojiFactory(mockTrackerFactory, "domain");
+  }
+
+  @Test
+  public void instancesShareRetryBudget() throws Exception {
+    MojiImpl first = (MojiImpl) factory.getInstance();
+    MojiImpl second = (MojiImpl) factory.getInstance("other");
+
+    RetryBudget budget = first.getExecutor().getRetryBudget();
+    assertThat(budget, is(notNullValue()));
+    assertThat(second.getExecutor().getRetryBudget(), is(sameInstance(budget)));
+  }
+
+  @Test
+  public void instancesOfADomainShareKeyLocks() throws Exception {
+    MojiImpl first = (MojiImpl) factory.getInstance();
+    MojiImpl second = (MojiImpl) factory.getInstance("domain");
+    MojiImpl other = (MojiImpl) factory.getInstance("other");
+
+    assertThat(second.getKeyLocks(), is(sameInstance(first.getKeyLocks())));
+    assertThat(other.getKeyLocks(), is(not(sameInstance(first.getKeyLocks()))));
+  }
+
+  @Test
+  public void keyLockingDisabled() throws Exception {
+    factory.setKeyLocking(false);
+    MojiImpl moji = (MojiImpl) factory.getInstance();
+
+    assertThat(moji.getKeyLocks(), is(sameInstance(KeyLocks.NONE)));
+  }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import fm.last.moji.tracker.KeyResult;
+import fm.last.moji.tracker.PipelinedTracker;
+import fm.last.moji.tracker.UnknownKeyException;
+import fm.last.moji.tracker.impl.CommunicationException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DeleteAllCommandTest {
+
+  private static final List<String> KEYS = Arrays.asList("a", "b");
+
+  @Mock
+  private PipelinedTracker mockPipelinedTracker;
+
+  @Test
+  public void unknownKeyFailsFirstAttempt() throws Exception {
+    when(mockPipelinedTracker.deleteAll(KEYS, "domain")).thenReturn(
+        Arrays.asList(KeyResult.<Void> success("a", null),
+            KeyResult.<Void> failure("b", new UnknownKeyException("domain", "b"))));
+    DeleteAllCommand command = new DeleteAllCommand(KEYS, "domain");
+
+    command.executeWithTracker(mockPipelinedTracker);
+
+    assertThat(command.getResults().get(0).isSuccess(), is(true));
+    assertThat(command.getResults().get(1).getException(), is(instanceOf(UnknownKeyException.class)));
+  }
+
+  @Test
+  public void unknownKeyDeletedOnRetry() throws Exception {
+    when(mockPipelinedTracker.deleteAll(KEYS, "domain")).thenThrow(new CommunicationException("lost"))
+        .thenReturn(Arrays.asList(KeyResult.<Void> failure("a", new UnknownKeyException("domain", "a")),
+            KeyResult.<Void> success("b", null)));
+    DeleteAllCommand command = new DeleteAllCommand(KEYS, "domain");
+    try {
+      command.executeWithTracker(mockPipelinedTracker);
+      fail();
+    } catch (CommunicationException e) {
+    }
+
+    command.executeWithTracker(mockPipelinedTracker);
+
+    assertThat(command.getResults().get(0).isSuccess(), is(true));
+    assertThat(command.getResults().get(1).isSuccess(), is(true));
+  }
+
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import fm.last.moji.Moji;
+import fm.last.moji.MojiFile;
+import fm.last.moji.MojiFileVisitor;
+import fm.last.moji.MojiScan;
+import fm.last.moji.tracker.Tracker;
+import fm.last.moji.tracker.TrackerFactory;
+import fm.last.moji.tracker.impl.CommunicationException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DomainScannerTest {
+
+  private static final String DOMAIN = "domain";
+
+  @Mock
+  private Moji mockMoji;
+  @Mock
+  private Tracker mockTracker;
+  @Mock
+  private TrackerFactory mockFactory;
+
+  private Executor executor;
+  private CollectingVisitor visitor;
+
+  @Before
+  public void setUp() throws Exception {
+    when(mockFactory.getTracker()).thenReturn(mockTracker);
+    when(mockFactory.getAddresses()).thenReturn(Collections.singleton(new InetSocketAddress(10001)));
+    when(mockMoji.getFile(anyString())).thenAnswer(new Answer<MojiFile>() {
+      @Override
+      public MojiFile answer(InvocationOnMock invocation) throws Throwable {
+        MojiFile mock = mock(MojiFile.class);
+        when(mock.getKey()).thenReturn((String) invocation.getArguments()[0]);
+        return mock;
+      }
+    });
+    executor = new Executor(mockFactory);
+    visitor = new CollectingVisitor();
+  }
+
+  @Test
+  public void scanByPrefix() throws Exception {
+    when(mockTracker.list(DOMAIN, "a", 2)).thenReturn(Arrays.asList("a1", "a2"));
+    when(mockTracker.list(DOMAIN, "a", "a2", 2)).thenReturn(Arrays.asList("a3"));
+    when(mockTracker.list(DOMAIN, "b", 2)).thenReturn(Arrays.asList("b1"));
+    when(mockTracker.list(DOMAIN, "c", 2)).thenReturn(Collections.<String> emptyList());
+    MojiScan scan = new MojiScan.Builder().prefixes("a", "b", "c").pageSize(2).parallelism(2).build();
+
+    new DomainScanner(mockMoji, executor, DOMAIN, scan).run(visitor);
+
+    Collections.sort(visitor.keys);
+    assertThat(visitor.keys, is(Arrays.asList("a1", "a2", "a3", "b1")));
+  }
+
+  @Test
+  public void scanByFidFiltersDomain() throws Exception {
+    when(mockTracker.listFids(1, 2)).thenReturn(Arrays.asList(fid(1, DOMAIN, "k1"), fid(2, "other", "x")));
+    when(mockTracker.listFids(3, 3)).thenReturn(Arrays.asList(fid(3, DOMAIN, "k3")));
+    when(mockTracker.listFids(4, 5)).thenReturn(Arrays.asList(fid(5, DOMAIN, "k5")));
+    MojiScan scan = new MojiScan.Builder().fidRange(1, 5, 3).pageSize(2).build();
+
+    new DomainScanner(mockMoji, executor, DOMAIN, scan).run(visitor);
+
+    Collections.sort(visitor.keys);
+    assertThat(visitor.keys, is(Arrays.asList("k1", "k3", "k5")));
+  }
+
+  @Test
+  public void scanByFidContinuesAfterTruncatedPage() throws Exception {
+    when(mockTracker.listFids(1, 10)).thenReturn(Arrays.asList(fid(1, DOMAIN, "k1"), fid(2, DOMAIN, "k2")));
+    when(mockTracker.listFids(3, 10)).thenReturn(Arrays.asList(fid(3, DOMAIN, "k3"), fid(7, DOMAIN, "k7")));
+    when(mockTracker.listFids(8, 10)).thenReturn(Collections.<Map<String, String>> emptyList());
+    MojiScan scan = new MojiScan.Builder().fidRange(1, 10, 10).pageSize(10).build();
+
+    new DomainScanner(mockMoji, executor, DOMAIN, scan).run(visitor);
+
+    assertThat(visitor.keys, is(Arrays.asList("k1", "k2", "k3", "k7")));
+    verify(mockTracker).listFids(8, 10);
+    verify(mockTracker, times(3)).listFids(anyLong(), anyLong());
+  }
+
+  @Test
+  public void scanByFidIgnoresRowsPastRange() throws Exception {
+    when(mockTracker.listFids(1, 2)).thenReturn(Arrays.asList(fid(1, DOMAIN, "k1"), fid(3, DOMAIN, "k3")));
+    MojiScan scan = new MojiScan.Builder().fidRange(1, 2, 2).pageSize(2).build();
+
+    new DomainScanner(mockMoji, executor, DOMAIN, scan).run(visitor);
+
+    assertThat(visitor.keys, is(Arrays.asList("k1")));
+    verify(mockTracker).listFids(2, 2);
+    verify(mockTracker, times(2)).listFids(anyLong(), anyLong());
+  }
+
+  @Test
+  public void visitorStopsScan() throws Exception {
+    when(mockTracker.list(DOMAIN, "a", 2)).thenReturn(Arrays.asList("a1", "a2"));
+    when(mockTracker.list(DOMAIN, "a", "a2", 2)).thenReturn(Arrays.asList("a3", "a4"));
+    when(mockTracker.list(DOMAIN, "a", "a4", 2)).thenReturn(Arrays.asList("a5"));
+    MojiScan scan = new MojiScan.Builder().prefixes("a").pageSize(2).build();
+    visitor.stopAfter = 1;
+
+    new DomainScanner(mockMoji, executor, DOMAIN, scan).run(visitor);
+
+    assertThat(visitor.keys, is(Arrays.asList("a1")));
+  }
+
+  @Test
+  public void listingFailureAbortsScan() throws Exception {
+    when(mockTracker.list(DOMAIN, "a", 2)).thenReturn(Arrays.asList("a1", "a2"));
+    when(mockTracker.list(DOMAIN, "a", "a2", 2)).thenThrow(new CommunicationException("boom"));
+    MojiScan scan = new MojiScan.Builder().prefixes("a").pageSize(2).build();
+
+    try {
+      new DomainScanner(mockMoji, executor, DOMAIN, scan).run(visitor);
+      fail();
+    } catch (CommunicationException e) {
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void scanNeedsShards() {
+    new MojiScan.Builder().build();
+  }
+
+  private static Map<String, String> fid(long fid, String domain, String key) {
+    Map<String, String> values = new HashMap<String, String>();
+    values.put("fid", Long.toString(fid));
+    values.put("domain", domain);
+    values.put("key", key);
+    return values;
+  }
+
+  private static class CollectingVisitor implements MojiFileVisitor {
+
+    private final List<String> keys = new ArrayList<String>();
+    private int stopAfter = Integer.MAX_VALUE;
+
+    @Override
+    public boolean visit(MojiFile file) throws IOException {
+      keys.add(file.getKey());
+      return keys.size() < stopAfter;
+    }
+  }
+
+}
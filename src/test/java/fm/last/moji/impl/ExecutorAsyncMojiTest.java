@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import fm.last.moji.AsyncMoji;
+import fm.last.moji.AsyncMojiFile;
+import fm.last.moji.Moji;
+import fm.last.moji.MojiFile;
+import fm.last.moji.tracker.Deadline;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ExecutorAsyncMojiTest {
+
+  private static final Executor CALLER_RUNS = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  @Mock
+  private Moji mockMoji;
+  @Mock
+  private MojiFile mockFile;
+  @Mock
+  private Executor mockExecutor;
+  @Mock
+  private OutputStream mockOutput;
+
+  private AsyncMoji asyncMoji;
+
+  @Before
+  public void init() {
+    when(mockMoji.getFile("key")).thenReturn(mockFile);
+    asyncMoji = new ExecutorAsyncMoji(mockMoji, CALLER_RUNS);
+  }
+
+  @Test
+  public void existsCompletesWithResult() throws Exception {
+    when(mockFile.exists()).thenReturn(true);
+
+    assertThat(asyncMoji.getFile("key").exists().get(), is(true));
+  }
+
+  @Test
+  public void failureCompletesExceptionally() throws Exception {
+    IOException failure = new IOException();
+    doThrow(failure).when(mockFile).delete();
+
+    try {
+      asyncMoji.getFile("key").delete().get();
+      fail();
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), is(sameInstance((Throwable) failure)));
+    }
+  }
+
+  @Test
+  public void list() throws Exception {
+    List<MojiFile> files = Collections.singletonList(mockFile);
+    when(mockMoji.list("prefix", 10)).thenReturn(files);
+
+    assertThat(asyncMoji.list("prefix", 10).get(), is(files));
+  }
+
+  @Test
+  public void getReadsWholeContent() throws Exception {
+    when(mockFile.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+
+    assertThat(asyncMoji.getFile("key").get().get(), is(new byte[] { 1, 2, 3 }));
+  }
+
+  @Test
+  public void putWritesAndCloses() throws Exception {
+    when(mockFile.getOutputStream()).thenReturn(mockOutput);
+    byte[] content = new byte[] { 4, 5 };
+
+    asyncMoji.getFile("key").put(content).get();
+
+    verify(mockOutput).write(content);
+    verify(mockOutput).close();
+  }
+
+  @Test
+  public void rejectedCallCompletesExceptionally() throws Exception {
+    doThrow(new RejectedExecutionException()).when(mockExecutor).execute(any(Runnable.class));
+    AsyncMojiFile file = new ExecutorAsyncMoji(mockMoji, mockExecutor).getFile("key");
+
+    try {
+      file.exists().get();
+      fail();
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), is(instanceOf(RejectedExecutionException.class)));
+    }
+  }
+
+  @Test
+  public void deadlineCarriedToCall() throws Exception {
+    final Deadline[] seen = new Deadline[1];
+    doAnswer(new Answer<Long>() {
+      @Override
+      public Long answer(InvocationOnMock invocation) {
+        seen[0] = Deadline.current();
+        return 1L;
+      }
+    }).when(mockFile).length();
+    AsyncMoji pooled = new ExecutorAsyncMoji(mockMoji, ExecutorAsyncMoji.defaultExecutor());
+
+    Deadline deadline = Deadline.after(1, TimeUnit.MINUTES);
+    Deadline previous = Deadline.enter(deadline);
+    try {
+      assertThat(pooled.getFile("key").length().get(), is(1L));
+    } finally {
+      Deadline.restore(previous);
+    }
+    assertThat(seen[0], is(notNullValue()));
+    assertThat(seen[0], is(sameInstance(deadline)));
+  }
+
+  @Test
+  public void defaultExecutorRunsCallsOnItsOwnThreads() throws Exception {
+    final String[] seen = new String[1];
+    doAnswer(new Answer<Long>() {
+      @Override
+      public Long answer(InvocationOnMock invocation) {
+        seen[0] = Thread.currentThread().getName();
+        return 1L;
+      }
+    }).when(mockFile).length();
+    AsyncMoji pooled = new ExecutorAsyncMoji(mockMoji, ExecutorAsyncMoji.defaultExecutor());
+
+    assertThat(pooled.getFile("key").length().get(), is(1L));
+    assertThat(seen[0].startsWith("moji-async-"), is(true));
+  }
+
+  @Test
+  public void blockingFileExposed() {
+    assertThat(asyncMoji.getFile("key").getFile(), is(mockFile));
+    verify(mockMoji).getFile("key");
+  }
+
+}
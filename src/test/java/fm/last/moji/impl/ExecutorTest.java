@@ -15,24 +15,45 @@
  */
 package fm.last.moji.impl;
 
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anySet;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
+import fm.last.moji.tracker.Deadline;
 import fm.last.moji.tracker.Tracker;
 import fm.last.moji.tracker.TrackerException;
 import fm.last.moji.tracker.TrackerFactory;
 import fm.last.moji.tracker.UnknownKeyException;
+import fm.last.moji.tracker.impl.CommunicationException;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ExecutorTest {
@@ -40,6 +61,10 @@ public class ExecutorTest {
   @Mock
   private Tracker mockTracker;
   @Mock
+  private Tracker mockTracker2;
+  @Mock
+  private Tracker mockTracker3;
+  @Mock
   private TrackerFactory mockFactory;
   @Mock
   private MojiCommand mockCommand;
@@ -51,6 +76,7 @@ public class ExecutorTest {
   @Before
   public void init() throws TrackerException {
     when(mockFactory.getTracker()).thenReturn(mockTracker);
+    when(mockFactory.getTracker(anySet())).thenReturn(mockTracker);
     when(mockFactory.getAddresses()).thenReturn(Collections.singleton(mockAddress));
     executor = new Executor(mockFactory);
   }
@@ -81,4 +107,145 @@ public class ExecutorTest {
     verify(mockTracker).close();
   }
 
+  @Test
+  public void retriesOnCommunicationException() throws Exception {
+    givenThreeAddresses();
+    doThrow(new CommunicationException()).doThrow(new CommunicationException()).doNothing().when(mockCommand)
+        .executeWithTracker(mockTracker);
+
+    executor.executeCommand(mockCommand);
+    verify(mockFactory).getTracker();
+    verify(mockFactory, times(2)).getTracker(anySet());
+    verify(mockTracker, times(3)).close();
+  }
+
+  @Test
+  public void retriesExcludeHostsAlreadyTried() throws Exception {
+    givenThreeAddresses();
+    InetSocketAddress address1 = InetSocketAddress.createUnresolved("tracker1", 7001);
+    InetSocketAddress address2 = InetSocketAddress.createUnresolved("tracker2", 7001);
+    when(mockTracker.getAddress()).thenReturn(address1);
+    when(mockTracker2.getAddress()).thenReturn(address2);
+    final List<Set<InetSocketAddress>> exclusions = new ArrayList<Set<InetSocketAddress>>();
+    when(mockFactory.getTracker(anySet())).thenAnswer(new Answer<Tracker>() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public Tracker answer(InvocationOnMock invocation) {
+        exclusions.add(new HashSet<InetSocketAddress>((Set<InetSocketAddress>) invocation.getArguments()[0]));
+        return exclusions.size() == 1 ? mockTracker2 : mockTracker3;
+      }
+    });
+    doThrow(new CommunicationException()).when(mockCommand).executeWithTracker(mockTracker);
+    doThrow(new CommunicationException()).when(mockCommand).executeWithTracker(mockTracker2);
+
+    executor.executeCommand(mockCommand);
+    assertThat(exclusions.get(0), is((Set<InetSocketAddress>) Collections.singleton(address1)));
+    assertThat(exclusions.get(1), is((Set<InetSocketAddress>) new HashSet<InetSocketAddress>(Arrays.asList(address1,
+        address2))));
+    verify(mockCommand).executeWithTracker(mockTracker3);
+  }
+
+  @Test
+  public void lastFailureCarriesEarlierAttempts() throws Exception {
+    givenThreeAddresses();
+    CommunicationException first = new CommunicationException("first");
+    CommunicationException second = new CommunicationException("second");
+    CommunicationException third = new CommunicationException("third");
+    doThrow(first).doThrow(second).doThrow(third).when(mockCommand).executeWithTracker(mockTracker);
+
+    try {
+      executor.executeCommand(mockCommand);
+      fail();
+    } catch (CommunicationException e) {
+      assertThat(e, is(sameInstance(third)));
+      assertThat(e.getSuppressed()[0], is(sameInstance((Throwable) second)));
+      assertThat(second.getSuppressed()[0], is(sameInstance((Throwable) first)));
+    }
+  }
+
+  @Test
+  public void backoffIsJitteredAndCapped() {
+    when(mockFactory.getNetworkingConfiguration()).thenReturn(
+        new NetworkingConfiguration.Builder().retryBackoff(100, 250).build());
+    executor = new Executor(mockFactory);
+
+    assertThat(executor.backoffMillis(0), is(0L));
+    boolean varies = false;
+    long firstDelay = executor.backoffMillis(1);
+    for (int i = 0; i < 100; i++) {
+      long delay1 = executor.backoffMillis(1);
+      long delay2 = executor.backoffMillis(2);
+      long delay5 = executor.backoffMillis(5);
+      assertThat(delay1 >= 0 && delay1 <= 100, is(true));
+      assertThat(delay2 >= 0 && delay2 <= 200, is(true));
+      assertThat(delay5 >= 0 && delay5 <= 250, is(true));
+      varies |= delay1 != firstDelay;
+    }
+    assertThat(varies, is(true));
+  }
+
+  @Test
+  public void exhaustedRetryBudgetStopsRetries() throws Exception {
+    when(mockFactory.getAddresses()).thenReturn(addresses(3));
+    executor = new Executor(mockFactory, new RetryBudget(0d, 0));
+    doThrow(new CommunicationException()).when(mockCommand).executeWithTracker(mockTracker);
+
+    try {
+      executor.executeCommand(mockCommand);
+    } catch (CommunicationException expected) {
+    }
+    // the budget starts with a single retry in reserve
+    verify(mockFactory).getTracker();
+    verify(mockFactory).getTracker(anySet());
+  }
+
+  @Test
+  public void expiredDeadlineStopsRetries() throws Exception {
+    givenThreeAddresses();
+    doThrow(new CommunicationException()).when(mockCommand).executeWithTracker(mockTracker);
+
+    Deadline previous = Deadline.enter(Deadline.after(0, TimeUnit.MILLISECONDS));
+    try {
+      executor.executeCommand(mockCommand);
+    } catch (CommunicationException expected) {
+    } finally {
+      Deadline.restore(previous);
+    }
+    verify(mockFactory).getTracker();
+    verify(mockFactory, never()).getTracker(anySet());
+  }
+
+  @Test
+  public void callTimeoutSetsDeadlineForCommand() throws Exception {
+    when(mockFactory.getNetworkingConfiguration()).thenReturn(
+        new NetworkingConfiguration.Builder().callTimeout(5000).build());
+    executor = new Executor(mockFactory);
+    final Deadline[] seen = new Deadline[1];
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        seen[0] = Deadline.current();
+        return null;
+      }
+    }).when(mockCommand).executeWithTracker(any(Tracker.class));
+
+    executor.executeCommand(mockCommand);
+    assertThat(seen[0], is(notNullValue()));
+    assertThat(seen[0].clampTimeoutMillis(0) <= 5000, is(true));
+    assertThat(Deadline.current(), is(nullValue()));
+  }
+
+  private void givenThreeAddresses() {
+    when(mockFactory.getAddresses()).thenReturn(addresses(3));
+    executor = new Executor(mockFactory);
+  }
+
+  private HashSet<InetSocketAddress> addresses(int count) {
+    HashSet<InetSocketAddress> addresses = new HashSet<InetSocketAddress>();
+    for (int i = 0; i < count; i++) {
+      addresses.add(InetSocketAddress.createUnresolved("tracker" + i, 7001));
+    }
+    return addresses;
+  }
+
 }
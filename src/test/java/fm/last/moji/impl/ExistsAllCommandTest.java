@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.when;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import fm.last.moji.tracker.KeyResult;
+import fm.last.moji.tracker.PipelinedTracker;
+import fm.last.moji.tracker.Tracker;
+import fm.last.moji.tracker.TrackerException;
+import fm.last.moji.tracker.UnknownKeyException;
+import fm.last.moji.tracker.impl.CommunicationException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ExistsAllCommandTest {
+
+  private static final List<String> KEYS = Arrays.asList("a", "b", "c");
+
+  @Mock
+  private PipelinedTracker mockPipelinedTracker;
+  @Mock
+  private Tracker mockTracker;
+
+  @Test
+  public void pipelined() throws Exception {
+    List<URL> paths = Collections.singletonList(new URL("http://localhost:7500/1.fid"));
+    List<URL> noPaths = Collections.emptyList();
+    TrackerException failure = new TrackerException("other");
+    when(mockPipelinedTracker.getPathsAll(KEYS, "domain")).thenReturn(
+        Arrays.asList(KeyResult.success("a", paths), KeyResult.success("b", noPaths),
+            KeyResult.<List<URL>> failure("c", failure)));
+    ExistsAllCommand command = new ExistsAllCommand(KEYS, "domain");
+
+    command.executeWithTracker(mockPipelinedTracker);
+
+    List<KeyResult<Boolean>> results = command.getResults();
+    assertThat(results.get(0).getValue(), is(true));
+    assertThat(results.get(1).getValue(), is(false));
+    assertThat(results.get(2).isSuccess(), is(false));
+    assertThat(results.get(2).getException(), is(failure));
+  }
+
+  @Test
+  public void unknownKeyDoesNotExist() throws Exception {
+    when(mockTracker.getPaths("a", "domain")).thenThrow(new UnknownKeyException("domain", "a"));
+    ExistsAllCommand command = new ExistsAllCommand(Collections.singletonList("a"), "domain");
+
+    command.executeWithTracker(mockTracker);
+
+    assertThat(command.getResults().get(0).isSuccess(), is(true));
+    assertThat(command.getResults().get(0).getValue(), is(false));
+  }
+
+  @Test(expected = CommunicationException.class)
+  public void communicationFailureFailsBatch() throws Exception {
+    when(mockTracker.getPaths("a", "domain")).thenThrow(new CommunicationException());
+    new ExistsAllCommand(KEYS, "domain").executeWithTracker(mockTracker);
+  }
+
+}
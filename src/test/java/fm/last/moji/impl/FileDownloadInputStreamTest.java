@@ -35,6 +35,8 @@ public class FileDownloadInputStreamTest {
   private InputStream mockInputStream;
   @Mock
   private Lock mockReadLock;
+  @Mock
+  private Runnable mockOnClose;
   private FileDownloadInputStream stream;
 
   @Before
@@ -91,6 +93,26 @@ public class FileDownloadInputStreamTest {
     verify(mockReadLock).unlock();
   }
 
+  @Test
+  public void closeRunsOnCloseEvenOnError() throws IOException {
+    stream = new FileDownloadInputStream(mockInputStream, mockReadLock, mockOnClose);
+    doThrow(new IOException()).when(mockInputStream).close();
+    try {
+      stream.close();
+    } catch (Exception e) {
+    }
+    verify(mockOnClose).run();
+    verify(mockReadLock).unlock();
+  }
+
+  @Test
+  public void onCloseRunsOnce() throws IOException {
+    stream = new FileDownloadInputStream(mockInputStream, mockReadLock, mockOnClose);
+    stream.close();
+    stream.close();
+    verify(mockOnClose).run();
+  }
+
   @Test
   public void markDelegates() {
     stream.mark(21);
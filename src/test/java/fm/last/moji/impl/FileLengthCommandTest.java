@@ -16,7 +16,10 @@
 package fm.last.moji.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import java.io.FileNotFoundException;
@@ -26,14 +29,19 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import fm.last.moji.tracker.Deadline;
 import fm.last.moji.tracker.Tracker;
+import fm.last.moji.tracker.UnknownCommandException;
+import fm.last.moji.tracker.UnknownKeyException;
 
 @RunWith(MockitoJUnitRunner.class)
 public class FileLengthCommandTest {
@@ -64,7 +72,7 @@ public class FileLengthCommandTest {
     command.executeWithTracker(mockTracker);
 
     assertEquals(42, command.getLength());
-    verify(mockHttpConnection).disconnect();
+    verify(mockHttpConnectionFactory).release(mockHttpConnection, true);
   }
 
   @Test
@@ -74,7 +82,7 @@ public class FileLengthCommandTest {
     command.executeWithTracker(mockTracker);
 
     assertEquals(0, command.getLength());
-    verify(mockHttpConnection).disconnect();
+    verify(mockHttpConnectionFactory).release(mockHttpConnection, true);
   }
 
   @Test
@@ -86,6 +94,55 @@ public class FileLengthCommandTest {
     assertEquals(Integer.MAX_VALUE + 1L, command.getLength());
   }
 
+  @Test
+  public void headReadTimeoutFitsDeadline() throws Exception {
+    when(mockHttpConnection.getReadTimeout()).thenReturn(60000);
+    when(mockHttpConnection.getHeaderField("Content-Length")).thenReturn("42");
+    Deadline previous = Deadline.enter(Deadline.after(1, TimeUnit.SECONDS));
+    try {
+      command.headFirst(Collections.singletonList(url1));
+    } finally {
+      Deadline.restore(previous);
+    }
+
+    ArgumentCaptor<Integer> timeout = ArgumentCaptor.forClass(Integer.class);
+    verify(mockHttpConnection).setReadTimeout(timeout.capture());
+    assertTrue(timeout.getValue() <= 1000);
+  }
+
+  @Test
+  public void fileInfoPreferredToCachedPaths() throws Exception {
+    when(mockTracker.fileInfo("key", "domain")).thenReturn(Collections.singletonMap("length", "100"));
+    command = new FileLengthCommand(mockHttpConnectionFactory, "key", "domain", Collections.singletonList(url1));
+    command.executeWithTracker(mockTracker);
+
+    assertEquals(100, command.getLength());
+    verify(mockHttpConnectionFactory, never()).newConnection(url1);
+  }
+
+  @Test
+  public void cachedPathsUsedWithoutFileInfo() throws Exception {
+    when(mockHttpConnection.getHeaderField("Content-Length")).thenReturn("42");
+    command = new FileLengthCommand(mockHttpConnectionFactory, "key", "domain", Collections.singletonList(url1));
+    command.executeWithTracker(mockTracker);
+
+    assertEquals(42, command.getLength());
+    assertTrue(command.getPaths().isEmpty());
+    verify(mockTracker, never()).getPaths("key", "domain");
+  }
+
+  @Test
+  public void staleCachedPathsRefreshedFromTracker() throws Exception {
+    when(mockHttpConnectionFactory.newConnection(url2)).thenThrow(new IOException());
+    when(mockHttpConnection.getHeaderField("Content-Length")).thenReturn("42");
+    when(mockTracker.getPaths("key", "domain")).thenReturn(Collections.singletonList(url1));
+    command = new FileLengthCommand(mockHttpConnectionFactory, "key", "domain", Collections.singletonList(url2));
+    command.executeWithTracker(mockTracker);
+
+    assertEquals(42, command.getLength());
+    assertEquals(Collections.singletonList(url1), command.getPaths());
+  }
+
   @Test(expected = FileNotFoundException.class)
   public void noPaths() throws Exception {
     when(mockTracker.getPaths("key", "domain")).thenReturn(new ArrayList<URL>());
@@ -102,7 +159,33 @@ public class FileLengthCommandTest {
     command.executeWithTracker(mockTracker);
 
     assertEquals(42, command.getLength());
-    verify(mockHttpConnection).disconnect();
+    verify(mockHttpConnectionFactory).release(mockHttpConnection, true);
+  }
+
+  @Test
+  public void lengthFromFileInfo() throws Exception {
+    when(mockTracker.fileInfo("key", "domain")).thenReturn(Collections.singletonMap("length", "2147483648"));
+    command.executeWithTracker(mockTracker);
+
+    assertEquals(Integer.MAX_VALUE + 1L, command.getLength());
+    verify(mockTracker, never()).getPaths("key", "domain");
+    verifyZeroInteractions(mockHttpConnectionFactory);
+  }
+
+  @Test
+  public void fileInfoUnsupported() throws Exception {
+    when(mockTracker.fileInfo("key", "domain")).thenThrow(new UnknownCommandException("file_info"));
+    when(mockHttpConnection.getHeaderField("Content-Length")).thenReturn("42");
+    when(mockTracker.getPaths("key", "domain")).thenReturn(Collections.singletonList(url1));
+    command.executeWithTracker(mockTracker);
+
+    assertEquals(42, command.getLength());
+  }
+
+  @Test(expected = UnknownKeyException.class)
+  public void unknownKey() throws Exception {
+    when(mockTracker.fileInfo("key", "domain")).thenThrow(new UnknownKeyException("domain", "key"));
+    command.executeWithTracker(mockTracker);
   }
 
 }
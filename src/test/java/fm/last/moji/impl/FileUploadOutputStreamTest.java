@@ -91,7 +91,8 @@ public class FileUploadOutputStreamTest {
 
     verify(mockOutputStream).flush();
     verify(mockOutputStream).close();
-    verify(mockHttpConnection).disconnect();
+    verify(mockInputStream).close();
+    verify(mockHttpFactory).release(mockHttpConnection, true);
     verify(mockTracker).createClose(KEY, DOMAIN, mockDestination, 1);
     verify(mockTracker).close();
     verify(mockWriteLock).unlock();
@@ -103,7 +104,7 @@ public class FileUploadOutputStreamTest {
     doThrow(new RuntimeException()).when(mockOutputStream).close();
     when(mockHttpConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_INTERNAL_ERROR);
     doThrow(new RuntimeException()).when(mockInputStream).close();
-    doThrow(new RuntimeException()).when(mockHttpConnection).disconnect();
+    doThrow(new RuntimeException()).when(mockHttpFactory).release(mockHttpConnection, false);
     doThrow(new RuntimeException()).when(mockTracker).createClose(KEY, DOMAIN, mockDestination, 1);
 
     try {
@@ -114,7 +115,7 @@ public class FileUploadOutputStreamTest {
 
     verify(mockOutputStream).flush();
     verify(mockOutputStream).close();
-    verify(mockHttpConnection).disconnect();
+    verify(mockHttpFactory).release(mockHttpConnection, false);
     verify(mockWriteLock).unlock();
   }
 
@@ -160,7 +161,7 @@ public class FileUploadOutputStreamTest {
     stream.close();
 
     verify(mockOutputStream).write(1);
-    verify(mockHttpConnection).disconnect();
+    verify(mockHttpFactory).release(mockHttpConnection, true);
   }
 
   @Test
@@ -174,17 +175,29 @@ public class FileUploadOutputStreamTest {
     } catch (IOException e) {
     }
 
-    verify(mockHttpConnection).disconnect();
+    verify(mockHttpFactory).release(mockHttpConnection, false);
   }
 
   @Test
-  public void flushAndDisconnectError() throws IOException {
-    doThrow(new RuntimeException()).when(mockHttpConnection).disconnect();
+  public void flushAndReleaseError() throws IOException {
+    doThrow(new RuntimeException()).when(mockHttpFactory).release(mockHttpConnection, true);
 
     stream.write(1);
     stream.close();
 
-    verify(mockHttpConnection).disconnect();
+    verify(mockHttpFactory).release(mockHttpConnection, true);
+  }
+
+  @Test
+  public void connectionReleasedWhenStreamCannotOpen() throws IOException {
+    doThrow(new IOException()).when(mockHttpConnection).getOutputStream();
+    try {
+      new FileUploadOutputStream(mockTrackerFactory, mockHttpFactory, KEY, DOMAIN, mockDestination, mockWriteLock);
+      fail("IOException should be thrown");
+    } catch (IOException e) {
+    }
+
+    verify(mockHttpFactory).release(mockHttpConnection, false);
   }
 
   @Test
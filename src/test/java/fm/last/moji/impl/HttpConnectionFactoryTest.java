@@ -19,6 +19,7 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
@@ -26,11 +27,14 @@ import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.ServerSocket;
 import java.net.URL;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import fm.last.moji.tracker.Deadline;
+
 public class HttpConnectionFactoryTest {
 
   private HttpConnectionFactory factory;
@@ -48,7 +52,9 @@ public class HttpConnectionFactoryTest {
   @After
   public void tearDown() throws IOException {
     try {
-      connection.disconnect();
+      if (connection != null) {
+        connection.disconnect();
+      }
     } finally {
       serverSocket.close();
     }
@@ -60,4 +66,73 @@ public class HttpConnectionFactoryTest {
     assertThat(connection, is(not(nullValue())));
   }
 
+  @Test
+  public void deadlineShortensOnlyConnectTimeout() throws Exception {
+    factory = new HttpConnectionFactory(new NetworkingConfiguration.Builder().httpConnectTimeout(60000)
+        .httpReadTimeout(60000).build());
+    Deadline previous = Deadline.enter(Deadline.after(1, TimeUnit.SECONDS));
+    try {
+      connection = factory.newConnection(nodeUrl());
+    } finally {
+      Deadline.restore(previous);
+    }
+    assertThat(connection.getConnectTimeout() <= 1000, is(true));
+    assertThat(connection.getReadTimeout(), is(60000));
+  }
+
+  @Test
+  public void connectionsPerNodeLimited() throws Exception {
+    factory = new HttpConnectionFactory(new NetworkingConfiguration.Builder().httpConnectTimeout(10)
+        .maxConnectionsPerNode(1).build());
+    URL url = nodeUrl();
+    connection = factory.newConnection(url);
+    try {
+      factory.newConnection(url);
+      fail("IOException expected");
+    } catch (IOException expected) {
+    }
+    assertThat(factory.getStatistics().getLimitTimeouts(), is(1L));
+
+    factory.release(connection, true);
+    // a second release must not free a permit twice
+    factory.release(connection, true);
+    assertThat(factory.getStatistics().getKeptAlive(), is(1L));
+    HttpURLConnection next = factory.newConnection(url);
+    factory.release(next, false);
+    assertThat(factory.getStatistics().getInUse(), is(0));
+  }
+
+  @Test
+  public void releaseCounted() throws Exception {
+    connection = factory.newConnection(nodeUrl());
+    HttpURLConnection failed = factory.newConnection(nodeUrl());
+    assertThat(factory.getStatistics().getInUse(), is(2));
+    factory.release(connection, true);
+    factory.release(failed, false);
+
+    HttpConnectionStatistics statistics = factory.getStatistics();
+    assertThat(statistics.getOpened(), is(2L));
+    assertThat(statistics.getKeptAlive(), is(1L));
+    assertThat(statistics.getClosed(), is(1L));
+    assertThat(statistics.getInUse(), is(0));
+  }
+
+  @Test
+  public void permitWaitBoundedWithoutConnectTimeout() throws Exception {
+    factory = new HttpConnectionFactory(new NetworkingConfiguration.Builder().maxConnectionsPerNode(1).build());
+    connection = factory.newConnection(nodeUrl());
+    long start = System.currentTimeMillis();
+    try {
+      factory.newConnection(nodeUrl());
+      fail("IOException expected");
+    } catch (IOException expected) {
+    }
+    assertThat(System.currentTimeMillis() - start < 5000, is(true));
+    factory.release(connection, true);
+  }
+
+  private URL nodeUrl() throws IOException {
+    return new URL("http://" + address.getHostName() + ":" + address.getPort() + "/");
+  }
+
 }
@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class KeyLocksTest {
+
+  private final ExecutorService otherThread = Executors.newSingleThreadExecutor();
+
+  @After
+  public void shutdown() {
+    otherThread.shutdownNow();
+  }
+
+  @Test
+  public void writeExcludesOtherThreadsAcrossHandles() throws Exception {
+    KeyLocks keyLocks = new KeyLocks();
+    Lock writeLock = keyLocks.forKey("key").writeLock();
+    writeLock.lock();
+    try {
+      assertThat(tryLockInOtherThread(keyLocks.forKey("key").readLock()), is(false));
+      assertThat(tryLockInOtherThread(keyLocks.forKey("key").writeLock()), is(false));
+    } finally {
+      writeLock.unlock();
+    }
+    assertThat(tryLockInOtherThread(keyLocks.forKey("key").writeLock()), is(true));
+  }
+
+  @Test
+  public void readersShareButExcludeWriters() throws Exception {
+    KeyLocks keyLocks = new KeyLocks();
+    Lock readLock = keyLocks.forKey("key").readLock();
+    readLock.lock();
+    try {
+      assertThat(tryLockInOtherThread(keyLocks.forKey("key").readLock()), is(true));
+      assertThat(tryLockInOtherThread(keyLocks.forKey("key").writeLock()), is(false));
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Test
+  public void keysOnSameStripeDoNotBlock() throws Exception {
+    KeyLocks keyLocks = new KeyLocks(1);
+    Lock readLock = keyLocks.forKey("a").readLock();
+    readLock.lock();
+    try {
+      Lock otherWriteLock = keyLocks.forKey("b").writeLock();
+      assertThat(otherWriteLock.tryLock(), is(true));
+      otherWriteLock.unlock();
+      assertThat(tryLockInOtherThread(keyLocks.forKey("b").writeLock()), is(true));
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Test
+  public void reentrantAndWriterMayRead() throws Exception {
+    KeyLocks keyLocks = new KeyLocks();
+    Lock writeLock = keyLocks.forKey("key").writeLock();
+    Lock readLock = keyLocks.forKey("key").readLock();
+    writeLock.lock();
+    writeLock.lock();
+    assertThat(readLock.tryLock(), is(true));
+    readLock.unlock();
+    writeLock.unlock();
+    assertThat(tryLockInOtherThread(keyLocks.forKey("key").readLock()), is(false));
+    writeLock.unlock();
+    assertThat(tryLockInOtherThread(keyLocks.forKey("key").readLock()), is(true));
+  }
+
+  @Test
+  public void readerCannotUpgrade() throws Exception {
+    KeyLocks keyLocks = new KeyLocks();
+    Lock readLock = keyLocks.forKey("key").readLock();
+    readLock.lock();
+    try {
+      assertThat(keyLocks.forKey("key").writeLock().tryLock(), is(false));
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Test(expected = IllegalMonitorStateException.class)
+  public void unlockWithoutHolding() {
+    new KeyLocks().forKey("key").writeLock().unlock();
+  }
+
+  @Test
+  public void unlockByOtherThreadFails() throws Exception {
+    KeyLocks keyLocks = new KeyLocks();
+    final Lock writeLock = keyLocks.forKey("key").writeLock();
+    writeLock.lock();
+    try {
+      boolean failed = otherThread.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          try {
+            writeLock.unlock();
+            return false;
+          } catch (IllegalMonitorStateException e) {
+            return true;
+          }
+        }
+      }).get(5, TimeUnit.SECONDS);
+      assertThat(failed, is(true));
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Test
+  public void noneNeverBlocks() throws Exception {
+    Lock writeLock = KeyLocks.NONE.forKey("key").writeLock();
+    writeLock.lock();
+    try {
+      assertThat(tryLockInOtherThread(KeyLocks.NONE.forKey("key").writeLock()), is(true));
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Test
+  public void waitingWriterHoldsBackNewReaders() throws Exception {
+    KeyLocks keyLocks = new KeyLocks();
+    Lock readLock = keyLocks.forKey("key").readLock();
+    final Lock writeLock = keyLocks.forKey("key").writeLock();
+    ExecutorService writerThread = Executors.newSingleThreadExecutor();
+    readLock.lock();
+    try {
+      Future<Boolean> written = writerThread.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws InterruptedException {
+          if (writeLock.tryLock(5, TimeUnit.SECONDS)) {
+            writeLock.unlock();
+            return true;
+          }
+          return false;
+        }
+      });
+      long giveUp = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (tryLockInOtherThread(keyLocks.forKey("key").readLock())) {
+        assertThat(System.nanoTime() < giveUp, is(true));
+      }
+      // a reentrant read must not wait for the writer that waits for it
+      assertThat(readLock.tryLock(), is(true));
+      readLock.unlock();
+      readLock.unlock();
+
+      assertThat(written.get(5, TimeUnit.SECONDS), is(true));
+      assertThat(tryLockInOtherThread(keyLocks.forKey("key").readLock()), is(true));
+    } finally {
+      writerThread.shutdownNow();
+    }
+  }
+
+  @Test
+  public void writerGivingUpLetsReadersIn() throws Exception {
+    KeyLocks keyLocks = new KeyLocks();
+    Lock readLock = keyLocks.forKey("key").readLock();
+    readLock.lock();
+    try {
+      assertThat(tryLockInOtherThread(keyLocks.forKey("key").writeLock()), is(false));
+      assertThat(tryLockInOtherThread(keyLocks.forKey("key").readLock()), is(true));
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  private boolean tryLockInOtherThread(final Lock lock) throws Exception {
+    return otherThread.submit(new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws InterruptedException {
+        if (lock.tryLock(10, TimeUnit.MILLISECONDS)) {
+          lock.unlock();
+          return true;
+        }
+        return false;
+      }
+    }).get(5, TimeUnit.SECONDS);
+  }
+
+}
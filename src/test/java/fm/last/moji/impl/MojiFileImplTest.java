@@ -18,11 +18,15 @@ package fm.last.moji.impl;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -33,19 +37,28 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
 import fm.last.moji.MojiFileAttributes;
 import fm.last.moji.tracker.Destination;
 import fm.last.moji.tracker.Tracker;
 import fm.last.moji.tracker.TrackerException;
 import fm.last.moji.tracker.TrackerFactory;
+import fm.last.moji.tracker.UnknownKeyException;
 
 @RunWith(MockitoJUnitRunner.class)
 public class MojiFileImplTest {
@@ -74,12 +87,14 @@ public class MojiFileImplTest {
   private InetSocketAddress mockAddress;
 
   private MojiFileImpl file;
+  private AttributeCache attributeCache;
 
   @Before
   public void init() throws TrackerException {
     when(mockTrackerFactory.getTracker()).thenReturn(mockTracker);
     when(mockTrackerFactory.getAddresses()).thenReturn(Collections.singleton(mockAddress));
     file = new MojiFileImpl(KEY, DOMAIN, STORAGE_CLASS, mockTrackerFactory, mockHttpFactory);
+    attributeCache = new AttributeCache(10, 1, 1, TimeUnit.MINUTES);
   }
 
   @Test
@@ -177,8 +192,13 @@ public class MojiFileImplTest {
   @Test
   public void getInputStreamCommand() throws IOException {
     file.setExecutor(mockExecutor);
-    file.getInputStream();
-    ArgumentCaptor<GetInputStreamCommand> captor = ArgumentCaptor.forClass(GetInputStreamCommand.class);
+    try {
+      file.getInputStream();
+      fail();
+    } catch (FileNotFoundException expected) {
+      // the mocked executor finds no paths
+    }
+    ArgumentCaptor<GetPathsCommand> captor = ArgumentCaptor.forClass(GetPathsCommand.class);
     verify(mockExecutor).executeCommand(captor.capture());
     assertThat(captor.getValue().key, is(KEY));
     assertThat(captor.getValue().domain, is(DOMAIN));
@@ -255,4 +275,201 @@ public class MojiFileImplTest {
     assertEquals(attributes.getFid(), 5645L);
   }
 
+  @Test
+  public void getPathsCached() throws IOException {
+    List<URL> trackerPaths = Collections.singletonList(new URL("http://www.last.fm/1/2"));
+    when(mockTracker.getPaths(KEY, DOMAIN)).thenReturn(trackerPaths);
+    MojiFileImpl cachedFile = newCachedFile();
+    assertThat(cachedFile.getPaths(), is(trackerPaths));
+    assertThat(cachedFile.getPaths(), is(trackerPaths));
+    verify(mockTracker).getPaths(KEY, DOMAIN);
+  }
+
+  @Test
+  public void deleteInvalidatesCachedPaths() throws IOException {
+    List<URL> trackerPaths = Collections.singletonList(new URL("http://www.last.fm/1/2"));
+    when(mockTracker.getPaths(KEY, DOMAIN)).thenReturn(trackerPaths);
+    MojiFileImpl cachedFile = newCachedFile();
+    cachedFile.getPaths();
+    cachedFile.delete();
+    cachedFile.getPaths();
+    verify(mockTracker, times(2)).getPaths(KEY, DOMAIN);
+  }
+
+  @Test
+  public void renameInvalidatesCachedPaths() throws IOException {
+    List<URL> trackerPaths = Collections.singletonList(new URL("http://www.last.fm/1/2"));
+    when(mockTracker.getPaths(KEY, DOMAIN)).thenReturn(trackerPaths);
+    MojiFileImpl cachedFile = newCachedFile();
+    cachedFile.getPaths();
+    cachedFile.rename(KEY_2);
+    cachedFile.rename(KEY);
+    cachedFile.getPaths();
+    verify(mockTracker, times(2)).getPaths(KEY, DOMAIN);
+  }
+
+  @Test
+  public void getInputStreamUsesCachedPaths() throws IOException {
+    URL path = new URL("http://localhost:80/");
+    when(mockTracker.getPaths(KEY, DOMAIN)).thenReturn(Collections.singletonList(path));
+    when(mockHttpFactory.newConnection(path)).thenReturn(mockUrlConnection);
+    when(mockUrlConnection.getInputStream()).thenReturn(mockInputStream);
+    MojiFileImpl cachedFile = newCachedFile();
+    cachedFile.getInputStream().close();
+    cachedFile.getInputStream().close();
+    verify(mockTracker).getPaths(KEY, DOMAIN);
+    verify(mockHttpFactory, times(2)).newConnection(path);
+  }
+
+  @Test
+  public void getInputStreamRefreshesPathsWhenCachedPathsFail() throws IOException {
+    URL stalePath = new URL("http://localhost:80/stale");
+    URL path = new URL("http://localhost:80/");
+    when(mockTracker.getPaths(KEY, DOMAIN)).thenReturn(Collections.singletonList(stalePath),
+        Collections.singletonList(path));
+    when(mockHttpFactory.newConnection(stalePath)).thenThrow(new IOException());
+    when(mockHttpFactory.newConnection(path)).thenReturn(mockUrlConnection);
+    when(mockUrlConnection.getInputStream()).thenReturn(mockInputStream);
+    MojiFileImpl cachedFile = newCachedFile();
+    cachedFile.getPaths();
+
+    InputStream inputStream = cachedFile.getInputStream();
+    byte[] myBuffer = new byte[2];
+    inputStream.read(myBuffer, 2, 43);
+    verify(mockInputStream).read(myBuffer, 2, 43);
+    verify(mockTracker, times(2)).getPaths(KEY, DOMAIN);
+    assertThat(cachedFile.getPaths(), is(Collections.singletonList(path)));
+  }
+
+  @Test
+  public void lengthAsksFileInfoBeforeCachedPaths() throws IOException {
+    URL path = new URL("http://localhost:80/");
+    when(mockTracker.getPaths(KEY, DOMAIN)).thenReturn(Collections.singletonList(path));
+    when(mockTracker.fileInfo(KEY, DOMAIN)).thenReturn(Collections.singletonMap("length", "100"));
+    MojiFileImpl cachedFile = newCachedFile();
+    cachedFile.getPaths();
+
+    assertThat(cachedFile.length(), is(100L));
+    verify(mockHttpFactory, never()).newConnection(path);
+  }
+
+  @Test
+  public void lengthFromFileInfoLeavesPathsUncached() throws IOException {
+    List<URL> trackerPaths = Collections.singletonList(new URL("http://www.last.fm/1/2"));
+    when(mockTracker.getPaths(KEY, DOMAIN)).thenReturn(trackerPaths);
+    when(mockTracker.fileInfo(KEY, DOMAIN)).thenReturn(Collections.singletonMap("length", "100"));
+    MojiFileImpl cachedFile = newCachedFile();
+    cachedFile.length();
+
+    assertThat(cachedFile.getPaths(), is(trackerPaths));
+  }
+
+  @Test
+  public void getAttributesCached() throws IOException {
+    Map<String, String> responseValues = new HashMap<String, String>();
+    responseValues.put("domain", DOMAIN);
+    responseValues.put("key", KEY);
+    responseValues.put("class", "default");
+    responseValues.put("length", "100");
+    responseValues.put("devcount", "2");
+    responseValues.put("fid", "5645");
+    when(mockTracker.fileInfo(KEY, DOMAIN)).thenReturn(responseValues);
+    MojiFileImpl cachedFile = newCachedFile();
+    assertThat(cachedFile.getAttributes().getLength(), is(100L));
+    assertThat(cachedFile.getAttributes().getLength(), is(100L));
+    assertThat(cachedFile.exists(), is(true));
+    verify(mockTracker).fileInfo(KEY, DOMAIN);
+    verify(mockTracker, times(0)).getPaths(KEY, DOMAIN);
+    assertThat(attributeCache.getHits(), is(2L));
+    assertThat(attributeCache.getMisses(), is(1L));
+  }
+
+  @Test
+  public void unknownKeyCached() throws IOException {
+    when(mockTracker.fileInfo(KEY, DOMAIN)).thenThrow(new UnknownKeyException(DOMAIN, KEY));
+    MojiFileImpl cachedFile = newCachedFile();
+    for (int i = 0; i < 2; i++) {
+      try {
+        cachedFile.getAttributes();
+        fail();
+      } catch (UnknownKeyException expected) {
+      }
+    }
+    assertThat(cachedFile.exists(), is(false));
+    verify(mockTracker).fileInfo(KEY, DOMAIN);
+    assertThat(attributeCache.getNegativeHits(), is(2L));
+  }
+
+  @Test
+  public void existsFalseCachedUntilWritten() throws Exception {
+    when(mockTracker.getPaths(KEY, DOMAIN)).thenReturn(Collections.<URL> emptyList());
+    URL path = new URL("http://localhost:80/");
+    when(mockTracker.createOpen(KEY, DOMAIN, STORAGE_CLASS)).thenReturn(
+        Collections.singletonList(new Destination(path, 2, 4)));
+    when(mockHttpFactory.newConnection(path)).thenReturn(mockUrlConnection);
+    when(mockUrlConnection.getOutputStream()).thenReturn(mockOutputStream);
+    MojiFileImpl cachedFile = newCachedFile();
+    assertThat(cachedFile.exists(), is(false));
+    assertThat(cachedFile.exists(), is(false));
+    verify(mockTracker).getPaths(KEY, DOMAIN);
+
+    try {
+      cachedFile.getOutputStream().close();
+    } catch (IOException ignored) {
+      // the mocked tracker cannot complete the upload
+    }
+    cachedFile.exists();
+    verify(mockTracker, times(2)).getPaths(KEY, DOMAIN);
+  }
+
+  @Test
+  public void coalescedLookupsShareOneTracker() throws Exception {
+    final List<URL> trackerPaths = Collections.singletonList(new URL("http://www.last.fm/1/2"));
+    final CountDownLatch leaderCalled = new CountDownLatch(1);
+    final CountDownLatch releaseLeader = new CountDownLatch(1);
+    when(mockTracker.getPaths(KEY, DOMAIN)).thenAnswer(new Answer<List<URL>>() {
+      @Override
+      public List<URL> answer(InvocationOnMock invocation) throws Throwable {
+        leaderCalled.countDown();
+        releaseLeader.await(5, TimeUnit.SECONDS);
+        return trackerPaths;
+      }
+    });
+    FileContext context = new FileContext(DOMAIN, mockTrackerFactory, mockHttpFactory,
+        new Executor(mockTrackerFactory), new KeyLocks(), PathCache.NONE, AttributeCache.NONE, new SingleFlight());
+    final MojiFileImpl leaderFile = new MojiFileImpl(KEY, STORAGE_CLASS, context);
+    final MojiFileImpl followerFile = new MojiFileImpl(KEY, STORAGE_CLASS, context);
+    ExecutorService threads = Executors.newFixedThreadPool(2);
+    try {
+      Future<List<URL>> leader = threads.submit(new Callable<List<URL>>() {
+        @Override
+        public List<URL> call() throws Exception {
+          return leaderFile.getPaths();
+        }
+      });
+      assertThat(leaderCalled.await(5, TimeUnit.SECONDS), is(true));
+      Future<List<URL>> follower = threads.submit(new Callable<List<URL>>() {
+        @Override
+        public List<URL> call() throws Exception {
+          return followerFile.getPaths();
+        }
+      });
+      Thread.sleep(100);
+      releaseLeader.countDown();
+
+      assertThat(leader.get(5, TimeUnit.SECONDS), is(trackerPaths));
+      assertThat(follower.get(5, TimeUnit.SECONDS), is(trackerPaths));
+      verify(mockTrackerFactory, times(1)).getTracker();
+    } finally {
+      threads.shutdownNow();
+    }
+  }
+
+  private MojiFileImpl newCachedFile() {
+    FileContext context = new FileContext(DOMAIN, mockTrackerFactory, mockHttpFactory,
+        new Executor(mockTrackerFactory), new KeyLocks(), new PathCache(10, 1, TimeUnit.MINUTES), attributeCache,
+        new SingleFlight());
+    return new MojiFileImpl(KEY, STORAGE_CLASS, context);
+  }
+
 }
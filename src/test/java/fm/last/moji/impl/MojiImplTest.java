@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.when;
+
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import fm.last.moji.MojiFileAttributes;
+import fm.last.moji.tracker.KeyResult;
+import fm.last.moji.tracker.Tracker;
+import fm.last.moji.tracker.TrackerFactory;
+import fm.last.moji.tracker.UnknownKeyException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MojiImplTest {
+
+  private static final String DOMAIN = "domain";
+
+  @Mock
+  private Tracker mockTracker;
+  @Mock
+  private TrackerFactory mockTrackerFactory;
+  @Mock
+  private HttpConnectionFactory mockHttpFactory;
+  @Mock
+  private InetSocketAddress mockAddress;
+  @Mock
+  private MojiFileAttributes mockAttributes;
+
+  private PathCache pathCache;
+  private AttributeCache attributeCache;
+  private MojiImpl moji;
+
+  @Before
+  public void init() throws Exception {
+    when(mockTrackerFactory.getTracker()).thenReturn(mockTracker);
+    when(mockTrackerFactory.getAddresses()).thenReturn(Collections.singleton(mockAddress));
+    pathCache = new PathCache(10, 1, TimeUnit.MINUTES);
+    attributeCache = new AttributeCache(10, 1, 1, TimeUnit.MINUTES);
+    moji = new MojiImpl(mockTrackerFactory, mockHttpFactory, DOMAIN, ExecutorAsyncMoji.defaultExecutor(),
+        new KeyLocks(), pathCache, attributeCache, new SingleFlight(), null);
+  }
+
+  @Test
+  public void deleteAllInvalidatesDeletedAttributes() throws Exception {
+    attributeCache.putAttributes(DOMAIN, "a", mockAttributes);
+    attributeCache.putAttributes(DOMAIN, "b", mockAttributes);
+    doThrow(new UnknownKeyException(DOMAIN, "b")).when(mockTracker).delete("b", DOMAIN);
+
+    List<KeyResult<Void>> results = moji.deleteAll(Arrays.asList("a", "b"));
+
+    assertThat(results.get(0).isSuccess(), is(true));
+    assertThat(results.get(1).isSuccess(), is(false));
+    assertThat(attributeCache.get(DOMAIN, "a"), is(nullValue()));
+    assertThat(attributeCache.get(DOMAIN, "b").getAttributes(), is(mockAttributes));
+  }
+
+  @Test
+  public void deleteAllInvalidatesDeletedPaths() throws Exception {
+    List<URL> paths = Collections.singletonList(new URL("http://node/a.fid"));
+    pathCache.put("a", paths);
+    pathCache.put("b", paths);
+    doThrow(new UnknownKeyException(DOMAIN, "b")).when(mockTracker).delete("b", DOMAIN);
+
+    moji.deleteAll(Arrays.asList("a", "b"));
+
+    assertThat(pathCache.get("a"), is(nullValue()));
+    assertThat(pathCache.get("b"), is(paths));
+  }
+
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import fm.last.moji.Moji;
+import fm.last.moji.MojiFile;
+import fm.last.moji.tracker.Tracker;
+import fm.last.moji.tracker.TrackerFactory;
+import fm.last.moji.tracker.impl.CommunicationException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PagedFileIteratorTest {
+
+  private static final String DOMAIN = "domain";
+  private static final String KEY_PREFIX = "key";
+
+  @Mock
+  private Moji mockMoji;
+  @Mock
+  private Tracker mockTracker;
+  @Mock
+  private TrackerFactory mockFactory;
+
+  private ExecutorService prefetchExecutor;
+  private Executor executor;
+
+  @Before
+  public void setUp() throws Exception {
+    when(mockFactory.getTracker()).thenReturn(mockTracker);
+    when(mockFactory.getAddresses()).thenReturn(Collections.singleton(new InetSocketAddress(10001)));
+    when(mockMoji.getFile(anyString())).thenAnswer(new Answer<MojiFile>() {
+      @Override
+      public MojiFile answer(InvocationOnMock invocation) throws Throwable {
+        MojiFile mock = mock(MojiFile.class);
+        when(mock.getKey()).thenReturn((String) invocation.getArguments()[0]);
+        return mock;
+      }
+    });
+    executor = new Executor(mockFactory);
+    prefetchExecutor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    prefetchExecutor.shutdownNow();
+  }
+
+  @Test
+  public void pagesUsingAfterCursor() throws Exception {
+    when(mockTracker.list(DOMAIN, KEY_PREFIX, 2)).thenReturn(Arrays.asList("key1", "key2"));
+    when(mockTracker.list(DOMAIN, KEY_PREFIX, "key2", 2)).thenReturn(Arrays.asList("key3", "key4"));
+    when(mockTracker.list(DOMAIN, KEY_PREFIX, "key4", 2)).thenReturn(Arrays.asList("key5"));
+
+    List<String> keys = keys(new PagedFileIterator(mockMoji, executor, prefetchExecutor, DOMAIN, KEY_PREFIX, 2));
+
+    assertThat(keys, is(Arrays.asList("key1", "key2", "key3", "key4", "key5")));
+    verify(mockTracker, never()).list(DOMAIN, KEY_PREFIX, "key5", 2);
+  }
+
+  @Test
+  public void emptyPageEnds() throws Exception {
+    when(mockTracker.list(DOMAIN, KEY_PREFIX, 2)).thenReturn(Arrays.asList("key1", "key2"));
+    when(mockTracker.list(DOMAIN, KEY_PREFIX, "key2", 2)).thenReturn(Collections.<String> emptyList());
+
+    List<String> keys = keys(new PagedFileIterator(mockMoji, executor, prefetchExecutor, DOMAIN, KEY_PREFIX, 2));
+
+    assertThat(keys, is(Arrays.asList("key1", "key2")));
+  }
+
+  @Test
+  public void failureSurfacesAsUncheckedIOException() throws Exception {
+    when(mockTracker.list(DOMAIN, KEY_PREFIX, 2)).thenReturn(Arrays.asList("key1", "key2"));
+    when(mockTracker.list(DOMAIN, KEY_PREFIX, "key2", 2)).thenThrow(new CommunicationException("boom"));
+
+    PagedFileIterator iterator = new PagedFileIterator(mockMoji, executor, prefetchExecutor, DOMAIN, KEY_PREFIX, 2);
+    iterator.next();
+    iterator.next();
+    try {
+      iterator.hasNext();
+      fail();
+    } catch (UncheckedIOException e) {
+      assertThat(e.getCause() instanceof CommunicationException, is(true));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void pageSizeTooLarge() {
+    new PagedFileIterator(mockMoji, executor, prefetchExecutor, DOMAIN, KEY_PREFIX, 1001);
+  }
+
+  private static List<String> keys(PagedFileIterator iterator) {
+    List<String> keys = new ArrayList<String>();
+    while (iterator.hasNext()) {
+      keys.add(iterator.next().getKey());
+    }
+    return keys;
+  }
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.when;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import fm.last.commons.lang.time.Clock;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PathCacheTest {
+
+  @Mock
+  private Clock mockClock;
+
+  private PathCache cache;
+  private List<URL> paths;
+
+  @Before
+  public void init() throws Exception {
+    when(mockClock.currentTimeMillis()).thenReturn(0L);
+    cache = new PathCache(2, 1, TimeUnit.SECONDS, mockClock);
+    paths = Collections.singletonList(new URL("http://localhost:7500/dev1/0/000/000/0000000001.fid"));
+  }
+
+  @Test
+  public void getCached() {
+    cache.put("key", paths);
+    assertThat(cache.get("key"), is(paths));
+    assertThat(cache.get("other"), is(nullValue()));
+  }
+
+  @Test
+  public void expires() {
+    cache.put("key", paths);
+    when(mockClock.currentTimeMillis()).thenReturn(999L);
+    assertThat(cache.get("key"), is(paths));
+    when(mockClock.currentTimeMillis()).thenReturn(1000L);
+    assertThat(cache.get("key"), is(nullValue()));
+    assertThat(cache.size(), is(0));
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    cache.put("a", paths);
+    cache.put("b", paths);
+    cache.get("a");
+    cache.put("c", paths);
+    assertThat(cache.size(), is(2));
+    assertThat(cache.get("a"), is(paths));
+    assertThat(cache.get("b"), is(nullValue()));
+    assertThat(cache.get("c"), is(paths));
+  }
+
+  @Test
+  public void invalidate() {
+    cache.put("key", paths);
+    cache.invalidate("key");
+    assertThat(cache.get("key"), is(nullValue()));
+  }
+
+  @Test
+  public void emptyPathsNotCached() {
+    cache.put("key", Collections.<URL> emptyList());
+    assertThat(cache.get("key"), is(nullValue()));
+  }
+
+  @Test
+  public void copiesPaths() {
+    List<URL> mutablePaths = new ArrayList<URL>(paths);
+    cache.put("key", mutablePaths);
+    mutablePaths.clear();
+    assertThat(cache.get("key"), is(paths));
+  }
+
+  @Test
+  public void noneCachesNothing() {
+    PathCache.NONE.put("key", paths);
+    assertThat(PathCache.NONE.get("key"), is(nullValue()));
+    assertThat(PathCache.NONE.isEnabled(), is(false));
+  }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import fm.last.commons.lang.time.Clock;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RetryBudgetTest {
+
+  @Mock
+  private Clock mockClock;
+
+  private RetryBudget budget;
+
+  @Before
+  public void init() {
+    when(mockClock.currentTimeMillis()).thenReturn(0L);
+    budget = new RetryBudget(0.5d, 1, mockClock);
+  }
+
+  @Test
+  public void startsWithReserve() {
+    for (int i = 0; i < 10; i++) {
+      assertThat(budget.tryAcquireRetry(), is(true));
+    }
+    assertThat(budget.tryAcquireRetry(), is(false));
+  }
+
+  @Test
+  public void callsDepositFractionOfRetry() {
+    drain();
+    budget.recordCall();
+    assertThat(budget.tryAcquireRetry(), is(false));
+    budget.recordCall();
+    assertThat(budget.tryAcquireRetry(), is(true));
+    assertThat(budget.tryAcquireRetry(), is(false));
+  }
+
+  @Test
+  public void refillsAtMinimumRate() {
+    drain();
+    when(mockClock.currentTimeMillis()).thenReturn(999L);
+    assertThat(budget.tryAcquireRetry(), is(false));
+    when(mockClock.currentTimeMillis()).thenReturn(1000L);
+    assertThat(budget.tryAcquireRetry(), is(true));
+    assertThat(budget.tryAcquireRetry(), is(false));
+  }
+
+  @Test
+  public void depositsCappedAtCapacity() {
+    for (int i = 0; i < 100; i++) {
+      budget.recordCall();
+    }
+    assertThat(budget.getAvailableRetries(), is(10d));
+  }
+
+  @Test
+  public void disabledByNegativeRatio() {
+    NetworkingConfiguration netConfig = new NetworkingConfiguration.Builder().retryBudget(-1d, 10).build();
+    assertThat(RetryBudget.from(netConfig) == null, is(true));
+  }
+
+  private void drain() {
+    while (budget.tryAcquireRetry()) {
+    }
+  }
+
+}
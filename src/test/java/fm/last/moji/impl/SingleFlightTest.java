@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.impl;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import fm.last.moji.tracker.Deadline;
+import fm.last.moji.tracker.TrackerException;
+import fm.last.moji.tracker.UnknownKeyException;
+import fm.last.moji.tracker.impl.CommunicationException;
+
+public class SingleFlightTest {
+
+  private static final int FOLLOWERS = 4;
+
+  private final ExecutorService threads = Executors.newCachedThreadPool();
+  private final SingleFlight singleFlight = new SingleFlight();
+  private final AtomicInteger calls = new AtomicInteger();
+  private final CountDownLatch leaderStarted = new CountDownLatch(1);
+  private final CountDownLatch releaseLeader = new CountDownLatch(1);
+  private final List<Thread> followerThreads = Collections.synchronizedList(new ArrayList<Thread>());
+
+  @After
+  public void shutdown() {
+    threads.shutdownNow();
+  }
+
+  @Test
+  public void followersShareLeaderResult() throws Exception {
+    List<String> answer = Collections.singletonList("path");
+    Future<List<String>> leader = threads.submit(call(new BlockingLookup(answer, null)));
+    List<Future<List<String>>> followers = startFollowers(new BlockingLookup(answer, null));
+    releaseLeader.countDown();
+
+    assertThat(leader.get(5, TimeUnit.SECONDS), is(sameInstance(answer)));
+    for (Future<List<String>> follower : followers) {
+      List<String> result = follower.get(5, TimeUnit.SECONDS);
+      assertThat(result, is(answer));
+      assertThat(result, is(not(sameInstance(answer))));
+    }
+    assertThat(calls.get(), is(1));
+    assertThat(singleFlight.size(), is(0));
+  }
+
+  @Test
+  public void unknownKeyPassedToFollowers() throws Exception {
+    UnknownKeyException unknownKey = new UnknownKeyException("domain", "key");
+    Future<List<String>> leader = threads.submit(call(new BlockingLookup(null, unknownKey)));
+    List<Future<List<String>>> followers = startFollowers(new BlockingLookup(null, null));
+    releaseLeader.countDown();
+
+    assertThat(causeOf(leader), is(sameInstance((Throwable) unknownKey)));
+    for (Future<List<String>> follower : followers) {
+      Throwable cause = causeOf(follower);
+      assertThat(cause, is(instanceOf(UnknownKeyException.class)));
+      assertThat(cause, is(not(sameInstance((Throwable) unknownKey))));
+    }
+    assertThat(calls.get(), is(1));
+  }
+
+  @Test
+  public void followersCallThemselvesAfterOtherFailures() throws Exception {
+    List<String> answer = Collections.singletonList("path");
+    Future<List<String>> leader = threads.submit(call(new BlockingLookup(null, new CommunicationException())));
+    List<Future<List<String>>> followers = startFollowers(new BlockingLookup(answer, null));
+    releaseLeader.countDown();
+
+    assertThat(causeOf(leader), is(instanceOf(CommunicationException.class)));
+    for (Future<List<String>> follower : followers) {
+      assertThat(follower.get(5, TimeUnit.SECONDS), is(answer));
+    }
+    assertThat(calls.get(), is(1 + FOLLOWERS));
+  }
+
+  @Test
+  public void followerGivesUpAtDeadline() throws Exception {
+    threads.submit(call(new BlockingLookup(Collections.<String> emptyList(), null)));
+    assertThat(leaderStarted.await(5, TimeUnit.SECONDS), is(true));
+    Deadline previous = Deadline.enter(Deadline.after(10, TimeUnit.MILLISECONDS));
+    try {
+      singleFlight.execute("op", "domain", "key", new BlockingLookup(null, null));
+      fail();
+    } catch (CommunicationException expected) {
+    } finally {
+      Deadline.restore(previous);
+      releaseLeader.countDown();
+    }
+  }
+
+  @Test
+  public void noneDoesNotCoalesce() throws Exception {
+    List<String> answer = Collections.singletonList("path");
+    releaseLeader.countDown();
+    assertThat(SingleFlight.NONE.execute("op", "domain", "key", new BlockingLookup(answer, null)),
+        is(sameInstance(answer)));
+    assertThat(SingleFlight.NONE.execute("op", "domain", "key", new BlockingLookup(answer, null)),
+        is(sameInstance(answer)));
+    assertThat(calls.get(), is(2));
+  }
+
+  private List<Future<List<String>>> startFollowers(BlockingLookup lookup) throws Exception {
+    assertThat(leaderStarted.await(5, TimeUnit.SECONDS), is(true));
+    List<Future<List<String>>> followers = new ArrayList<Future<List<String>>>();
+    for (int i = 0; i < FOLLOWERS; i++) {
+      followers.add(threads.submit(call(lookup)));
+    }
+    // wait until every follower has joined the flight
+    long giveUp = System.currentTimeMillis() + 5000;
+    while (!allWaiting() && System.currentTimeMillis() < giveUp) {
+      Thread.sleep(1);
+    }
+    assertThat(allWaiting(), is(true));
+    return followers;
+  }
+
+  private boolean allWaiting() {
+    synchronized (followerThreads) {
+      if (followerThreads.size() < FOLLOWERS) {
+        return false;
+      }
+      for (Thread thread : followerThreads) {
+        if (thread.getState() != Thread.State.WAITING) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private Callable<List<String>> call(final BlockingLookup lookup) {
+    return new Callable<List<String>>() {
+      @Override
+      public List<String> call() throws Exception {
+        if (leaderStarted.getCount() == 0) {
+          followerThreads.add(Thread.currentThread());
+        }
+        return singleFlight.execute("op", "domain", "key", lookup);
+      }
+    };
+  }
+
+  private static Throwable causeOf(Future<?> future) throws Exception {
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail();
+      return null;
+    } catch (ExecutionException e) {
+      return e.getCause();
+    }
+  }
+
+  private class BlockingLookup extends SingleFlight.Lookup<List<String>> {
+    private final List<String> answer;
+    private final TrackerException exception;
+
+    BlockingLookup(List<String> answer, TrackerException exception) {
+      this.answer = answer;
+      this.exception = exception;
+    }
+
+    @Override
+    List<String> call() throws TrackerException {
+      calls.incrementAndGet();
+      leaderStarted.countDown();
+      try {
+        releaseLeader.await();
+      } catch (InterruptedException e) {
+        throw new CommunicationException(e);
+      }
+      if (exception != null) {
+        throw exception;
+      }
+      return answer;
+    }
+
+    @Override
+    List<String> copy(List<String> result) {
+      return new ArrayList<String>(result);
+    }
+  }
+
+}
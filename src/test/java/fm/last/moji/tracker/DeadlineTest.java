@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class DeadlineTest {
+
+  @Test
+  public void clampShortensLongTimeouts() {
+    Deadline deadline = Deadline.after(1, TimeUnit.SECONDS);
+    assertThat(deadline.clampTimeoutMillis(100), is(100));
+    assertThat(deadline.clampTimeoutMillis(60000) <= 1000, is(true));
+    assertThat(deadline.clampTimeoutMillis(0) <= 1000, is(true));
+  }
+
+  @Test
+  public void clampNeverReturnsInfinite() {
+    Deadline deadline = Deadline.after(0, TimeUnit.SECONDS);
+    assertThat(deadline.isExpired(), is(true));
+    assertThat(deadline.clampTimeoutMillis(0), is(1));
+  }
+
+  @Test
+  public void earliest() {
+    Deadline soon = Deadline.after(1, TimeUnit.SECONDS);
+    Deadline later = Deadline.after(1, TimeUnit.MINUTES);
+    assertThat(soon.earliest(later), is(sameInstance(soon)));
+    assertThat(later.earliest(soon), is(sameInstance(soon)));
+    assertThat(later.earliest(null), is(sameInstance(later)));
+  }
+
+  @Test
+  public void enterAndRestore() {
+    Deadline outer = Deadline.after(1, TimeUnit.MINUTES);
+    Deadline inner = Deadline.after(1, TimeUnit.SECONDS);
+    assertThat(Deadline.enter(outer), is(nullValue()));
+    Deadline previous = Deadline.enter(inner);
+    assertThat(Deadline.current(), is(sameInstance(inner)));
+    Deadline.restore(previous);
+    assertThat(Deadline.current(), is(sameInstance(outer)));
+    Deadline.restore(null);
+    assertThat(Deadline.current(), is(nullValue()));
+  }
+
+  @Test
+  public void clampToCurrentWithoutDeadline() {
+    assertThat(Deadline.clampToCurrent(250), is(250));
+  }
+
+}
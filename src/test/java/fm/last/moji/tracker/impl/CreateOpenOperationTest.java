@@ -39,8 +39,8 @@ public class CreateOpenOperationTest {
   private static final String DOMAIN = "domain";
   private static final String STORAGE_CLASS = "storageClass";
   private static final String KEY = "key";
-  private static final String FID = "5";
-  private static final String DEV_COUNT = "2";
+  private static final long FID = 5L;
+  private static final int DEV_COUNT = 2;
   private static final String PATH_1 = "http://www.last.fm/1/";
   private static final String DEV_ID_1 = "1";
   private static final String PATH_2 = "http://www.last.fm/2/";
@@ -64,16 +64,16 @@ public class CreateOpenOperationTest {
   public void setUp() throws TrackerException {
     captorRequest = ArgumentCaptor.forClass(Request.class);
     when(mockResponse.getStatus()).thenReturn(ResponseStatus.OK);
-    when(mockResponse.getValue("fid")).thenReturn(FID);
-    when(mockResponse.getValue("dev_count")).thenReturn(DEV_COUNT);
-    when(mockResponse.getValue("path_1")).thenReturn(PATH_1);
-    when(mockResponse.getValue("devid_1")).thenReturn(DEV_ID_1);
-    when(mockResponse.getValue("path_2")).thenReturn(PATH_2);
-    when(mockResponse.getValue("devid_2")).thenReturn(DEV_ID_2);
+    when(mockResponse.getLong("fid")).thenReturn(FID);
+    when(mockResponse.getInt("dev_count")).thenReturn(DEV_COUNT);
+    when(mockResponse.getIndexed("path_", 1)).thenReturn(PATH_1);
+    when(mockResponse.getIndexed("devid_", 1)).thenReturn(DEV_ID_1);
+    when(mockResponse.getIndexed("path_", 2)).thenReturn(PATH_2);
+    when(mockResponse.getIndexed("devid_", 2)).thenReturn(DEV_ID_2);
 
     when(mockEmptyResponse.getStatus()).thenReturn(ResponseStatus.OK);
-    when(mockEmptyResponse.getValue("fid")).thenReturn(FID);
-    when(mockEmptyResponse.getValue("dev_count")).thenReturn("0");
+    when(mockEmptyResponse.getLong("fid")).thenReturn(FID);
+    when(mockEmptyResponse.getInt("dev_count")).thenReturn(0);
 
     when(mockUnknownKeyResponse.getStatus()).thenReturn(ResponseStatus.ERROR);
     when(mockUnknownKeyResponse.getMessage()).thenReturn("unknown_key unknown key");
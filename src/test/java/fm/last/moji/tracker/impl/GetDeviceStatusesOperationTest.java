@@ -19,8 +19,6 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.when;
 
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 import org.junit.Before;
@@ -41,8 +39,6 @@ public class GetDeviceStatusesOperationTest {
   @Mock
   private RequestHandler mockRequestHandler;
   @Mock
-  private Response mockResponse;
-  @Mock
   private Response mockEmptyResponse;
   @Mock
   private Response mockFailResponse;
@@ -51,36 +47,15 @@ public class GetDeviceStatusesOperationTest {
   private ArgumentCaptor<Request> captorRequest;
 
   private GetDeviceStatusesOperation operation;
+  private Response response;
 
   @Before
   public void setUp() throws TrackerException {
-    when(mockResponse.getStatus()).thenReturn(ResponseStatus.OK);
-    when(mockResponse.getValue("devices")).thenReturn("2");
-
-    Map<String, String> valueMap = new HashMap<String, String>();
-    valueMap.put("dev1_utilization", "0.5");
-    valueMap.put("dev1_observed_state", "ok");
-    valueMap.put("dev1_mb_total", "100");
-    valueMap.put("dev1_mb_used", "51");
-    valueMap.put("dev1_mb_free", "49");
-    valueMap.put("dev1_reject_bad_md5", "1");
-    valueMap.put("dev1_weight", "10");
-    valueMap.put("dev1_devid", "1");
-    valueMap.put("dev1_status", "failed");
-    valueMap.put("dev1_hostid", "1");
-
-    valueMap.put("dev2_utilization", "0.1");
-    valueMap.put("dev2_observed_state", "error");
-    valueMap.put("dev2_mb_total", "200");
-    valueMap.put("dev2_mb_used", "51");
-    valueMap.put("dev2_mb_free", "149");
-    valueMap.put("dev2_reject_bad_md5", "1");
-    valueMap.put("dev2_weight", "5");
-    valueMap.put("dev2_devid", "2");
-    valueMap.put("dev2_status", "ok");
-    valueMap.put("dev2_hostid", "2");
-
-    when(mockResponse.getValueMap()).thenReturn(valueMap);
+    response = new Response(ResponseStatus.OK, "devices=2"
+        + "&dev1_utilization=0.5&dev1_observed_state=ok&dev1_mb_total=100&dev1_mb_used=51&dev1_mb_free=49"
+        + "&dev1_reject_bad_md5=1&dev1_weight=10&dev1_devid=1&dev1_status=failed&dev1_hostid=1"
+        + "&dev2_utilization=0.1&dev2_observed_state=error&dev2_mb_total=200&dev2_mb_used=51&dev2_mb_free=149"
+        + "&dev2_reject_bad_md5=1&dev2_weight=5&dev2_devid=2&dev2_status=ok&dev2_hostid=2");
 
     when(mockEmptyResponse.getStatus()).thenReturn(ResponseStatus.OK);
 
@@ -90,7 +65,7 @@ public class GetDeviceStatusesOperationTest {
 
   @Test
   public void requestNormal() throws TrackerException {
-    when(mockRequestHandler.performRequest(captorRequest.capture())).thenReturn(mockResponse);
+    when(mockRequestHandler.performRequest(captorRequest.capture())).thenReturn(response);
 
     operation = new GetDeviceStatusesOperation(mockRequestHandler, DOMAIN);
     operation.execute();
@@ -103,7 +78,7 @@ public class GetDeviceStatusesOperationTest {
 
   @Test
   public void responseNormal() throws TrackerException {
-    when(mockRequestHandler.performRequest(captorRequest.capture())).thenReturn(mockResponse);
+    when(mockRequestHandler.performRequest(captorRequest.capture())).thenReturn(response);
 
     operation = new GetDeviceStatusesOperation(mockRequestHandler, DOMAIN);
     operation.execute();
@@ -140,12 +115,9 @@ public class GetDeviceStatusesOperationTest {
 
   @Test
   public void emptyResponse() throws TrackerException {
-    when(mockResponse.getValue("devices")).thenReturn("0");
-
-    Map<String, String> valueMap = Collections.emptyMap();
-    when(mockResponse.getValueMap()).thenReturn(valueMap);
+    response = new Response(ResponseStatus.OK, "devices=0");
 
-    when(mockRequestHandler.performRequest(captorRequest.capture())).thenReturn(mockResponse);
+    when(mockRequestHandler.performRequest(captorRequest.capture())).thenReturn(response);
 
     operation = new GetDeviceStatusesOperation(mockRequestHandler, DOMAIN);
     operation.execute();
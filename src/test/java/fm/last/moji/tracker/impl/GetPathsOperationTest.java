@@ -38,7 +38,7 @@ public class GetPathsOperationTest {
 
   private static final String DOMAIN = "domain";
   private static final String KEY = "key";
-  private static final String PATH_COUNT = "2";
+  private static final int PATH_COUNT = 2;
   private static final String PATH_1 = "http://www.last.fm/1/";
   private static final String PATH_2 = "http://www.last.fm/2/";
 
@@ -60,12 +60,12 @@ public class GetPathsOperationTest {
   public void setUp() throws TrackerException {
     captorRequest = ArgumentCaptor.forClass(Request.class);
     when(mockResponse.getStatus()).thenReturn(ResponseStatus.OK);
-    when(mockResponse.getValue("paths")).thenReturn(PATH_COUNT);
-    when(mockResponse.getValue("path1")).thenReturn(PATH_1);
-    when(mockResponse.getValue("path2")).thenReturn(PATH_2);
+    when(mockResponse.getInt("paths")).thenReturn(PATH_COUNT);
+    when(mockResponse.getIndexed("path", 1)).thenReturn(PATH_1);
+    when(mockResponse.getIndexed("path", 2)).thenReturn(PATH_2);
 
     when(mockEmptyResponse.getStatus()).thenReturn(ResponseStatus.OK);
-    when(mockEmptyResponse.getValue("paths")).thenReturn("0");
+    when(mockEmptyResponse.getInt("paths")).thenReturn(0);
 
     when(mockUnknownKeyResponse.getStatus()).thenReturn(ResponseStatus.ERROR);
     when(mockUnknownKeyResponse.getMessage()).thenReturn("unknown_key unknown key");
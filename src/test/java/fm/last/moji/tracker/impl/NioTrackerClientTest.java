@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.impl;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+
+import fm.last.moji.FakeMogileFsServer;
+import fm.last.moji.impl.NetworkingConfiguration;
+import fm.last.moji.tracker.UnknownKeyException;
+
+public class NioTrackerClientTest {
+
+  private static final NetworkingConfiguration NET_CONFIG = new NetworkingConfiguration.Builder()
+      .trackerReadTimeout(2000).build();
+
+  private FakeMogileFsServer server;
+  private NioTrackerClient client;
+
+  @After
+  public void teardown() throws Exception {
+    if (client != null) {
+      client.close();
+    }
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @Test
+  public void pipelinedResponsesMatchedInOrder() throws Exception {
+    server = new FakeMogileFsServer.Builder()
+        .whenRequestContains("get_paths ", "key=key1")
+        .thenRespond("OK paths=1&path1=http://h1:7500/dev1/0/000/000/1.fid\r\n")
+        .whenRequestContains("file_info ", "key=key2")
+        .thenRespond("OK length=42&class=default\r\n")
+        .whenRequestContains("delete ", "key=key3")
+        .thenRespond("ERR unknown_key unknown_key\r\n")
+        .build();
+    client = newClient(server.getInetSocketAddress());
+
+    CompletableFuture<List<URL>> paths = client.getPaths("key1", "domain");
+    CompletableFuture<Map<String, String>> info = client.fileInfo("key2", "domain");
+    CompletableFuture<Void> delete = client.delete("key3", "domain");
+
+    assertThat(paths.get(5, TimeUnit.SECONDS).size(), is(1));
+    assertThat(paths.get().get(0), is(new URL("http://h1:7500/dev1/0/000/000/1.fid")));
+    assertThat(info.get(5, TimeUnit.SECONDS).get("length"), is("42"));
+    try {
+      delete.get(5, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(UnknownKeyException.class));
+    }
+  }
+
+  @Test
+  public void connectionClosedFailsInFlightRequests() throws Exception {
+    server = new FakeMogileFsServer.Builder()
+        .whenRequestContains("something_else")
+        .thenRespond("OK\r\n")
+        .build();
+    client = newClient(server.getInetSocketAddress());
+
+    try {
+      client.fileInfo("key", "domain").get(5, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(CommunicationException.class));
+    }
+  }
+
+  @Test
+  public void readTimeoutFailsInFlightRequests() throws Exception {
+    ServerSocket silent = new ServerSocket(0);
+    try {
+      NetworkingConfiguration netConfig = new NetworkingConfiguration.Builder().trackerReadTimeout(200).build();
+      client = new NioTrackerClient(Collections.singleton(new InetSocketAddress("localhost", silent.getLocalPort())),
+          netConfig, 1, 1);
+      try {
+        client.fileInfo("key", "domain").get(5, TimeUnit.SECONDS);
+        fail();
+      } catch (ExecutionException e) {
+        assertThat(e.getCause(), instanceOf(CommunicationException.class));
+      }
+    } finally {
+      silent.close();
+    }
+  }
+
+  @Test
+  public void closedClientFailsRequests() throws Exception {
+    client = new NioTrackerClient(Collections.singleton(new InetSocketAddress("localhost", 1)), NET_CONFIG);
+    client.close();
+    try {
+      client.delete("key", "domain").get(5, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(CommunicationException.class));
+    }
+  }
+
+  @Test
+  public void unresolvedHostFailsRequests() throws Exception {
+    client = newClient(InetSocketAddress.createUnresolved("unresolved.invalid", 7001));
+
+    for (int i = 0; i < 2; i++) {
+      try {
+        client.noop().get(5, TimeUnit.SECONDS);
+        fail();
+      } catch (ExecutionException e) {
+        assertThat(e.getCause(), instanceOf(CommunicationException.class));
+      }
+    }
+  }
+
+  @Test
+  public void shutDownEventLoopRejectsRequests() throws Exception {
+    NioEventLoop eventLoop = new NioEventLoop("test-loop");
+    NioConnection connection = new NioConnection(new InetSocketAddress("localhost", 1), eventLoop, 1000, 1000,
+        new AtomicLong());
+    eventLoop.shutdown();
+
+    CompletableFuture<Void> future = connection.submit(TrackerImpl.newNoopRequest(), response -> null);
+
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(CommunicationException.class));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void proxyNotSupported() throws Exception {
+    NetworkingConfiguration netConfig = new NetworkingConfiguration.Builder()
+        .proxy(new Proxy(Proxy.Type.SOCKS, new InetSocketAddress("localhost", 1080))).build();
+    new NioTrackerClient(Collections.singleton(new InetSocketAddress("localhost", 1)), netConfig);
+  }
+
+  private static NioTrackerClient newClient(InetSocketAddress address) throws Exception {
+    return new NioTrackerClient(Collections.singleton(address), NET_CONFIG, 1, 1);
+  }
+
+}
@@ -16,55 +16,65 @@
 package fm.last.moji.tracker.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
-import static org.mockito.Matchers.anyChar;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
-import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.intThat;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.io.Writer;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-import org.hamcrest.BaseMatcher;
-import org.hamcrest.Description;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
+import org.mockito.internal.matchers.LessOrEqual;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import fm.last.moji.tracker.Deadline;
 import fm.last.moji.tracker.TrackerException;
 
 @RunWith(MockitoJUnitRunner.class)
 public class RequestHandlerTest {
 
   @Mock
-  private Writer mockWriter;
+  private OutputStream mockOutput;
   @Mock
-  private BufferedReader mockReader;
+  private InputStream mockInput;
+  @Mock
+  private Socket mockSocket;
   private RequestHandler handler;
 
   @Test
-  public void write() throws TrackerException {
-    BufferedReader reader = new BufferedReader(new StringReader("OK r1=x&r2=y"));
-    StringWriter writer = new StringWriter();
-    handler = new RequestHandler(writer, reader);
+  public void write() throws IOException {
+    InputStream input = new ByteArrayInputStream("OK r1=x&r2=y".getBytes("UTF-8"));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    handler = new RequestHandler(output, input);
 
     Request request = new Request.Builder(2).command("mock").arg("arg1", "one").arg("arg2", 2).build();
     handler.performRequest(request);
 
-    assertEquals("mock arg1=one&arg2=2\r\n", writer.toString());
+    assertEquals("mock arg1=one&arg2=2\r\n", output.toString("UTF-8"));
   }
 
   @Test
-  public void okRead() throws TrackerException {
-    BufferedReader reader = new BufferedReader(new StringReader("OK r1=x&r2=y"));
-    StringWriter writer = new StringWriter();
-    handler = new RequestHandler(writer, reader);
+  public void okRead() throws IOException {
+    InputStream input = new ByteArrayInputStream("OK r1=x&r2=y".getBytes("UTF-8"));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    handler = new RequestHandler(output, input);
 
     Request request = new Request.Builder(2).command("mock").arg("arg1", "one").arg("arg2", 2).build();
     Response response = handler.performRequest(request);
@@ -76,10 +86,10 @@ public class RequestHandlerTest {
   }
 
   @Test
-  public void errorRead() throws TrackerException {
-    BufferedReader reader = new BufferedReader(new StringReader("ERR problem"));
-    StringWriter writer = new StringWriter();
-    handler = new RequestHandler(writer, reader);
+  public void errorRead() throws IOException {
+    InputStream input = new ByteArrayInputStream("ERR problem".getBytes("UTF-8"));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    handler = new RequestHandler(output, input);
 
     Request request = new Request.Builder(2).command("mock").arg("arg1", "one").arg("arg2", 2).build();
     Response response = handler.performRequest(request);
@@ -89,20 +99,20 @@ public class RequestHandlerTest {
   }
 
   @Test(expected = TrackerException.class)
-  public void badResponse() throws TrackerException {
-    BufferedReader reader = new BufferedReader(new StringReader("ERR"));
-    StringWriter writer = new StringWriter();
-    handler = new RequestHandler(writer, reader);
+  public void badResponse() throws IOException {
+    InputStream input = new ByteArrayInputStream("ERR".getBytes("UTF-8"));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    handler = new RequestHandler(output, input);
 
     Request request = new Request.Builder(2).command("mock").arg("arg1", "one").arg("arg2", 2).build();
     handler.performRequest(request);
   }
 
   @Test(expected = TrackerException.class)
-  public void badResponse2() throws TrackerException {
-    BufferedReader reader = new BufferedReader(new StringReader("XXX problem"));
-    StringWriter writer = new StringWriter();
-    handler = new RequestHandler(writer, reader);
+  public void badResponse2() throws IOException {
+    InputStream input = new ByteArrayInputStream("XXX problem".getBytes("UTF-8"));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    handler = new RequestHandler(output, input);
 
     Request request = new Request.Builder(2).command("mock").arg("arg1", "one").arg("arg2", 2).build();
     handler.performRequest(request);
@@ -110,9 +120,9 @@ public class RequestHandlerTest {
 
   @Test(expected = TrackerException.class)
   public void ioExceptionRead() throws IOException {
-    when(mockReader.readLine()).thenThrow(new IOException());
-    StringWriter writer = new StringWriter();
-    handler = new RequestHandler(writer, mockReader);
+    when(mockInput.read(any(byte[].class), anyInt(), anyInt())).thenThrow(new IOException());
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    handler = new RequestHandler(output, mockInput);
 
     Request request = new Request.Builder(2).command("mock").arg("arg1", "one").arg("arg2", 2).build();
     handler.performRequest(request);
@@ -120,36 +130,143 @@ public class RequestHandlerTest {
 
   @Test(expected = TrackerException.class)
   public void ioExceptionWrite() throws IOException {
-    doThrow(new IOException()).when(mockWriter).write(anyInt());
-    doThrow(new IOException()).when(mockWriter).write(anyChar());
-    doThrow(new IOException()).when(mockWriter).write(argThat(new TrueMatcher<char[]>()));
-    doThrow(new IOException()).when(mockWriter).write(argThat(new TrueMatcher<String>()));
-    doThrow(new IOException()).when(mockWriter).write(argThat(new TrueMatcher<char[]>()), anyInt(), anyInt());
-    doThrow(new IOException()).when(mockWriter).write(argThat(new TrueMatcher<String>()), anyInt(), anyInt());
-    BufferedReader reader = new BufferedReader(new StringReader("ERR problem"));
-    handler = new RequestHandler(mockWriter, reader);
+    doThrow(new IOException()).when(mockOutput).write(anyInt());
+    doThrow(new IOException()).when(mockOutput).write(any(byte[].class));
+    doThrow(new IOException()).when(mockOutput).write(any(byte[].class), anyInt(), anyInt());
+    InputStream input = new ByteArrayInputStream("ERR problem".getBytes("UTF-8"));
+    handler = new RequestHandler(mockOutput, input);
 
     Request request = new Request.Builder(2).command("mock").arg("arg1", "one").arg("arg2", 2).build();
     handler.performRequest(request);
   }
 
+  @Test
+  public void pipelinedRequests() throws IOException {
+    String wire = "OK n=1\r\nERR unknown_key unknown_key\r\nOK n=3\r\n";
+    InputStream input = new ByteArrayInputStream(wire.getBytes("UTF-8"));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    handler = new RequestHandler(output, input);
+    handler.setMaxPipelineDepth(2);
+
+    List<Request> requests = Arrays.asList(new Request.Builder(1).command("mock").arg("n", 1).build(),
+        new Request.Builder(1).command("mock").arg("n", 2).build(), new Request.Builder(1).command("mock")
+            .arg("n", 3).build());
+    List<Response> responses = handler.performRequests(requests);
+
+    assertEquals("mock n=1\r\nmock n=2\r\nmock n=3\r\n", output.toString("UTF-8"));
+    assertEquals(3, responses.size());
+    assertEquals("1", responses.get(0).getValue("n"));
+    assertEquals(ResponseStatus.ERROR, responses.get(1).getStatus());
+    assertEquals("3", responses.get(2).getValue("n"));
+  }
+
+  @Test(expected = CommunicationException.class)
+  public void pipelinedRequestsTruncatedResponse() throws IOException {
+    InputStream input = new ByteArrayInputStream("OK n=1\r\n".getBytes("UTF-8"));
+    handler = new RequestHandler(new ByteArrayOutputStream(), input);
+
+    List<Request> requests = Arrays.asList(new Request.Builder(1).command("mock").arg("n", 1).build(),
+        new Request.Builder(1).command("mock").arg("n", 2).build());
+    handler.performRequests(requests);
+  }
+
   @Test
   public void close() throws IOException {
-    handler = new RequestHandler(mockWriter, mockReader);
+    handler = new RequestHandler(mockOutput, mockInput);
     handler.close();
-    verify(mockReader).close();
-    verify(mockWriter).close();
+    verify(mockInput).close();
+    verify(mockOutput).close();
   }
 
-  private class TrueMatcher<T> extends BaseMatcher<T> {
+  @Test
+  public void noUnreadInputAfterExchange() throws IOException {
+    InputStream input = new ByteArrayInputStream("OK r1=x\r\n".getBytes("UTF-8"));
+    handler = new RequestHandler(new ByteArrayOutputStream(), input);
+    handler.performRequest(new Request.Builder(1).command("mock").arg("arg1", "one").build());
 
-    @Override
-    public boolean matches(Object arg0) {
-      return true;
+    assertFalse(handler.hasUnreadInput());
+  }
+
+  @Test
+  public void unsolicitedInputBuffered() throws IOException {
+    InputStream input = new ByteArrayInputStream("OK r1=x\r\nOK r1=y\r\n".getBytes("UTF-8"));
+    handler = new RequestHandler(new ByteArrayOutputStream(), input);
+    handler.performRequest(new Request.Builder(1).command("mock").arg("arg1", "one").build());
+
+    assertTrue(handler.hasUnreadInput());
+  }
+
+  @Test
+  public void unsolicitedInputAvailable() throws IOException {
+    when(mockInput.available()).thenReturn(1);
+    handler = new RequestHandler(mockOutput, mockInput);
+
+    assertTrue(handler.hasUnreadInput());
+  }
+
+  @Test
+  public void unreadableInputUnusable() throws IOException {
+    when(mockInput.available()).thenThrow(new IOException());
+    handler = new RequestHandler(mockOutput, mockInput);
+
+    assertTrue(handler.hasUnreadInput());
+  }
+
+  @Test
+  public void readTimeoutClampedToDeadlineAndRestored() throws IOException {
+    InputStream input = new ByteArrayInputStream("OK r1=x".getBytes("UTF-8"));
+    handler = new RequestHandler(mockSocket, 60000, new ByteArrayOutputStream(), input);
+
+    Deadline previous = Deadline.enter(Deadline.after(1, TimeUnit.SECONDS));
+    try {
+      handler.performRequest(new Request.Builder(1).command("mock").arg("arg1", "one").build());
+    } finally {
+      Deadline.restore(previous);
+    }
+    verify(mockSocket).setSoTimeout(intThat(new LessOrEqual<Integer>(1000)));
+    verify(mockSocket).setSoTimeout(60000);
+  }
+
+  @Test(expected = DeadlineExceededException.class)
+  public void expiredDeadlineFailsFast() throws IOException {
+    handler = new RequestHandler(mockSocket, 60000, mockOutput, mockInput);
+
+    Deadline previous = Deadline.enter(Deadline.after(0, TimeUnit.SECONDS));
+    try {
+      handler.performRequest(new Request.Builder(1).command("mock").arg("arg1", "one").build());
+    } finally {
+      Deadline.restore(previous);
     }
+  }
+
+  @Test(expected = DeadlineExceededException.class)
+  public void timeoutWithinDeadlineIsNotHostFailure() throws IOException {
+    handler = new RequestHandler(mockSocket, 60000, new ByteArrayOutputStream(), new TimingOutInputStream());
+
+    Deadline previous = Deadline.enter(Deadline.after(1, TimeUnit.SECONDS));
+    try {
+      handler.performRequest(new Request.Builder(1).command("mock").arg("arg1", "one").build());
+    } finally {
+      Deadline.restore(previous);
+    }
+  }
+
+  @Test
+  public void configuredTimeoutIsHostFailure() throws IOException {
+    handler = new RequestHandler(mockSocket, 60000, new ByteArrayOutputStream(), new TimingOutInputStream());
+
+    try {
+      handler.performRequest(new Request.Builder(1).command("mock").arg("arg1", "one").build());
+      fail();
+    } catch (CommunicationException e) {
+      assertFalse(e instanceof DeadlineExceededException);
+    }
+  }
 
+  private static class TimingOutInputStream extends InputStream {
     @Override
-    public void describeTo(Description arg0) {
+    public int read() throws IOException {
+      throw new SocketTimeoutException();
     }
   }
 
@@ -17,7 +17,7 @@ package fm.last.moji.tracker.impl;
 
 import static org.junit.Assert.assertTrue;
 
-import java.io.StringWriter;
+import java.io.ByteArrayOutputStream;
 import java.net.URL;
 
 import org.junit.Test;
@@ -28,9 +28,9 @@ public class RequestTest {
   public void example() throws Exception {
     Request request = new Request.Builder(5).command("mycommand").arg("bool", true).arg("integer", 2).arg("long", 12L)
         .arg("string", "/=&URL").arg("url", new URL("http://localhost:80/x.do?what=12&do")).build();
-    StringWriter writer = new StringWriter();
-    request.writeTo(writer);
-    String wire = writer.toString();
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new TrackerCodec().encode(request, output);
+    String wire = output.toString("US-ASCII");
     assertTrue(wire.startsWith("mycommand "));
     assertTrue(wire.contains("bool=1"));
     assertTrue(wire.contains("long=12"));
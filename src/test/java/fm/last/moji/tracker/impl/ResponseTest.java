@@ -67,6 +67,74 @@ public class ResponseTest {
     assertThat(response.getMessage(), is(nullValue()));
   }
 
+  @Test
+  public void typedAccessors() {
+    Response response = new Response(ResponseStatus.OK, "fid=12345678901&dev_count=2&path_1=a%2Fb&path_2=c+d&neg=-7");
+    assertThat(response.getLong("fid"), is(12345678901L));
+    assertThat(response.getInt("dev_count"), is(2));
+    assertThat(response.getInt("neg"), is(-7));
+    assertThat(response.getIndexed("path_", 1), is("a/b"));
+    assertThat(response.getIndexed("path_", 2), is("c d"));
+    assertThat(response.getIndexed("path_", 3), is(nullValue()));
+    assertThat(response.getIndexed("path", 1), is(nullValue()));
+  }
+
+  @Test
+  public void indexedWithSuffix() {
+    Response response = new Response(ResponseStatus.OK, "fid_count=1&fid_1_key=k&fid_1_domain=d&fid_12_key=x");
+    assertThat(response.getIndexed("fid_", 1, "_key"), is("k"));
+    assertThat(response.getIndexed("fid_", 1, "_domain"), is("d"));
+    assertThat(response.getIndexed("fid_", 12, "_key"), is("x"));
+    assertThat(response.getIndexed("fid_", 2, "_key"), is(nullValue()));
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void getIntMissing() {
+    new Response(ResponseStatus.OK, "a=1").getInt("b");
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void getIntNotNumeric() {
+    new Response(ResponseStatus.OK, "a=x1").getInt("a");
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void getIntOutOfRange() {
+    new Response(ResponseStatus.OK, "a=3000000000").getInt("a");
+  }
+
+  @Test
+  public void manyIndexedKeys() {
+    StringBuilder payload = new StringBuilder("key_count=1000");
+    for (int i = 1000; i >= 1; i--) {
+      payload.append("&key_").append(i).append("=value").append(i);
+    }
+    Response response = new Response(ResponseStatus.OK, payload.toString());
+    assertThat(response.getInt("key_count"), is(1000));
+    for (int i = 1; i <= 1000; i++) {
+      assertThat(response.getIndexed("key_", i), is("value" + i));
+    }
+    assertThat(response.getValueCount(), is(1001));
+  }
+
+  @Test
+  public void pairsByPosition() {
+    Response response = new Response(ResponseStatus.OK, "a=1&bad&b=x+y&a=2");
+    assertThat(response.getValueCount(), is(2));
+    assertThat(response.getKey(0), is("a"));
+    assertThat(response.getValue(0), is("2"));
+    assertThat(response.getKey(1), is("b"));
+    assertThat(response.getValue(1), is("x y"));
+  }
+
+  @Test
+  public void emptyPayload() {
+    Response response = new Response(ResponseStatus.OK, "");
+    assertThat(response.getValueCount(), is(0));
+    assertThat(response.getValue("a"), is(nullValue()));
+    assertThat(response.getValueMap().isEmpty(), is(true));
+  }
+
   @Test
   public void error() {
     Response response = new Response(ResponseStatus.ERROR, "message");
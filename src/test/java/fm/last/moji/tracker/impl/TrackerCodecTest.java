@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import fm.last.moji.tracker.TrackerException;
+
+public class TrackerCodecTest {
+
+  private TrackerCodec codec;
+
+  @Before
+  public void setUp() {
+    codec = new TrackerCodec();
+  }
+
+  @Test
+  public void encodeMatchesUrlEncoder() throws IOException {
+    String value = "a b/c=d&eé€𝄞*-._~";
+    Request request = new Request.Builder(1).command("cmd").arg("key", value).build();
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    codec.encode(request, output);
+    assertThat(output.toString("US-ASCII"), is("cmd key=" + URLEncoder.encode(value, "UTF-8") + "\r\n"));
+  }
+
+  @Test
+  public void encodeGrowsBuffer() throws IOException {
+    StringBuilder value = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      value.append('/');
+    }
+    Request request = new Request.Builder(1).command("cmd").arg("key", value.toString()).build();
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    codec.encode(request, output);
+    String wire = output.toString("US-ASCII");
+    assertThat(wire.length(), is("cmd key=".length() + 15000 + 2));
+    assertThat(URLDecoder.decode(wire.substring(8, wire.length() - 2), "UTF-8"), is(value.toString()));
+  }
+
+  @Test
+  public void decodeSuccessiveLines() throws IOException {
+    InputStream input = stream("OK a=1&b=x+y\r\nERR unknown_key unknown_key\r\nOK c=%E2%82%AC\r\n");
+    Response first = codec.decode(input);
+    assertThat(first.getStatus(), is(ResponseStatus.OK));
+    assertThat(first.getValue("a"), is("1"));
+    assertThat(first.getValue("b"), is("x y"));
+
+    Response second = codec.decode(input);
+    assertThat(second.getStatus(), is(ResponseStatus.ERROR));
+    assertThat(second.getMessage(), is("unknown_key unknown_key"));
+
+    Response third = codec.decode(input);
+    assertThat(third.getValue("c"), is("€"));
+  }
+
+  @Test
+  public void decodeLongLine() throws IOException {
+    StringBuilder line = new StringBuilder("OK key_count=3000");
+    for (int i = 1; i <= 3000; i++) {
+      line.append("&key_").append(i).append("=value").append(i);
+    }
+    line.append("\r\n");
+    Response response = codec.decode(stream(line.toString()));
+    assertThat(response.getValue("key_count"), is("3000"));
+    assertThat(response.getValue("key_3000"), is("value3000"));
+  }
+
+  @Test
+  public void decodeUnterminatedLine() throws IOException {
+    Response response = codec.decode(stream("OK a=1"));
+    assertThat(response.getValue("a"), is("1"));
+  }
+
+  @Test
+  public void decodeEmptyPayload() throws IOException {
+    Response response = codec.decode(stream("OK \r\n"));
+    assertThat(response.getStatus(), is(ResponseStatus.OK));
+    assertThat(response.getValueMap().isEmpty(), is(true));
+  }
+
+  @Test
+  public void decodeMalformedEscape() throws IOException {
+    Response response = codec.decode(stream("OK a=100%&b=%zz\r\n"));
+    assertThat(response.getValue("a"), is("100%"));
+    assertThat(response.getValue("b"), is("%zz"));
+    assertThat(response.getMessage(), is(nullValue()));
+  }
+
+  @Test(expected = TrackerException.class)
+  public void decodeEndOfStream() throws IOException {
+    codec.decode(stream(""));
+  }
+
+  @Test(expected = TrackerException.class)
+  public void decodeUnknownStatus() throws IOException {
+    codec.decode(stream("NOPE a=1\r\n"));
+  }
+
+  private static InputStream stream(String content) throws IOException {
+    return new ByteArrayInputStream(content.getBytes("UTF-8"));
+  }
+
+}
@@ -17,12 +17,17 @@ package fm.last.moji.tracker.impl;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.Socket;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -35,6 +40,7 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import fm.last.moji.tracker.Destination;
 import fm.last.moji.tracker.KeyExistsAlreadyException;
+import fm.last.moji.tracker.KeyResult;
 import fm.last.moji.tracker.TrackerException;
 import fm.last.moji.tracker.UnknownCommandException;
 import fm.last.moji.tracker.UnknownKeyException;
@@ -68,7 +74,7 @@ public class TrackerImplTest {
   @Test
   public void getPaths() throws Exception {
     // See: GetPathsOperationTest
-    when(mockResponse.getValue("paths")).thenReturn("0");
+    when(mockResponse.getInt("paths")).thenReturn(0);
     List<URL> paths = tracker.getPaths(KEY, DOMAIN);
     assertThat(paths.size(), is(0));
   }
@@ -103,8 +109,8 @@ public class TrackerImplTest {
   @Test
   public void createOpen() throws Exception {
     // See: CreateOpenOperationTest
-    when(mockResponse.getValue("dev_count")).thenReturn("0");
-    when(mockResponse.getValue("fid")).thenReturn("0");
+    when(mockResponse.getInt("dev_count")).thenReturn(0);
+    when(mockResponse.getLong("fid")).thenReturn(0L);
     List<Destination> destinations = tracker.createOpen(KEY, DOMAIN, STORAGE_CLASS);
     assertThat(destinations.size(), is(0));
   }
@@ -136,6 +142,33 @@ public class TrackerImplTest {
     }
   }
 
+  @Test
+  public void deleteAllPipelined() throws Exception {
+    Response unknownKeyResponse = Response.error("unknown_key unknown_key");
+    when(mockRequestHandler.performRequests(anyListOf(Request.class))).thenReturn(
+        Arrays.asList(mockResponse, unknownKeyResponse));
+
+    List<KeyResult<Void>> results = tracker.deleteAll(Arrays.asList(KEY, NEW_KEY), DOMAIN);
+
+    assertThat(results.size(), is(2));
+    assertThat(results.get(0).getKey(), is(KEY));
+    assertThat(results.get(0).isSuccess(), is(true));
+    assertThat(results.get(1).getKey(), is(NEW_KEY));
+    assertThat(results.get(1).getException() instanceof UnknownKeyException, is(true));
+  }
+
+  @Test
+  public void fileInfoAllPipelined() throws Exception {
+    Response infoResponse = new Response(ResponseStatus.OK, "length=3&key=" + KEY);
+    when(mockRequestHandler.performRequests(anyListOf(Request.class))).thenReturn(
+        Arrays.asList(infoResponse, Response.error("unknown_key unknown_key")));
+
+    List<KeyResult<Map<String, String>>> results = tracker.fileInfoAll(Arrays.asList(KEY, NEW_KEY), DOMAIN);
+
+    assertThat(results.get(0).getValue().get("length"), is("3"));
+    assertThat(results.get(1).isSuccess(), is(false));
+  }
+
   @Test
   public void updateStorageClassRequest() throws Exception {
     tracker.updateStorageClass(KEY, DOMAIN, STORAGE_CLASS);
@@ -164,6 +197,37 @@ public class TrackerImplTest {
     }
   }
 
+  @Test
+  public void listAfterRequest() throws Exception {
+    when(mockResponse.getInt("key_count")).thenReturn(0);
+    tracker.list(DOMAIN, KEY, "key99", 100);
+    Request request = requestCaptor.getValue();
+    assertThat(request.getCommand(), is("list_keys"));
+    assertThat(request.getArguments().size(), is(4));
+    assertThat(request.getArguments().get("prefix"), is(KEY));
+    assertThat(request.getArguments().get("after"), is("key99"));
+    assertThat(request.getArguments().get("limit"), is("100"));
+  }
+
+  @Test
+  public void listFids() throws Exception {
+    Response fidsResponse = new Response(ResponseStatus.OK,
+        "fid_count=2&fid_1_fid=7&fid_1_domain=d&fid_1_key=k7&fid_1_class=c&fid_1_devcount=2&fid_1_length=10"
+            + "&fid_2_fid=9&fid_2_domain=e&fid_2_key=k9&fid_2_class=c&fid_2_devcount=1&fid_2_length=3");
+    when(mockRequestHandler.performRequest(requestCaptor.capture())).thenReturn(fidsResponse);
+
+    List<Map<String, String>> files = tracker.listFids(5L, 10L);
+
+    Request request = requestCaptor.getValue();
+    assertThat(request.getCommand(), is("list_fids"));
+    assertThat(request.getArguments().get("from"), is("5"));
+    assertThat(request.getArguments().get("to"), is("10"));
+    assertThat(files.size(), is(2));
+    assertThat(files.get(0).get("key"), is("k7"));
+    assertThat(files.get(0).get("length"), is("10"));
+    assertThat(files.get(1).get("domain"), is("e"));
+  }
+
   @Test
   public void renameRequest() throws Exception {
     tracker.rename(KEY, DOMAIN, NEW_KEY);
@@ -256,4 +320,26 @@ public class TrackerImplTest {
     assertThat(deviceStatuses.isEmpty(), is(true));
   }
 
+  @Test
+  public void connectedWithoutReading() throws Exception {
+    when(mockSocket.isConnected()).thenReturn(true);
+    assertThat(tracker.isConnected(), is(true));
+    verify(mockSocket, never()).getInputStream();
+    verify(mockSocket, never()).setSoTimeout(anyInt());
+  }
+
+  @Test
+  public void unreadInputNotConnected() throws Exception {
+    when(mockSocket.isConnected()).thenReturn(true);
+    when(mockRequestHandler.hasUnreadInput()).thenReturn(true);
+    assertThat(tracker.isConnected(), is(false));
+  }
+
+  @Test
+  public void closedSocketNotConnected() throws Exception {
+    when(mockSocket.isConnected()).thenReturn(true);
+    when(mockSocket.isInputShutdown()).thenReturn(true);
+    assertThat(tracker.isConnected(), is(false));
+  }
+
 }
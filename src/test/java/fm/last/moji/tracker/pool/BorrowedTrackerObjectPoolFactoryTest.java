@@ -18,6 +18,7 @@ package fm.last.moji.tracker.pool;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -33,6 +34,7 @@ import fm.last.moji.tracker.Tracker;
 import fm.last.moji.tracker.TrackerException;
 import fm.last.moji.tracker.impl.AbstractTrackerFactory;
 import fm.last.moji.tracker.impl.CommunicationException;
+import fm.last.moji.tracker.impl.DeadlineExceededException;
 
 @RunWith(MockitoJUnitRunner.class)
 public class BorrowedTrackerObjectPoolFactoryTest {
@@ -62,12 +64,12 @@ public class BorrowedTrackerObjectPoolFactoryTest {
   public void validateObjectSuccess() throws TrackerException {
     boolean isValid = factory.validateObject(mockManagedHost, mockBorrowedTracker);
     assertThat(isValid, is(true));
-    verify(mockBorrowedTracker).noop();
+    verify(mockBorrowedTracker).validate();
   }
 
   @Test
   public void validateObjectFailures() throws TrackerException {
-    doThrow(new TrackerException()).when(mockBorrowedTracker).noop();
+    doThrow(new TrackerException()).when(mockBorrowedTracker).validate();
     boolean isValid = factory.validateObject(mockManagedHost, mockBorrowedTracker);
     assertThat(isValid, is(false));
   }
@@ -86,6 +88,23 @@ public class BorrowedTrackerObjectPoolFactoryTest {
     verify(mockBorrowedTracker).reallyClose();
   }
 
+  @Test
+  public void destroyObjectDeadlineExceeded() throws Exception {
+    when(mockBorrowedTracker.getLastException()).thenReturn(new DeadlineExceededException("expired"));
+    factory.destroyObject(mockManagedHost, mockBorrowedTracker);
+    verify(mockManagedHost, never()).markAsFailed();
+    verify(mockBorrowedTracker).reallyClose();
+  }
+
+  @Test
+  public void destroyObjectAborted() throws Exception {
+    when(mockBorrowedTracker.getLastException()).thenReturn(new CommunicationException());
+    when(mockBorrowedTracker.isAborted()).thenReturn(true);
+    factory.destroyObject(mockManagedHost, mockBorrowedTracker);
+    verify(mockManagedHost, never()).markAsFailed();
+    verify(mockBorrowedTracker).reallyClose();
+  }
+
   @Test
   public void makeObject() throws Exception {
     when(mockTrackerFactory.newTracker(socketAddress)).thenReturn(mockTracker);
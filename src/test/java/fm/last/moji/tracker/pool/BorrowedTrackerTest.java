@@ -15,10 +15,18 @@
  */
 package fm.last.moji.tracker.pool;
 
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -26,8 +34,10 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import fm.last.moji.tracker.Destination;
+import fm.last.moji.tracker.KeyResult;
 import fm.last.moji.tracker.Tracker;
 import fm.last.moji.tracker.TrackerException;
+import fm.last.moji.tracker.UnknownKeyException;
 import fm.last.moji.tracker.impl.CommunicationException;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -85,6 +95,25 @@ public class BorrowedTrackerTest {
     verify(mockTracker).getPaths(KEY1, DOMAIN);
   }
 
+  @Test
+  public void deleteAllFallsBackToSingleCalls() throws TrackerException {
+    doThrow(new UnknownKeyException(DOMAIN, KEY2)).when(mockTracker).delete(KEY2, DOMAIN);
+    List<KeyResult<Void>> results = borrowedTracker.deleteAll(Arrays.asList(KEY1, KEY2), DOMAIN);
+    verify(mockTracker).delete(KEY1, DOMAIN);
+    verify(mockTracker).delete(KEY2, DOMAIN);
+    assertThat(results.get(0).isSuccess(), is(true));
+    assertThat(results.get(1).isSuccess(), is(false));
+  }
+
+  @Test
+  public void batchesDoNotRecordLatency() throws TrackerException {
+    borrowedTracker.getPathsAll(Arrays.asList(KEY1, KEY2), DOMAIN);
+    borrowedTracker.fileInfoAll(Arrays.asList(KEY1, KEY2), DOMAIN);
+    borrowedTracker.deleteAll(Arrays.asList(KEY1, KEY2), DOMAIN);
+    verify(mockHost, times(3)).markSuccess();
+    verify(mockHost, never()).recordLatency(anyLong());
+  }
+
   @Test
   public void getFileInfoDelegates() throws TrackerException {
     borrowedTracker.fileInfo(KEY1, DOMAIN);
@@ -128,4 +157,21 @@ public class BorrowedTrackerTest {
     verify(mockTracker).noop();
   }
 
+  @Test
+  public void validateRecordsNothingOnHost() throws TrackerException {
+    borrowedTracker.validate();
+    verify(mockTracker).noop();
+    verifyZeroInteractions(mockHost);
+  }
+
+  @Test
+  public void abortedTrackerInvalidatedOnClose() throws Exception {
+    borrowedTracker.abort();
+    verify(mockTracker).close();
+
+    borrowedTracker.close();
+    verify(mockPool).invalidateTracker(borrowedTracker);
+    verifyZeroInteractions(mockHost);
+  }
+
 }
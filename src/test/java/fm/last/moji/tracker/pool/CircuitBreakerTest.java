@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.pool;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import fm.last.commons.lang.time.Clock;
+import fm.last.moji.tracker.pool.CircuitBreaker.State;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CircuitBreakerTest {
+
+  @Mock
+  private Clock mockClock;
+
+  private CircuitBreaker breaker;
+
+  @Before
+  public void setup() {
+    when(mockClock.currentTimeMillis()).thenReturn(100000L);
+    breaker = new CircuitBreaker(mockClock);
+  }
+
+  @Test
+  public void opensOnFailureCountAndRate() {
+    assertThat(breaker.onFailure(), is(false));
+    assertThat(breaker.onFailure(), is(false));
+    assertThat(breaker.getState(), is(State.CLOSED));
+    assertThat(breaker.onFailure(), is(true));
+    assertThat(breaker.getState(), is(State.OPEN));
+    assertThat(breaker.allowRequest(), is(false));
+    assertThat(breaker.onFailure(), is(false));
+  }
+
+  @Test
+  public void staysClosedWhenFailureRateLow() {
+    for (int i = 0; i < 10; i++) {
+      breaker.onSuccess();
+    }
+    for (int i = 0; i < 9; i++) {
+      assertThat(breaker.onFailure(), is(false));
+    }
+    assertThat(breaker.getState(), is(State.CLOSED));
+    assertThat(breaker.onFailure(), is(true));
+  }
+
+  @Test
+  public void windowExpiryForgetsFailures() {
+    breaker.onFailure();
+    breaker.onFailure();
+    when(mockClock.currentTimeMillis()).thenReturn(100000L + CircuitBreaker.DEFAULT_WINDOW_MILLIS);
+    assertThat(breaker.onFailure(), is(false));
+    assertThat(breaker.getState(), is(State.CLOSED));
+  }
+
+  @Test
+  public void halfOpenLimitsProbesAndCloses() {
+    breaker.setFailureThreshold(1, 0);
+    breaker.setHalfOpenProbes(2);
+    breaker.onFailure();
+    breaker.halfOpen();
+
+    assertThat(breaker.getState(), is(State.HALF_OPEN));
+    assertThat(breaker.allowRequest(), is(true));
+    assertThat(breaker.allowRequest(), is(true));
+    assertThat(breaker.allowRequest(), is(false));
+    assertThat(breaker.onSuccess(), is(false));
+    assertThat(breaker.onSuccess(), is(true));
+    assertThat(breaker.getState(), is(State.CLOSED));
+  }
+
+  @Test
+  public void wouldRejectRequestTakesNoProbe() {
+    breaker.setFailureThreshold(1, 0);
+    breaker.setHalfOpenProbes(1);
+    assertThat(breaker.wouldRejectRequest(), is(false));
+    breaker.onFailure();
+    assertThat(breaker.wouldRejectRequest(), is(true));
+    breaker.halfOpen();
+
+    assertThat(breaker.wouldRejectRequest(), is(false));
+    assertThat(breaker.wouldRejectRequest(), is(false));
+    assertThat(breaker.allowRequest(), is(true));
+    assertThat(breaker.wouldRejectRequest(), is(true));
+  }
+
+  @Test
+  public void halfOpenRestartsProbeRound() {
+    breaker.setFailureThreshold(1, 0);
+    breaker.setHalfOpenProbes(1);
+    breaker.onFailure();
+    breaker.halfOpen();
+    assertThat(breaker.allowRequest(), is(true));
+    assertThat(breaker.allowRequest(), is(false));
+
+    breaker.halfOpen();
+
+    assertThat(breaker.allowRequest(), is(true));
+  }
+
+  @Test
+  public void successWhileOpenIgnored() {
+    breaker.setFailureThreshold(1, 0);
+    breaker.onFailure();
+    assertThat(breaker.onSuccess(), is(false));
+    assertThat(breaker.getState(), is(State.OPEN));
+  }
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.pool;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class HedgeDelayTest {
+
+  @Test
+  public void minimumUntilEnoughSamples() {
+    HedgeDelay delay = new HedgeDelay(90, 5L);
+    for (int i = 1; i < HedgeDelay.RECALCULATE_EVERY; i++) {
+      delay.record(1000L);
+    }
+    assertThat(delay.getDelayNanos(), is(5L));
+  }
+
+  @Test
+  public void percentileOfSamples() {
+    HedgeDelay delay = new HedgeDelay(90, 5L);
+    for (int i = 1; i <= HedgeDelay.RECALCULATE_EVERY; i++) {
+      delay.record(i * 10L);
+    }
+    // the 90th percentile of 10..1280 in steps of 10
+    assertThat(delay.getDelayNanos(), is(1160L));
+  }
+
+  @Test
+  public void neverBelowMinimum() {
+    HedgeDelay delay = new HedgeDelay(50, 5000L);
+    for (int i = 0; i < HedgeDelay.RECALCULATE_EVERY; i++) {
+      delay.record(10L);
+    }
+    assertThat(delay.getDelayNanos(), is(5000L));
+  }
+
+  @Test
+  public void oldSamplesOverwritten() {
+    HedgeDelay delay = new HedgeDelay(99, 0L);
+    for (int i = 0; i < HedgeDelay.SAMPLES; i++) {
+      delay.record(1000000L);
+    }
+    for (int i = 0; i < HedgeDelay.SAMPLES; i++) {
+      delay.record(10L);
+    }
+    assertThat(delay.getDelayNanos(), is(10L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidPercentile() {
+    new HedgeDelay(100, 0L);
+  }
+
+}
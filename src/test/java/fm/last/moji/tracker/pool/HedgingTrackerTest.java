@@ -0,0 +1,295 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.pool;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import fm.last.moji.tracker.UnknownKeyException;
+import fm.last.moji.tracker.impl.CommunicationException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HedgingTrackerTest {
+
+  @Mock
+  private MultiHostTrackerPool mockPool;
+  @Mock
+  private ManagedTrackerHost mockHost1;
+  @Mock
+  private ManagedTrackerHost mockHost2;
+  @Mock
+  private BorrowedTracker mockTracker1;
+  @Mock
+  private BorrowedTracker mockTracker2;
+
+  private ExecutorService executor;
+  private CountDownLatch primaryReleased;
+  private List<URL> paths1;
+  private List<URL> paths2;
+  private HedgingTracker tracker;
+
+  @Before
+  public void setup() throws Exception {
+    executor = Executors.newCachedThreadPool();
+    primaryReleased = new CountDownLatch(1);
+    paths1 = Collections.singletonList(new URL("http://localhost:7500/1.fid"));
+    paths2 = Collections.singletonList(new URL("http://localhost:7500/2.fid"));
+    when(mockPool.nextHostExcluding(mockHost1)).thenReturn(mockHost2);
+    when(mockPool.connectIfIdle(mockHost2)).thenReturn(mockTracker2);
+    // as closing the socket would, aborting unblocks the primary request
+    doAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) {
+        primaryReleased.countDown();
+        return null;
+      }
+    }).when(mockTracker1).abort();
+    HedgeDelay delay = new HedgeDelay(95, TimeUnit.MILLISECONDS.toNanos(20));
+    tracker = new HedgingTracker(mockPool, mockHost1, mockTracker1, delay, executor);
+  }
+
+  @After
+  public void teardown() {
+    primaryReleased.countDown();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void fastReplyNotHedged() throws Exception {
+    when(mockTracker1.getPaths("key", "domain")).thenReturn(paths1);
+
+    assertThat(tracker.getPaths("key", "domain"), is(paths1));
+
+    verify(mockPool, never()).nextHostExcluding(any(ManagedTrackerHost.class));
+    tracker.close();
+    verify(mockTracker1).close();
+  }
+
+  @Test
+  public void primaryRunsOnCallingThread() throws Exception {
+    final Thread caller = Thread.currentThread();
+    when(mockTracker1.getPaths("key", "domain")).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) {
+        assertThat(Thread.currentThread(), is(caller));
+        return paths1;
+      }
+    });
+
+    assertThat(tracker.getPaths("key", "domain"), is(paths1));
+  }
+
+  @Test
+  public void slowReplyHedgedAndPrimaryAborted() throws Exception {
+    when(mockTracker1.getPaths("key", "domain")).thenAnswer(blockingAnswer(paths1));
+    when(mockTracker2.getPaths("key", "domain")).thenReturn(paths2);
+
+    assertThat(tracker.getPaths("key", "domain"), is(paths2));
+    assertThat(tracker.getHost(), is(mockHost2));
+    verify(mockTracker1).abort();
+    verify(mockTracker1).close();
+
+    tracker.delete("key", "domain");
+    verify(mockTracker2).delete("key", "domain");
+    tracker.close();
+    verify(mockTracker2).close();
+  }
+
+  @Test
+  public void hedgeWinsAfterPrimaryFails() throws Exception {
+    when(mockTracker1.fileInfo("key", "domain")).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        Thread.sleep(100);
+        throw new CommunicationException();
+      }
+    });
+    when(mockTracker2.fileInfo("key", "domain")).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        Thread.sleep(200);
+        return Collections.singletonMap("fid", "1");
+      }
+    });
+
+    assertThat(tracker.fileInfo("key", "domain").get("fid"), is("1"));
+    assertThat(tracker.getHost(), is(mockHost2));
+  }
+
+  @Test
+  public void primaryFailingAfterHedgeWinsIsIgnored() throws Exception {
+    HedgingTracker.Race<List<URL>> race = new HedgingTracker.Race<List<URL>>();
+    race.enter();
+    race.enter();
+    race.answered(null, paths2, null);
+    race.failed(new CommunicationException());
+
+    assertThat(race.await(0L), is(true));
+    assertThat(race.getResult(), is(paths2));
+  }
+
+  @Test
+  public void secondaryWinsThenPrimaryFails() throws Exception {
+    when(mockTracker1.getPaths("key", "domain")).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        primaryReleased.await();
+        throw new CommunicationException();
+      }
+    });
+    when(mockTracker2.getPaths("key", "domain")).thenReturn(paths2);
+
+    assertThat(tracker.getPaths("key", "domain"), is(paths2));
+    verify(mockTracker1).close();
+    assertThat(tracker.getHost(), is(mockHost2));
+  }
+
+  @Test
+  public void failureKeptOnlyOnceEveryEntrantFailed() throws Exception {
+    HedgingTracker.Race<List<URL>> race = new HedgingTracker.Race<List<URL>>();
+    race.enter();
+    race.enter();
+    CommunicationException first = new CommunicationException();
+    race.failed(first);
+    assertThat(race.await(1L), is(false));
+    race.failed(new CommunicationException());
+
+    assertThat(race.await(0L), is(true));
+    try {
+      race.getResult();
+      fail();
+    } catch (CommunicationException e) {
+      assertThat(e, is(sameInstance(first)));
+    }
+  }
+
+  @Test(expected = CommunicationException.class)
+  public void allFail() throws Exception {
+    when(mockTracker1.getPaths("key", "domain")).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        Thread.sleep(50);
+        throw new CommunicationException();
+      }
+    });
+    when(mockTracker2.getPaths("key", "domain")).thenThrow(new CommunicationException());
+    tracker.getPaths("key", "domain");
+  }
+
+  @Test(expected = UnknownKeyException.class)
+  public void trackerErrorIsAnAnswer() throws Exception {
+    when(mockTracker1.getPaths("key", "domain")).thenThrow(new UnknownKeyException("domain", "key"));
+    tracker.getPaths("key", "domain");
+  }
+
+  @Test
+  public void noHedgeWithoutAnotherHost() throws Exception {
+    when(mockPool.nextHostExcluding(mockHost1)).thenReturn(null);
+    when(mockTracker1.getPaths("key", "domain")).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        Thread.sleep(50);
+        return paths1;
+      }
+    });
+
+    assertThat(tracker.getPaths("key", "domain"), is(paths1));
+    verify(mockPool, never()).connectIfIdle(any(ManagedTrackerHost.class));
+  }
+
+  @Test
+  public void noHedgeWithoutIdleConnection() throws Exception {
+    when(mockPool.connectIfIdle(mockHost2)).thenReturn(null);
+    when(mockTracker1.getPaths("key", "domain")).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        Thread.sleep(50);
+        return paths1;
+      }
+    });
+
+    assertThat(tracker.getPaths("key", "domain"), is(paths1));
+    verify(mockPool).connectIfIdle(mockHost2);
+    verify(mockPool, never()).connect(any(ManagedTrackerHost.class));
+    verify(mockHost2, never()).markAsFailed();
+  }
+
+  @Test
+  public void noHedgeWithoutFreeThread() throws Exception {
+    Executor rejecting = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        throw new RejectedExecutionException();
+      }
+    };
+    HedgeDelay delay = new HedgeDelay(95, TimeUnit.MILLISECONDS.toNanos(20));
+    tracker = new HedgingTracker(mockPool, mockHost1, mockTracker1, delay, rejecting);
+    when(mockTracker1.getPaths("key", "domain")).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        Thread.sleep(50);
+        return paths1;
+      }
+    });
+
+    assertThat(tracker.getPaths("key", "domain"), is(paths1));
+    verify(mockPool, never()).nextHostExcluding(any(ManagedTrackerHost.class));
+  }
+
+  @Test
+  public void writesNotHedged() throws Exception {
+    tracker.createOpen("key", "domain", "class");
+    verify(mockTracker1).createOpen("key", "domain", "class");
+    verify(mockPool, never()).nextHostExcluding(any(ManagedTrackerHost.class));
+  }
+
+  private Answer<Object> blockingAnswer(final Object result) {
+    return new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        primaryReleased.await();
+        return result;
+      }
+    };
+  }
+
+}
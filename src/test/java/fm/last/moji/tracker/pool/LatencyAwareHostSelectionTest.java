@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.pool;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import fm.last.commons.lang.time.Clock;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LatencyAwareHostSelectionTest {
+
+  @Mock
+  private ManagedTrackerHost mockHost1;
+  @Mock
+  private ManagedTrackerHost mockHost2;
+
+  private LatencyAwareHostSelection selection;
+
+  @Before
+  public void setup() {
+    selection = new LatencyAwareHostSelection();
+  }
+
+  @Test
+  public void singleHost() {
+    assertThat(selection.select(Collections.singletonList(mockHost1)), is(mockHost1));
+  }
+
+  @Test
+  public void prefersLowerLatency() {
+    when(mockHost1.getDecayedLatencyAverage()).thenReturn(5000d);
+    when(mockHost2.getDecayedLatencyAverage()).thenReturn(1000d);
+    List<ManagedTrackerHost> hosts = Arrays.asList(mockHost1, mockHost2);
+    for (int i = 0; i < 20; i++) {
+      assertThat(selection.select(hosts), is(mockHost2));
+    }
+  }
+
+  @Test
+  public void idleSlowHostChosenAgain() {
+    Clock clock = mock(Clock.class);
+    ManagedTrackerHost fast = new ManagedTrackerHost(null, null, clock);
+    ManagedTrackerHost slow = new ManagedTrackerHost(null, null, clock);
+    when(clock.currentTimeMillis()).thenReturn(0L);
+    fast.recordLatency(1000L);
+    slow.recordLatency(4000L);
+    assertThat(LatencyAwareHostSelection.better(fast, slow), is(fast));
+
+    // the fast host keeps being used while the slow one idles
+    when(clock.currentTimeMillis()).thenReturn(3 * ManagedTrackerHost.LATENCY_HALF_LIFE_MILLIS);
+    fast.recordLatency(1000L);
+    assertThat(LatencyAwareHostSelection.better(fast, slow), is(slow));
+  }
+
+  @Test
+  public void prefersHostThatHasNotFailed() {
+    when(mockHost1.getDecayedLatencyAverage()).thenReturn(1000d);
+    when(mockHost2.getDecayedLatencyAverage()).thenReturn(5000d);
+    when(mockHost1.getLastFailed()).thenReturn(10L);
+    assertThat(LatencyAwareHostSelection.better(mockHost1, mockHost2), is(mockHost2));
+    assertThat(LatencyAwareHostSelection.better(mockHost2, mockHost1), is(mockHost2));
+  }
+
+  @Test
+  public void prefersHostThatFailedEarliest() {
+    when(mockHost1.getLastFailed()).thenReturn(10L);
+    when(mockHost2.getLastFailed()).thenReturn(20L);
+    assertThat(LatencyAwareHostSelection.better(mockHost1, mockHost2), is(mockHost1));
+    assertThat(LatencyAwareHostSelection.better(mockHost2, mockHost1), is(mockHost1));
+  }
+
+}
@@ -20,15 +20,16 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
-import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import java.net.InetSocketAddress;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -45,7 +46,11 @@ public class ManagedTrackerHostTest {
   @Mock
   private InetSocketAddress mockAddress;
   @Mock
-  private Timer mockTimer;
+  private ScheduledExecutorService mockScheduler;
+  @Mock
+  private ScheduledFuture<Object> mockFuture1;
+  @Mock
+  private ScheduledFuture<Object> mockFuture2;
   @Mock
   private ManagedTrackerHost.ResetTask mockTask;
   @Mock
@@ -58,36 +63,77 @@ public class ManagedTrackerHostTest {
 
   @Before
   public void setup() {
-    managedTrackerHost = new ManagedTrackerHost(mockAddress, mockTimer, mockClock);
+    managedTrackerHost = new ManagedTrackerHost(mockAddress, mockScheduler, mockClock);
     managedTrackerHost.setHostRetryInterval(10, MILLISECONDS);
     managedTrackerHost.resetTaskFactory = mockTaskFactory;
 
     actualTask = managedTrackerHost.new ResetTask();
 
-    doNothing().when(mockTimer).schedule(any(TimerTask.class), eq(1L));
+    doReturn(mockFuture1).doReturn(mockFuture2).when(mockScheduler).schedule(any(Runnable.class), eq(10L),
+        eq(MILLISECONDS));
     when(mockClock.currentTimeMillis()).thenReturn(1L, 2L, 3L);
     when(mockTaskFactory.newInstance()).thenReturn(mockTask, actualTask);
   }
 
   @Test
-  public void hostMarkedAsFailedAndThenRetried() throws Exception {
+  public void singleFailureDoesNotOpenCircuit() {
+    managedTrackerHost.markAsFailed();
+
+    assertThat(managedTrackerHost.getLastFailed(), is(0L));
+    assertThat(managedTrackerHost.getCircuitState(), is("CLOSED"));
+    assertThat(managedTrackerHost.rejectRequest(), is(false));
+    verifyZeroInteractions(mockScheduler);
+  }
+
+  @Test
+  public void circuitOpensAndThenProbed() throws Exception {
+    when(mockTaskFactory.newInstance()).thenReturn(actualTask, mockTask);
+    managedTrackerHost.setFailureThreshold(1, 100);
     assertThat(managedTrackerHost.getLastFailed(), is(0L));
 
     managedTrackerHost.markAsFailed();
-    verify(mockTimer).schedule(mockTask, 10L);
-    assertThat(managedTrackerHost.getLastFailed(), is(1L));
+    verify(mockScheduler).schedule(actualTask, 10L, MILLISECONDS);
+    assertThat(managedTrackerHost.getLastFailed(), is(2L));
+    assertThat(managedTrackerHost.getCircuitState(), is("OPEN"));
+    assertThat(managedTrackerHost.rejectRequest(), is(true));
 
     managedTrackerHost.markAsFailed();
-    verify(mockTask).cancel();
-    verify(mockTimer).schedule(actualTask, 10L);
     assertThat(managedTrackerHost.getLastFailed(), is(2L));
 
     actualTask.run();
     assertThat(managedTrackerHost.getLastFailed(), is(0L));
+    assertThat(managedTrackerHost.getCircuitState(), is("HALF_OPEN"));
+    verify(mockScheduler).schedule(mockTask, 10L, MILLISECONDS);
+
+    for (int i = 0; i < CircuitBreaker.DEFAULT_HALF_OPEN_PROBES; i++) {
+      assertThat(managedTrackerHost.rejectRequest(), is(false));
+    }
+    assertThat(managedTrackerHost.rejectRequest(), is(true));
+
+    for (int i = 0; i < CircuitBreaker.DEFAULT_HALF_OPEN_PROBES; i++) {
+      managedTrackerHost.markSuccess();
+    }
+    assertThat(managedTrackerHost.getCircuitState(), is("CLOSED"));
+    assertThat(managedTrackerHost.rejectRequest(), is(false));
+
+    verify(mockFuture1).cancel(false);
+    verify(mockScheduler, times(2)).schedule(any(ResetTask.class), eq(10L), eq(MILLISECONDS));
+    verifyNoMoreInteractions(mockScheduler);
+  }
+
+  @Test
+  public void failedProbeReopensCircuit() throws Exception {
+    when(mockTaskFactory.newInstance()).thenReturn(actualTask, mockTask);
+    managedTrackerHost.setFailureThreshold(1, 100);
+    managedTrackerHost.markAsFailed();
+    actualTask.run();
 
-    verify(mockTimer, times(2)).schedule(any(ResetTask.class), eq(10L));
-    verify(mockTaskFactory, times(2)).newInstance();
-    verifyNoMoreInteractions(mockTaskFactory, mockTimer);
+    managedTrackerHost.markAsFailed();
+
+    assertThat(managedTrackerHost.getCircuitState(), is("OPEN"));
+    assertThat(managedTrackerHost.getLastFailed(), is(3L));
+    verify(mockFuture2).cancel(false);
+    verify(mockScheduler, times(2)).schedule(mockTask, 10L, MILLISECONDS);
   }
 
   @Test
@@ -98,11 +144,23 @@ public class ManagedTrackerHostTest {
   }
 
   @Test
-  public void markSuccess() {
-    managedTrackerHost.markAsFailed();
-    assertThat(managedTrackerHost.getLastFailed(), is(1L));
-    managedTrackerHost.markSuccess();
-    assertThat(managedTrackerHost.getLastFailed(), is(0L));
+  public void latencyAverage() {
+    assertThat(managedTrackerHost.getLatencyAverage(), is(0d));
+    managedTrackerHost.recordLatency(1000L);
+    assertThat(managedTrackerHost.getLatencyAverage(), is(1000d));
+    managedTrackerHost.recordLatency(2000L);
+    assertThat(managedTrackerHost.getLatencyAverage(), is(1200d));
+    assertThat(managedTrackerHost.getAverageLatencyMillis(), is(0.0012d));
+  }
+
+  @Test
+  public void latencyAverageDecaysWhileIdle() {
+    when(mockClock.currentTimeMillis()).thenReturn(0L);
+    managedTrackerHost.recordLatency(1000L);
+    assertThat(managedTrackerHost.getDecayedLatencyAverage(), is(1000d));
+    when(mockClock.currentTimeMillis()).thenReturn(ManagedTrackerHost.LATENCY_HALF_LIFE_MILLIS);
+    assertThat(managedTrackerHost.getDecayedLatencyAverage(), is(500d));
+    assertThat(managedTrackerHost.getLatencyAverage(), is(1000d));
   }
 
 }
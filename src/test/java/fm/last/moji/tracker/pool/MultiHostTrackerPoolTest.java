@@ -15,20 +15,23 @@
  */
 package fm.last.moji.tracker.pool;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import java.net.InetSocketAddress;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import org.apache.commons.pool.impl.GenericKeyedObjectPool;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -39,6 +42,8 @@ import org.mockito.runners.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
 
 import fm.last.moji.impl.NetworkingConfiguration;
+import fm.last.moji.tracker.AsyncTracker;
+import fm.last.moji.tracker.Tracker;
 import fm.last.moji.tracker.impl.CommunicationException;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -47,7 +52,7 @@ public class MultiHostTrackerPoolTest {
   @Mock
   private NetworkingConfiguration mockNetConfig;
   @Mock
-  private GenericKeyedObjectPool<ManagedTrackerHost, BorrowedTracker> mockPool;
+  private TrackerConnectionPool mockPool;
   @Mock
   private ManagedTrackerHost mockManagedHost1;
   @Mock
@@ -56,6 +61,8 @@ public class MultiHostTrackerPoolTest {
   private BorrowedTracker mockBorrowedTracker1;
   @Mock
   private BorrowedTracker mockBorrowedTracker2;
+  @Mock
+  private AsyncTracker mockConnections;
 
   private MultiHostTrackerPool trackerPool;
   private List<ManagedTrackerHost> managedHosts;
@@ -147,6 +154,133 @@ public class MultiHostTrackerPoolTest {
 
   }
 
+  @Test
+  public void sharedConnectionModeDoesNotBorrow() throws Exception {
+    when(mockManagedHost1.getSharedConnections(mockNetConfig, 2)).thenReturn(mockConnections);
+    when(mockManagedHost2.getLastFailed()).thenReturn(10L);
+    trackerPool.setSharedConnectionsPerHost(2);
+
+    Tracker tracker = trackerPool.getTracker();
+
+    assertThat(tracker instanceof SharedTracker, is(true));
+    assertThat(((SharedTracker) tracker).getHost(), is(mockManagedHost1));
+    verifyZeroInteractions(mockPool);
+  }
+
+  @Test
+  public void hostSelectionDelegatesToStrategy() throws Exception {
+    HostSelectionStrategy mockStrategy = Mockito.mock(HostSelectionStrategy.class);
+    when(mockStrategy.select(managedHosts)).thenReturn(mockManagedHost2);
+    when(mockPool.borrowObject(mockManagedHost2)).thenReturn(mockBorrowedTracker2);
+    trackerPool.setHostSelectionStrategy(mockStrategy);
+
+    Tracker tracker = trackerPool.getTracker();
+
+    assertThat((BorrowedTracker) tracker, is(mockBorrowedTracker2));
+  }
+
+  @Test
+  public void getTrackerExcludesHostsAlreadyTried() throws Exception {
+    when(mockManagedHost1.getLastFailed()).thenReturn(0L);
+    when(mockManagedHost2.getLastFailed()).thenReturn(0L);
+    when(mockManagedHost1.getLastUsed()).thenReturn(1L);
+    when(mockManagedHost2.getLastUsed()).thenReturn(2L);
+    when(mockPool.borrowObject(mockManagedHost1)).thenReturn(mockBorrowedTracker1);
+    when(mockPool.borrowObject(mockManagedHost2)).thenReturn(mockBorrowedTracker2);
+
+    assertThat((BorrowedTracker) trackerPool.getTracker(Collections.singleton(address1)), is(mockBorrowedTracker2));
+    assertThat((BorrowedTracker) trackerPool.getTracker(Collections.singleton(address2)), is(mockBorrowedTracker1));
+  }
+
+  @Test
+  public void getTrackerIgnoresExclusionsOnceAllTried() throws Exception {
+    HostSelectionStrategy mockStrategy = Mockito.mock(HostSelectionStrategy.class);
+    when(mockStrategy.select(managedHosts)).thenReturn(mockManagedHost2);
+    when(mockPool.borrowObject(mockManagedHost2)).thenReturn(mockBorrowedTracker2);
+    trackerPool.setHostSelectionStrategy(mockStrategy);
+
+    Tracker tracker = trackerPool.getTracker(new HashSet<InetSocketAddress>(Arrays.asList(address1, address2)));
+
+    assertThat((BorrowedTracker) tracker, is(mockBorrowedTracker2));
+  }
+
+  @Test
+  public void fallsBackWhenCircuitRejects() throws Exception {
+    when(mockManagedHost1.getLastFailed()).thenReturn(1L);
+    when(mockManagedHost2.rejectRequest()).thenReturn(true);
+    when(mockPool.borrowObject(mockManagedHost1)).thenReturn(mockBorrowedTracker1);
+
+    Tracker tracker = trackerPool.getTracker();
+
+    assertThat((BorrowedTracker) tracker, is(mockBorrowedTracker1));
+  }
+
+  @Test
+  public void allCircuitsOpenTriesLeastRecentlyFailed() throws Exception {
+    when(mockManagedHost1.getLastFailed()).thenReturn(20L);
+    when(mockManagedHost2.getLastFailed()).thenReturn(10L);
+    when(mockManagedHost1.rejectRequest()).thenReturn(true);
+    when(mockManagedHost2.rejectRequest()).thenReturn(true);
+    when(mockManagedHost1.wouldRejectRequest()).thenReturn(true);
+    when(mockManagedHost2.wouldRejectRequest()).thenReturn(true);
+    when(mockPool.borrowObject(mockManagedHost2)).thenReturn(mockBorrowedTracker2);
+
+    Tracker tracker = trackerPool.getTracker();
+
+    assertThat((BorrowedTracker) tracker, is(mockBorrowedTracker2));
+  }
+
+  @Test
+  public void singleOpenCircuitStillTried() throws Exception {
+    when(mockManagedHost1.getLastFailed()).thenReturn(20L);
+    when(mockManagedHost1.rejectRequest()).thenReturn(true);
+    when(mockPool.borrowObject(mockManagedHost1)).thenReturn(mockBorrowedTracker1);
+    trackerPool = new MultiHostTrackerPool(Arrays.asList(mockManagedHost1), mockNetConfig, mockPool);
+
+    Tracker tracker = trackerPool.getTracker();
+
+    assertThat((BorrowedTracker) tracker, is(mockBorrowedTracker1));
+  }
+
+  @Test
+  public void fallbackDoesNotTakeProbesOfRefusingHosts() throws Exception {
+    when(mockManagedHost1.getLastFailed()).thenReturn(1L);
+    when(mockManagedHost2.rejectRequest()).thenReturn(true);
+    when(mockManagedHost1.wouldRejectRequest()).thenReturn(true);
+    when(mockPool.borrowObject(mockManagedHost1)).thenReturn(mockBorrowedTracker1);
+
+    trackerPool.getTracker();
+
+    verify(mockManagedHost1, never()).rejectRequest();
+  }
+
+  @Test
+  public void hedgingWrapsTracker() throws Exception {
+    when(mockManagedHost2.getLastFailed()).thenReturn(10L);
+    when(mockPool.borrowObject(mockManagedHost1)).thenReturn(mockBorrowedTracker1);
+    trackerPool.setHedging(95, 10, MILLISECONDS);
+
+    Tracker tracker = trackerPool.getTracker();
+
+    assertThat(tracker instanceof HedgingTracker, is(true));
+    assertThat(((HedgingTracker) tracker).getHost(), is(mockManagedHost1));
+    assertThat(trackerPool.getHedgePercentile(), is(95d));
+  }
+
+  @Test
+  public void nextHostExcluding() {
+    assertThat(trackerPool.nextHostExcluding(mockManagedHost1), is(mockManagedHost2));
+    assertThat(new MultiHostTrackerPool(Arrays.asList(mockManagedHost1), mockNetConfig, mockPool)
+        .nextHostExcluding(mockManagedHost1), is((ManagedTrackerHost) null));
+  }
+
+  @Test
+  public void closeClosesSharedConnections() throws Exception {
+    trackerPool.close();
+    verify(mockManagedHost1).closeSharedConnections();
+    verify(mockManagedHost2).closeSharedConnections();
+  }
+
   @Test
   public void invalidateTracker() throws Exception {
     trackerPool.invalidateTracker(mockBorrowedTracker1);
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.pool;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import fm.last.moji.tracker.AsyncTracker;
+import fm.last.moji.tracker.KeyResult;
+import fm.last.moji.tracker.UnknownKeyException;
+import fm.last.moji.tracker.impl.CommunicationException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SharedTrackerTest {
+
+  private static final String DOMAIN = "domain";
+  private static final String KEY1 = "key1";
+  private static final String KEY2 = "key2";
+
+  @Mock
+  private AsyncTracker mockConnections;
+  @Mock
+  private ManagedTrackerHost mockHost;
+
+  private SharedTracker sharedTracker;
+
+  @Before
+  public void init() {
+    sharedTracker = new SharedTracker(mockHost, mockConnections);
+  }
+
+  @Test
+  public void fileInfoMarksSuccess() throws Exception {
+    Map<String, String> info = Collections.singletonMap("length", "1");
+    when(mockConnections.fileInfo(KEY1, DOMAIN)).thenReturn(CompletableFuture.completedFuture(info));
+
+    assertThat(sharedTracker.fileInfo(KEY1, DOMAIN), is(info));
+    verify(mockHost).markSuccess();
+  }
+
+  @Test
+  public void trackerErrorRethrown() throws Exception {
+    when(mockConnections.delete(KEY1, DOMAIN)).thenReturn(SharedTrackerTest.<Void> failed(new UnknownKeyException(
+        KEY1, DOMAIN)));
+    try {
+      sharedTracker.delete(KEY1, DOMAIN);
+      fail();
+    } catch (UnknownKeyException e) {
+    }
+    verify(mockHost, never()).markAsFailed();
+  }
+
+  @Test
+  public void communicationErrorMarksHostFailed() throws Exception {
+    when(mockConnections.noop()).thenReturn(SharedTrackerTest.<Void> failed(new CommunicationException("boom")));
+    try {
+      sharedTracker.noop();
+      fail();
+    } catch (CommunicationException e) {
+    }
+    verify(mockHost).markAsFailed();
+  }
+
+  @Test
+  public void abortedRequestFailsWithoutMarkingHost() throws Exception {
+    when(mockConnections.noop()).thenReturn(new CompletableFuture<Void>());
+    sharedTracker.abort();
+    try {
+      sharedTracker.noop();
+      fail();
+    } catch (CommunicationException e) {
+    }
+    verify(mockHost, never()).markAsFailed();
+  }
+
+  @Test
+  public void deleteAllSubmitsAllBeforeWaiting() throws Exception {
+    CompletableFuture<Void> unknown = failed(new UnknownKeyException(KEY2, DOMAIN));
+    when(mockConnections.delete(KEY1, DOMAIN)).thenReturn(CompletableFuture.<Void> completedFuture(null));
+    when(mockConnections.delete(KEY2, DOMAIN)).thenReturn(unknown);
+
+    List<KeyResult<Void>> results = sharedTracker.deleteAll(Arrays.asList(KEY1, KEY2), DOMAIN);
+
+    assertThat(results.size(), is(2));
+    assertThat(results.get(0).isSuccess(), is(true));
+    assertThat(results.get(1).isSuccess(), is(false));
+    assertThat(results.get(1).getException() instanceof UnknownKeyException, is(true));
+  }
+
+  @Test
+  public void closeDoesNotTouchConnections() {
+    sharedTracker.close();
+    verifyZeroInteractions(mockConnections);
+  }
+
+  private static <T> CompletableFuture<T> failed(Throwable cause) {
+    CompletableFuture<T> future = new CompletableFuture<T>();
+    future.completeExceptionally(cause);
+    return future;
+  }
+
+}
@@ -0,0 +1,357 @@
+/**
+ * Copyright (C) 2012-2017 Last.fm & The "mogilefs-moji" committers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.last.moji.tracker.pool;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import fm.last.moji.tracker.Deadline;
+import fm.last.moji.tracker.impl.DeadlineExceededException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TrackerConnectionPoolTest {
+
+  @Mock
+  private BorrowedTrackerObjectPoolFactory mockFactory;
+  @Mock
+  private ManagedTrackerHost mockHost;
+  @Mock
+  private BorrowedTracker mockTracker1;
+  @Mock
+  private BorrowedTracker mockTracker2;
+  @Mock
+  private ScheduledExecutorService mockScheduler;
+
+  private TrackerConnectionPool pool;
+
+  @Before
+  public void setup() throws Exception {
+    when(mockFactory.makeObject(mockHost)).thenReturn(mockTracker1, mockTracker2);
+    when(mockFactory.validateObject(any(ManagedTrackerHost.class), any(BorrowedTracker.class))).thenReturn(true);
+    when(mockTracker1.isConnected()).thenReturn(true);
+    when(mockTracker2.isConnected()).thenReturn(true);
+    pool = new TrackerConnectionPool(mockFactory, new DirectExecutor(), mockScheduler);
+  }
+
+  @Test
+  public void returnedConnectionReused() throws Exception {
+    BorrowedTracker first = pool.borrowObject(mockHost);
+    assertThat(pool.getNumActive(), is(1));
+    pool.returnObject(mockHost, first);
+    assertThat(pool.getNumActive(), is(0));
+    assertThat(pool.getNumIdle(), is(1));
+
+    assertThat(pool.borrowObject(mockHost), is(mockTracker1));
+    assertThat(pool.getNumIdle(), is(0));
+    verify(mockFactory).makeObject(mockHost);
+  }
+
+  @Test
+  public void borrowIdleNeverOpensConnection() throws Exception {
+    assertThat(pool.borrowIdleObject(mockHost), is(nullValue()));
+    verify(mockFactory, never()).makeObject(mockHost);
+    assertThat(pool.getNumActive(), is(0));
+
+    pool.returnObject(mockHost, pool.borrowObject(mockHost));
+    assertThat(pool.borrowIdleObject(mockHost), is(mockTracker1));
+    assertThat(pool.getNumActive(), is(1));
+  }
+
+  @Test
+  public void borrowIdleDoesNotWaitForPermit() throws Exception {
+    pool.setMaxWait(-1);
+    BorrowedTracker first = pool.borrowObject(mockHost);
+    pool.borrowObject(mockHost);
+    pool.returnObject(mockHost, first);
+    pool.setMaxActive(1);
+
+    assertThat(pool.borrowIdleObject(mockHost), is(nullValue()));
+    assertThat(pool.getNumIdle(), is(1));
+    verify(mockHost, never()).markAsFailed();
+  }
+
+  @Test
+  public void maxIdleDestroysExcess() throws Exception {
+    pool.setMaxIdle(1);
+    BorrowedTracker first = pool.borrowObject(mockHost);
+    BorrowedTracker second = pool.borrowObject(mockHost);
+    pool.returnObject(mockHost, first);
+    pool.returnObject(mockHost, second);
+
+    assertThat(pool.getNumIdle(), is(1));
+    verify(mockFactory).destroyObject(mockHost, mockTracker2);
+    verify(mockFactory, never()).destroyObject(mockHost, mockTracker1);
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void maxActiveTimesOut() throws Exception {
+    pool.setMaxActive(1);
+    pool.setMaxWait(10);
+    pool.borrowObject(mockHost);
+    pool.borrowObject(mockHost);
+  }
+
+  @Test(expected = DeadlineExceededException.class)
+  public void permitWaitEndsAtCallDeadline() throws Exception {
+    pool.setMaxActive(1);
+    pool.setMaxWait(-1);
+    pool.borrowObject(mockHost);
+    Deadline previous = Deadline.enter(Deadline.after(20, TimeUnit.MILLISECONDS));
+    try {
+      pool.borrowObject(mockHost);
+    } finally {
+      Deadline.restore(previous);
+    }
+  }
+
+  @Test
+  public void invalidateReleasesPermit() throws Exception {
+    pool.setMaxActive(1);
+    pool.setMaxWait(10);
+    pool.invalidateObject(mockHost, pool.borrowObject(mockHost));
+
+    assertThat(pool.borrowObject(mockHost), is(mockTracker2));
+    verify(mockFactory).destroyObject(mockHost, mockTracker1);
+  }
+
+  @Test
+  public void waiterReceivesReturnedConnection() throws Exception {
+    pool.setMaxActive(1);
+    final BorrowedTracker first = pool.borrowObject(mockHost);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            Thread.sleep(50);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          pool.returnObject(mockHost, first);
+        }
+      });
+      assertThat(pool.borrowObject(mockHost), is(mockTracker1));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testOnBorrowDiscardsInvalid() throws Exception {
+    pool.setTestOnBorrow(true);
+    when(mockFactory.validateObject(mockHost, mockTracker1)).thenReturn(true, false);
+    when(mockFactory.validateObject(mockHost, mockTracker2)).thenReturn(true);
+    pool.returnObject(mockHost, pool.borrowObject(mockHost));
+
+    assertThat(pool.borrowObject(mockHost), is(mockTracker2));
+    verify(mockFactory).destroyObject(mockHost, mockTracker1);
+  }
+
+  @Test
+  public void failedCreationReleasesPermit() throws Exception {
+    when(mockFactory.makeObject(mockHost)).thenThrow(new IllegalStateException()).thenReturn(mockTracker2);
+    pool.setMaxActive(1);
+    pool.setMaxWait(10);
+    try {
+      pool.borrowObject(mockHost);
+    } catch (IllegalStateException e) {
+    }
+    assertThat(pool.borrowObject(mockHost), is(mockTracker2));
+  }
+
+  @Test
+  public void closeDestroysIdleAndLaterReturns() throws Exception {
+    BorrowedTracker first = pool.borrowObject(mockHost);
+    BorrowedTracker second = pool.borrowObject(mockHost);
+    pool.returnObject(mockHost, first);
+
+    pool.close();
+    verify(mockFactory).destroyObject(mockHost, mockTracker1);
+
+    pool.returnObject(mockHost, second);
+    verify(mockFactory).destroyObject(mockHost, mockTracker2);
+    assertThat(pool.getNumIdle(), is(0));
+  }
+
+  @Test
+  public void prewarmOpensMinIdle() throws Exception {
+    pool = new TrackerConnectionPool(mockFactory, new DirectExecutor(), mockScheduler);
+    pool.setMinIdle(2);
+    pool.prewarm(Collections.singletonList(mockHost));
+
+    assertThat(pool.getNumIdle(), is(2));
+    assertThat(pool.getNumActive(), is(0));
+  }
+
+  @Test
+  public void floorToppedUpAfterInvalidate() throws Exception {
+    BorrowedTracker mockTracker3 = mock(BorrowedTracker.class);
+    when(mockTracker3.isConnected()).thenReturn(true);
+    when(mockFactory.makeObject(mockHost)).thenReturn(mockTracker1, mockTracker2, mockTracker3);
+    pool = new TrackerConnectionPool(mockFactory, new DirectExecutor(), mockScheduler);
+    pool.setMinIdle(1);
+    pool.prewarm(Collections.singletonList(mockHost));
+
+    BorrowedTracker borrowed = pool.borrowObject(mockHost);
+    assertThat(borrowed, is(mockTracker1));
+    assertThat(pool.getNumIdle(), is(1));
+
+    pool.invalidateObject(mockHost, borrowed);
+    assertThat(pool.getNumIdle(), is(1));
+    assertThat(pool.borrowObject(mockHost), is(mockTracker2));
+  }
+
+  @Test
+  public void noTopUpWhileHostFailed() throws Exception {
+    pool = new TrackerConnectionPool(mockFactory, new DirectExecutor(), mockScheduler);
+    pool.setMinIdle(1);
+    when(mockHost.getLastFailed()).thenReturn(1L);
+
+    pool.invalidateObject(mockHost, pool.borrowObject(mockHost));
+
+    assertThat(pool.getNumIdle(), is(0));
+    verify(mockFactory).makeObject(mockHost);
+  }
+
+  @Test
+  public void staleConnectionDiscardedOnBorrow() throws Exception {
+    pool.returnObject(mockHost, pool.borrowObject(mockHost));
+    when(mockTracker1.isConnected()).thenReturn(false);
+
+    assertThat(pool.borrowObject(mockHost), is(mockTracker2));
+    verify(mockFactory).destroyObject(mockHost, mockTracker1);
+    verify(mockFactory, never()).validateObject(mockHost, mockTracker1);
+  }
+
+  @Test
+  public void healthCheckEvictsDeadConnections() throws Exception {
+    BorrowedTracker first = pool.borrowObject(mockHost);
+    BorrowedTracker second = pool.borrowObject(mockHost);
+    pool.returnObject(mockHost, first);
+    pool.returnObject(mockHost, second);
+    when(mockFactory.validateObject(mockHost, mockTracker2)).thenReturn(false);
+
+    pool.checkIdleConnections();
+
+    assertThat(pool.getNumIdle(), is(1));
+    verify(mockFactory).destroyObject(mockHost, mockTracker2);
+    assertThat(pool.borrowObject(mockHost), is(mockTracker1));
+  }
+
+  @Test
+  public void healthCheckScheduledAndCancelled() {
+    ScheduledFuture<?> mockFuture = mock(ScheduledFuture.class);
+    doReturn(mockFuture).when(mockScheduler).scheduleWithFixedDelay(any(Runnable.class), eq(30L), eq(30L),
+        eq(TimeUnit.SECONDS));
+
+    pool.setHealthCheckInterval(30, TimeUnit.SECONDS);
+    assertThat(pool.getHealthCheckIntervalMillis(), is(30000L));
+    pool.close();
+
+    verify(mockFuture).cancel(false);
+  }
+
+  @Test
+  public void concurrentBorrowersNeverExceedMaxActive() throws Exception {
+    final int maxActive = 4;
+    final AtomicInteger inUse = new AtomicInteger();
+    final AtomicInteger maxInUse = new AtomicInteger();
+    when(mockFactory.makeObject(mockHost)).thenAnswer(new Answer<BorrowedTracker>() {
+      @Override
+      public BorrowedTracker answer(InvocationOnMock invocation) {
+        BorrowedTracker tracker = mock(BorrowedTracker.class);
+        when(tracker.isConnected()).thenReturn(true);
+        return tracker;
+      }
+    });
+    pool.setMaxActive(maxActive);
+    pool.setMaxIdle(maxActive);
+
+    int threads = 16;
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      Future<?>[] futures = new Future<?>[threads];
+      for (int i = 0; i < threads; i++) {
+        futures[i] = executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            start.await();
+            for (int j = 0; j < 1000; j++) {
+              BorrowedTracker tracker = pool.borrowObject(mockHost);
+              int current = inUse.incrementAndGet();
+              int max;
+              while ((max = maxInUse.get()) < current && !maxInUse.compareAndSet(max, current)) {
+              }
+              inUse.decrementAndGet();
+              pool.returnObject(mockHost, tracker);
+            }
+            return null;
+          }
+        });
+      }
+      start.countDown();
+      for (Future<?> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThat(maxInUse.get() <= maxActive, is(true));
+    assertThat(pool.getNumActive(), is(0));
+    assertThat(pool.getNumIdle() <= maxActive, is(true));
+    verify(mockFactory, never()).destroyObject(any(ManagedTrackerHost.class), any(BorrowedTracker.class));
+  }
+
+  private static class DirectExecutor implements Executor {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  }
+
+}